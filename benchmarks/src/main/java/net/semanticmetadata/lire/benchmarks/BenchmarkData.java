@@ -0,0 +1,89 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Test data shared by the benchmarks.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+class BenchmarkData {
+    /**
+     * Loads an image from the given path. If there is no such file, a synthetic image of 640 x 480 pixels
+     * is created from the seed, so the benchmarks run without the LIRE test resources as well.
+     */
+    static BufferedImage loadImage(String path, long seed) throws IOException {
+        File file = new File(path);
+        if (file.exists()) {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) return image;
+        }
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics g = image.getGraphics();
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillRect(random.nextInt(640), random.nextInt(480), 8 + random.nextInt(160), 8 + random.nextInt(120));
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Creates a random CEDD descriptor in its byte[] representation, i.e. 144 values in [0,7],
+     * two of them packed in one byte.
+     */
+    static byte[] randomCedd(Random random) {
+        byte[] result = new byte[72];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) (((random.nextInt(8) << 4) | random.nextInt(8)) - 128);
+        }
+        return result;
+    }
+}
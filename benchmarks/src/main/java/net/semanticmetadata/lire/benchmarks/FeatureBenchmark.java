@@ -0,0 +1,148 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.benchmarks;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.utils.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks extraction, serialization and distance computation of a global feature. The feature is
+ * given by its class name, {@link LireBenchmarks} runs all features of
+ * {@link net.semanticmetadata.lire.indexing.tools.ParallelExtractor#features}.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureBenchmark {
+    @Param({"net.semanticmetadata.lire.imageanalysis.CEDD"})
+    public String feature;
+
+    /**
+     * Images used for extraction, synthetic ones are created if they are not found.
+     */
+    @Param({"../src/test/resources/images/img01.JPG"})
+    public String image;
+
+    @Param({"../src/test/resources/images/img02.JPG"})
+    public String otherImage;
+
+    private Class<?> featureClass;
+    private BufferedImage bufferedImage;
+    private LireFeature extractor, query, candidate, decoded;
+    private byte[] candidateBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        featureClass = Class.forName(feature);
+        // images are scaled like in GenericDocumentBuilder.
+        bufferedImage = ImageUtils.scaleImage(BenchmarkData.loadImage(image, 1), 1024);
+        BufferedImage other = ImageUtils.scaleImage(BenchmarkData.loadImage(otherImage, 2), 1024);
+        extractor = newFeature();
+        query = newFeature();
+        query.extract(bufferedImage);
+        candidate = newFeature();
+        candidate.extract(other);
+        candidateBytes = candidate.getByteArrayRepresentation();
+        decoded = newFeature();
+    }
+
+    private LireFeature newFeature() throws Exception {
+        return (LireFeature) featureClass.newInstance();
+    }
+
+    @Benchmark
+    public LireFeature extract() {
+        extractor.extract(bufferedImage);
+        return extractor;
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return candidate.getByteArrayRepresentation();
+    }
+
+    @Benchmark
+    public LireFeature deserialize() {
+        decoded.setByteArrayRepresentation(candidateBytes, 0, candidateBytes.length);
+        return decoded;
+    }
+
+    @Benchmark
+    public LireFeature roundTrip() {
+        byte[] bytes = candidate.getByteArrayRepresentation();
+        decoded.setByteArrayRepresentation(bytes, 0, bytes.length);
+        return decoded;
+    }
+
+    @Benchmark
+    public float distance() {
+        return query.getDistance(candidate);
+    }
+
+    /**
+     * Decoding plus distance, i.e. the cost per document of a linear search without cache.
+     */
+    @Benchmark
+    public float decodeAndDistance() {
+        decoded.setByteArrayRepresentation(candidateBytes, 0, candidateBytes.length);
+        return query.getDistance(decoded);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.benchmarks;
+
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks BitSampling hashing of random CEDD descriptors with the default parameters of
+ * {@link net.semanticmetadata.lire.indexing.hashing.BitSampling}, one vector at a time and as a batch
+ * like for bulk indexing. The hash functions are either on the heap or memory mapped.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    @Param({"256"})
+    public int batchSize;
+
+    private BitSamplingModel model;
+    private double[][] histograms;
+    private File modelFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        model = BitSamplingModel.generate(12, 640, 100, 4d, random);
+        if (mapped) {
+            modelFile = File.createTempFile("lire-benchmark", ".model");
+            model.write(modelFile);
+            model = BitSamplingModel.open(modelFile);
+        }
+        histograms = new double[batchSize][];
+        CEDD cedd = new CEDD();
+        for (int i = 0; i < batchSize; i++) {
+            byte[] bytes = BenchmarkData.randomCedd(random);
+            cedd.setByteArrayRepresentation(bytes, 0, bytes.length);
+            histograms[i] = cedd.getDoubleHistogram();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (modelFile != null) modelFile.delete();
+    }
+
+    /**
+     * Hashes the vectors one by one, e.g. queries or documents in GenericDocumentBuilder.
+     */
+    @Benchmark
+    public void single(Blackhole blackhole) {
+        for (double[] histogram : histograms) {
+            blackhole.consume(model.generateHashes(histogram));
+        }
+    }
+
+    @Benchmark
+    public int[][] batch() {
+        return model.generateHashes(histograms);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.benchmarks;
+
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.searcher.ProductQuantizationImageSearcher;
+import net.semanticmetadata.lire.indexing.hashing.ProductQuantizationIndex;
+import net.semanticmetadata.lire.indexing.hashing.ProductQuantizer;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link ProductQuantizationImageSearcher} on an index of synthetic CEDD descriptors with 18 byte codes,
+ * the scan of the codes alone and the search including re-ranking, to be compared with {@link SearchBenchmark}.
+ * The memory held by the codes is printed once per trial.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ProductQuantizationBenchmark {
+    @Param({"100000", "1000000"})
+    public int numDocs;
+
+    @Param({"1000"})
+    public int numCandidates;
+
+    @Param({"100"})
+    public int maxHits;
+
+    private File indexDirectory;
+    private IndexReader reader;
+    private ProductQuantizationIndex index;
+    private ProductQuantizationImageSearcher searcher;
+    private Document[] queries;
+    private float[][] tables;
+    private int nextQuery = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        indexDirectory = File.createTempFile("lire-benchmark", "");
+        if (!indexDirectory.delete() || !indexDirectory.mkdirs())
+            throw new IOException("Could not create " + indexDirectory);
+        Random random = new Random(17);
+        CEDD cedd = new CEDD();
+        double[][] sample = new double[10000][];
+        for (int i = 0; i < sample.length; i++) {
+            byte[] bytes = BenchmarkData.randomCedd(random);
+            cedd.setByteArrayRepresentation(bytes, 0, bytes.length);
+            sample[i] = cedd.getDoubleHistogram();
+        }
+        ProductQuantizer quantizer = ProductQuantizer.train(sample, 18, 256, 10, random);
+        IndexWriterConfig config = new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IndexWriter writer = new IndexWriter(FSDirectory.open(indexDirectory), config);
+        for (int i = 0; i < numDocs; i++) {
+            byte[] bytes = BenchmarkData.randomCedd(random);
+            cedd.setByteArrayRepresentation(bytes, 0, bytes.length);
+            Document document = new Document();
+            document.add(new StoredField(DocumentBuilder.FIELD_NAME_CEDD, bytes));
+            document.add(new BinaryDocValuesField(DocumentBuilder.FIELD_NAME_CEDD, new BytesRef(bytes)));
+            document.add(new BinaryDocValuesField(DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.PQ_FIELD_SUFFIX,
+                    new BytesRef(quantizer.encode(cedd.getDoubleHistogram()))));
+            document.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, "synthetic-" + i, Field.Store.YES));
+            writer.addDocument(document);
+        }
+        writer.close();
+        reader = DirectoryReader.open(FSDirectory.open(indexDirectory));
+        index = ProductQuantizationIndex.create(reader, DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.PQ_FIELD_SUFFIX, quantizer);
+        System.out.printf("%d documents, %d bytes of codes in memory.%n", index.getNumIndexed(), index.ramBytesUsed());
+        searcher = new ProductQuantizationImageSearcher(maxHits, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), index, numCandidates);
+        queries = new Document[16];
+        tables = new float[queries.length][];
+        for (int i = 0; i < queries.length; i++) {
+            byte[] bytes = BenchmarkData.randomCedd(random);
+            queries[i] = new Document();
+            queries[i].add(new StoredField(DocumentBuilder.FIELD_NAME_CEDD, bytes));
+            cedd.setByteArrayRepresentation(bytes, 0, bytes.length);
+            tables[i] = quantizer.getDistanceTable(cedd.getDoubleHistogram());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        File[] files = indexDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        indexDirectory.delete();
+    }
+
+    /**
+     * Finds the candidates with the distance tables only.
+     */
+    @Benchmark
+    public int[] scan() {
+        float[] table = tables[nextQuery];
+        nextQuery = (nextQuery + 1) % tables.length;
+        return index.search(table, numCandidates);
+    }
+
+    @Benchmark
+    public ImageSearchHits search() throws IOException {
+        Document query = queries[nextQuery];
+        nextQuery = (nextQuery + 1) % queries.length;
+        return searcher.search(query, reader);
+    }
+}
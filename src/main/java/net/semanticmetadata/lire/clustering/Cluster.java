@@ -61,8 +61,7 @@ package net.semanticmetadata.lire.clustering;
 import net.semanticmetadata.lire.imageanalysis.Histogram;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -131,30 +130,26 @@ public class Cluster implements Comparable<Object> {
         mean = SerializationUtils.toDoubleArray(data);
     }
 
+    /**
+     * Writes the means of the clusters as float32 {@link Vocabulary}.
+     *
+     * @param clusters the clusters, all means have to be of the same length.
+     * @param file     the file to write to.
+     * @throws IOException in case the file cannot be written.
+     */
     public static void writeClusters(Cluster[] clusters, String file) throws IOException {
-        FileOutputStream fout = new FileOutputStream(file);
-        fout.write(SerializationUtils.toBytes(clusters.length));
-        for (int i = 0; i < clusters.length; i++) {
-            fout.write(clusters[i].getByteRepresentation());
-        }
-        fout.close();
+        Vocabulary.create(clusters).write(new File(file), Vocabulary.DataType.Float32);
     }
 
-    // TODO: re-visit here to make the length variable (depending on the actual feature size).
+    /**
+     * Reads clusters written with {@link #writeClusters(Cluster[], String)}, see {@link Vocabulary#load(File)}.
+     *
+     * @param file the file to read from.
+     * @return new clusters with the means from the file, of the length they were written with.
+     * @throws IOException in case the file cannot be read or is not a vocabulary.
+     */
     public static Cluster[] readClusters(String file) throws IOException {
-        FileInputStream fin = new FileInputStream(file);
-        byte[] tmp = new byte[4];
-        fin.read(tmp, 0, 4);
-        Cluster[] result = new Cluster[SerializationUtils.toInt(tmp)];
-        tmp = new byte[128 * 8];
-        for (int i = 0; i < result.length; i++) {
-            int bytesRead = fin.read(tmp, 0, 128 * 8);
-            if (bytesRead != 128 * 8) System.err.println("Didn't read enough bytes ...");
-            result[i] = new Cluster();
-            result[i].setByteRepresentation(tmp);
-        }
-        fin.close();
-        return result;
+        return Vocabulary.load(new File(file)).getClusters();
     }
 
     public double getStress() {
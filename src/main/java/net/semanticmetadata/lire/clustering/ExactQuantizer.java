@@ -0,0 +1,94 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.clustering;
+
+/**
+ * Finds the nearest cluster mean by comparing to all of them, like {@link Cluster#getDistance(double[])} but with the
+ * means in one flat array and each distance computation aborted as soon as it exceeds the best one found so far.
+ * The result is the same as with a full scan, the first of equally near clusters is returned.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ExactQuantizer implements VisualWordQuantizer {
+    private final double[] means;
+    private final int numClusters, dimensions;
+
+    /**
+     * Copies the means of the clusters, later changes of the clusters are not reflected.
+     *
+     * @param clusters the vocabulary, all means have to be of the same length.
+     */
+    public ExactQuantizer(Cluster[] clusters) {
+        if (clusters.length == 0) throw new IllegalArgumentException("The vocabulary is empty.");
+        numClusters = clusters.length;
+        dimensions = clusters[0].mean.length;
+        means = new double[numClusters * dimensions];
+        for (int c = 0; c < numClusters; c++) {
+            if (clusters[c].mean.length != dimensions)
+                throw new IllegalArgumentException("Cluster " + c + " has " + clusters[c].mean.length + " dimensions instead of " + dimensions + ".");
+            System.arraycopy(clusters[c].mean, 0, means, c * dimensions, dimensions);
+        }
+    }
+
+    public int getVisualWord(double[] descriptor) {
+        if (descriptor.length > dimensions)
+            throw new IllegalArgumentException("Descriptor has " + descriptor.length + " dimensions, the vocabulary " + dimensions + ".");
+        double best = Double.MAX_VALUE;
+        int result = 0;
+        for (int c = 0, m = 0; c < numClusters; c++, m += dimensions) {
+            double d = 0d;
+            // partial distance, checking every 8 dimensions.
+            int j = 0;
+            while (j < descriptor.length && d < best) {
+                int end = Math.min(j + 8, descriptor.length);
+                for (; j < end; j++) d += Math.abs(means[m + j] - descriptor[j]);
+            }
+            if (d < best) {
+                best = d;
+                result = c;
+            }
+        }
+        return result;
+    }
+
+    public int getNumVisualWords() {
+        return numClusters;
+    }
+}
@@ -158,18 +158,9 @@ public class KMeans {
      * Re-shuffle all features.
      */
     protected void reOrganizeFeatures() {
+        VisualWordQuantizer quantizer = new ExactQuantizer(clusters);
         for (int k = 0; k < features.size(); k++) {
-            double[] f = features.get(k);
-            Cluster best = clusters[0];
-            double minDistance = clusters[0].getDistance(f);
-            for (int i = 1; i < clusters.length; i++) {
-                double v = clusters[i].getDistance(f);
-                if (minDistance > v) {
-                    best = clusters[i];
-                    minDistance = v;
-                }
-            }
-            best.members.add(k);
+            clusters[quantizer.getVisualWord(features.get(k))].members.add(k);
         }
     }
 
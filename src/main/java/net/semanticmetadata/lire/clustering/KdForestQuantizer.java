@@ -0,0 +1,313 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.clustering;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Approximate nearest cluster search with a forest of randomized k-d trees over the cluster means (Silpa-Anan and
+ * Hartley, "Optimised KD-trees for fast image descriptor matching", CVPR 2008, as in FLANN). Each tree splits at the
+ * mean of a dimension chosen at random from the ones with the highest variance, so the trees partition the means
+ * differently. A query descends all trees, then the unexplored branches of all trees are visited best first,
+ * ordered by the distance of the query to the splitting plane, until {@link #getMaxChecks()} means have been
+ * compared or no branch can contain a nearer mean. Means are compared with early abort like in
+ * {@link ExactQuantizer}.
+ * <br/>
+ * With maxChecks of at least the number of clusters the result is exact. Typical values are 5-20% of the
+ * vocabulary, depending on how much precision of the visual words is traded for speed.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class KdForestQuantizer implements VisualWordQuantizer {
+    public static final int DEFAULT_NUM_TREES = 4;
+    public static final int DEFAULT_MAX_CHECKS = 64;
+    /**
+     * Maximum number of means in a leaf.
+     */
+    private static final int LEAF_SIZE = 4;
+    /**
+     * The split dimension is drawn from this number of dimensions with the highest variance.
+     */
+    private static final int RANDOM_DIMENSIONS = 5;
+
+    private final double[] means;
+    private final int numClusters, dimensions, maxChecks;
+    private final Tree[] trees;
+    // the search state is reused per thread, to avoid allocations per local feature.
+    private final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+        protected Search initialValue() {
+            return new Search();
+        }
+    };
+
+    /**
+     * Creates a forest with {@link #DEFAULT_NUM_TREES} trees, comparing to a tenth of the vocabulary but at least
+     * {@link #DEFAULT_MAX_CHECKS} clusters per query.
+     */
+    public KdForestQuantizer(Cluster[] clusters) {
+        this(clusters, DEFAULT_NUM_TREES, Math.max(DEFAULT_MAX_CHECKS, clusters.length / 10), 42L);
+    }
+
+    /**
+     * @param clusters  the vocabulary, all means have to be of the same length. The means are copied.
+     * @param numTrees  the number of randomized trees, more trees give better precision at the same number of checks.
+     * @param maxChecks the maximum number of means compared per query.
+     * @param seed      the seed for the random split dimensions.
+     */
+    public KdForestQuantizer(Cluster[] clusters, int numTrees, int maxChecks, long seed) {
+        if (clusters.length == 0) throw new IllegalArgumentException("The vocabulary is empty.");
+        if (numTrees < 1 || maxChecks < 1)
+            throw new IllegalArgumentException("At least one tree and one check are needed.");
+        numClusters = clusters.length;
+        dimensions = clusters[0].mean.length;
+        this.maxChecks = maxChecks;
+        means = new double[numClusters * dimensions];
+        for (int c = 0; c < numClusters; c++) {
+            if (clusters[c].mean.length != dimensions)
+                throw new IllegalArgumentException("Cluster " + c + " has " + clusters[c].mean.length + " dimensions instead of " + dimensions + ".");
+            System.arraycopy(clusters[c].mean, 0, means, c * dimensions, dimensions);
+        }
+        Random random = new Random(seed);
+        trees = new Tree[numTrees];
+        for (int t = 0; t < numTrees; t++) {
+            trees[t] = new Tree(random);
+        }
+    }
+
+    public int getVisualWord(double[] descriptor) {
+        if (descriptor.length > dimensions)
+            throw new IllegalArgumentException("Descriptor has " + descriptor.length + " dimensions, the vocabulary " + dimensions + ".");
+        Search search = searches.get();
+        search.reset(descriptor);
+        for (Tree tree : trees) {
+            search.descend(tree, 0);
+        }
+        Branch branch;
+        while (search.checks < maxChecks && (branch = search.branches.poll()) != null) {
+            // no mean on the other side of the plane can be nearer.
+            if (branch.bound > search.best) break;
+            search.descend(branch.tree, branch.node);
+        }
+        return search.result;
+    }
+
+    public int getNumVisualWords() {
+        return numClusters;
+    }
+
+    public int getNumTrees() {
+        return trees.length;
+    }
+
+    public int getMaxChecks() {
+        return maxChecks;
+    }
+
+    /**
+     * One randomized k-d tree, the nodes are stored in parallel arrays. Leaves have a split dimension of -1 and
+     * refer to a range of the permutation of the means.
+     */
+    private class Tree {
+        final int[] order;
+        int[] splitDimension, low, high, start, end;
+        double[] splitValue;
+        int numNodes = 0;
+
+        Tree(Random random) {
+            order = new int[numClusters];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            int capacity = 2 * (numClusters / LEAF_SIZE + 1) + 1;
+            splitDimension = new int[capacity];
+            low = new int[capacity];
+            high = new int[capacity];
+            start = new int[capacity];
+            end = new int[capacity];
+            splitValue = new double[capacity];
+            build(0, numClusters, random);
+        }
+
+        private int build(int from, int to, Random random) {
+            int node = numNodes++;
+            if (node == splitDimension.length) grow();
+            start[node] = from;
+            end[node] = to;
+            splitDimension[node] = -1;
+            if (to - from <= LEAF_SIZE) return node;
+            // mean and variance per dimension.
+            double[] mean = new double[dimensions], variance = new double[dimensions];
+            for (int i = from; i < to; i++) {
+                int m = order[i] * dimensions;
+                for (int j = 0; j < dimensions; j++) mean[j] += means[m + j];
+            }
+            for (int j = 0; j < dimensions; j++) mean[j] /= (to - from);
+            for (int i = from; i < to; i++) {
+                int m = order[i] * dimensions;
+                for (int j = 0; j < dimensions; j++) {
+                    double diff = means[m + j] - mean[j];
+                    variance[j] += diff * diff;
+                }
+            }
+            int dimension = pickDimension(variance, random);
+            if (variance[dimension] <= 0d) return node; // all means are equal.
+            double value = mean[dimension];
+            // partition the range, means equal to the split value go low.
+            int i = from, k = to - 1;
+            while (i <= k) {
+                if (means[order[i] * dimensions + dimension] <= value) i++;
+                else {
+                    int tmp = order[i];
+                    order[i] = order[k];
+                    order[k--] = tmp;
+                }
+            }
+            if (i == from || i == to) i = (from + to) / 2;
+            splitDimension[node] = dimension;
+            splitValue[node] = value;
+            int l = build(from, i, random);
+            int h = build(i, to, random);
+            low[node] = l;
+            high[node] = h;
+            return node;
+        }
+
+        private int pickDimension(double[] variance, Random random) {
+            int[] top = new int[Math.min(RANDOM_DIMENSIONS, dimensions)];
+            Arrays.fill(top, -1);
+            for (int j = 0; j < dimensions; j++) {
+                // insertion into the sorted top list.
+                for (int t = 0; t < top.length; t++) {
+                    if (top[t] < 0 || variance[j] > variance[top[t]]) {
+                        System.arraycopy(top, t, top, t + 1, top.length - t - 1);
+                        top[t] = j;
+                        break;
+                    }
+                }
+            }
+            return top[random.nextInt(top.length)];
+        }
+
+        private void grow() {
+            int capacity = splitDimension.length * 2;
+            splitDimension = Arrays.copyOf(splitDimension, capacity);
+            low = Arrays.copyOf(low, capacity);
+            high = Arrays.copyOf(high, capacity);
+            start = Arrays.copyOf(start, capacity);
+            end = Arrays.copyOf(end, capacity);
+            splitValue = Arrays.copyOf(splitValue, capacity);
+        }
+    }
+
+    /**
+     * An unexplored branch with the lower bound of the distance of its means to the query.
+     */
+    private static class Branch implements Comparable<Branch> {
+        final Tree tree;
+        final int node;
+        final double bound;
+
+        Branch(Tree tree, int node, double bound) {
+            this.tree = tree;
+            this.node = node;
+            this.bound = bound;
+        }
+
+        public int compareTo(Branch o) {
+            return Double.compare(bound, o.bound);
+        }
+    }
+
+    /**
+     * The state of a query, reused for the next query of the same thread.
+     */
+    private class Search {
+        double[] descriptor;
+        final PriorityQueue<Branch> branches = new PriorityQueue<Branch>();
+        // the means are in several trees, but compared once. A mean is checked if it has the stamp of the query.
+        final int[] checked = new int[numClusters];
+        int stamp = 0;
+        double best;
+        int result, checks;
+
+        void reset(double[] descriptor) {
+            this.descriptor = descriptor;
+            branches.clear();
+            best = Double.MAX_VALUE;
+            result = 0;
+            checks = 0;
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(checked, 0);
+                stamp = 1;
+            }
+        }
+
+        /**
+         * Follows the query down to a leaf, remembering the other branches, and compares the means in the leaf.
+         */
+        void descend(Tree tree, int node) {
+            while (tree.splitDimension[node] >= 0) {
+                int dimension = tree.splitDimension[node];
+                // dimensions beyond the descriptor length are ignored like in Cluster.getDistance(), so both sides
+                // are equally near.
+                double diff = dimension < descriptor.length ? descriptor[dimension] - tree.splitValue[node] : 0d;
+                int near = diff <= 0d ? tree.low[node] : tree.high[node];
+                int far = diff <= 0d ? tree.high[node] : tree.low[node];
+                double bound = Math.abs(diff);
+                if (bound <= best) branches.add(new Branch(tree, far, bound));
+                node = near;
+            }
+            for (int i = tree.start[node]; i < tree.end[node]; i++) {
+                int c = tree.order[i];
+                if (checked[c] == stamp) continue;
+                checked[c] = stamp;
+                checks++;
+                int m = c * dimensions;
+                double d = 0d;
+                for (int j = 0; j < descriptor.length && d <= best; j++) d += Math.abs(means[m + j] - descriptor[j]);
+                // d equals best only if it is complete, ties go to the lower index as with the exact search.
+                if (d < best || (d == best && c < result)) {
+                    best = d;
+                    result = c;
+                }
+            }
+        }
+    }
+}
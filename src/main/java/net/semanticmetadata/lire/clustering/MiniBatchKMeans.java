@@ -0,0 +1,454 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.clustering;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.PivotSelection;
+import net.semanticmetadata.lire.utils.ConcurrencyUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Mini-batch k-means for visual vocabularies too big for {@link KMeans}. Descriptors are streamed in batches of
+ * {@link #getBatchSize()}, each descriptor of a batch is assigned to its nearest mean and then moves that mean
+ * towards itself with a learning rate of one over the number of descriptors the mean has seen so far (Sculley,
+ * "Web-Scale K-Means Clustering", WWW 2010). The means are held in one flat float matrix, so besides the batch only
+ * numClusters * dimensions floats are kept in memory, independent of the number of descriptors.
+ * <br/>
+ * The initial means are selected with k-means++ from a reservoir sample of the descriptors, which takes
+ * numClusters * sample size distance computations. Then the descriptors
+ * are streamed again until the means move less than the tolerance in one pass or the maximum number of passes is
+ * reached. Like {@link Cluster} the L1 distance is used for assignment. All random decisions are taken from the
+ * seed and batches are assigned in parallel but applied in order, so the result does not depend on the number of
+ * threads. Training runs in a thread pool of its own, which exists for the duration of a call of train only.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class MiniBatchKMeans {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_MAX_ITERATIONS = 10;
+    public static final double DEFAULT_TOLERANCE = 0.01;
+    /**
+     * Number of descriptors per cluster sampled for the k-means++ seeding, at least one batch is sampled.
+     */
+    public static final int SEEDING_SAMPLES_PER_CLUSTER = 3;
+
+    private final int numClusters;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private long seed = PivotSelection.DEFAULT_SEED;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private int dimensions = 0;
+    private float[] means = null;
+    private long[] counts = null;
+    private int iterations = 0;
+    private double stress = 0d;
+
+    public MiniBatchKMeans(int numClusters) {
+        if (numClusters < 1) throw new IllegalArgumentException("At least one cluster is needed.");
+        this.numClusters = numClusters;
+    }
+
+    /**
+     * Clusters descriptors stored in an index, one document at a time is read from the index.
+     *
+     * @param reader    the index.
+     * @param docs      the documents to take the descriptors from, deleted ones should already be filtered.
+     * @param fieldName the stored field holding the local features, one field value per descriptor.
+     * @param feature   an instance used to decode the field values with
+     *                  {@link LireFeature#setByteArrayRepresentation(byte[], int, int)}.
+     * @return the clusters, the means as a {@link Cluster} each.
+     * @throws IOException in case the index cannot be read.
+     */
+    public Cluster[] train(final IndexReader reader, final int[] docs, final String fieldName, final LireFeature feature) throws IOException {
+        final Random random = new Random(seed + 1);
+        try {
+            return train(new Iterable<double[]>() {
+                public Iterator<double[]> iterator() {
+                    // a new random order of documents per pass, so the batches are not biased by the index order.
+                    int[] order = docs.clone();
+                    for (int i = order.length - 1; i > 0; i--) {
+                        int j = random.nextInt(i + 1), tmp = order[i];
+                        order[i] = order[j];
+                        order[j] = tmp;
+                    }
+                    return new IndexDescriptorIterator(reader, order, fieldName, feature);
+                }
+            });
+        } catch (IndexReadException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Clusters a stream of descriptors. The descriptors are iterated once for seeding and then once per iteration,
+     * so each call of {@link Iterable#iterator()} has to deliver the same descriptors, in any order. Descriptors
+     * containing NaN are skipped.
+     *
+     * @param descriptors the descriptors, all of the same length. They are not modified and may be reused by the
+     *                    iterator.
+     * @return the clusters, the means as a {@link Cluster} each.
+     */
+    public Cluster[] train(Iterable<double[]> descriptors) throws IOException {
+        long numDescriptors = seed(descriptors);
+        iterations = 0;
+        ExecutorService executor = numThreads > 1 ? ConcurrencyUtils.newDaemonThreadPool(numThreads, "lire-kmeans") : null;
+        try {
+            float[] batch = new float[batchSize * dimensions];
+            int[] assignment = new int[batchSize];
+            float[] distances = new float[batchSize];
+            float[] previous = new float[means.length];
+            boolean converged = false;
+            while (!converged && iterations < maxIterations) {
+                System.arraycopy(means, 0, previous, 0, means.length);
+                stress = 0d;
+                int size = 0;
+                for (double[] descriptor : descriptors) {
+                    if (hasNaNs(descriptor)) continue;
+                    checkDimensions(descriptor);
+                    for (int j = 0; j < dimensions; j++) batch[size * dimensions + j] = (float) descriptor[j];
+                    if (++size == batchSize) {
+                        step(executor, batch, size, assignment, distances);
+                        size = 0;
+                    }
+                }
+                if (size > 0) step(executor, batch, size, assignment, distances);
+                iterations++;
+                // converged if the means moved on average less than the tolerance relative to their average norm.
+                double shift = 0d, norm = 0d;
+                for (int i = 0; i < means.length; i++) {
+                    shift += Math.abs(means[i] - previous[i]);
+                    norm += Math.abs(means[i]);
+                }
+                converged = shift <= tolerance * norm;
+            }
+        } finally {
+            if (executor != null) executor.shutdown();
+        }
+        if (numDescriptors > 0) stress /= numDescriptors;
+        return getClusters();
+    }
+
+    /**
+     * Draws a reservoir sample of the descriptors and selects the initial means with k-means++.
+     *
+     * @return the number of descriptors.
+     */
+    private long seed(Iterable<double[]> descriptors) {
+        Random random = new Random(seed);
+        int sampleSize = (int) Math.min(Integer.MAX_VALUE, Math.max(batchSize, (long) numClusters * SEEDING_SAMPLES_PER_CLUSTER));
+        final List<double[]> sample = new ArrayList<double[]>(Math.min(sampleSize, 1 << 16));
+        long count = 0;
+        dimensions = 0;
+        for (double[] descriptor : descriptors) {
+            if (hasNaNs(descriptor)) continue;
+            if (dimensions == 0) dimensions = descriptor.length;
+            checkDimensions(descriptor);
+            if (count < sampleSize) sample.add(descriptor.clone());
+            else {
+                long j = (long) (random.nextDouble() * (count + 1));
+                if (j < sampleSize) sample.set((int) j, descriptor.clone());
+            }
+            count++;
+        }
+        if (count < numClusters)
+            throw new UnsupportedOperationException("Only " + count + " features found to cluster in " + numClusters + ". Try to use less clusters or more images.");
+        int[] seeds = new PivotSelection(PivotSelection.Strategy.KMeansPlusPlus, seed).select(sample.size(), new PivotSelection.Metric() {
+            public double getDistance(int a, int b) {
+                double[] x = sample.get(a), y = sample.get(b);
+                double d = 0d;
+                for (int i = 0; i < x.length; i++) d += Math.abs(x[i] - y[i]);
+                return d;
+            }
+        }, numClusters);
+        means = new float[numClusters * dimensions];
+        counts = new long[numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            double[] s = sample.get(seeds[c]);
+            for (int j = 0; j < dimensions; j++) means[c * dimensions + j] = (float) s[j];
+        }
+        return count;
+    }
+
+    /**
+     * Assigns a batch to the means in parallel and updates the means with the per cluster learning rate.
+     */
+    private void step(ExecutorService executor, final float[] batch, int size, final int[] assignment, final float[] distances) throws IOException {
+        int numChunks = executor == null ? 1 : Math.min(numThreads, Math.max(1, size / 64));
+        List<Callable<Object>> chunks = new LinkedList<Callable<Object>>();
+        for (int i = 0; i < numChunks; i++) {
+            final int start = i * size / numChunks, end = (i + 1) * size / numChunks;
+            chunks.add(new Callable<Object>() {
+                public Object call() {
+                    for (int k = start; k < end; k++) assign(batch, k, assignment, distances);
+                    return null;
+                }
+            });
+        }
+        if (numChunks > 1) ConcurrencyUtils.invokeAll(executor, chunks);
+        else assign(batch, 0, size, assignment, distances);
+        for (int k = 0; k < size; k++) {
+            int c = assignment[k];
+            stress += distances[k];
+            float rate = 1f / ++counts[c];
+            int m = c * dimensions, b = k * dimensions;
+            for (int j = 0; j < dimensions; j++) {
+                means[m + j] += rate * (batch[b + j] - means[m + j]);
+            }
+        }
+    }
+
+    private void assign(float[] batch, int start, int end, int[] assignment, float[] distances) {
+        for (int k = start; k < end; k++) assign(batch, k, assignment, distances);
+    }
+
+    /**
+     * Finds the nearest mean for one descriptor of the batch, aborting each distance computation as soon as it
+     * exceeds the best one found so far.
+     */
+    private void assign(float[] batch, int k, int[] assignment, float[] distances) {
+        int b = k * dimensions;
+        float best = Float.MAX_VALUE;
+        int result = 0;
+        for (int c = 0; c < numClusters; c++) {
+            int m = c * dimensions;
+            float d = 0f;
+            for (int j = 0; j < dimensions && d < best; j++) {
+                d += Math.abs(means[m + j] - batch[b + j]);
+            }
+            if (d < best) {
+                best = d;
+                result = c;
+            }
+        }
+        assignment[k] = result;
+        distances[k] = best;
+    }
+
+    private void checkDimensions(double[] descriptor) {
+        if (descriptor.length != dimensions)
+            throw new IllegalArgumentException("Descriptor has " + descriptor.length + " dimensions instead of " + dimensions + ".");
+    }
+
+    private static boolean hasNaNs(double[] descriptor) {
+        for (int i = 0; i < descriptor.length; i++) {
+            if (Double.isNaN(descriptor[i])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the current means as clusters, null if not trained yet.
+     */
+    public Cluster[] getClusters() {
+        if (means == null) return null;
+        Cluster[] result = new Cluster[numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            double[] mean = new double[dimensions];
+            for (int j = 0; j < dimensions; j++) mean[j] = means[c * dimensions + j];
+            result[c] = new Cluster(mean);
+        }
+        return result;
+    }
+
+    /**
+     * @return the means as row major matrix of numClusters rows with {@link #getDimensions()} floats, null if not
+     *         trained yet. This is the internal array, do not modify it.
+     */
+    public float[] getMeans() {
+        return means;
+    }
+
+    /**
+     * @return the number of descriptors assigned to each cluster over all iterations.
+     */
+    public long[] getCounts() {
+        return counts;
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the number of passes over the descriptors of the last training, not counting seeding.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the average L1 distance of a descriptor to the mean it was assigned to in the last pass.
+     */
+    public double getStress() {
+        return stress;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the number of descriptors assigned before the means are updated, larger batches are assigned
+     *                  more efficiently in parallel, smaller ones converge in fewer passes.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size has to be positive.");
+        this.batchSize = batchSize;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @param maxIterations the maximum number of passes over the descriptors.
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @param tolerance the training stops if the sum of the L1 movements of the means in one pass is less than the
+     *                  tolerance times the sum of their L1 norms.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @param numThreads the number of threads assigning the batches, by default the number of available processors.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Iterates over the descriptors of a list of documents, reading one document at a time.
+     */
+    private static class IndexDescriptorIterator implements Iterator<double[]> {
+        private final IndexReader reader;
+        private final int[] docs;
+        private final String fieldName;
+        private final LireFeature feature;
+        private int doc = 0, field = 0;
+        private IndexableField[] fields = new IndexableField[0];
+
+        IndexDescriptorIterator(IndexReader reader, int[] docs, String fieldName, LireFeature feature) {
+            this.reader = reader;
+            this.docs = docs;
+            this.fieldName = fieldName;
+            this.feature = feature;
+        }
+
+        public boolean hasNext() {
+            while (field >= fields.length && doc < docs.length) {
+                try {
+                    Document d = reader.document(docs[doc++]);
+                    fields = d.getFields(fieldName);
+                    field = 0;
+                } catch (IOException e) {
+                    throw new IndexReadException(e);
+                }
+            }
+            return field < fields.length;
+        }
+
+        public double[] next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            BytesRef bytes = fields[field++].binaryValue();
+            feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            return feature.getDoubleHistogram();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Carries an IOException through {@link Iterator#hasNext()}.
+     */
+    private static class IndexReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        IndexReadException(IOException cause) {
+            super(cause);
+        }
+
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -62,14 +62,15 @@ public class ParallelKMeans extends KMeans {
     protected void reOrganizeFeatures() {
         int numThreads = 8;
         int step = features.size() / numThreads;
+        VisualWordQuantizer quantizer = new ExactQuantizer(clusters);
         LinkedList<FeatureToClass> tasks = new LinkedList<FeatureToClass>();
         LinkedList<Thread> threads = new LinkedList<Thread>();
         for (int i = 0; i < numThreads; i++) {
             FeatureToClass ftc;
             if (i + 1 < numThreads)
-                ftc = new FeatureToClass(i * step, (i + 1) * step);
+                ftc = new FeatureToClass(i * step, (i + 1) * step, quantizer);
             else
-                ftc = new FeatureToClass(i * step, features.size());
+                ftc = new FeatureToClass(i * step, features.size(), quantizer);
             Thread thread = new Thread(ftc);
             thread.start();
             tasks.add(ftc);
@@ -143,26 +144,18 @@ public class ParallelKMeans extends KMeans {
     private class FeatureToClass implements Runnable {
         HashMap<Integer, Integer> results;
         int start, end;
+        VisualWordQuantizer quantizer;
 
-        private FeatureToClass(int start, int end) {
+        private FeatureToClass(int start, int end, VisualWordQuantizer quantizer) {
             this.start = start;
             this.end = end;
+            this.quantizer = quantizer;
             results = new HashMap<Integer, Integer>(end - start);
         }
 
         public void run() {
             for (int k = start; k < end; k++) {
-                double[] f = features.get(k);
-                int best = 0;
-                double minDistance = clusters[0].getDistance(f);
-                for (int i = 1; i < clusters.length; i++) {
-                    double v = clusters[i].getDistance(f);
-                    if (minDistance > v) {
-                        best = i;
-                        minDistance = v;
-                    }
-                }
-                results.put(k, best);
+                results.put(k, quantizer.getVisualWord(features.get(k)));
             }
         }
 
@@ -0,0 +1,354 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.clustering;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable visual vocabulary, i.e. the means of the clusters found by {@link KMeans} or {@link MiniBatchKMeans},
+ * either on the heap or memory mapped from a file written with {@link #write(File, DataType)}. Vocabularies loaded
+ * with {@link #load(File)} are shared in the JVM, so document builders and searchers using the same file read it
+ * once and the {@link VisualWordQuantizer quantizers} of a vocabulary are created once.
+ * <br/>
+ * Layout of a file: magic, version, data type, number of clusters, dimensions, CRC32 checksum of the means and then
+ * the means as float32 or float16 (IEEE 754 half precision) in cluster, dimension order. Files written by earlier
+ * versions of {@link Cluster#writeClusters(Cluster[], String)}, the number of clusters followed by the means as
+ * doubles, are read as well.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class Vocabulary {
+    /**
+     * The precision the means are stored with.
+     */
+    public enum DataType {
+        /**
+         * Single precision, 4 bytes per dimension.
+         */
+        Float32(4),
+        /**
+         * Half precision, 2 bytes per dimension with 11 significant bits, for big vocabularies.
+         */
+        Float16(2);
+
+        private final int bytes;
+
+        private DataType(int bytes) {
+            this.bytes = bytes;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+    }
+
+    private static final int MAGIC = 0x4C565731; // "LVW1"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 6 * 4;
+    private static final Map<String, Vocabulary> vocabularies = new HashMap<String, Vocabulary>();
+
+    private final int numClusters, dimensions;
+    private final DataType dataType;
+    private final FloatBuffer floats; // the means as float32, null for float16.
+    private final ShortBuffer halfs; // the means as float16, null for float32.
+    // identifies the file a shared vocabulary was loaded from, to notice changes.
+    private long lastModified = -1, length = -1;
+    private volatile VisualWordQuantizer exactQuantizer = null, approximateQuantizer = null;
+
+    private Vocabulary(int numClusters, int dimensions, FloatBuffer floats, ShortBuffer halfs) {
+        this.numClusters = numClusters;
+        this.dimensions = dimensions;
+        this.floats = floats;
+        this.halfs = halfs;
+        this.dataType = floats != null ? DataType.Float32 : DataType.Float16;
+    }
+
+    /**
+     * Creates a vocabulary on the heap.
+     *
+     * @param clusters the clusters, all means have to be of the same length. The means are copied as float32.
+     * @return the new vocabulary.
+     */
+    public static Vocabulary create(Cluster[] clusters) {
+        if (clusters.length == 0) throw new IllegalArgumentException("The vocabulary is empty.");
+        int dimensions = clusters[0].mean.length;
+        float[] means = new float[clusters.length * dimensions];
+        for (int c = 0; c < clusters.length; c++) {
+            if (clusters[c].mean.length != dimensions)
+                throw new IllegalArgumentException("Cluster " + c + " has " + clusters[c].mean.length + " dimensions instead of " + dimensions + ".");
+            for (int j = 0; j < dimensions; j++) means[c * dimensions + j] = (float) clusters[c].mean[j];
+        }
+        return new Vocabulary(clusters.length, dimensions, FloatBuffer.wrap(means), null);
+    }
+
+    /**
+     * Memory maps a vocabulary file and verifies its checksum. Files in the format of earlier versions are read to
+     * the heap.
+     *
+     * @param file the vocabulary file.
+     * @return the vocabulary, backed by the file.
+     * @throws IOException in case the file cannot be read, is corrupt or not a vocabulary.
+     */
+    public static Vocabulary open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() >= HEADER_LENGTH && raf.readInt() == MAGIC) {
+                int version = raf.readInt();
+                if (version != VERSION) throw new IOException("Unsupported vocabulary version: " + version);
+                int type = raf.readInt();
+                if (type < 0 || type >= DataType.values().length) throw new IOException("Unknown data type " + type + " in " + file.getPath());
+                DataType dataType = DataType.values()[type];
+                int numClusters = raf.readInt();
+                int dimensions = raf.readInt();
+                int checksum = raf.readInt();
+                long size = (long) numClusters * dimensions * dataType.getBytes();
+                if (numClusters < 1 || dimensions < 1 || HEADER_LENGTH + size != raf.length())
+                    throw new IOException("Corrupt vocabulary, " + numClusters + " clusters of " + dimensions + " dimensions do not match the length of " + file.getPath());
+                ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, size);
+                if (checksum(buffer) != checksum) throw new IOException("Checksum mismatch in vocabulary " + file.getPath());
+                if (dataType == DataType.Float32)
+                    return new Vocabulary(numClusters, dimensions, buffer.asFloatBuffer(), null);
+                else return new Vocabulary(numClusters, dimensions, null, buffer.asShortBuffer());
+            }
+            return openLegacy(raf, file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the format without header, the dimensions are derived from the file length.
+     */
+    private static Vocabulary openLegacy(RandomAccessFile raf, File file) throws IOException {
+        raf.seek(0);
+        int numClusters = raf.length() >= 4 ? raf.readInt() : 0;
+        long size = raf.length() - 4;
+        if (numClusters < 1 || size <= 0 || size % ((long) numClusters * 8) != 0)
+            throw new IOException("Not a vocabulary: " + file.getPath());
+        int dimensions = (int) (size / numClusters / 8);
+        DoubleBuffer doubles = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 4, size).asDoubleBuffer();
+        float[] means = new float[numClusters * dimensions];
+        for (int i = 0; i < means.length; i++) means[i] = (float) doubles.get(i);
+        return new Vocabulary(numClusters, dimensions, FloatBuffer.wrap(means), null);
+    }
+
+    /**
+     * Returns the vocabulary of a file, opening it only if it has not been loaded before or has changed since.
+     *
+     * @param file the vocabulary file.
+     * @return the shared vocabulary.
+     * @throws IOException in case the file cannot be read, is corrupt or not a vocabulary.
+     */
+    public static Vocabulary load(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        synchronized (vocabularies) {
+            Vocabulary vocabulary = vocabularies.get(key);
+            if (vocabulary == null || vocabulary.lastModified != file.lastModified() || vocabulary.length != file.length()) {
+                vocabulary = open(file);
+                vocabulary.lastModified = file.lastModified();
+                vocabulary.length = file.length();
+                vocabularies.put(key, vocabulary);
+            }
+            return vocabulary;
+        }
+    }
+
+    /**
+     * Writes the vocabulary. The file is written under a temporary name first and then renamed, so vocabularies
+     * still mapping an earlier version of the file stay valid.
+     *
+     * @param file     the file to write to, it is replaced if it exists.
+     * @param dataType the precision of the means in the file.
+     * @throws IOException in case the file cannot be written.
+     */
+    public void write(File file, DataType dataType) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(numClusters * dimensions * dataType.getBytes());
+        for (int i = 0; i < numClusters * dimensions; i++) {
+            float v = get(i);
+            if (dataType == DataType.Float32) buffer.putFloat(v);
+            else buffer.putShort(toHalf(v));
+        }
+        buffer.flip();
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dataType.ordinal());
+            out.writeInt(numClusters);
+            out.writeInt(dimensions);
+            out.writeInt(checksum(buffer));
+            out.flush();
+            FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            fos.close();
+        }
+        synchronized (vocabularies) {
+            vocabularies.remove(file.getCanonicalPath());
+            // renaming over an existing file fails on some platforms.
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+                throw new IOException("Could not rename " + tmp.getPath() + " to " + file.getPath());
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] tmp = new byte[8192];
+        ByteBuffer b = buffer.duplicate();
+        while (b.hasRemaining()) {
+            int length = Math.min(tmp.length, b.remaining());
+            b.get(tmp, 0, length);
+            crc.update(tmp, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    private float get(int i) {
+        return floats != null ? floats.get(i) : toFloat(halfs.get(i));
+    }
+
+    /**
+     * @param cluster the index of the cluster.
+     * @return a copy of the mean of the cluster.
+     */
+    public double[] getMean(int cluster) {
+        double[] result = new double[dimensions];
+        for (int j = 0, i = cluster * dimensions; j < dimensions; j++, i++) result[j] = get(i);
+        return result;
+    }
+
+    /**
+     * @return the means as new clusters.
+     */
+    public Cluster[] getClusters() {
+        Cluster[] result = new Cluster[numClusters];
+        for (int c = 0; c < numClusters; c++) result[c] = new Cluster(getMean(c));
+        return result;
+    }
+
+    /**
+     * Returns a quantizer for this vocabulary, created on first use and shared afterwards.
+     *
+     * @param approximate true for a {@link KdForestQuantizer}, false for an {@link ExactQuantizer}.
+     * @return the quantizer.
+     */
+    public VisualWordQuantizer getQuantizer(boolean approximate) {
+        if (approximate) {
+            if (approximateQuantizer == null) approximateQuantizer = new KdForestQuantizer(getClusters());
+            return approximateQuantizer;
+        } else {
+            if (exactQuantizer == null) exactQuantizer = new ExactQuantizer(getClusters());
+            return exactQuantizer;
+        }
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Converts to IEEE 754 half precision, rounding to the nearest value. Values too big become infinity, too small
+     * ones zero.
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) // infinity or NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        int e = exponent - 127 + 15;
+        if (e >= 0x1f) return (short) (sign | 0x7c00);
+        if (e <= 0) {
+            if (e < -10) return (short) sign;
+            // subnormal, shift in the implicit bit.
+            mantissa |= 0x800000;
+            int shift = 14 - e;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1), halfway = 1 << (shift - 1);
+            if (rest > halfway || (rest == halfway && (half & 1) != 0)) half++;
+            return (short) (sign | half);
+        }
+        int half = (e << 10) | (mantissa >> 13);
+        int rest = mantissa & 0x1fff;
+        // round to nearest even, a carry into the exponent is fine.
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) half++;
+        return (short) (sign | half);
+    }
+
+    /**
+     * Converts from IEEE 754 half precision.
+     */
+    static float toFloat(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0x1f) return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        if (exponent == 0) {
+            if (mantissa == 0) return Float.intBitsToFloat(sign);
+            // subnormal: mantissa * 2^-24.
+            float v = mantissa * 5.9604645E-8f;
+            return sign != 0 ? -v : v;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
@@ -44,13 +44,15 @@ import net.semanticmetadata.lire.SearchHitsFilter;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
 import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 
 import java.io.IOException;
-import java.util.TreeSet;
+import java.util.ArrayList;
 import java.util.logging.Logger;
 
 /**
@@ -73,8 +75,9 @@ public class RerankFilter implements SearchHitsFilter {
     public ImageSearchHits filter(ImageSearchHits results, Document query) {
         LireFeature queryFeature = null;
         LireFeature tempFeature = null;
-        float distance = 0, maxDistance = 0;
-        TreeSet<SimpleResult> resultSet = new TreeSet<SimpleResult>();
+        float distance = 0;
+        // just positions and distances are collected while re-ranking.
+        TopKCollector hits = new TopKCollector(results.length());
 
         // create our feature classes
         try {
@@ -101,21 +104,26 @@ public class RerankFilter implements SearchHitsFilter {
                         results.doc(x).getField(fieldName).binaryValue().offset,
                         results.doc(x).getField(fieldName).binaryValue().length);
                 distance = queryFeature.getDistance(tempFeature);
-                maxDistance = Math.max(maxDistance, distance);
-                resultSet.add(new SimpleResult(distance, results.doc(x), x));
+                hits.offer(x, distance);
             } else {
                 logger.info("Could not instantiate class " + featureClass.getName() + " from the given result set.");
             }
         }
-        return new SimpleImageSearchHits(resultSet, maxDistance);
+        hits.sort();
+        ArrayList<SimpleResult> resultList = new ArrayList<SimpleResult>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            resultList.add(new SimpleResult(hits.distance(i), results.doc(hits.doc(i)), hits.doc(i)));
+        }
+        return new SimpleImageSearchHits(resultList, hits.getWorstDistance());
     }
 
     @Override
     public ImageSearchHits filter(TopDocs results, IndexReader reader, Document query) throws IOException {
         LireFeature queryFeature = null;
         LireFeature tempFeature = null;
-        float distance = 0, maxDistance = 0;
-        TreeSet<SimpleResult> resultSet = new TreeSet<SimpleResult>();
+        float distance = 0;
+        // just docIDs and distances are collected while re-ranking.
+        TopKCollector hits = new TopKCollector(results.scoreDocs.length);
 
         // create our feature classes
         try {
@@ -138,18 +146,20 @@ public class RerankFilter implements SearchHitsFilter {
         ScoreDoc[] scoreDocs = results.scoreDocs;
         Document tmp = null;
         for (int x = 0; x < scoreDocs.length; x++) {
-            tmp =reader.document(scoreDocs[x].doc);
+            // only the feature is read for re-ranking, the documents are loaded at the end.
+            DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fieldName);
+            reader.document(scoreDocs[x].doc, visitor);
+            tmp = visitor.getDocument();
             if (tmp.getField(fieldName) != null) {
                 tempFeature.setByteArrayRepresentation(tmp.getField(fieldName).binaryValue().bytes,
                         tmp.getField(fieldName).binaryValue().offset,
                         tmp.getField(fieldName).binaryValue().length);
                 distance = queryFeature.getDistance(tempFeature);
-                maxDistance = Math.max(maxDistance, distance);
-                resultSet.add(new SimpleResult(distance, tmp, scoreDocs[x].doc));
+                hits.offer(scoreDocs[x].doc, distance);
             } else {
                 logger.info("Could not instantiate class " + featureClass.getName() + " from the given result set.");
             }
         }
-        return new SimpleImageSearchHits(resultSet, maxDistance);
+        return hits.toSearchHits(reader);
     }
 }
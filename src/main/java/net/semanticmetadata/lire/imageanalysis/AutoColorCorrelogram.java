@@ -59,7 +59,7 @@ import java.util.StringTokenizer;
  * <p/>
  * Todo: Change the 2-dim array to a one dim array, as this is much faster in Java.
  */
-public class AutoColorCorrelogram implements LireFeature {
+public class AutoColorCorrelogram implements RasterFeature {
     private static final int DEFAULT_NUMBER_COLORS = 256;
 
     private float quantH;
@@ -241,6 +241,32 @@ public class AutoColorCorrelogram implements LireFeature {
         extract(hsvImage);
     }
 
+    /**
+     * Uses the HSV plane of the image if its raster holds plain RGB samples, otherwise the image.
+     */
+    public void extract(PreprocessedImage image) {
+        if (image.getImage() != image.getRgbImage() || !image.isRgbRaster()) {
+            extract(image.getImage());
+            return;
+        }
+        extractHsv(image.getHSV(), image.getWidth(), image.getHeight());
+    }
+
+    public void extract(int[] rgb, int width, int height) {
+        extractHsv(PreprocessedImage.getHSV(rgb), width, height);
+    }
+
+    private void extractHsv(int[] hsv, int width, int height) {
+        int[][][] pixels = new int[width][height][];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int offset = (y * width + x) * 3;
+                pixels[x][y] = new int[]{hsv[offset], hsv[offset + 1], hsv[offset + 2]};
+            }
+        }
+        extract(pixels);
+    }
+
     public byte[] getByteArrayRepresentation() {
         byte[] result = new byte[correlogram.length * correlogram[0].length / 2];
         int position = 0;
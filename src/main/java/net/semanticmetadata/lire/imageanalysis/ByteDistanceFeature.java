@@ -0,0 +1,65 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.imageanalysis;
+
+/**
+ * Implemented by features which can compute the distance to another feature directly from its byte[]
+ * representation, without decoding it with {@link LireFeature#setByteArrayRepresentation(byte[], int, int)}
+ * first. The linear searchers use this to compare the query to the stored features of all documents without
+ * creating objects per document.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public interface ByteDistanceFeature extends LireFeature {
+    /**
+     * Computes the distance of this feature to a feature given in its byte[] representation. The result is the
+     * same as for {@link LireFeature#getDistance(LireFeature)} with a new instance the bytes have been read into.
+     * Implementations don't allocate memory and don't change the state of this instance, so concurrent calls
+     * are safe.
+     *
+     * @param featureData the byte[] representation of the other feature, as created by
+     *                    {@link LireFeature#getByteArrayRepresentation()}.
+     * @param offset      the position of the feature in the array.
+     * @param length      the number of bytes of the feature.
+     * @return the distance between this feature and the given one.
+     */
+    public float getDistance(byte[] featureData, int offset, int length);
+}
@@ -59,7 +59,7 @@ import java.util.StringTokenizer;
  *
  * @author: Savvas A. Chatzichristofis, savvash@gmail.com
  */
-public class CEDD implements LireFeature {
+public class CEDD implements RasterFeature, ByteDistanceFeature {
     private double T0;
     private double T1;
     private double T2;
@@ -67,12 +67,6 @@ public class CEDD implements LireFeature {
     private boolean Compact = false;
 //    protected double[] data = new double[144];
     protected byte[] histogram = new byte[144];
-    int tmp;
-    // for tanimoto:
-    private double Result, Temp1, Temp2, TempCount1, TempCount2, TempCount3;
-    private CEDD tmpFeature;
-    private double iTmp1, iTmp2;
-
 
     public CEDD(double Th0, double Th1, double Th2, double Th3, boolean CompactDescriptor) {
         this.T0 = Th0;
@@ -93,6 +87,24 @@ public class CEDD implements LireFeature {
     // signature changed by mlux
     public void extract(BufferedImage image) {
         image= ImageUtils.get8BitRGBImage(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        extract(rgb, PreprocessedImage.getGray(rgb), width, height);
+    }
+
+    public void extract(PreprocessedImage image) {
+        extract(image.getRGB(), image.getGray(), image.getWidth(), image.getHeight());
+    }
+
+    public void extract(int[] rgb, int width, int height) {
+        extract(rgb, PreprocessedImage.getGray(rgb), width, height);
+    }
+
+    /**
+     * Extracts CEDD from packed RGB pixels and their grey values, both line by line.
+     */
+    void extract(int[] rgb, int[] gray, int width, int height) {
         Fuzzy10Bin Fuzzy10 = new Fuzzy10Bin(false);
         Fuzzy24Bin Fuzzy24 = new Fuzzy24Bin(false);
         RGB2HSV HSVConverter = new RGB2HSV();
@@ -102,15 +114,7 @@ public class CEDD implements LireFeature {
         double[] Fuzzy24BinResultTable = new double[24];
         double[] CEDD = new double[144];
 
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-
-        double[][] ImageGrid = new double[width][height];
         double[][] PixelCount = new double[2][2];
-        int[][] ImageGridRed = new int[width][height];
-        int[][] ImageGridGreen = new int[width][height];
-        int[][] ImageGridBlue = new int[width][height];
         int NumberOfBlocks = 1600;
         int Step_X = (int) Math.floor(width / Math.sqrt(NumberOfBlocks));
         int Step_Y = (int) Math.floor(height / Math.sqrt(NumberOfBlocks));
@@ -134,26 +138,10 @@ public class CEDD implements LireFeature {
             CEDD[i] = 0;
         }
 
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int pixel = image.getRGB(x, y);
-                ImageGridRed[x][y] = (pixel >> 16) & 0xff;
-                ImageGridGreen[x][y] = (pixel >> 8) & 0xff;
-                ImageGridBlue[x][y] = (pixel) & 0xff;
-                int mean = (int) (0.114 * ImageGridBlue[x][y] + 0.587 * ImageGridGreen[x][y] + 0.299 * ImageGridRed[x][y]);
-                ImageGrid[x][y] = mean;
-            }
-        }
-
-
         int[] CororRed = new int[Step_Y * Step_X];
         int[] CororGreen = new int[Step_Y * Step_X];
         int[] CororBlue = new int[Step_Y * Step_X];
 
-        int[] CororRedTemp = new int[Step_Y * Step_X];
-        int[] CororGreenTemp = new int[Step_Y * Step_X];
-        int[] CororBlueTemp = new int[Step_Y * Step_X];
-
         int MeanRed, MeanGreen, MeanBlue;
 
         for (int y = 0; y < height - Step_Y; y += Step_Y) {
@@ -184,25 +172,23 @@ public class CEDD implements LireFeature {
 
                 for (int i = y; i < y + Step_Y; i++) {
                     for (int j = x; j < x + Step_X; j++) {
+                        int pixel = rgb[i * width + j];
+                        double grey = gray[i * width + j];
 
-                        CororRed[TempSum] = ImageGridRed[j][i];
-                        CororGreen[TempSum] = ImageGridGreen[j][i];
-                        CororBlue[TempSum] = ImageGridBlue[j][i];
-
-                        CororRedTemp[TempSum] = ImageGridRed[j][i];
-                        CororGreenTemp[TempSum] = ImageGridGreen[j][i];
-                        CororBlueTemp[TempSum] = ImageGridBlue[j][i];
+                        CororRed[TempSum] = (pixel >> 16) & 0xff;
+                        CororGreen[TempSum] = (pixel >> 8) & 0xff;
+                        CororBlue[TempSum] = (pixel) & 0xff;
 
                         TempSum++;
 
                         if (j < (x + Step_X / 2) && i < (y + Step_Y / 2))
-                            PixelsNeighborhood.Area1 += 4 * ImageGrid[j][i] / (Step_X * Step_Y);
+                            PixelsNeighborhood.Area1 += 4 * grey / (Step_X * Step_Y);
                         if (j >= (x + Step_X / 2) && i < (y + Step_Y / 2))
-                            PixelsNeighborhood.Area2 += 4 * ImageGrid[j][i] / (Step_X * Step_Y);
+                            PixelsNeighborhood.Area2 += 4 * grey / (Step_X * Step_Y);
                         if (j < (x + Step_X / 2) && i >= (y + Step_Y / 2))
-                            PixelsNeighborhood.Area3 += 4 * ImageGrid[j][i] / (Step_X * Step_Y);
+                            PixelsNeighborhood.Area3 += 4 * grey / (Step_X * Step_Y);
                         if (j >= (x + Step_X / 2) && i >= (y + Step_Y / 2))
-                            PixelsNeighborhood.Area4 += 4 * ImageGrid[j][i] / (Step_X * Step_Y);
+                            PixelsNeighborhood.Area4 += 4 * grey / (Step_X * Step_Y);
                     }
                 }
 
@@ -321,19 +307,16 @@ public class CEDD implements LireFeature {
             throw new UnsupportedOperationException("Wrong descriptor.");
 
         // casting ...
-        tmpFeature = (CEDD) vd;
+        CEDD tmpFeature = (CEDD) vd;
 
         // check if parameters are fitting ...
         if ((tmpFeature.histogram.length != histogram.length))
             throw new UnsupportedOperationException("Histogram lengths or color spaces do not match");
 
-        // Init Tanimoto coefficient
-        Result = 0;
-        Temp1 = 0;
-        Temp2 = 0;
-        TempCount1 = 0;
-        TempCount2 = 0;
-        TempCount3 = 0;
+        // Init Tanimoto coefficient, all scratch values live on the stack so concurrent calls are safe.
+        double Temp1 = 0, Temp2 = 0;
+        double TempCount1 = 0, TempCount2 = 0, TempCount3 = 0;
+        double iTmp1, iTmp2;
 
         for (int i = 0; i < tmpFeature.histogram.length; i++) {
             Temp1 += tmpFeature.histogram[i];
@@ -352,11 +335,57 @@ public class CEDD implements LireFeature {
 
         }
 
-        Result = (100 - 100 * (TempCount1 / (TempCount2 + TempCount3 - TempCount1)));
+        double Result = (100 - 100 * (TempCount1 / (TempCount2 + TempCount3 - TempCount1)));
         return (float) Result;
 
     }
 
+    /**
+     * Tanimoto coefficient like {@link #getDistance(LireFeature)}, the 4 bit values of the other descriptor are
+     * read from the byte[] representation on the fly. Values cut off at serialization are zero. Bins being zero
+     * in one of the descriptors add nothing to the products, so they are skipped, the result stays exactly
+     * the same.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        double Temp1 = 0, Temp2 = 0;
+        double TempCount1 = 0, TempCount2 = 0, TempCount3 = 0;
+        double iTmp1, iTmp2;
+        int bytes = Math.min(length, histogram.length >> 1), tmp, value;
+
+        for (int j = offset; j < offset + bytes; j++) {
+            tmp = featureData[j] + 128;
+            Temp1 += (tmp >> 4) + (tmp & 0x000F);
+        }
+        for (int i = 0; i < histogram.length; i++) {
+            Temp2 += histogram[i];
+        }
+
+        if (Temp1 == 0 && Temp2 == 0) return 0f;
+        if (Temp1 == 0 || Temp2 == 0) return 100f;
+
+        for (int i = 0; i < histogram.length; i++) {
+            if ((i >> 1) < bytes) {
+                tmp = featureData[offset + (i >> 1)] + 128;
+                value = (i & 1) == 0 ? tmp >> 4 : tmp & 0x000F;
+            } else value = 0;
+            if (histogram[i] != 0) {
+                iTmp2 = histogram[i] / Temp2;
+                TempCount2 += iTmp2 * iTmp2;
+                if (value != 0) {
+                    iTmp1 = value / Temp1;
+                    TempCount1 += iTmp1 * iTmp2;
+                    TempCount3 += iTmp1 * iTmp1;
+                }
+            } else if (value != 0) {
+                iTmp1 = value / Temp1;
+                TempCount3 += iTmp1 * iTmp1;
+            }
+        }
+
+        double Result = (100 - 100 * (TempCount1 / (TempCount2 + TempCount3 - TempCount1)));
+        return (float) Result;
+    }
+
     @SuppressWarnings("unused")
 	private double scalarMult(double[] a, double[] b) {
         double sum = 0.0;
@@ -412,6 +441,7 @@ public class CEDD implements LireFeature {
         int length = (position + 1) / 2;
         if ((position + 1) % 2 == 1) length = position / 2 + 1;
         byte[] result = new byte[length];
+        int tmp;
         for (int i = 0; i < result.length; i++) {
             tmp = ((int) (histogram[(i << 1)])) << 4;
             tmp = (tmp | ((int) (histogram[(i << 1) + 1])));
@@ -427,7 +457,8 @@ public class CEDD implements LireFeature {
      * @see net.semanticmetadata.lire.imageanalysis.CEDD#getByteArrayRepresentation
      */
     public void setByteArrayRepresentation(byte[] in) {
-        if ((in.length << 1) < histogram.length) Arrays.fill(histogram, in.length << 1, histogram.length - 1, (byte) 0);
+        if ((in.length << 1) < histogram.length) Arrays.fill(histogram, in.length << 1, histogram.length, (byte) 0);
+        int tmp;
         for (int i = 0; i < in.length; i++) {
             tmp = in[i] + 128;
             histogram[(i << 1) + 1] = ((byte) (tmp & 0x000F));
@@ -436,7 +467,8 @@ public class CEDD implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
-        if ((length << 1) < histogram.length) Arrays.fill(histogram, length << 1, histogram.length - 1, (byte) 0);
+        if ((length << 1) < histogram.length) Arrays.fill(histogram, length << 1, histogram.length, (byte) 0);
+        int tmp;
         for (int i = offset; i < offset + length; i++) {
             tmp = in[i] + 128;
             histogram[((i - offset) << 1) + 1] = ((byte) (tmp & 0x000F));
@@ -50,7 +50,17 @@ import net.semanticmetadata.lire.imageanalysis.mpeg7.ColorLayoutImpl;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class ColorLayout extends ColorLayoutImpl implements LireFeature {
+public class ColorLayout extends ColorLayoutImpl implements RasterFeature, ByteDistanceFeature {
+    // array sizes of a new instance, setByteArrayRepresentation(...) keeps them.
+    private static final int DEFAULT_Y_COEFF = 21, DEFAULT_C_COEFF = 6;
+
+    public void extract(PreprocessedImage image) {
+        if (image.isRgbRaster())
+            extract(image.getRGB(), image.getWidth(), image.getHeight());
+        else
+            extract(image.getRgbImage());
+    }
+
     /**
      * Provides a much faster way of serialization.
      *
@@ -127,6 +137,27 @@ public class ColorLayout extends ColorLayoutImpl implements LireFeature {
         return (float) getSimilarity(YCoeff, CbCoeff, CrCoeff, cl.YCoeff, cl.CbCoeff, cl.CrCoeff);
     }
 
+    /**
+     * Same as {@link #getDistance(LireFeature)} with a new instance the bytes have been read into. Such an
+     * instance has 21 Y and 6 Cb and Cr coefficients, coefficients not given in the byte[] array are 0.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        int numY = featureData[offset];
+        int numC = featureData[offset + 1];
+        int diff, sumY = 0, sumCb = 0, sumCr = 0;
+        for (int j = 0; j < Math.min(YCoeff.length, DEFAULT_Y_COEFF); j++) {
+            diff = YCoeff[j] - (j < numY ? featureData[offset + 2 + j] : 0);
+            sumY += (weightMatrix[0][j] * diff * diff);
+        }
+        for (int j = 0; j < Math.min(CbCoeff.length, DEFAULT_C_COEFF); j++) {
+            diff = CbCoeff[j] - (j < numC ? featureData[offset + 2 + numY + j] : 0);
+            sumCb += (weightMatrix[1][j] * diff * diff);
+            diff = CrCoeff[j] - (j < numC ? featureData[offset + 2 + numY + numC + j] : 0);
+            sumCr += (weightMatrix[2][j] * diff * diff);
+        }
+        return (float) (Math.sqrt(sumY) + Math.sqrt(sumCb) + Math.sqrt(sumCr));
+    }
+
     @Override
     public String getFeatureName() {
         return "MPEG-7 Color Layout";
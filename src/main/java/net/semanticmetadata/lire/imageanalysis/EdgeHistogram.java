@@ -52,8 +52,10 @@ import net.semanticmetadata.lire.utils.ConversionUtils;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class EdgeHistogram extends EdgeHistogramImpl {
-    private int tmp;
+public class EdgeHistogram extends EdgeHistogramImpl implements RasterFeature, ByteDistanceFeature {
+    public void extract(PreprocessedImage image) {
+        extract(image.getRGB(), image.getWidth(), image.getHeight());
+    }
 
 
     /**
@@ -62,6 +64,7 @@ public class EdgeHistogram extends EdgeHistogramImpl {
      * @return
      */
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         byte[] result = new byte[edgeHistogram.length/2];
         for (int i = 0; i < result.length; i++) {
             tmp = ((int) (edgeHistogram[(i << 1)])) << 4;
@@ -82,6 +85,7 @@ public class EdgeHistogram extends EdgeHistogramImpl {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         for (int i = 0; i < length; i++) {
             tmp = in[offset+i] + 128;
             edgeHistogram[(i << 1) + 1] = ((tmp & 0x000F));
@@ -90,6 +94,10 @@ public class EdgeHistogram extends EdgeHistogramImpl {
     }
 
 
+    public float getDistance(byte[] featureData, int offset, int length) {
+        return calculateDistance(featureData, offset, length, edgeHistogram);
+    }
+
     /*
     public byte[] getByteArrayRepresentation() {
         return SerializationUtils.toByteArray(edgeHistogram);
@@ -58,16 +58,9 @@ import java.util.StringTokenizer;
  * @author: Savvas A. Chatzichristofis, savvash@gmail.com
  */
 
-public class FCTH implements LireFeature {
+public class FCTH implements RasterFeature, ByteDistanceFeature {
     public boolean Compact = false;
     protected double[] histogram = new double[192];
-    int tmp;
-    double distResult = 0;
-    double distTmp1 = 0;
-    double distTmp2 = 0;
-    double distTmpCnt1 = 0;
-    double distTmpCnt2 = 0;
-    double distTmpCnt3 = 0;
 
 
     // Constructor
@@ -78,6 +71,13 @@ public class FCTH implements LireFeature {
 
     // Apply filter
     public double[] Apply(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        return Apply(rgb, PreprocessedImage.getGray(rgb), width, height);
+    }
+
+    private double[] Apply(int[] rgb, int[] gray, int width, int height) {
         Fuzzy10Bin Fuzzy10 = new Fuzzy10Bin(false);
         Fuzzy24Bin Fuzzy24 = new Fuzzy24Bin(false);
         FuzzyFCTHpart FuccyFCTH = new FuzzyFCTHpart();
@@ -89,8 +89,6 @@ public class FCTH implements LireFeature {
 
 
         int Method = 2;
-        int width = image.getWidth();
-        int height = image.getHeight();
 
 
         for (int R = 0; R < 192; R++) {
@@ -104,24 +102,6 @@ public class FCTH implements LireFeature {
         WaveletMatrixPlus Matrix = new WaveletMatrixPlus();
 
 
-        double[][] ImageGrid = new double[width][height];
-        int[][] ImageGridRed = new int[width][height];
-        int[][] ImageGridGreen = new int[width][height];
-        int[][] ImageGridBlue = new int[width][height];
-
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int pixel = image.getRGB(x, y);
-                ImageGridRed[x][y] = (pixel >> 16) & 0xff;
-                ImageGridGreen[x][y] = (pixel >> 8) & 0xff;
-                ImageGridBlue[x][y] = (pixel) & 0xff;
-
-                int mean = (int) (0.114 * ImageGridBlue[x][y] + 0.587 * ImageGridGreen[x][y] + 0.299 * ImageGridRed[x][y]);
-                ImageGrid[x][y] = mean;
-            }
-        }
-
-
         int NumberOfBlocks = 1600;
         int Step_X = (int) Math.floor(width / Math.sqrt(NumberOfBlocks));
         int Step_Y = (int) Math.floor(height / Math.sqrt(NumberOfBlocks));
@@ -152,10 +132,6 @@ public class FCTH implements LireFeature {
                 int[] CororGreen = new int[Step_Y * Step_X];
                 int[] CororBlue = new int[Step_Y * Step_X];
 
-                int[] CororRedTemp = new int[Step_Y * Step_X];
-                int[] CororGreenTemp = new int[Step_Y * Step_X];
-                int[] CororBlueTemp = new int[Step_Y * Step_X];
-
                 int MeanRed = 0;
                 int MeanGreen = 0;
                 int MeanBlue = 0;
@@ -184,21 +160,18 @@ public class FCTH implements LireFeature {
                         if (j >= (Step_Y / 2)) CurrentPixelY = 2;
                         if (j >= (3 * Step_Y / 4)) CurrentPixelY = 3;
 
-                        Block[CurrentPixelX][CurrentPixelY] += ImageGrid[x + i][y + j];
+                        int pixel = rgb[(y + j) * width + x + i];
+                        Block[CurrentPixelX][CurrentPixelY] += gray[(y + j) * width + x + i];
                         BlockCount[CurrentPixelX][CurrentPixelY]++;
 
-                        BlockR[CurrentPixelX][CurrentPixelY] = ImageGridRed[x + i][y + j];
-                        BlockG[CurrentPixelX][CurrentPixelY] = ImageGridGreen[x + i][y + j];
-                        BlockB[CurrentPixelX][CurrentPixelY] = ImageGridBlue[x + i][y + j];
+                        BlockR[CurrentPixelX][CurrentPixelY] = (pixel >> 16) & 0xff;
+                        BlockG[CurrentPixelX][CurrentPixelY] = (pixel >> 8) & 0xff;
+                        BlockB[CurrentPixelX][CurrentPixelY] = (pixel) & 0xff;
 
                         CororRed[TempSum] = BlockR[CurrentPixelX][CurrentPixelY];
                         CororGreen[TempSum] = BlockG[CurrentPixelX][CurrentPixelY];
                         CororBlue[TempSum] = BlockB[CurrentPixelX][CurrentPixelY];
 
-                        CororRedTemp[TempSum] = BlockR[CurrentPixelX][CurrentPixelY];
-                        CororGreenTemp[TempSum] = BlockG[CurrentPixelX][CurrentPixelY];
-                        CororBlueTemp[TempSum] = BlockB[CurrentPixelX][CurrentPixelY];
-
 
                         TempSum++;
                     }
@@ -361,6 +334,21 @@ public class FCTH implements LireFeature {
         histogram = Apply(bimg);
     }
 
+    public void extract(PreprocessedImage image) {
+        extract(image.getRGB(), image.getGray(), image.getWidth(), image.getHeight());
+    }
+
+    public void extract(int[] rgb, int width, int height) {
+        extract(rgb, PreprocessedImage.getGray(rgb), width, height);
+    }
+
+    /**
+     * Extracts FCTH from packed RGB pixels and their grey values, both line by line.
+     */
+    void extract(int[] rgb, int[] gray, int width, int height) {
+        histogram = Apply(rgb, gray, width, height);
+    }
+
     /**
      * Creates a small byte array from an FCTH descriptor.
      * Stuffs 2 numbers into one byte and omits all but 1 of the trailing 0's.
@@ -368,6 +356,7 @@ public class FCTH implements LireFeature {
      * @return
      */
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         // find out the position of the beginning of the trailing zeros.
         int position = -1;
         for (int i = 0; i < histogram.length; i++) {
@@ -397,7 +386,8 @@ public class FCTH implements LireFeature {
      * @see net.semanticmetadata.lire.imageanalysis.CEDD#getByteArrayRepresentation
      */
     public void setByteArrayRepresentation(byte[] in) {
-        if (in.length << 1 < histogram.length) Arrays.fill(histogram, in.length << 1, histogram.length - 1, 0);
+        int tmp;
+        if (in.length << 1 < histogram.length) Arrays.fill(histogram, in.length << 1, histogram.length, 0);
         for (int i = 0; i < in.length; i++) {
             tmp = in[i] + 128;
             histogram[(i << 1) + 1] = ((double) (tmp & 0x000F)) / 2d;
@@ -406,7 +396,8 @@ public class FCTH implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
-        if (length << 1 < histogram.length) Arrays.fill(histogram, length << 1, histogram.length - 1, 0);
+        int tmp;
+        if (length << 1 < histogram.length) Arrays.fill(histogram, length << 1, histogram.length, 0);
         for (int i = offset; i < offset + length; i++) {
             tmp = in[i] + 128;
             histogram[((i - offset) << 1) + 1] = ((double) (tmp & 0x000F)) / 2d;
@@ -430,14 +421,13 @@ public class FCTH implements LireFeature {
         if ((ch.histogram.length != histogram.length))
             throw new UnsupportedOperationException("Histogram lengths or color spaces do not match");
 
-        // Tanimoto coefficient
-        distResult = 0;
-        distTmp1 = 0;
-        distTmp2 = 0;
+        // Tanimoto coefficient, all scratch values live on the stack so concurrent calls are safe.
+        double distTmp1 = 0;
+        double distTmp2 = 0;
 
-        distTmpCnt1 = 0;
-        distTmpCnt2 = 0;
-        distTmpCnt3 = 0;
+        double distTmpCnt1 = 0;
+        double distTmpCnt2 = 0;
+        double distTmpCnt3 = 0;
 
         for (int i = 0; i < ch.histogram.length; i++) {
             distTmp1 += ch.histogram[i];
@@ -454,11 +444,58 @@ public class FCTH implements LireFeature {
 
         }
 
-        distResult = (100 - 100 * (distTmpCnt1 / (distTmpCnt2 + distTmpCnt3 - distTmpCnt1)));
+        double distResult = (100 - 100 * (distTmpCnt1 / (distTmpCnt2 + distTmpCnt3 - distTmpCnt1)));
         return (float) distResult;
 
     }
 
+    /**
+     * Tanimoto coefficient like {@link #getDistance(LireFeature)}, the 4 bit values of the other descriptor are
+     * read from the byte[] representation on the fly. Bins being zero in one of the descriptors add nothing to
+     * the products, so they are skipped, the result stays exactly the same.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        double distTmp1 = 0;
+        double distTmp2 = 0;
+
+        double distTmpCnt1 = 0;
+        double distTmpCnt2 = 0;
+        double distTmpCnt3 = 0;
+        double value, own;
+        int bytes = Math.min(length, histogram.length >> 1), tmp;
+
+        for (int j = offset; j < offset + bytes; j++) {
+            tmp = featureData[j] + 128;
+            distTmp1 += ((double) (tmp >> 4)) / 2d + ((double) (tmp & 0x000F)) / 2d;
+        }
+        for (int i = 0; i < histogram.length; i++) {
+            distTmp2 += histogram[i];
+        }
+
+        if (distTmp1 == 0 && distTmp2 == 0) return 0f;
+        if (distTmp1 == 0 || distTmp2 == 0) return 100f;
+
+        for (int i = 0; i < histogram.length; i++) {
+            if ((i >> 1) < bytes) {
+                tmp = featureData[offset + (i >> 1)] + 128;
+                value = ((double) ((i & 1) == 0 ? tmp >> 4 : tmp & 0x000F)) / 2d;
+            } else value = 0;
+            if (histogram[i] != 0) {
+                own = histogram[i] / distTmp2;
+                distTmpCnt2 += own * own;
+                if (value != 0) {
+                    distTmpCnt1 += (value / distTmp1) * own;
+                    distTmpCnt3 += (value / distTmp1) * (value / distTmp1);
+                }
+            } else if (value != 0) {
+                distTmpCnt3 += (value / distTmp1) * (value / distTmp1);
+            }
+        }
+
+        double distResult = (100 - 100 * (distTmpCnt1 / (distTmpCnt2 + distTmpCnt3 - distTmpCnt1)));
+        return (float) distResult;
+    }
+
     public String getStringRepresentation() {
         // FCTH is quantized to 3bits / bin ... therefore ints are enough.
         StringBuilder sb = new StringBuilder(histogram.length * 2 + 25);
@@ -56,7 +56,7 @@ import java.util.StringTokenizer;
  * Fixed 2011-05-10 based on the comments of Arthur Lin.
  */
 
-public class Gabor implements LireFeature {
+public class Gabor implements ByteDistanceFeature {
 
     private static final double U_H = .4;
     private static final double U_L = .05;
@@ -318,6 +318,25 @@ public class Gabor implements LireFeature {
         return (float) getDistance(histogram, ch.histogram);
     }
 
+    /**
+     * Same as {@link #getDistance(LireFeature)}, the byte[] representation holds 8 bytes per double.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        if ((length >> 3) != histogram.length)
+            throw new UnsupportedOperationException("Histogram lengths or color spaces do not match");
+        double distance = 0, mean, deviation;
+        int pos;
+        for (int m = 0; m < M; m++) {
+            for (int n = 0; n < N; n++) {
+                pos = m * 2 * N + n * 2;
+                mean = SerializationUtils.toDouble(featureData, offset + (pos << 3));
+                deviation = SerializationUtils.toDouble(featureData, offset + ((pos + 1) << 3));
+                distance += Math.sqrt(Math.pow(mean - histogram[pos], 2) + Math.pow(deviation - histogram[pos + 1], 2));
+            }
+        }
+        return (float) distance;
+    }
+
     public String getStringRepresentation() {  // added by mlux
         StringBuilder sb = new StringBuilder(histogram.length * 2 + 25);
         sb.append("gabor");
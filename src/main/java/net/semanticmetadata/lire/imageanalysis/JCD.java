@@ -50,13 +50,8 @@ import java.util.Arrays;
  *
  * @author: Savvas A. Chatzichristofis, savvash@gmail.com
  */
-public class JCD implements LireFeature {
+public class JCD implements RasterFeature, ByteDistanceFeature {
     protected double[] data = new double[168];
-    int tmp;
-    double result = 0;
-    double temp1 = 0;
-    double temp2 = 0;
-    double TempCount1 = 0, TempCount2 = 0, TempCount3 = 0;
 
     public JCD(CEDD cedd, FCTH fcth) {
         init(cedd, fcth);
@@ -109,6 +104,23 @@ public class JCD implements LireFeature {
         f.extract(bimg);
         init(c, f);
     }
+
+    public void extract(PreprocessedImage image) {
+        CEDD c = new CEDD();
+        c.extract(image);
+        FCTH f = new FCTH();
+        f.extract(image);
+        init(c, f);
+    }
+
+    public void extract(int[] rgb, int width, int height) {
+        int[] gray = PreprocessedImage.getGray(rgb);
+        CEDD c = new CEDD();
+        c.extract(rgb, gray, width, height);
+        FCTH f = new FCTH();
+        f.extract(rgb, gray, width, height);
+        init(c, f);
+    }
 /*
     public byte[] getByteArrayRepresentation() {
         // find out the position of the beginning of the trailing zeros.
@@ -173,6 +185,7 @@ public class JCD implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         tmp = 0;
         Arrays.fill(data, 0d);
         for (int i = 0; i < length; i++) {
@@ -245,6 +258,55 @@ public class JCD implements LireFeature {
         return (float) getDistance(data, ((JCD) vd).data);
     }
 
+    /**
+     * Tanimoto coefficient like {@link #getDistance(double[], double[])}. The other descriptor is read from the
+     * byte[] representation on the fly, positive bytes are values, negative ones runs of zeros.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        double temp1 = 0;
+        double temp2 = 0;
+
+        double TempCount1 = 0;
+        double TempCount2 = 0;
+        double TempCount3 = 0;
+        double value, own;
+
+        for (int i = 0; i < data.length; i++) {
+            temp1 += data[i];
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if (featureData[i] > 0) temp2 += ((double) featureData[i]) / 2d;
+        }
+
+        if (temp1 == 0 && temp2 == 0) return 0f;
+        if (temp1 == 0 || temp2 == 0) return 100f;
+
+        int pos = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (featureData[i] > 0) {
+                value = ((double) featureData[i]) / 2d;
+                own = data[pos] / temp1;
+                TempCount1 += (value / temp2) * own;
+                TempCount2 += own * own;
+                TempCount3 += (value / temp2) * (value / temp2);
+                pos++;
+            } else {
+                // zeros of the other descriptor only add to the own sum of squares.
+                for (int j = featureData[i]; j < 0; j++) {
+                    own = data[pos] / temp1;
+                    TempCount2 += own * own;
+                    pos++;
+                }
+            }
+        }
+        for (; pos < data.length; pos++) {
+            own = data[pos] / temp1;
+            TempCount2 += own * own;
+        }
+
+        return (float) (100d - 100d * (TempCount1 / (TempCount2 + TempCount3 - TempCount1)));
+    }
+
     public String getStringRepresentation() {
         throw new UnsupportedOperationException("This is not meant to be used!");
     }
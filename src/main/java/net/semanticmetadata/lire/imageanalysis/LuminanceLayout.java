@@ -58,7 +58,6 @@ import java.awt.image.ColorConvertOp;
  */
 public class LuminanceLayout implements LireFeature {
     double[] histogram;
-    int tmp;
     static ColorConvertOp grayscale = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY),
             new RenderingHints(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR));
     private int sideLength = 8;
@@ -74,15 +74,13 @@ import java.util.StringTokenizer;
     ISSN={0162-8828},
 }
 */
-public class OpponentHistogram extends Histogram implements LireFeature {
+public class OpponentHistogram extends Histogram implements PreprocessedImageFeature, ByteDistanceFeature {
     final double sq2 = Math.sqrt(2d);
     final double sq6 = Math.sqrt(3d);
     final double sq3 = Math.sqrt(6d);
 
     double o1, o2, o3;
 
-    double tmpVal, tmpSum;
-
     byte[] histogram = new byte[64];
 
     @Override
@@ -122,6 +120,10 @@ public class OpponentHistogram extends Histogram implements LireFeature {
         }
     }
 
+    public void extract(PreprocessedImage image) {
+        extract(image.getRgbImage());
+    }
+
     public byte[] getByteArrayRepresentation() {
         byte[] result = new byte[histogram.length];
         for (int i = 0; i < result.length; i++) {
@@ -152,6 +154,21 @@ public class OpponentHistogram extends Histogram implements LireFeature {
         return (float) MetricsUtils.jsd(((OpponentHistogram) feature).histogram, histogram);
     }
 
+    /**
+     * Same as {@link #getDistance(LireFeature)}, the byte[] representation holds one byte per bin.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        double sum = 0d;
+        byte h1, h2;
+        for (int i = 0; i < length; i++) {
+            h1 = featureData[offset + i];
+            h2 = histogram[i];
+            sum += (h1 > 0 ? h1 * Math.log(2d * h1 / (h1 + h2)) : 0) +
+                    (h2 > 0 ? h2 * Math.log(2d * h2 / (h1 + h2)) : 0);
+        }
+        return (float) sum;
+    }
+
     public double getDistance(byte[] h1, byte[] h2) {
         return getDistance(h1, 0, h1.length, h2, 0, h2.length);
     }
@@ -175,7 +192,7 @@ public class OpponentHistogram extends Histogram implements LireFeature {
 //                    (h2[i] > 0 ? (h2[i] / 2f) * Math.log((2f * h2[i]) / (h1[i] + h2[i])) : 0);
 //        }
 //        return (float) sum;
-        tmpSum = 0;
+        double tmpVal, tmpSum = 0;
         for (int i = 0; i < length1; i++) {
             tmpVal = (double) (h1[i+offset1] + h2[i+offset2]);
             tmpSum += (h1[i+offset1] > 0 ? ((double) h1[i+offset1] / 2d) * Math.log((2d * h1[i+offset1]) / tmpVal) : 0) +
@@ -55,13 +55,12 @@ import java.awt.image.ColorConvertOp;
  *
  * @author Mathias Lux, mathias@juggle.at, 05.04.13
  */
-public class PHOG implements LireFeature {
+public class PHOG implements ByteDistanceFeature {
     static ColorConvertOp grayscale = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
     int[] tmp255 = {255};
     int[] tmp128 = {128};
     int[] tmp000 = {0};
     int[] tmpPixel = {0};
-    int tmp;
     // double thresholds for Canny edge detector
     double thresholdLow = 60, thresholdHigh = 100;
 
@@ -331,6 +330,7 @@ public class PHOG implements LireFeature {
     }
 
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         byte[] result = new byte[histogram.length / 2];
         for (int i = 0; i < result.length; i++) {
             tmp = ((int) (histogram[(i << 1)])) << 4;
@@ -346,6 +346,7 @@ public class PHOG implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         for (int i = 0; i < length; i++) {
             tmp = in[i+offset] + 128;
             histogram[(i << 1) + 1] = (byte) (tmp & 0x000F);
@@ -370,6 +371,25 @@ public class PHOG implements LireFeature {
         return (float) MetricsUtils.distL1(histogram, ((PHOG) feature).histogram);
     }
 
+    /**
+     * L1 distance like {@link #getDistance(LireFeature)}, reading the 4 bit values of the other descriptor from
+     * its byte[] representation.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        double sum = 0f;
+        int bytes = Math.min(length, histogram.length >> 1), tmp;
+        for (int j = 0; j < bytes; j++) {
+            tmp = featureData[offset + j] + 128;
+            sum += Math.abs(histogram[j << 1] - (tmp >> 4));
+            sum += Math.abs(histogram[(j << 1) + 1] - (tmp & 0x000F));
+        }
+        // values cut off at serialization are zero.
+        for (int i = bytes << 1; i < histogram.length; i++) {
+            sum += Math.abs(histogram[i]);
+        }
+        return (float) sum;
+    }
+
     @Override
     public String getStringRepresentation() {
         return null;
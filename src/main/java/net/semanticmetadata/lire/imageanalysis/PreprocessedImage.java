@@ -0,0 +1,237 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.imageanalysis;
+
+import net.semanticmetadata.lire.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * An image prepared once for the extraction of several features, e.g. by a ChainedDocumentBuilder.
+ * It holds the image scaled to the maximum side length and creates the 8 bit RGB version, the packed
+ * RGB raster and the grey and HSV planes lazily on first request, so each of them is computed at most
+ * once no matter how many features use it. Instances are not thread safe, they are meant to be used
+ * for one image in one thread.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class PreprocessedImage {
+    private final BufferedImage image;
+    private BufferedImage rgbImage = null;
+    private int[] rgb = null, gray = null, hsv = null;
+
+    /**
+     * @param image the image, it is used as it is.
+     */
+    public PreprocessedImage(BufferedImage image) {
+        this.image = image;
+    }
+
+    /**
+     * @param image         the image.
+     * @param maxSideLength images with a side longer than this are scaled down with {@link ImageUtils#scaleImage(java.awt.image.BufferedImage, int)}
+     */
+    public PreprocessedImage(BufferedImage image, int maxSideLength) {
+        if (Math.max(image.getHeight(), image.getWidth()) > maxSideLength)
+            image = ImageUtils.scaleImage(image, maxSideLength);
+        this.image = image;
+    }
+
+    /**
+     * @return the (scaled) image, the same instance a feature would get in {@link LireFeature#extract(java.awt.image.BufferedImage)}
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    /**
+     * @return the image as returned by {@link ImageUtils#get8BitRGBImage(java.awt.image.BufferedImage)}.
+     */
+    public BufferedImage getRgbImage() {
+        if (rgbImage == null) rgbImage = ImageUtils.get8BitRGBImage(image);
+        return rgbImage;
+    }
+
+    /**
+     * Returns true if the raster of {@link #getRgbImage()} holds sRGB samples, i.e. <code>getRaster().getPixel(x, y, pixel)</code>
+     * yields the same values as the planes here.
+     */
+    public boolean isRgbRaster() {
+        return getRgbImage().getColorModel().getColorSpace().isCS_sRGB();
+    }
+
+    /**
+     * @return the pixels of {@link #getRgbImage()} as packed ARGB values, line by line, like
+     * {@link java.awt.image.BufferedImage#getRGB(int, int)} returns them.
+     */
+    public int[] getRGB() {
+        if (rgb == null) rgb = getRGB(getRgbImage());
+        return rgb;
+    }
+
+    /**
+     * Returns the pixels of an image as packed ARGB values, line by line, like
+     * {@link java.awt.image.BufferedImage#getRGB(int, int, int, int, int[], int, int)} does. For sRGB images of
+     * TYPE_INT_RGB and TYPE_3BYTE_BGR the values are copied directly from the DataBuffer.
+     *
+     * @param image the image.
+     * @return the pixels as ARGB values.
+     */
+    public static int[] getRGB(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        WritableRaster raster = image.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        if (raster.getParent() == null && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && image.getColorModel().getColorSpace().isCS_sRGB()) {
+            DataBuffer buffer = raster.getDataBuffer();
+            if (image.getType() == BufferedImage.TYPE_INT_RGB && sm instanceof SinglePixelPackedSampleModel
+                    && ((SinglePixelPackedSampleModel) sm).getScanlineStride() == width) {
+                int[] data = ((DataBufferInt) buffer).getData();
+                int offset = buffer.getOffset();
+                int[] rgb = new int[width * height];
+                for (int i = 0; i < rgb.length; i++) {
+                    rgb[i] = 0xff000000 | data[offset + i];
+                }
+                return rgb;
+            } else if (image.getType() == BufferedImage.TYPE_3BYTE_BGR && sm instanceof ComponentSampleModel) {
+                ComponentSampleModel csm = (ComponentSampleModel) sm;
+                int[] bandOffsets = csm.getBandOffsets();
+                if (csm.getPixelStride() == 3 && csm.getScanlineStride() == 3 * width
+                        && bandOffsets[0] == 2 && bandOffsets[1] == 1 && bandOffsets[2] == 0) {
+                    byte[] data = ((DataBufferByte) buffer).getData();
+                    int offset = buffer.getOffset();
+                    int[] rgb = new int[width * height];
+                    for (int i = 0; i < rgb.length; i++, offset += 3) {
+                        rgb[i] = 0xff000000 | ((data[offset + 2] & 0xff) << 16) | ((data[offset + 1] & 0xff) << 8) | (data[offset] & 0xff);
+                    }
+                    return rgb;
+                }
+            }
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * @return the grey values of {@link #getRGB()}, computed as <code>(int) (0.114 * b + 0.587 * g + 0.299 * r)</code>
+     * like in CEDD and FCTH.
+     */
+    public int[] getGray() {
+        if (gray == null) gray = getGray(getRGB());
+        return gray;
+    }
+
+    /**
+     * @param rgb packed RGB pixels.
+     * @return the grey values computed as <code>(int) (0.114 * b + 0.587 * g + 0.299 * r)</code>.
+     */
+    public static int[] getGray(int[] rgb) {
+        int[] gray = new int[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            int pixel = rgb[i];
+            gray[i] = (int) (0.114 * (pixel & 0xff) + 0.587 * ((pixel >> 8) & 0xff) + 0.299 * ((pixel >> 16) & 0xff));
+        }
+        return gray;
+    }
+
+    /**
+     * @return the pixels of {@link #getRGB()} in HSV, three values per pixel: hue in [0,359],
+     * saturation and value in [0,255].
+     */
+    public int[] getHSV() {
+        if (hsv == null) hsv = getHSV(getRGB());
+        return hsv;
+    }
+
+    /**
+     * @param rgb packed RGB pixels.
+     * @return the HSV values, three per pixel, see {@link #rgbToHsv(int, int, int, int[], int)}.
+     */
+    public static int[] getHSV(int[] rgb) {
+        int[] hsv = new int[rgb.length * 3];
+        for (int i = 0; i < rgb.length; i++) {
+            int pixel = rgb[i];
+            rgbToHsv((pixel >> 16) & 0xff, (pixel >> 8) & 0xff, pixel & 0xff, hsv, i * 3);
+        }
+        return hsv;
+    }
+
+    /**
+     * Converts RGB to HSV with hue in [0,359], saturation and value in [0,255].
+     */
+    public static void rgbToHsv(int r, int g, int b, int[] hsv, int offset) {
+        int max = Math.max(Math.max(r, g), b);
+        int min = Math.min(Math.min(r, g), b);
+        float hue = 0f;
+        if (max == 0)
+            hsv[offset + 1] = 0;
+        else
+            hsv[offset + 1] = (int) (((max - min) / (float) max) * 255f);
+        if (max != min) {
+            float maxMinusMin = (float) (max - min);
+            if (r == max)
+                hue = ((g - b) / maxMinusMin);
+            else if (g == max)
+                hue = (2 + (b - r) / maxMinusMin);
+            else
+                hue = (4 + (r - g) / maxMinusMin);
+            hue *= 60f;
+            if (hue < 0f)
+                hue += 360f;
+        }
+        hsv[offset] = (int) (hue);
+        hsv[offset + 2] = max;
+    }
+}
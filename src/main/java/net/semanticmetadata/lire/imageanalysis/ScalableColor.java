@@ -53,7 +53,7 @@ import net.semanticmetadata.lire.utils.SerializationUtils;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class ScalableColor extends ScalableColorImpl implements LireFeature {
+public class ScalableColor extends ScalableColorImpl implements ByteDistanceFeature {
 
     public byte[] getByteArrayRepresentation() {
         /*
@@ -97,6 +97,24 @@ public class ScalableColor extends ScalableColorImpl implements LireFeature {
         }
     }
 
+    /**
+     * L1 distance like {@link #getDistance(LireFeature)}, the byte[] representation holds the number of discarded
+     * bit planes, the number of coefficients and the coefficients, each as a 4 byte int.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        if (SerializationUtils.toInt(featureData, offset) != NumberOfBitplanesDiscarded ||
+                SerializationUtils.toInt(featureData, offset + 4) != NumberOfCoefficients ||
+                haarTransformedHistogram == null) {
+            logger.info("NumberOfBitplanesDiscarded and/or NumberOfCoefficients not matching");
+            return -1f;
+        }
+        int diffsum = 0;
+        for (int l = 0; l < NumberOfCoefficients; l++) {
+            diffsum += Math.abs(SerializationUtils.toInt(featureData, offset + 8 + (l << 2)) - haarTransformedHistogram[l]);
+        }
+        return (float) diffsum;
+    }
+
     public double[] getDoubleHistogram() {
         int[] result = new int[NumberOfCoefficients];
         for (int i = 2; i < result.length; i++) {
@@ -61,7 +61,7 @@ import java.util.StringTokenizer;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class SimpleColorHistogram implements LireFeature {
+public class SimpleColorHistogram implements RasterFeature {
     public static int DEFAULT_NUMBER_OF_BINS = 64;
     public static HistogramType DEFAULT_HISTOGRAM_TYPE = HistogramType.RGB;
     public static DistanceFunction DEFAULT_DISTANCE_FUNCTION = DistanceFunction.L2;
@@ -198,20 +198,42 @@ public class SimpleColorHistogram implements LireFeature {
         for (int x = 0; x < image.getWidth(); x++) {
             for (int y = 0; y < image.getHeight(); y++) {
                 raster.getPixel(x, y, pixel);	//获取第i,j个像素点，存放于pixel中，pixel[0]=R，pixel[1]=G，pixel[2]=B。
-                if (histogramType == HistogramType.HSV) {
-                    rgb2hsv(pixel[0], pixel[1], pixel[2], pixel);
-                    histogram[quant(pixel)]++;
-                } else if (histogramType == HistogramType.Luminance) {
-                    rgb2yuv(pixel[0], pixel[1], pixel[2], pixel);
-                } else if (histogramType == HistogramType.HMMD) {
-                    histogram[quantHmmd(rgb2hmmd(pixel[0], pixel[1], pixel[2]), DEFAULT_NUMBER_OF_BINS)]++;
-                } else // RGB 
-                    histogram[quant(pixel)]++; //将直方图对应特征点数值递增
+                addPixel(pixel);
             }
         }
         normalize(histogram, image.getWidth() * image.getHeight());
     }
 
+    public void extract(PreprocessedImage image) {
+        if (image.isRgbRaster())
+            extract(image.getRGB(), image.getWidth(), image.getHeight());
+        else
+            extract(image.getRgbImage());
+    }
+
+    public void extract(int[] rgb, int width, int height) {
+        Arrays.fill(histogram, 0);
+        for (int i = 0; i < rgb.length; i++) {
+            pixel[0] = (rgb[i] >> 16) & 0xff;
+            pixel[1] = (rgb[i] >> 8) & 0xff;
+            pixel[2] = rgb[i] & 0xff;
+            addPixel(pixel);
+        }
+        normalize(histogram, width * height);
+    }
+
+    private void addPixel(int[] pixel) {
+        if (histogramType == HistogramType.HSV) {
+            rgb2hsv(pixel[0], pixel[1], pixel[2], pixel);
+            histogram[quant(pixel)]++;
+        } else if (histogramType == HistogramType.Luminance) {
+            rgb2yuv(pixel[0], pixel[1], pixel[2], pixel);
+        } else if (histogramType == HistogramType.HMMD) {
+            histogram[quantHmmd(rgb2hmmd(pixel[0], pixel[1], pixel[2]), DEFAULT_NUMBER_OF_BINS)]++;
+        } else // RGB 
+            histogram[quant(pixel)]++; //将直方图对应特征点数值递增
+    }
+
     public byte[] getByteArrayRepresentation() {
         return SerializationUtils.toByteArray(histogram);
     }
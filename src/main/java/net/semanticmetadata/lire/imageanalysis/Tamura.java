@@ -65,7 +65,7 @@ import java.util.StringTokenizer;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class Tamura implements LireFeature {
+public class Tamura implements ByteDistanceFeature {
     private static final int MAX_IMG_HEIGHT = 64;
     private int[][] grayScales;
     private int imgWidth, imgHeight;
@@ -326,6 +326,17 @@ public class Tamura implements LireFeature {
         return (float) getDistance(tamura.histogram, histogram);
     }
 
+    /**
+     * Same as {@link #getDistance(LireFeature)}, the byte[] representation holds 8 bytes per double.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        double result = 0;
+        for (int i = 2; i < length >> 3; i++) {
+            result += Math.pow(SerializationUtils.toDouble(featureData, offset + (i << 3)) - histogram[i], 2);
+        }
+        return (float) result;
+    }
+
     public String getStringRepresentation() {
         StringBuilder sb = new StringBuilder(histogram.length * 16);
         sb.append(TAMURA_NAME);
@@ -42,26 +42,39 @@ package net.semanticmetadata.lire.imageanalysis.bovw;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.clustering.Cluster;
+import net.semanticmetadata.lire.clustering.ExactQuantizer;
 import net.semanticmetadata.lire.clustering.KMeans;
+import net.semanticmetadata.lire.clustering.KdForestQuantizer;
+import net.semanticmetadata.lire.clustering.MiniBatchKMeans;
 import net.semanticmetadata.lire.clustering.ParallelKMeans;
+import net.semanticmetadata.lire.clustering.VisualWordQuantizer;
+import net.semanticmetadata.lire.clustering.Vocabulary;
 import net.semanticmetadata.lire.imageanalysis.Histogram;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.utils.ConcurrencyUtils;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import javax.swing.*;
+import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * General class creating bag of visual words vocabularies parallel based on k-means. Works with SIFT, SURF and MSER.
@@ -76,6 +89,8 @@ public abstract class LocalFeatureHistogramBuilder {
     private int numDocsForVocabulary = 100;
     private int numClusters = 512;
     private Cluster[] clusters = null;
+    private Vocabulary vocabulary = null;
+    private VisualWordQuantizer quantizer = null;
     DecimalFormat df = (DecimalFormat) NumberFormat.getNumberInstance();
     private ProgressMonitor pm = null;
 
@@ -85,6 +100,14 @@ public abstract class LocalFeatureHistogramBuilder {
     protected String clusterFile = "./clusters.dat";
     public static boolean DELETE_LOCAL_FEATURES = true;
     private boolean useParallelClustering = true;
+    private boolean useMiniBatchClustering = false;
+    private boolean useApproximateQuantization = false;
+    private Directory visualWordsDirectory = null;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Number of documents processed at once by a thread while creating the histograms.
+     */
+    private static final int CHUNK_SIZE = 64;
 
 
     public LocalFeatureHistogramBuilder(IndexReader reader) {
@@ -122,8 +145,9 @@ public abstract class LocalFeatureHistogramBuilder {
     /**
      * Uses an existing index, where each and every document should have a set of local features. A number of
      * random images (numDocsForVocabulary) is selected and clustered to get a vocabulary of visual words
-     * (the cluster means). For all images a histogram on the visual words is created and added to the documents.
-     * Pre-existing histograms are deleted, so this method can be used for re-indexing.
+     * (the cluster means). For all images a histogram on the visual words is created and added to the documents, or
+     * written to a separate index, see {@link #setVisualWordsDirectory(Directory)}. Pre-existing histograms are
+     * deleted, so this method can be used for re-indexing. Deleted documents are dropped.
      *
      * @throws java.io.IOException
      */
@@ -131,6 +155,41 @@ public abstract class LocalFeatureHistogramBuilder {
         df.setMaximumFractionDigits(3);
         // find the documents for building the vocabulary:
         HashSet<Integer> docIDs = selectVocabularyDocs();
+        if (useMiniBatchClustering) clusters = clusterMiniBatch(docIDs);
+        else clusters = cluster(docIDs);
+        // Serializing clusters to a file on the disk ...
+        Cluster.writeClusters(clusters, clusterFile);
+        // the histograms are created with the means as stored, just like the visual words of queries.
+        vocabulary = Vocabulary.load(new File(clusterFile));
+        quantizer = vocabulary.getQuantizer(useApproximateQuantization);
+        //  create & store histograms:
+        System.out.println("Creating histograms ...");
+        double time = System.currentTimeMillis();
+        if (pm != null) { // set to 50 of 100 after clustering.
+            pm.setProgress(50);
+            pm.setNote("Clustering finished");
+        }
+        IndexWriter iw = createHistogramWriter(true);
+        createHistograms(iw, false, DELETE_LOCAL_FEATURES);
+        if (pm != null) { // set to 95 of 100 after indexing.
+            pm.setProgress(95);
+            pm.setNote("Indexing finished, committing index now.");
+        }
+        System.out.println(getDuration(time));
+        iw.commit();
+        iw.close();
+        if (pm != null) {
+            pm.setProgress(100);
+            pm.setNote("Indexing finished");
+            pm.close();
+        }
+        System.out.println("Finished.");
+    }
+
+    /**
+     * Clusters all local features of the given documents in memory with {@link KMeans} or {@link ParallelKMeans}.
+     */
+    private Cluster[] cluster(HashSet<Integer> docIDs) throws IOException {
         KMeans k;
         if (useParallelClustering) k = new ParallelKMeans(numClusters);
         else k = new KMeans(numClusters);
@@ -197,109 +256,130 @@ public abstract class LocalFeatureHistogramBuilder {
             }
             cstep++;
         }
-        // Serializing clusters to a file on the disk ...
-        clusters = k.getClusters();
 //        for (int i = 0; i < clusters.length; i++) {
 //            Cluster cluster = clusters[i];
 //            System.out.print(cluster.getMembers().size() + ", ");
 //        }
 //        System.out.println();
-        Cluster.writeClusters(clusters, clusterFile);
-        //  create & store histograms:
-        System.out.println("Creating histograms ...");
-        time = System.currentTimeMillis();
-        int[] tmpHist = new int[numClusters];
-        IndexWriter iw = LuceneUtils.createIndexWriter(((DirectoryReader) reader).directory(), true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer, 256d);
-        if (pm != null) { // set to 50 of 100 after clustering.
-            pm.setProgress(50);
-            pm.setNote("Clustering finished");
-        }
-        // parallelized indexing
-        LinkedList<Thread> threads = new LinkedList<Thread>();
-        int numThreads = 4;
-        // careful: copy reader to RAM for faster access when reading ...
-//        reader = IndexReader.open(new RAMDirectory(reader.directory()), true);
-        int step = reader.maxDoc() / numThreads;
-        for (int part = 0; part < numThreads; part++) {
-            Indexer indexer = null;
-            if (part < numThreads - 1) indexer = new Indexer(part * step, (part + 1) * step, iw, null);
-            else indexer = new Indexer(part * step, reader.maxDoc(), iw, pm);
-            Thread t = new Thread(indexer);
-            threads.add(t);
-            t.start();
-        }
-        for (Iterator<Thread> iterator = threads.iterator(); iterator.hasNext(); ) {
-            Thread next = iterator.next();
-            try {
-                next.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        return k.getClusters();
+    }
+
+    /**
+     * Streams the local features of the given documents through {@link MiniBatchKMeans}, so only the means and one
+     * batch of features are kept in memory.
+     */
+    private Cluster[] clusterMiniBatch(HashSet<Integer> docIDs) throws IOException {
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int[] docs = new int[docIDs.size()];
+        int numDocs = 0;
+        for (Iterator<Integer> iterator = docIDs.iterator(); iterator.hasNext(); ) {
+            int nextDoc = iterator.next();
+            if (liveDocs == null || liveDocs.get(nextDoc)) docs[numDocs++] = nextDoc;
         }
-        if (pm != null) { // set to 50 of 100 after clustering.
-            pm.setProgress(95);
-            pm.setNote("Indexing finished, optimizing index now.");
+        docs = Arrays.copyOf(docs, numDocs);
+        Arrays.sort(docs);
+        if (pm != null) { // set to 5 of 100 before clustering starts.
+            pm.setProgress(5);
+            pm.setNote("Starting clustering");
         }
+        System.out.println("Starting mini-batch clustering ...");
+        double time = System.currentTimeMillis();
+        MiniBatchKMeans k = new MiniBatchKMeans(numClusters);
+        k.setNumThreads(numThreads);
+        Cluster[] result = k.train(reader, docs, localFeatureFieldName, getFeatureInstance());
+        System.out.println(getDuration(time) + " -> " + k.getIterations() + " passes, average distance " + df.format(k.getStress()));
+        return result;
+    }
 
-        System.out.println(getDuration(time));
+
+    /**
+     * Creates the histograms for documents that do not have them yet, using the vocabulary created by
+     * {@link #index()} before. With {@link #setVisualWordsDirectory(Directory)} these are the documents whose
+     * identifier is not in the separate index. The local features are kept.
+     *
+     * @throws IOException
+     */
+    public void indexMissing() throws IOException {
+        // Reading clusters from disk, if changed:
+        vocabulary = Vocabulary.load(new File(clusterFile));
+        quantizer = vocabulary.getQuantizer(useApproximateQuantization);
+        //  create & store histograms:
+        System.out.println("Creating histograms ...");
+        IndexWriter iw = createHistogramWriter(false);
+        createHistograms(iw, true, false);
         iw.commit();
-        // this one does the "old" commit(), it removes the deleted SURF features.
-        iw.forceMerge(1);
         iw.close();
-        if (pm != null) { // set to 50 of 100 after clustering.
-            pm.setProgress(100);
-            pm.setNote("Indexing & optimization finished");
-            pm.close();
-        }
         System.out.println("Finished.");
     }
 
+    /**
+     * Opens the writer for the histograms, on the index of the reader or on the visual words directory.
+     *
+     * @param create true to create a new index, removing all documents, false to append.
+     */
+    private IndexWriter createHistogramWriter(boolean create) throws IOException {
+        Directory directory = visualWordsDirectory != null ? visualWordsDirectory : ((DirectoryReader) reader).directory();
+        return LuceneUtils.createIndexWriter(directory, create, LuceneUtils.AnalyzerType.WhitespaceAnalyzer, 256d);
+    }
 
-    public void indexMissing() throws IOException {
-        // Reading clusters from disk:
-        clusters = Cluster.readClusters(clusterFile);
-        //  create & store histograms:
-        System.out.println("Creating histograms ...");
-        int[] tmpHist = new int[numClusters];
-        LireFeature f = getFeatureInstance();
-        IndexWriter iw = LuceneUtils.createIndexWriter(((DirectoryReader) reader).directory(), true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
-        for (int i = 0; i < reader.maxDoc(); i++) {
-//            if (!reader.isDeleted(i)) {
-            for (int j = 0; j < tmpHist.length; j++) {
-                tmpHist[j] = 0;
+    /**
+     * Creates the histograms of all live documents in parallel. The documents are split into chunks of
+     * {@link #CHUNK_SIZE}, which are taken from a queue by the threads of a pool of its own, so threads
+     * finishing early take over remaining work.
+     *
+     * @param iw                  the writer for the histograms.
+     * @param onlyMissing         true to skip documents that already have a histogram.
+     * @param deleteLocalFeatures true to remove the local features when updating the documents in place.
+     */
+    private void createHistograms(IndexWriter iw, boolean onlyMissing, boolean deleteLocalFeatures) throws IOException {
+        if (onlyMissing && visualWordsDirectory != null && DirectoryReader.indexExists(visualWordsDirectory)) {
+            // the identifiers already in the separate index.
+            DirectoryReader visualWordsReader = DirectoryReader.open(visualWordsDirectory);
+            try {
+                Terms existing = MultiFields.getTerms(visualWordsReader, DocumentBuilder.FIELD_NAME_IDENTIFIER);
+                createHistograms(iw, onlyMissing, deleteLocalFeatures, existing);
+            } finally {
+                visualWordsReader.close();
             }
-            Document d = reader.document(i);
-            // Only if there are no values yet:
-            if (d.getValues(visualWordsFieldName) == null || d.getValues(visualWordsFieldName).length == 0) {
-                IndexableField[] fields = d.getFields(localFeatureFieldName);
-                // find the appropriate cluster for each feature:
-                for (int j = 0; j < fields.length; j++) {
-                    f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
-                    tmpHist[clusterForFeature((Histogram) f)]++;
-                }
-                normalize(tmpHist);
-                d.add(new TextField(visualWordsFieldName, arrayToVisualWordString(tmpHist), Field.Store.YES));
-                d.add(new StringField(localFeatureHistFieldName, SerializationUtils.arrayToString(tmpHist), Field.Store.YES));
-                // now write the new one. we use the identifier to update ;)
-                iw.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]), d);
+        } else createHistograms(iw, onlyMissing, deleteLocalFeatures, null);
+    }
+
+    private void createHistograms(IndexWriter iw, boolean onlyMissing, boolean deleteLocalFeatures, Terms existing) throws IOException {
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        AtomicInteger processed = new AtomicInteger(0);
+        List<Indexer> chunks = new LinkedList<Indexer>();
+        int[] docs = new int[CHUNK_SIZE];
+        int size = 0;
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+            docs[size++] = i;
+            if (size == CHUNK_SIZE) {
+                chunks.add(new Indexer(Arrays.copyOf(docs, size), iw, onlyMissing, deleteLocalFeatures, existing, processed));
+                size = 0;
             }
-//            }
         }
-        iw.commit();
-        iw.close();
-        System.out.println("Finished.");
+        if (size > 0) chunks.add(new Indexer(Arrays.copyOf(docs, size), iw, onlyMissing, deleteLocalFeatures, existing, processed));
+        // a pool of its own, so the hours of a big index do not block the shared pool of the searchers.
+        ExecutorService executor = numThreads > 1 ? ConcurrencyUtils.newDaemonThreadPool(numThreads, "lire-visual-words") : null;
+        try {
+            ConcurrencyUtils.invokeAll(executor, chunks);
+        } finally {
+            if (executor != null) executor.shutdown();
+        }
     }
 
     /**
      * Takes one single document and creates the visual words and adds them to the document. The same document is returned.
+     * The vocabulary is read from the cluster file on the first call only, see {@link Vocabulary#load(File)}.
      *
      * @param d the document to use for adding the visual words
      * @return
      * @throws IOException
      */
     public Document getVisualWords(Document d) throws IOException {
-        clusters = Cluster.readClusters(clusterFile);
-        int[] tmpHist = new int[clusters.length];
+        if (vocabulary == null) vocabulary = Vocabulary.load(new File(clusterFile));
+        quantizer = vocabulary.getQuantizer(useApproximateQuantization);
+        int[] tmpHist = new int[vocabulary.getNumClusters()];
         LireFeature f = getFeatureInstance();
         IndexableField[] fields = d.getFields(localFeatureFieldName);
         // find the appropriate cluster for each feature:
@@ -308,7 +388,7 @@ public abstract class LocalFeatureHistogramBuilder {
             tmpHist[clusterForFeature((Histogram) f)]++;
         }
         normalize(tmpHist);
-        d.add(new TextField(visualWordsFieldName, arrayToVisualWordString(tmpHist), Field.Store.YES));
+        VisualWords.addFields(d, visualWordsFieldName, tmpHist);
         d.add(new StringField(localFeatureHistFieldName, SerializationUtils.arrayToString(tmpHist), Field.Store.YES));
         d.removeFields(localFeatureFieldName);
         return d;
@@ -331,30 +411,7 @@ public abstract class LocalFeatureHistogramBuilder {
      * @return the index of the cluster.
      */
     private int clusterForFeature(Histogram f) {
-        double distance = clusters[0].getDistance(f);
-        double tmp;
-        int result = 0;
-        for (int i = 1; i < clusters.length; i++) {
-            tmp = clusters[i].getDistance(f);
-            if (tmp < distance) {
-                distance = tmp;
-                result = i;
-            }
-        }
-        return result;
-    }
-
-    private String arrayToVisualWordString(int[] hist) {
-        StringBuilder sb = new StringBuilder(1024);
-        for (int i = 0; i < hist.length; i++) {
-            int visualWordIndex = hist[i];
-            for (int j = 0; j < visualWordIndex; j++) {
-                sb.append('v');
-                sb.append(i);
-                sb.append(' ');
-            }
-        }
-        return sb.toString();
+        return quantizer.getVisualWord(f.descriptor);
     }
 
     private HashSet<Integer> selectVocabularyDocs() throws IOException {
@@ -388,59 +445,73 @@ public abstract class LocalFeatureHistogramBuilder {
 
     protected abstract LireFeature getFeatureInstance();
 
-    private class Indexer implements Runnable {
-        int start, end;
-        IndexWriter iw;
-        ProgressMonitor pm = null;
+    /**
+     * Creates the histograms of a chunk of documents.
+     */
+    private class Indexer implements Callable<Object> {
+        private final int[] docs;
+        private final IndexWriter iw;
+        private final boolean onlyMissing, deleteLocalFeatures;
+        private final Terms existing;
+        private final AtomicInteger processed;
 
-        private Indexer(int start, int end, IndexWriter iw, ProgressMonitor pm) {
-            this.start = start;
-            this.end = end;
+        private Indexer(int[] docs, IndexWriter iw, boolean onlyMissing, boolean deleteLocalFeatures, Terms existing, AtomicInteger processed) {
+            this.docs = docs;
             this.iw = iw;
-            this.pm = pm;
+            this.onlyMissing = onlyMissing;
+            this.deleteLocalFeatures = deleteLocalFeatures;
+            this.existing = existing;
+            this.processed = processed;
         }
 
-        public void run() {
-            int[] tmpHist = new int[numClusters];
+        public Object call() throws IOException {
+            int[] tmpHist = new int[vocabulary.getNumClusters()];
             LireFeature f = getFeatureInstance();
-            for (int i = start; i < end; i++) {
-                try {
-//                    if (!reader.isDeleted(i)) {    // TODO!
-                    for (int j = 0; j < tmpHist.length; j++) {
-                        tmpHist[j] = 0;
-                    }
-                    Document d = reader.document(i);
+            // a TermsEnum is not thread safe, one per chunk.
+            TermsEnum existingIds = existing != null ? existing.iterator(null) : null;
+            for (int i = 0; i < docs.length; i++) {
+                Document d = reader.document(docs[i]);
+                String identifier = d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
+                boolean skip = false;
+                if (onlyMissing) {
+                    if (visualWordsDirectory == null) skip = d.getValues(visualWordsFieldName).length > 0;
+                    else skip = existingIds != null && existingIds.seekExact(new BytesRef(identifier), false);
+                }
+                if (!skip) {
+                    Arrays.fill(tmpHist, 0);
                     IndexableField[] fields = d.getFields(localFeatureFieldName);
-                    // remove the fields if they are already there ...
-                    d.removeField(visualWordsFieldName);
-                    d.removeField(localFeatureHistFieldName);
-
                     // find the appropriate cluster for each feature:
                     for (int j = 0; j < fields.length; j++) {
                         f.setByteArrayRepresentation(fields[j].binaryValue().bytes, fields[j].binaryValue().offset, fields[j].binaryValue().length);
                         tmpHist[clusterForFeature((Histogram) f)]++;
                     }
                     normalize(tmpHist);
-                    d.add(new TextField(visualWordsFieldName, arrayToVisualWordString(tmpHist), Field.Store.YES));
-                    d.add(new StringField(localFeatureHistFieldName, SerializationUtils.arrayToString(tmpHist), Field.Store.YES));
-
-                    // remove local features to save some space if requested:
-                    if (DELETE_LOCAL_FEATURES) {
-                        d.removeFields(localFeatureFieldName);
+                    Document result;
+                    if (visualWordsDirectory != null) {
+                        // just the identifier and the visual words, the original document is not touched.
+                        result = new Document();
+                        result.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, identifier, Field.Store.YES));
+                    } else {
+                        // remove the fields if they are already there ...
+                        result = d;
+                        result.removeFields(visualWordsFieldName);
+                        result.removeField(localFeatureHistFieldName);
+                        // remove local features to save some space if requested:
+                        if (deleteLocalFeatures) result.removeFields(localFeatureFieldName);
                     }
+                    VisualWords.addFields(result, visualWordsFieldName, tmpHist);
+                    result.add(new StringField(localFeatureHistFieldName, SerializationUtils.arrayToString(tmpHist), Field.Store.YES));
                     // now write the new one. we use the identifier to update ;)
-                    iw.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]), d);
-                    if (pm != null) {
-                        double len = (double) (end - start);
-                        double percent = (double) (i - start) / len * 45d + 50;
-                        pm.setProgress((int) percent);
-                        pm.setNote("Creating visual words, ~" + (int) percent + "% finished");
-                    }
-//                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    iw.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, identifier), result);
+                }
+                int count = processed.incrementAndGet();
+                if (pm != null && count % 100 == 0) {
+                    double percent = (double) count / (double) reader.numDocs() * 45d + 50;
+                    pm.setProgress((int) percent);
+                    pm.setNote("Creating visual words, ~" + (int) percent + "% finished");
                 }
             }
+            return null;
         }
     }
 
@@ -471,4 +542,66 @@ public abstract class LocalFeatureHistogramBuilder {
     public void setUseParallelClustering(boolean useParallelClustering) {
         this.useParallelClustering = useParallelClustering;
     }
+
+    /**
+     * Indicates whether the vocabulary is built with {@link MiniBatchKMeans} (true), streaming the local features
+     * from the index in batches, or with k-means on all local features in memory (false).
+     * @return true if mini-batch k-means is applied
+     */
+    public boolean getUseMiniBatchClustering() {
+        return useMiniBatchClustering;
+    }
+
+    /**
+     * Indicates whether the vocabulary is built with {@link MiniBatchKMeans} (true), streaming the local features
+     * from the index in batches, or with k-means on all local features in memory (false). Use mini-batch k-means
+     * for big vocabularies or many documents, where the local features do not fit in memory.
+     * @param useMiniBatchClustering set to true if mini-batch k-means should be used.
+     */
+    public void setUseMiniBatchClustering(boolean useMiniBatchClustering) {
+        this.useMiniBatchClustering = useMiniBatchClustering;
+    }
+
+    /**
+     * Indicates whether local features are mapped to visual words with a {@link KdForestQuantizer} (true), which is
+     * faster for big vocabularies but may not find the nearest cluster, or with an {@link ExactQuantizer} (false).
+     * @return true if approximate quantization is applied
+     */
+    public boolean getUseApproximateQuantization() {
+        return useApproximateQuantization;
+    }
+
+    /**
+     * Indicates whether local features are mapped to visual words with a {@link KdForestQuantizer} (true), which is
+     * faster for big vocabularies but may not find the nearest cluster, or with an {@link ExactQuantizer} (false).
+     * Use the same setting for indexing and for {@link #getVisualWords(Document)} at query time.
+     * @param useApproximateQuantization set to true if approximate quantization should be used.
+     */
+    public void setUseApproximateQuantization(boolean useApproximateQuantization) {
+        this.useApproximateQuantization = useApproximateQuantization;
+    }
+
+    /**
+     * Sets the number of threads the histograms and the mini-batch clustering run on. Each run creates a pool of
+     * its own, which is shut down afterwards.
+     * @param numThreads the number of threads, by default the number of available processors.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * By default the histograms are added to the documents of the index, which are re-written with all their
+     * stored fields. If a directory is set here, the histograms are written to a separate index in this directory
+     * instead, one document per live document with the identifier, the visual words and the histogram. The
+     * original index is not modified then and the visual words can be searched in the separate index.
+     * @param visualWordsDirectory the directory for the separate index, null to update the documents in place.
+     */
+    public void setVisualWordsDirectory(Directory visualWordsDirectory) {
+        this.visualWordsDirectory = visualWordsDirectory;
+    }
+
+    public Directory getVisualWordsDirectory() {
+        return visualWordsDirectory;
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.imageanalysis.bovw;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sparse representation of visual word histograms in Lucene documents. A histogram is indexed from a token stream
+ * giving each visual word "v&lt;index&gt;" as often as it is counted, without positions, so the term frequency is
+ * the count. The non-zero bins are stored in the same field as text "v&lt;index&gt;:&lt;count&gt; ...", from which
+ * {@link #createQuery(String, String)} builds a weighted term query without a query parser.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class VisualWords {
+    /**
+     * The type of the indexed visual words field: tokenized, with term frequencies but no positions, not stored.
+     */
+    public static final FieldType TYPE = new FieldType();
+
+    static {
+        TYPE.setIndexed(true);
+        TYPE.setTokenized(true);
+        TYPE.setStored(false);
+        TYPE.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS);
+        TYPE.freeze();
+    }
+
+    /**
+     * Adds the visual words of a histogram to a document, one field for indexing and one stored field.
+     *
+     * @param document  the document to add to.
+     * @param fieldName the name of the visual words field.
+     * @param histogram the number of occurrences per visual word. The array is copied.
+     */
+    public static void addFields(Document document, String fieldName, int[] histogram) {
+        document.add(new Field(fieldName, new HistogramTokenStream(histogram.clone()), TYPE));
+        document.add(new StoredField(fieldName, toString(histogram)));
+    }
+
+    /**
+     * @return the non-zero bins of the histogram as "v&lt;index&gt;:&lt;count&gt;", separated by spaces.
+     */
+    public static String toString(int[] histogram) {
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] <= 0) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('v');
+            sb.append(i);
+            sb.append(':');
+            sb.append(histogram[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses stored visual words, both the sparse format of {@link #toString(int[])} and the format of earlier
+     * versions, where each visual word is repeated as often as it occurs.
+     *
+     * @param visualWords the stored value of the visual words field.
+     * @return the visual words with their counts, in order of their first occurrence.
+     */
+    public static Map<String, Integer> parse(String visualWords) {
+        LinkedHashMap<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (String token : visualWords.trim().split("\\s+")) {
+            if (token.length() == 0) continue;
+            int separator = token.indexOf(':');
+            String word = separator < 0 ? token : token.substring(0, separator);
+            int count = separator < 0 ? 1 : Integer.parseInt(token.substring(separator + 1));
+            Integer previous = result.get(word);
+            result.put(word, previous == null ? count : previous + count);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a query for the visual words, a term query per visual word boosted with its count. If there are more
+     * visual words than {@link BooleanQuery#getMaxClauseCount()}, the ones with the lowest counts are dropped.
+     *
+     * @param fieldName   the name of the visual words field.
+     * @param visualWords the stored value of the visual words field, see {@link #parse(String)}.
+     * @return the query.
+     */
+    public static Query createQuery(String fieldName, String visualWords) {
+        Map<String, Integer> words = parse(visualWords);
+        int minCount = 0;
+        if (words.size() > BooleanQuery.getMaxClauseCount()) {
+            int[] counts = new int[words.size()];
+            int i = 0;
+            for (Integer count : words.values()) counts[i++] = count;
+            Arrays.sort(counts);
+            minCount = counts[counts.length - BooleanQuery.getMaxClauseCount()];
+        }
+        BooleanQuery query = new BooleanQuery();
+        for (Map.Entry<String, Integer> word : words.entrySet()) {
+            // words with the minimum count are taken as long as there is space.
+            if (word.getValue() < minCount || query.clauses().size() == BooleanQuery.getMaxClauseCount()) continue;
+            TermQuery termQuery = new TermQuery(new Term(fieldName, word.getKey()));
+            termQuery.setBoost(word.getValue());
+            query.add(termQuery, BooleanClause.Occur.SHOULD);
+        }
+        return query;
+    }
+
+    /**
+     * Emits each visual word of a histogram as often as it is counted.
+     */
+    private static class HistogramTokenStream extends TokenStream {
+        private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+        private final int[] histogram;
+        private int word = -1, remaining = 0;
+        private String term = null;
+
+        HistogramTokenStream(int[] histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            while (remaining == 0) {
+                if (++word >= histogram.length) return false;
+                remaining = Math.max(0, histogram[word]);
+                term = null;
+            }
+            if (term == null) term = "v" + word;
+            clearAttributes();
+            termAttribute.setEmpty().append(term);
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            word = -1;
+            remaining = 0;
+        }
+    }
+}
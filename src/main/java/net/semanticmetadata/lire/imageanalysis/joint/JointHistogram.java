@@ -42,8 +42,11 @@
 package net.semanticmetadata.lire.imageanalysis.joint;
 
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.ByteDistanceFeature;
 import net.semanticmetadata.lire.imageanalysis.Histogram;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.imageanalysis.PreprocessedImage;
+import net.semanticmetadata.lire.imageanalysis.PreprocessedImageFeature;
 import net.semanticmetadata.lire.utils.ImageUtils;
 import net.semanticmetadata.lire.utils.MetricsUtils;
 
@@ -56,7 +59,7 @@ import java.util.StringTokenizer;
  *
  * @author Mathias Lux, mathias@juggle.at
  */
-public class JointHistogram extends Histogram implements LireFeature {
+public class JointHistogram extends Histogram implements PreprocessedImageFeature, ByteDistanceFeature {
     private int[] tmpIntensity = new int[1];
 
     public void extract(BufferedImage bimg) {
@@ -105,6 +108,10 @@ public class JointHistogram extends Histogram implements LireFeature {
         }
     }
 
+    public void extract(PreprocessedImage image) {
+        extract(image.getRgbImage());
+    }
+
 
     private int getIntensity(int x, int y, WritableRaster grey) {
         grey.getPixel(x, y, tmpIntensity);
@@ -166,8 +173,8 @@ public class JointHistogram extends Histogram implements LireFeature {
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
         descriptor = new double[length];
-        for (int i = offset; i < length; i++) {
-            descriptor[i] = in[i];
+        for (int i = 0; i < length; i++) {
+            descriptor[i] = in[offset + i];
         }
     }
 
@@ -185,6 +192,20 @@ public class JointHistogram extends Histogram implements LireFeature {
         return MetricsUtils.jsd(((JointHistogram) feature).descriptor, descriptor);
     }
 
+    /**
+     * Jensen-Shannon divergence like {@link #getDistance(LireFeature)}, one byte per bin of the other histogram.
+     */
+    public float getDistance(byte[] featureData, int offset, int length) {
+        double sum = 0f, h1, h2;
+        for (int i = 0; i < length; i++) {
+            h1 = featureData[offset + i];
+            h2 = descriptor[i];
+            sum += (h1 > 0 ? (h1 / 2f) * Math.log((2f * h1) / (h1 + h2)) : 0) +
+                    (h2 > 0 ? (h2 / 2f) * Math.log((2f * h2) / (h1 + h2)) : 0);
+        }
+        return (float) sum;
+    }
+
     @Override
     public String getFeatureName() {
         return "Joint Histogram Rank RBG";
@@ -62,7 +62,6 @@ public class RankAndOpponent extends Histogram implements LireFeature {
     final double sq3 = Math.sqrt(6d);
 
     double o1, o2, o3;
-    int tmp;
 
     public RankAndOpponent() {
         descriptor = new double[64 * 9];
@@ -154,6 +153,7 @@ public class RankAndOpponent extends Histogram implements LireFeature {
 
 
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         byte[] result = new byte[descriptor.length/2];
         for (int i = 0; i < result.length; i++) {
             tmp = ((int) (descriptor[(i << 1)] * 2)) << 4;
@@ -164,6 +164,7 @@ public class RankAndOpponent extends Histogram implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in) {
+        int tmp;
         for (int i = 0; i < in.length; i++) {
             tmp = in[i]+128;
             descriptor[(i << 1) +1] = ((double) (tmp & 0x000F))/2d;
@@ -172,6 +173,7 @@ public class RankAndOpponent extends Histogram implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         for (int i = offset; i < length; i++) {
             tmp = in[i]+128;
             descriptor[(i << 1) +1] = ((double) (tmp & 0x000F))/2d;
@@ -56,6 +56,8 @@ public class ColorLayoutImpl {
     protected int[][] shape;
     protected int imgYSize, imgXSize;
     protected BufferedImage img;
+    // packed RGB pixels, used instead of img if set.
+    private int[] rgb;
 
     protected static int[] availableCoeffNumbers = {1, 3, 6, 10, 15, 21, 28, 64};
 
@@ -184,6 +186,21 @@ public class ColorLayoutImpl {
         init();
     }
 
+    /**
+     * Extracts the descriptor from packed RGB pixels, line by line.
+     */
+    public void extract(int[] rgb, int width, int height) {
+        this.img = null;
+        this.rgb = rgb;
+        imgYSize = height;
+        imgXSize = width;
+        try {
+            init();
+        } finally {
+            this.rgb = null;
+        }
+    }
+
     private void createShape() {
         int y_axis, x_axis;
         int i, k, x, y, j;
@@ -203,14 +220,21 @@ public class ColorLayoutImpl {
             shape[2][i] = 0;
         }
 
-        WritableRaster raster = img.getRaster();
+        WritableRaster raster = (rgb == null) ? img.getRaster() : null;
         int[] pixel = {0, 0, 0};
         for (y = 0; y < imgYSize; y++) {
             for (x = 0; x < imgXSize; x++) {
-                raster.getPixel(x, y, pixel);
-                R = pixel[0];
-                G = pixel[1];
-                B = pixel[2];
+                if (rgb != null) {
+                    int p = rgb[y * imgXSize + x];
+                    R = (p >> 16) & 0xff;
+                    G = (p >> 8) & 0xff;
+                    B = p & 0xff;
+                } else {
+                    raster.getPixel(x, y, pixel);
+                    R = pixel[0];
+                    G = pixel[1];
+                    B = pixel[2];
+                }
 
                 y_axis = (int) (y / (imgYSize / 8.0));
                 x_axis = (int) (x / (imgXSize / 8.0));
@@ -97,9 +97,10 @@ public abstract class EdgeHistogramImpl implements LireFeature {
     private static final int diagonal_135_degree_edge = 5;
 
     /**
-     * The grey level that has been found after converting from RGB.
+     * The grey level that has been found after converting from RGB, line by line.
      */
-    private double[][] grey_level;
+    private int[] grey_level;
+    private int greyWidth;
 
     /**
      * The bins have to be quantized with help of this quantization table.
@@ -143,15 +144,24 @@ public abstract class EdgeHistogramImpl implements LireFeature {
     }
 
     public void extract(BufferedImage image) {
+        BufferedImage newImage = ImageUtils.get8BitRGBImage(image);
+        int width = newImage.getWidth();
+        extract(newImage.getRGB(0, 0, width, newImage.getHeight(), null, 0, width), width, newImage.getHeight());
+    }
+
+    /**
+     * Extracts the descriptor from packed RGB pixels, line by line.
+     */
+    public void extract(int[] rgb, int width, int height) {
         bins = new int[80];
         treshold = 11;
         num_block = 1100;
         localImageEdgeHistogram = new double[80];
         blockSize = -1;
-        BufferedImage newImage = ImageUtils.get8BitRGBImage(image);
-        width = newImage.getWidth();
-        height = newImage.getHeight();
-        extractFeature(newImage);
+        this.width = width;
+        this.height = height;
+        buildImageGreyLevel(rgb);
+        extractFeature();
         edgeHistogram = setEdgeHistogram();
     }
 
@@ -249,11 +259,14 @@ public abstract class EdgeHistogramImpl implements LireFeature {
      */
 
     public void buildImageGreyLevel(BufferedImage image) {
-        grey_level = new double[(int) width][(int) height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                grey_level[x][y] = getYfromRGB(image.getRGB(x, y));
-            }
+        buildImageGreyLevel(image.getRGB(0, 0, (int) width, (int) height, null, 0, (int) width));
+    }
+
+    private void buildImageGreyLevel(int[] rgb) {
+        greyWidth = (int) width;
+        grey_level = new int[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            grey_level[i] = getYfromRGB(rgb[i]);
         }
     }
 
@@ -269,11 +282,11 @@ public abstract class EdgeHistogramImpl implements LireFeature {
      */
     private double getFirstBlockAVG(int i, int j) {
         double average_brightness = 0;
-        if (grey_level[i][j] != 0) {
+        if (grey_level[j * greyWidth + i] != 0) {
 
             for (int m = 0; m <= (getImageBlockSize() >> 1) - 1; m++) {
                 for (int n = 0; n <= (getImageBlockSize() >> 1) - 1; n++) {
-                    average_brightness = average_brightness + grey_level[i + m][j + n];
+                    average_brightness = average_brightness + grey_level[(j + n) * greyWidth + i + m];
                 }
             }
         } else {
@@ -299,11 +312,11 @@ public abstract class EdgeHistogramImpl implements LireFeature {
 
     private double getSecondBlockAVG(int i, int j) {
         double average_brightness = 0;
-        if (grey_level[i][j] != 0)
+        if (grey_level[j * greyWidth + i] != 0)
 
             for (int m = (int) (getImageBlockSize() >> 1); m <= getImageBlockSize() - 1; m++) {
                 for (int n = 0; n <= (getImageBlockSize() >> 1) - 1; n++) {
-                    average_brightness += grey_level[i + m][j + n];
+                    average_brightness += grey_level[(j + n) * greyWidth + i + m];
 
 
                 }
@@ -330,11 +343,11 @@ public abstract class EdgeHistogramImpl implements LireFeature {
 
     private double getThirdBlockAVG(int i, int j) {
         double average_brightness = 0;
-        if (grey_level[i][j] != 0) {
+        if (grey_level[j * greyWidth + i] != 0) {
 
             for (int m = 0; m <= (getImageBlockSize() >> 1) - 1; m++) {
                 for (int n = (int) (getImageBlockSize() >> 1); n <= getImageBlockSize() - 1; n++) {
-                    average_brightness += grey_level[i + m][j + n];
+                    average_brightness += grey_level[(j + n) * greyWidth + i + m];
                 }
             }
         } else {
@@ -362,7 +375,7 @@ public abstract class EdgeHistogramImpl implements LireFeature {
 
         for (int m = (int) (getImageBlockSize() >> 1); m <= getImageBlockSize() - 1; m++) {
             for (int n = (int) (getImageBlockSize() >> 1); n <= getImageBlockSize() - 1; n++) {
-                average_brightness += grey_level[i + m][j + n];
+                average_brightness += grey_level[(j + n) * greyWidth + i + m];
             }
         }
         double bs = getImageBlockSize() * getImageBlockSize();
@@ -438,10 +451,14 @@ public abstract class EdgeHistogramImpl implements LireFeature {
      */
 
     public void extractFeature(BufferedImage image) {
-    	//初始化边缘数量矩阵。矩阵中存放了16个子图像，每个子图像5种边缘方向的共80个特征值。
-        Arrays.fill(localImageEdgeHistogram, 0d);
         //将图像转换为灰度图
         buildImageGreyLevel(image);
+        extractFeature();
+    }
+
+    private void extractFeature() {
+    	//初始化边缘数量矩阵。矩阵中存放了16个子图像，每个子图像5种边缘方向的共80个特征值。
+        Arrays.fill(localImageEdgeHistogram, 0d);
         //用于指示像素点处于哪个子图像
         int localIndex = 0;
         //边缘方向类型：竖直、平行、45°角、135°角、无方向。
@@ -545,6 +562,43 @@ public abstract class EdgeHistogramImpl implements LireFeature {
         return (float) result;
     }
 
+    /**
+     * Same as {@link #calculateDistance(int[], int[])}, but the first histogram is given with two bins packed into
+     * one byte, as done by {@link net.semanticmetadata.lire.imageanalysis.EdgeHistogram#getByteArrayRepresentation()}.
+     *
+     * @param packedHistogramA the bytes of the first point
+     * @param offset           the position of the first point in the array
+     * @param length           the number of bytes of the first point
+     * @param edgeHistogramB   defines the second point
+     * @return the distance from [0, 480]
+     */
+    public static float calculateDistance(byte[] packedHistogramA, int offset, int length, int[] edgeHistogramB) {
+        double result = 0f;
+        double[][] quantTable = QuantTable;
+        int bytes = Math.min(length, 40), tmp, row = 0;
+        for (int j = 0; j < bytes; j++) {
+            tmp = packedHistogramA[offset + j] + 128;
+            result += Math.abs(quantTable[row][tmp >> 4] - quantTable[row][edgeHistogramB[j << 1]]);
+            if (++row == 5) row = 0;
+            result += Math.abs(quantTable[row][tmp & 0x000F] - quantTable[row][edgeHistogramB[(j << 1) + 1]]);
+            if (++row == 5) row = 0;
+        }
+        // bins cut off at serialization are zero.
+        for (int i = bytes << 1; i < 80; i++) {
+            result += Math.abs(quantTable[i % 5][0] - quantTable[i % 5][edgeHistogramB[i]]);
+        }
+        // the first 5 bins are weighted by 5 like in calculateDistance(int[], int[]).
+        for (int j = 0; j < bytes; j++) {
+            tmp = packedHistogramA[offset + j] + 128;
+            result += (j <= 2 ? 5d : 1d) * Math.abs((tmp >> 4) - edgeHistogramB[j << 1]);
+            result += (j < 2 ? 5d : 1d) * Math.abs((tmp & 0x000F) - edgeHistogramB[(j << 1) + 1]);
+        }
+        for (int i = bytes << 1; i < 80; i++) {
+            result += (i < 5 ? 5d : 1d) * edgeHistogramB[i];
+        }
+        return (float) result;
+    }
+
     @SuppressWarnings("unused")
 	private static int[] RGB2YCRCB(int[] pixel, int[] result) {
         double yy = (0.299 * pixel[0] + 0.587 * pixel[1] + 0.114 * pixel[2]) / 256.0;
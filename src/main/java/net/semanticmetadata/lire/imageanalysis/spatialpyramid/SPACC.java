@@ -61,7 +61,6 @@ public class SPACC implements LireFeature {
     double[] histogram = new double[histogramSize];
 
     // Temp:
-    int tmp;
 
     @Override
     public void extract(BufferedImage bimg) {
@@ -101,6 +100,7 @@ public class SPACC implements LireFeature {
      * @see net.semanticmetadata.lire.imageanalysis.spatialpyramid.SPJCD#setByteArrayRepresentation(byte[])
      */
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         byte[] result = new byte[histogramSize/2];
         for (int i = 0; i < result.length; i++) {
             tmp = ((int) (histogram[(i << 1)])) << 4;
@@ -121,6 +121,7 @@ public class SPACC implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         for (int i = offset; i < offset + length; i++) {
             tmp = in[i] + 128;
             histogram[((i - offset) << 1) + 1] = ((double) (tmp & 0x000F));
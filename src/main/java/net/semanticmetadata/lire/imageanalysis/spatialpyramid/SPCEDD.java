@@ -59,7 +59,6 @@ public class SPCEDD implements LireFeature {
     double[] histogram = new double[histogramSize];
 
     // Temp:
-    int tmp;
 
     @Override
     public void extract(BufferedImage bimg) {
@@ -99,6 +98,7 @@ public class SPCEDD implements LireFeature {
      * @see SPCEDD#setByteArrayRepresentation(byte[])
      */
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         // find out the position of the beginning of the trailing zeros.
         int position = -1;
         for (int i = 0; i < histogram.length; i++) {
@@ -128,6 +128,7 @@ public class SPCEDD implements LireFeature {
      * @see SPCEDD#getByteArrayRepresentation
      */
     public void setByteArrayRepresentation(byte[] in) {
+        int tmp;
         if ((in.length << 1) < histogram.length)
             Arrays.fill(histogram, in.length << 1, histogram.length - 1, 0);
         for (int i = 0; i < in.length; i++) {
@@ -138,6 +139,7 @@ public class SPCEDD implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         if ((length << 1) < histogram.length)
             Arrays.fill(histogram, length << 1, histogram.length - 1, 0);
         for (int i = offset; i < offset + length; i++) {
@@ -60,7 +60,6 @@ public class SPFCTH implements LireFeature {
     double[] histogram = new double[histogramSize];
 
     // Temp:
-    int tmp;
 
     @Override
     public void extract(BufferedImage bimg) {
@@ -100,6 +99,7 @@ public class SPFCTH implements LireFeature {
      * @see net.semanticmetadata.lire.imageanalysis.spatialpyramid.SPFCTH#setByteArrayRepresentation(byte[])
      */
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         // find out the position of the beginning of the trailing zeros.
         int position = -1;
         for (int i = 0; i < histogram.length; i++) {
@@ -129,6 +129,7 @@ public class SPFCTH implements LireFeature {
      * @see net.semanticmetadata.lire.imageanalysis.spatialpyramid.SPFCTH#getByteArrayRepresentation
      */
     public void setByteArrayRepresentation(byte[] in) {
+        int tmp;
         if ((in.length << 1) < histogram.length)
             Arrays.fill(histogram, in.length << 1, histogram.length - 1, 0);
         for (int i = 0; i < in.length; i++) {
@@ -139,6 +140,7 @@ public class SPFCTH implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         if ((length << 1) < histogram.length)
             Arrays.fill(histogram, length << 1, histogram.length - 1, 0);
         for (int i = offset; i < offset + length; i++) {
@@ -61,7 +61,6 @@ public class SPJCD implements LireFeature {
     double[] histogram = new double[histogramSize];
 
     // Temp:
-    int tmp;
 
     @Override
     public void extract(BufferedImage bimg) {
@@ -101,6 +100,7 @@ public class SPJCD implements LireFeature {
      * @see net.semanticmetadata.lire.imageanalysis.spatialpyramid.SPJCD#setByteArrayRepresentation(byte[])
      */
     public byte[] getByteArrayRepresentation() {
+        int tmp;
         // find out the position of the beginning of the trailing zeros.
         int position = -1;
         for (int i = 0; i < histogram.length; i++) {
@@ -130,6 +130,7 @@ public class SPJCD implements LireFeature {
      * @see net.semanticmetadata.lire.imageanalysis.spatialpyramid.SPJCD#getByteArrayRepresentation
      */
     public void setByteArrayRepresentation(byte[] in) {
+        int tmp;
         if ((in.length << 1) < histogram.length)
             Arrays.fill(histogram, in.length << 1, histogram.length - 1, 0);
         for (int i = 0; i < in.length; i++) {
@@ -140,6 +141,7 @@ public class SPJCD implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         if ((length << 1) < histogram.length)
             Arrays.fill(histogram, length << 1, histogram.length - 1, 0);
         for (int i = offset; i < offset + length; i++) {
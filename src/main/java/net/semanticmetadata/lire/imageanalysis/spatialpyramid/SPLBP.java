@@ -58,7 +58,6 @@ public class SPLBP implements LireFeature {
     double[] histogram = new double[histogramSize];
 
     // Temp:
-    int tmp;
 
     @Override
     public void extract(BufferedImage bimg) {
@@ -116,6 +115,7 @@ public class SPLBP implements LireFeature {
     }
 
     public void setByteArrayRepresentation(byte[] in, int offset, int length) {
+        int tmp;
         for (int i = offset; i < offset + length; i++) {
             tmp = in[i] + 128;
             histogram[i-offset] = in[i];
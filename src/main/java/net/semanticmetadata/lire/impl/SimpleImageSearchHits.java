@@ -57,6 +57,7 @@ import java.util.Iterator;
  */
 public class SimpleImageSearchHits implements ImageSearchHits {
     ArrayList<SimpleResult> results;
+    private int numCandidates = -1;
 
     public SimpleImageSearchHits(Collection<SimpleResult> results, float maxDistance) {
         this.results = new ArrayList<SimpleResult>(results.size());
@@ -71,6 +72,18 @@ public class SimpleImageSearchHits implements ImageSearchHits {
         }
     }
 
+    /**
+     * Creates the result list of a search which compared the query to the given number of candidates.
+     *
+     * @param results       the results.
+     * @param maxDistance   the distance used for normalizing the distances of the results.
+     * @param numCandidates the number of documents the query has been compared to.
+     */
+    public SimpleImageSearchHits(Collection<SimpleResult> results, float maxDistance, int numCandidates) {
+        this(results, maxDistance);
+        this.numCandidates = numCandidates;
+    }
+
     /**
      * Returns the size of the result list.
      *
@@ -113,6 +126,16 @@ public class SimpleImageSearchHits implements ImageSearchHits {
         return results.get(position).getIndexNumber();
     }
 
+    /**
+     * Returns the number of documents the query has been compared to, e.g. the number of candidates re-ranked
+     * by a hashing based searcher.
+     *
+     * @return the number of candidates, -1 if unknown.
+     */
+    public int getNumCandidates() {
+        return numCandidates;
+    }
+
     @SuppressWarnings("unused")
 	private float sigmoid(float f) {
         double result = 0f;
@@ -109,10 +109,10 @@ public class SimpleResult implements Comparable<SimpleResult> {
      * @return -1, 0, or 1
      */
     public int compareTo(SimpleResult o) {
-    	
-    	if (this.equals(o)) return 0;
-    	
-    	return new Double(distance).compareTo(new Double(((SimpleResult) o).distance));
+        int result = Float.compare(distance, o.distance);
+        if (result != 0) return result;
+        // same distance, so the running number decides. No boxing and no stored fields involved.
+        return indexNumber < o.indexNumber ? -1 : (indexNumber == o.indexNumber ? 0 : 1);
     }
 
     @Override
@@ -126,4 +126,4 @@ public class SimpleResult implements Comparable<SimpleResult> {
         if (id == null || targetId == null) return false;
         return id.equals(targetId);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
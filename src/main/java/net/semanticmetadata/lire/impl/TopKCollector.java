@@ -0,0 +1,229 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.impl;
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Bounded collector for the k documents nearest to a query. Only docIDs and distances are kept in parallel
+ * primitive arrays organized as a max heap, so offering a candidate does not allocate anything. Ties in distance
+ * are broken by the docID, the smaller one wins, which gives the same result as scanning the index in order.
+ * <br/>
+ * Typical use: offer all candidates, call {@link #sort()} and read the results with {@link #doc(int)} and
+ * {@link #distance(int)}, nearest first, or let {@link #toSearchHits(IndexReader)} load the documents of the final
+ * hits. A collector can be reused for the next query after {@link #clear()}.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class TopKCollector {
+    private final int k;
+    private final int[] docs;
+    private final float[] distances;
+    private int size = 0;
+    private int numOffered = 0;
+    private boolean sorted = false;
+
+    /**
+     * @param k the maximum number of results kept.
+     */
+    public TopKCollector(int k) {
+        this.k = Math.max(k, 0);
+        docs = new int[this.k];
+        distances = new float[this.k];
+    }
+
+    /**
+     * Offers a candidate to the collector.
+     *
+     * @param doc      the docID of the candidate.
+     * @param distance the distance of the candidate to the query.
+     * @return true if the candidate is in the current top k.
+     */
+    public boolean offer(int doc, float distance) {
+        numOffered++;
+        if (sorted) heapify();
+        if (size < k) {
+            docs[size] = doc;
+            distances[size] = distance;
+            siftUp(size++);
+            return true;
+        } else if (k > 0 && isBetter(distance, doc, distances[0], docs[0])) {
+            docs[0] = doc;
+            distances[0] = distance;
+            siftDown(0, size);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds all results of another collector, e.g. one filled by another thread.
+     *
+     * @param other the collector to take the results from.
+     */
+    public void merge(TopKCollector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.docs[i], other.distances[i]);
+        }
+        numOffered += other.numOffered - other.size;
+    }
+
+    /**
+     * Sorts the collected results, nearest first. Further offers are possible, but the order is lost then.
+     */
+    public void sort() {
+        if (sorted) return;
+        // heap sort: moving the current maximum to the end of the heap.
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    /**
+     * @return true if k results have been collected, so a candidate has to beat {@link #getWorstDistance()}.
+     */
+    public boolean isFull() {
+        return size >= k;
+    }
+
+    /**
+     * @return the largest distance in the current top k, or -1 if nothing has been collected.
+     */
+    public float getWorstDistance() {
+        if (size == 0) return -1f;
+        return sorted ? distances[size - 1] : distances[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of candidates offered since creation or the last {@link #clear()}, including the ones
+     *         offered to merged collectors.
+     */
+    public int getNumOffered() {
+        return numOffered;
+    }
+
+    /**
+     * @param position the position in the result list, starting with 0.
+     * @return the docID of the result at the given position. Call {@link #sort()} first.
+     */
+    public int doc(int position) {
+        return docs[position];
+    }
+
+    /**
+     * @param position the position in the result list, starting with 0.
+     * @return the distance of the result at the given position. Call {@link #sort()} first.
+     */
+    public float distance(int position) {
+        return distances[position];
+    }
+
+    /**
+     * Creates the result list, nearest first, with the distances normalized by the worst distance. The stored
+     * documents are loaded for the collected hits only. The number of candidates offered is reported by
+     * {@link SimpleImageSearchHits#getNumCandidates()}.
+     *
+     * @param reader the IndexReader the docIDs refer to.
+     * @return the hits.
+     * @throws IOException
+     */
+    public SimpleImageSearchHits toSearchHits(IndexReader reader) throws IOException {
+        sort();
+        ArrayList<SimpleResult> results = new ArrayList<SimpleResult>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(new SimpleResult(distances[i], reader.document(docs[i]), docs[i]));
+        }
+        return new SimpleImageSearchHits(results, getWorstDistance(), numOffered);
+    }
+
+    public void clear() {
+        size = 0;
+        numOffered = 0;
+        sorted = false;
+    }
+
+    private static boolean isBetter(float distance, int doc, float otherDistance, int otherDoc) {
+        return distance < otherDistance || (distance == otherDistance && doc < otherDoc);
+    }
+
+    private void heapify() {
+        for (int i = size / 2 - 1; i >= 0; i--) siftDown(i, size);
+        sorted = false;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (!isBetter(distances[parent], docs[parent], distances[i], docs[i])) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int worst = i, left = (i << 1) + 1, right = left + 1;
+            if (left < end && isBetter(distances[worst], docs[worst], distances[left], docs[left])) worst = left;
+            if (right < end && isBetter(distances[worst], docs[worst], distances[right], docs[right])) worst = right;
+            if (worst == i) return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int d = docs[a];
+        docs[a] = docs[b];
+        docs[b] = d;
+        float f = distances[a];
+        distances[a] = distances[b];
+        distances[b] = f;
+    }
+}
@@ -46,6 +46,7 @@ import java.util.LinkedList;
 
 import net.semanticmetadata.lire.AbstractDocumentBuilder;
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.PreprocessedImage;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 import net.semanticmetadata.lire.utils.DocumentUtils;
 
@@ -54,7 +55,8 @@ import org.apache.lucene.document.Field;
 
 /**
  * Chaining of DocumentBuilder. If you need several different feature, create a ChainedDocumentBuilder and add
- * different DocumentBuilder instances with {@link ChainedDocumentBuilder#addBuilder(net.semanticmetadata.lire.DocumentBuilder)}
+ * different DocumentBuilder instances with {@link ChainedDocumentBuilder#addBuilder(net.semanticmetadata.lire.DocumentBuilder)}.
+ * The image is scaled and converted only once for all GenericDocumentBuilder instances in the chain.
  * @author Mathias Lux, mathias@juggle.at, 20.02.2007
  */
 public class ChainedDocumentBuilder extends AbstractDocumentBuilder {
@@ -85,9 +87,10 @@ public class ChainedDocumentBuilder extends AbstractDocumentBuilder {
         docsCreated = true;
         LinkedList<Field> resultList = new LinkedList<Field>();
         if (builders.size() >= 1) {
+            PreprocessedImage preprocessed = new PreprocessedImage(image, GenericDocumentBuilder.MAX_IMAGE_DIMENSION);
             for (DocumentBuilder builder : builders) {
             	try {
-	                Field[] fields = builder.createDescriptorFields(image);
+	                Field[] fields = createDescriptorFields(builder, image, preprocessed);
 	                for (int i = 0; i < fields.length; i++) {
 	                    resultList.add(fields[i]);
 	                }
@@ -99,13 +102,21 @@ public class ChainedDocumentBuilder extends AbstractDocumentBuilder {
         return resultList.toArray(new Field[resultList.size()]);
     }
 
+    private static Field[] createDescriptorFields(DocumentBuilder builder, BufferedImage image, PreprocessedImage preprocessed) {
+        if (builder instanceof GenericDocumentBuilder)
+            return ((GenericDocumentBuilder) builder).createDescriptorFields(preprocessed);
+        else
+            return builder.createDescriptorFields(image);
+    }
+
     public Document createDocument(BufferedImage image, ImageInfo imageInfo) {
         docsCreated = true;
         Document doc = new Document();
 
         if (builders.size() >= 1) {
+            PreprocessedImage preprocessed = new PreprocessedImage(image, GenericDocumentBuilder.MAX_IMAGE_DIMENSION);
             for (DocumentBuilder builder : builders) {
-                Field[] fields = builder.createDescriptorFields(image);
+                Field[] fields = createDescriptorFields(builder, image, preprocessed);
                 for (int i = 0; i < fields.length; i++) {
                     Field field = fields[i];
                     doc.add(field);
@@ -41,7 +41,7 @@
 package net.semanticmetadata.lire.impl.docbuilder;
 
 import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.logging.Logger;
 
@@ -60,22 +60,27 @@ import net.semanticmetadata.lire.imageanalysis.LocalBinaryPatterns;
 import net.semanticmetadata.lire.imageanalysis.LuminanceLayout;
 import net.semanticmetadata.lire.imageanalysis.OpponentHistogram;
 import net.semanticmetadata.lire.imageanalysis.PHOG;
+import net.semanticmetadata.lire.imageanalysis.PreprocessedImage;
+import net.semanticmetadata.lire.imageanalysis.PreprocessedImageFeature;
 import net.semanticmetadata.lire.imageanalysis.RotationInvariantLocalBinaryPatterns;
 import net.semanticmetadata.lire.imageanalysis.ScalableColor;
 import net.semanticmetadata.lire.imageanalysis.SimpleColorHistogram;
 import net.semanticmetadata.lire.imageanalysis.Tamura;
 import net.semanticmetadata.lire.imageanalysis.joint.JointHistogram;
 import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
 import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
+import net.semanticmetadata.lire.indexing.hashing.ProductQuantizer;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 import net.semanticmetadata.lire.utils.DocumentUtils;
-import net.semanticmetadata.lire.utils.ImageUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
 
 /**
  * This class allows to create a DocumentBuilder based on a class implementing LireFeature.
@@ -88,7 +93,20 @@ import org.apache.lucene.document.TextField;
 public class GenericDocumentBuilder extends AbstractDocumentBuilder {
     enum HashingMode {BitSampling, LSH}
 
+    /**
+     * How the BitSampling hashes are stored: as terms of a text field for searching with a BooleanQuery, or as one
+     * binary signature in BinaryDocValues for searching with
+     * {@link net.semanticmetadata.lire.indexing.hashing.MultiIndexHashing}. With DocValues the feature vector is
+     * added to BinaryDocValues of the feature field as well, so the candidates can be re-ranked without reading
+     * stored documents.
+     */
+    public enum HashStorage {Terms, DocValues}
+
     private boolean hashingEnabled = false;
+    // if null the hash functions currently set in BitSampling are used, which default to the ones shipped with LIRE.
+    private BitSamplingModel hashModel = null;
+    private HashStorage hashStorage = HashStorage.Terms;
+    private ProductQuantizer productQuantizer = null;
     private Logger logger = Logger.getLogger(getClass().getName());
     public static final int MAX_IMAGE_DIMENSION = 1024;
     Class<? extends LireFeature> descriptorClass;
@@ -102,19 +120,12 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
     public static HashMap<String, Class> classForField = new HashMap<String, Class>();
 
     public static final String HASH_FIELD_SUFFIX = "_hash";
+    public static final String SIGNATURE_FIELD_SUFFIX = "_hashbits";
+    public static final String PQ_FIELD_SUFFIX = "_pq";
 
 
 
     static {
-        // Let's try to read the hash functions right here and we don't have to care about it right now.
-        try {
-            BitSampling.readHashFunctions();
-//            LocalitySensitiveHashing.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Could not read hashes from file when first creating a GenericDocumentBuilder instance.");
-            e.printStackTrace();
-        }
-
         // Setting up the class 2 field relation:
         fieldForClass.put(AutoColorCorrelogram.class, FIELD_NAME_AUTOCOLORCORRELOGRAM);
         fieldForClass.put(BinaryPatternsPyramid.class, FIELD_NAME_BINARY_PATTERNS_PYRAMID);
@@ -223,6 +234,40 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
         hashingEnabled = hashing;
     }
 
+    /**
+     * Creating a new DocumentBuilder based on a class based on the interface {@link net.semanticmetadata.lire.imageanalysis.LireFeature}
+     * which adds an additional field for hashes created with the given BitSampling hash functions.
+     *
+     * @param descriptorClass has to implement {@link net.semanticmetadata.lire.imageanalysis.LireFeature}
+     * @param fieldName       The hashFunctionsFileName of the field, where the feature vector is stored.
+     * @param hashModel       the hash functions, e.g. the ones stored with the index, see {@link BitSamplingModel#getFile(java.io.File)}.
+     */
+    public GenericDocumentBuilder(Class<? extends LireFeature> descriptorClass, String fieldName, BitSamplingModel hashModel) {
+        this.descriptorClass = descriptorClass;
+        this.fieldName = fieldName;
+        this.hashModel = hashModel;
+        hashingEnabled = true;
+    }
+
+    /**
+     * Creating a new DocumentBuilder based on a class based on the interface {@link net.semanticmetadata.lire.imageanalysis.LireFeature}
+     * which adds an additional field for hashes created with the given BitSampling hash functions. With
+     * {@link HashStorage#DocValues} the hashes are stored as binary signature in the field with the suffix
+     * {@link #SIGNATURE_FIELD_SUFFIX}.
+     *
+     * @param descriptorClass has to implement {@link net.semanticmetadata.lire.imageanalysis.LireFeature}
+     * @param fieldName       The hashFunctionsFileName of the field, where the feature vector is stored.
+     * @param hashModel       the hash functions, if null the ones of {@link BitSampling#getModel()} are used.
+     * @param hashStorage     how the hashes are stored.
+     */
+    public GenericDocumentBuilder(Class<? extends LireFeature> descriptorClass, String fieldName, BitSamplingModel hashModel, HashStorage hashStorage) {
+        this.descriptorClass = descriptorClass;
+        this.fieldName = fieldName;
+        this.hashModel = hashModel;
+        this.hashStorage = hashStorage;
+        hashingEnabled = true;
+    }
+
     /**
      * Creating a new DocumentBuilder based on a class based on the interface {@link net.semanticmetadata.lire.imageanalysis.LireFeature}
      *
@@ -236,26 +281,46 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
         this.currentMode = mode;
     }
 
+    /**
+     * Adds the product quantization code of the feature as BinaryDocValues in the field with the suffix
+     * {@link #PQ_FIELD_SUFFIX}, and the feature itself as BinaryDocValues for re-ranking, see
+     * {@link net.semanticmetadata.lire.indexing.hashing.ProductQuantizationIndex}.
+     *
+     * @param productQuantizer the quantizer trained for the feature, null to add no codes.
+     */
+    public void setProductQuantizer(ProductQuantizer productQuantizer) {
+        this.productQuantizer = productQuantizer;
+    }
+
     public Field[] createDescriptorFields(BufferedImage image) {
-        Field[] result;
-        if (hashingEnabled) result = new Field[2];
-        else result = new Field[1];
-        String featureString = "";
         assert (image != null);
-        BufferedImage bimg = image;
         // Scaling image is especially with the correlogram features very important!
         // All images are scaled to guarantee a certain upper limit for indexing.
-        if (Math.max(image.getHeight(), image.getWidth()) > MAX_IMAGE_DIMENSION) {
-            bimg = ImageUtils.scaleImage(image, MAX_IMAGE_DIMENSION);
-        }
-        Document doc = null;
+        return createDescriptorFields(new PreprocessedImage(image, MAX_IMAGE_DIMENSION));
+    }
+
+    /**
+     * Creates the feature fields from an image which has already been scaled to {@link #MAX_IMAGE_DIMENSION},
+     * so several builders can share the scaling and conversions, see {@link ChainedDocumentBuilder}.
+     *
+     * @param image the preprocessed image.
+     * @return the fields resulting from the analysis.
+     */
+    public Field[] createDescriptorFields(PreprocessedImage image) {
+        Field[] result;
+        if (!hashingEnabled) result = new Field[1];
+        else if (hashStorage == HashStorage.DocValues) result = new Field[3];
+        else result = new Field[2];
         try {
             logger.finer("Starting extraction from image [" + descriptorClass.getName() + "].");
             LireFeature lireFeature = null;
 
             lireFeature = descriptorClass.newInstance();
 
-            lireFeature.extract(bimg);
+            if (lireFeature instanceof PreprocessedImageFeature)
+                ((PreprocessedImageFeature) lireFeature).extract(image);
+            else
+                lireFeature.extract(image.getImage());
 //            featureString = vd.getStringRepresentation();
             logger.fine("Extraction finished [" + descriptorClass.getName() + "].");
 
@@ -267,15 +332,38 @@ public class GenericDocumentBuilder extends AbstractDocumentBuilder {
                 // TODO: check eventually if there is a more compressed string version of the integers. i.e. the hex string
                 if (lireFeature.getDoubleHistogram().length <= 3100) {
                     int[] hashes;
-                    if (hashingMode == HashingMode.BitSampling) {
-                        hashes = BitSampling.generateHashes(lireFeature.getDoubleHistogram());
+                    if (hashStorage == HashStorage.DocValues) {
+                        BitSamplingModel model = hashModel != null ? hashModel : BitSampling.getModel();
+                        hashes = model.generateHashes(lireFeature.getDoubleHistogram());
+                        byte[] signature = SerializationUtils.toByteArray(model.toSignature(hashes));
+                        result[1] = new BinaryDocValuesField(fieldName + SIGNATURE_FIELD_SUFFIX, new BytesRef(signature));
+                        // column copy of the feature for re-ranking the candidates.
+                        result[2] = new BinaryDocValuesField(fieldName, new BytesRef(lireFeature.getByteArrayRepresentation()));
                     } else {
-                        hashes = LocalitySensitiveHashing.generateHashes(lireFeature.getDoubleHistogram());
+                        if (hashModel != null) {
+                            hashes = hashModel.generateHashes(lireFeature.getDoubleHistogram());
+                        } else if (hashingMode == HashingMode.BitSampling) {
+                            hashes = BitSampling.generateHashes(lireFeature.getDoubleHistogram());
+                        } else {
+                            hashes = LocalitySensitiveHashing.generateHashes(lireFeature.getDoubleHistogram());
+                        }
+                        result[1] = new TextField(fieldName + HASH_FIELD_SUFFIX, SerializationUtils.arrayToString(hashes), Field.Store.YES);
                     }
-                    result[1] = new TextField(fieldName + HASH_FIELD_SUFFIX, SerializationUtils.arrayToString(hashes), Field.Store.YES);
                 } else
                     System.err.println("Could not create hashes, feature vector too long: " + lireFeature.getDoubleHistogram().length + " (" + lireFeature.getClass().getName() + ")");
             }
+            if (productQuantizer != null && lireFeature.getDoubleHistogram().length > productQuantizer.getDimensions()) {
+                System.err.println("Could not create product quantization code, feature vector too long: " + lireFeature.getDoubleHistogram().length + " (" + lireFeature.getClass().getName() + ")");
+            } else if (productQuantizer != null) {
+                boolean hasColumn = hashingEnabled && hashStorage == HashStorage.DocValues && result[2] != null;
+                Field[] fields = Arrays.copyOf(result, result.length + (hasColumn ? 1 : 2));
+                fields[result.length] = new BinaryDocValuesField(fieldName + PQ_FIELD_SUFFIX,
+                        new BytesRef(productQuantizer.encode(lireFeature.getDoubleHistogram())));
+                // column copy of the feature for re-ranking the candidates, unless the hashing added one already.
+                if (!hasColumn)
+                    fields[result.length + 1] = new BinaryDocValuesField(fieldName, new BytesRef(lireFeature.getByteArrayRepresentation()));
+                result = fields;
+            }
         } catch (InstantiationException e) {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
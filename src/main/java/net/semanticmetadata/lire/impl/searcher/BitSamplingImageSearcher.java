@@ -44,16 +44,16 @@ package net.semanticmetadata.lire.impl.searcher;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeSet;
 
 import net.semanticmetadata.lire.AbstractImageSearcher;
 import net.semanticmetadata.lire.ImageDuplicates;
 import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
-import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
 import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
-import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.FeatureStore;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
+import net.semanticmetadata.lire.indexing.hashing.MultiIndexHashing;
+import net.semanticmetadata.lire.indexing.hashing.MultiProbe;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 
 import org.apache.lucene.document.Document;
@@ -72,6 +72,14 @@ import org.apache.lucene.search.similarities.DefaultSimilarity;
  * HashingMode. First a number of candidates is retrieved from the index, then the candidates are re-ranked.
  * The number of candidates can be tuned with the numHashedResults parameter in the constructor. The higher
  * this parameter, the better the results, but the slower the search.
+ * <br/>
+ * For re-ranking the feature vectors of the candidates are read from a {@link FeatureStore} if one is set, or from
+ * the BinaryDocValues of the feature field if the index has them, see {@link GenericDocumentBuilder.HashStorage}.
+ * Stored documents are loaded for the final hits only, the number of candidates re-ranked is reported by
+ * {@link net.semanticmetadata.lire.impl.SimpleImageSearchHits#getNumCandidates()}.
+ * <br/>
+ * With {@link #setNumProbes(int)} the query also asks for buckets next to the ones of the query hashes, see
+ * {@link MultiProbe}, which finds more of the near neighbours among the same number of candidates.
  *
  * @author Mathias Lux, mathias@juggle.at, 2013-04-12
  */
@@ -83,6 +91,11 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
     private LireFeature feature = null;
     private String hashesFieldName = null;
     private boolean partialHashes = false;
+    private BitSamplingModel hashModel = null;
+    private MultiIndexHashing hammingIndex = null;
+    private FeatureStore featureStore = null;
+    private int numProbes = 0;
+    private int maxHammingRadius = 2;
 
     /**
      * Creates a new searcher for BitSampling based hashes.
@@ -97,12 +110,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.featureFieldName = featureFieldName;
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
-        try {
-            BitSampling.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Error reading hash functions from default location.");
-            e.printStackTrace();
-        }
+        hashModel = getDefaultModel();
     }
 
     /**
@@ -116,12 +124,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.featureFieldName = GenericDocumentBuilder.fieldForClass.get(feature.getClass());
         this.hashesFieldName = featureFieldName + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
         this.feature = feature;
-        try {
-            BitSampling.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Error reading hash functions from default location.");
-            e.printStackTrace();
-        }
+        hashModel = getDefaultModel();
     }
 
     /**
@@ -129,7 +132,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
      *
      * @param maximumHits how many hits the searcher shall return.
      * @param feature     an instance of the feature.
-     * @param useFastSearch if true it only uses a random sample of hashes for the query and speeds up the search significantly.
+     * @param useFastSearch if true it only uses the half of the hashes least likely to change for near neighbours of the query, which speeds up the search significantly.
      */
     public BitSamplingImageSearcher(int maximumHits, LireFeature feature, boolean useFastSearch) {
         this.maximumHits = maximumHits;
@@ -137,12 +140,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         hashesFieldName = featureFieldName + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
         this.feature = feature;
         partialHashes = useFastSearch;
-        try {
-            BitSampling.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Error reading hash functions from default location.");
-            e.printStackTrace();
-        }
+        hashModel = getDefaultModel();
     }
 
     /**
@@ -158,12 +156,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = featureFieldName + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
-        try {
-            BitSampling.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Error reading hash functions from default location.");
-            e.printStackTrace();
-        }
+        hashModel = getDefaultModel();
     }
 
     public BitSamplingImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, int numHashedResults) {
@@ -172,12 +165,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
-        try {
-            BitSampling.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Error reading hash functions from default location.");
-            e.printStackTrace();
-        }
+        hashModel = getDefaultModel();
     }
 
     public BitSamplingImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, InputStream hashes) {
@@ -186,7 +174,7 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
         try {
-            BitSampling.readHashFunctions(hashes);
+            hashModel = BitSamplingModel.read(hashes);
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
@@ -201,14 +189,112 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
         try {
-            BitSampling.readHashFunctions(hashes);
+            hashModel = BitSamplingModel.read(hashes);
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
             e.printStackTrace();
         }
     }
-    
+
+    /**
+     * Creates a new searcher for BitSampling based hashes created with the given hash functions, e.g. the ones stored
+     * with the index, see {@link BitSamplingModel#getFile(java.io.File)}.
+     *
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field hashFunctionsFileName of the feature.
+     * @param hashesFieldName  the field hashFunctionsFileName of the hashes.
+     * @param feature          an instance of the feature.
+     * @param hashModel        the hash functions used for indexing.
+     * @param numHashedResults the number of candidate results retrieved from the index before re-ranking.
+     */
+    public BitSamplingImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, BitSamplingModel hashModel, int numHashedResults) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.hashesFieldName = hashesFieldName;
+        this.feature = feature;
+        this.hashModel = hashModel;
+        maxResultsHashBased = numHashedResults;
+    }
+
+    /**
+     * Creates a new searcher for BitSampling based hashes stored as binary signatures, see
+     * {@link GenericDocumentBuilder.HashStorage#DocValues}. The candidates are the numHashedResults documents with the
+     * smallest Hamming distance to the query, found with multi-index hashing instead of a BooleanQuery. Note that the
+     * Hamming index has to be created from the IndexReader used for searching.
+     *
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field hashFunctionsFileName of the feature.
+     * @param feature          an instance of the feature.
+     * @param hashModel        the hash functions used for indexing.
+     * @param hammingIndex     the signatures of the index, see {@link MultiIndexHashing#create(IndexReader, String, BitSamplingModel)}.
+     * @param numHashedResults the number of candidate results retrieved from the index before re-ranking.
+     */
+    public BitSamplingImageSearcher(int maximumHits, String featureFieldName, LireFeature feature, BitSamplingModel hashModel, MultiIndexHashing hammingIndex, int numHashedResults) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.feature = feature;
+        this.hashModel = hashModel;
+        this.hammingIndex = hammingIndex;
+        maxResultsHashBased = numHashedResults;
+    }
+
+    /**
+     * Sets the cached features used for re-ranking the candidates instead of the stored fields or DocValues. The
+     * store has to be created from the IndexReader used for searching and has to be set before searching.
+     *
+     * @param featureStore the cached features of the feature field, null to read them from the index.
+     */
+    public void setFeatureStore(FeatureStore featureStore) {
+        if (featureStore != null && !featureStore.getFieldName().equals(featureFieldName))
+            throw new IllegalArgumentException("Feature store of field " + featureStore.getFieldName() + " given for field " + featureFieldName);
+        this.featureStore = featureStore;
+    }
+
+    /**
+     * Sets the probe budget, i.e. the number of buckets besides the ones of the query hashes which are searched for
+     * candidates. The probes are taken in the order of their estimated success probability, see
+     * {@link MultiProbe#bitSampling(double[], int, int[], int)}. A probed bucket counts less for the candidate
+     * selection the more bits are flipped. The default is 0, i.e. no probing.
+     *
+     * @param numProbes the number of additional buckets searched per query.
+     */
+    public void setNumProbes(int numProbes) {
+        this.numProbes = Math.max(0, numProbes);
+    }
+
+    /**
+     * Sets whether only the half of the hashes least likely to change for near neighbours of the query is used, see
+     * {@link #BitSamplingImageSearcher(int, LireFeature, boolean)}. The default is false.
+     *
+     * @param useFastSearch true to query with half of the hashes.
+     */
+    public void setUseFastSearch(boolean useFastSearch) {
+        partialHashes = useFastSearch;
+    }
+
+    /**
+     * Sets the maximum Hamming radius probed per substring when searching the Hamming index, see
+     * {@link MultiIndexHashing#search(long[], int, int)}. A query without near neighbours widens the radius up to
+     * this limit only, so fewer than numHashedResults candidates may be re-ranked. Each additional unit of radius
+     * multiplies the buckets probed by about the substring length. The default is 2.
+     *
+     * @param maxHammingRadius the maximum radius per substring, at least 0.
+     */
+    public void setMaxHammingRadius(int maxHammingRadius) {
+        this.maxHammingRadius = Math.max(0, maxHammingRadius);
+    }
+
+    private static BitSamplingModel getDefaultModel() {
+        try {
+            return BitSamplingModel.getDefault();
+        } catch (IOException e) {
+            System.err.println("Error reading hash functions from default location.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
     	return this.search(image, null, reader);
     }
@@ -217,7 +303,8 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         try {
             LireFeature queryFeature = feature.getClass().newInstance();
             queryFeature.extract(image);
-            int[] ints = BitSampling.generateHashes(queryFeature.getDoubleHistogram());
+            int[] ints = hashModel.generateHashes(queryFeature.getDoubleHistogram());
+            if (hammingIndex != null) return search(ints, queryFeature, reader);
             String[] hashes = new String[ints.length];
             for (int i = 0; i < ints.length; i++) {
                 hashes[i] = Integer.toString(ints[i]);
@@ -235,6 +322,9 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
             queryFeature.setByteArrayRepresentation(doc.getBinaryValue(featureFieldName).bytes,
                     doc.getBinaryValue(featureFieldName).offset,
                     doc.getBinaryValue(featureFieldName).length);
+            // signatures are not stored, so they are computed from the feature again.
+            if (hammingIndex != null)
+                return search(hashModel.generateHashes(queryFeature.getDoubleHistogram()), queryFeature, reader);
             return search(doc.getValues(hashesFieldName)[0].split(" "), queryFeature, reader);
         } catch (Exception e) {
             e.printStackTrace();
@@ -247,41 +337,57 @@ public class BitSamplingImageSearcher extends AbstractImageSearcher {
         IndexSearcher searcher = new IndexSearcher(reader);
         // searcher.setSimilarity(new BaseSimilarity());
         BooleanQuery query = new BooleanQuery();
-        for (int i = 0; i < hashes.length; i++) {
+        int[] bundles = null;
+        double[] projections = null;
+        if (partialHashes || numProbes > 0) {
+            // the query hashes are taken from the projections, so the bundles match the ones of the probes.
+            projections = hashModel.project(queryFeature.getDoubleHistogram());
+            int bits = hashModel.getBits();
+            hashes = new String[hashModel.getNumFunctionBundles()];
+            for (int i = 0; i < hashes.length; i++) {
+                int hash = 0;
+                for (int j = 0; j < bits; j++) {
+                    if (!(projections[i * bits + j] < 0)) hash |= 1 << j;
+                }
+                hashes[i] = Integer.toString(hash);
+            }
+            if (partialHashes) bundles = MultiProbe.stableBundles(projections, hashModel.getBits(), hashes.length / 2);
+        }
+        if (bundles == null) {
+            bundles = new int[hashes.length];
+            for (int i = 0; i < bundles.length; i++) bundles[i] = i;
+        }
+        for (int i : bundles) {
             // be aware that the hashFunctionsFileName of the field must match the one you put the hashes in before.
-            if (partialHashes) {
-                if (Math.random() < 0.5)
-                    query.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, hashes[i] + "")), BooleanClause.Occur.SHOULD));
-            } else
-                query.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, hashes[i] + "")), BooleanClause.Occur.SHOULD));
+            query.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, hashes[i])), BooleanClause.Occur.SHOULD));
+        }
+        if (numProbes > 0) {
+            int budget = Math.min(numProbes, BooleanQuery.getMaxClauseCount() - bundles.length);
+            for (int[] probe : MultiProbe.bitSampling(projections, hashModel.getBits(), bundles, budget)) {
+                TermQuery termQuery = new TermQuery(new Term(hashesFieldName, Integer.toString(probe[1])));
+                termQuery.setBoost((float) Math.pow(0.5, probe[2]));
+                query.add(new BooleanClause(termQuery, BooleanClause.Occur.SHOULD));
+            }
         }
         TopDocs docs = searcher.search(query, maxResultsHashBased);
 //        System.out.println(docs.totalHits);
-        // then re-rank
-        TreeSet<SimpleResult> resultScoreDocs = new TreeSet<SimpleResult>();
-        float maxDistance = -1f;
-        float tmpScore;
-        for (int i = 0; i < docs.scoreDocs.length; i++) {
-            feature.setByteArrayRepresentation(reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).bytes,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).offset,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).length);
-            tmpScore = queryFeature.getDistance(feature);
-            assert (tmpScore >= 0);
-            if (resultScoreDocs.size() < maximumHits) {
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-                maxDistance = Math.max(maxDistance, tmpScore);
-            } else if (tmpScore < maxDistance) {
-                // if it is nearer to the sample than at least one of the current set:
-                // remove the last one ...
-                resultScoreDocs.remove(resultScoreDocs.last());
-                // add the new one ...
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-                // and set our new distance border ...
-                maxDistance = resultScoreDocs.last().getDistance();
-            }
+        int[] candidates = new int[docs.scoreDocs.length];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = docs.scoreDocs[i].doc;
         }
-        assert (resultScoreDocs.size() <= maximumHits);
-        return new SimpleImageSearchHits(resultScoreDocs, maxDistance);
+        return rerank(candidates, queryFeature, reader);
+    }
+
+    /**
+     * Searches the candidates with the smallest Hamming distance of their signatures in the Hamming index.
+     */
+    private ImageSearchHits search(int[] hashes, LireFeature queryFeature, IndexReader reader) throws IOException {
+        int[] candidates = hammingIndex.search(hashModel.toSignature(hashes), maxResultsHashBased, maxHammingRadius);
+        return rerank(candidates, queryFeature, reader);
+    }
+
+    private ImageSearchHits rerank(int[] candidates, LireFeature queryFeature, IndexReader reader) throws IOException {
+        return CandidateReranker.rerank(candidates, queryFeature, reader, featureFieldName, featureStore, maximumHits);
     }
 
     public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
@@ -0,0 +1,127 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.impl.searcher;
+
+import net.semanticmetadata.lire.imageanalysis.ByteDistanceFeature;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.FeatureStore;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Re-ranks the candidates of an approximate search with the distance function of the feature. The features are
+ * read from a {@link FeatureStore} if one is given, otherwise from the BinaryDocValues of the feature field or, for
+ * documents without, from the stored field.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+class CandidateReranker {
+    private CandidateReranker() {
+    }
+
+    /**
+     * @param candidates       the docIDs of the candidates, the array is sorted.
+     * @param queryFeature     the feature of the query.
+     * @param reader           the IndexReader the docIDs refer to.
+     * @param featureFieldName the field of the feature.
+     * @param store            the cached features, may be null.
+     * @param maximumHits      the number of hits to return.
+     * @return the hits, with the number of candidates re-ranked.
+     * @throws IOException
+     */
+    static SimpleImageSearchHits rerank(int[] candidates, LireFeature queryFeature, IndexReader reader, String featureFieldName,
+                                        FeatureStore store, int maximumHits) throws IOException {
+        // the instance given to a searcher is shared by all queries, so re-ranking decodes into one of its own.
+        LireFeature candidate;
+        try {
+            candidate = queryFeature.getClass().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot instantiate " + queryFeature.getClass().getName(), e);
+        }
+        // keeping just docIDs and distances. Visiting the candidates in index order makes reading the
+        // features more sequential, ties are broken by docID anyway.
+        Arrays.sort(candidates);
+        TopKCollector hits = new TopKCollector(maximumHits);
+        ByteDistanceFeature byteQuery = queryFeature instanceof ByteDistanceFeature ? (ByteDistanceFeature) queryFeature : null;
+        byte[] slot = store != null ? new byte[store.getWidth()] : null;
+        BinaryDocValues docValues = store == null ? MultiDocValues.getBinaryValues(reader, featureFieldName) : null;
+        BytesRef value = new BytesRef();
+        float tmpScore;
+        for (int i = 0; i < candidates.length; i++) {
+            int doc = candidates[i];
+            BytesRef data = value;
+            if (store != null) {
+                value.bytes = slot;
+                value.offset = 0;
+                value.length = doc < store.getMaxDoc() ? store.getFeature(doc, slot) : 0;
+            } else if (docValues != null) {
+                docValues.get(doc, value);
+            } else {
+                value.length = 0;
+            }
+            if (data.length == 0) {
+                // no column for this document, e.g. indexed without DocValues, so just the feature field is read.
+                DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(featureFieldName);
+                reader.document(doc, visitor);
+                data = visitor.getDocument().getBinaryValue(featureFieldName);
+                if (data == null) continue;
+            }
+            if (byteQuery != null) {
+                tmpScore = byteQuery.getDistance(data.bytes, data.offset, data.length);
+            } else {
+                candidate.setByteArrayRepresentation(data.bytes, data.offset, data.length);
+                tmpScore = queryFeature.getDistance(candidate);
+            }
+            assert (tmpScore >= 0);
+            hits.offer(doc, tmpScore);
+        }
+        // the documents are loaded for the final hits only.
+        return hits.toSearchHits(reader);
+    }
+}
@@ -42,7 +42,6 @@ package net.semanticmetadata.lire.impl.searcher;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import net.semanticmetadata.lire.AbstractImageSearcher;
@@ -52,15 +51,14 @@ import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.imageanalysis.OpponentHistogram;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 import net.semanticmetadata.lire.utils.ImageUtils;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiFields;
-import org.apache.lucene.util.Bits;
 
 /**
  * This file is part of the Caliph and Emir project: http://www.SemanticMetadata.net
@@ -71,18 +69,14 @@ import org.apache.lucene.util.Bits;
  */
 public class FastOpponentImageSearcher extends AbstractImageSearcher {
     protected Logger logger = Logger.getLogger(getClass().getName());
-    private OpponentHistogram cachedInstance = null;
+    // the byte[] based distance of OpponentHistogram keeps no state, so one instance can be shared.
+    private final OpponentHistogram cachedInstance = new OpponentHistogram();
 
     private int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
-    private byte[] tempBinaryValue;
-    private double maxDistance;
-    private float overallMaxDistance;
+    private ParallelLinearScan linearScan = ParallelLinearScan.getDefault();
 
     public FastOpponentImageSearcher(int maxHits) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
-        this.cachedInstance = new OpponentHistogram();
     }
 
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
@@ -102,56 +96,60 @@ public class FastOpponentImageSearcher extends AbstractImageSearcher {
         lireFeature.extract(bimg);
         logger.fine("Extraction from image finished");
 
-        double maxDistance = findSimilar(reader, lireFeature);
-        searchHits = new SimpleImageSearchHits(this.docs, (float) maxDistance);
+        searchHits = findSimilar(reader, lireFeature);
         return searchHits;
     }
 
     /**
+     * Scans the index in parallel with the searcher's {@link ParallelLinearScan}.
+     *
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the hits, normalized by the maximum distance found.
      * @throws java.io.IOException
      */
-    protected double findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
-        maxDistance = -1f;
-        // clear result set ...
-        docs.clear();
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-        Document d;
-        double tmpDistance;
-        int docs = reader.numDocs();
-        byte[] histogram = lireFeature.getByteArrayRepresentation();
-        for (int i = 0; i < docs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
-
-            d = reader.document(i);
-            tmpDistance = getDistance(d, histogram);
-            assert (tmpDistance >= 0);
-            // calculate the overall max distance to normalize score afterwards
-//            if (overallMaxDistance < tmpDistance) {
-//                overallMaxDistance = tmpDistance;
-//            }
-            // if it is the first document:
-            if (maxDistance < 0) {
-                maxDistance = tmpDistance;
+    protected SimpleImageSearchHits findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
+        final byte[] histogram = lireFeature.getByteArrayRepresentation();
+        TopKCollector hits = linearScan.search(reader, maxHits, new ParallelLinearScan.WorkerFactory() {
+            public ParallelLinearScan.Worker createWorker() {
+                return new OpponentHistogramWorker(histogram);
             }
-            // if the array is not full yet:
-            if (this.docs.size() < maxHits) {
-                this.docs.add(new SimpleResult((float) tmpDistance, d, i));
-                if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-            } else if (tmpDistance < maxDistance) {
-                // if it is nearer to the sample than at least on of the current set:
-                // remove the last one ...
-                this.docs.remove(this.docs.last());
-                // add the new one ...
-                this.docs.add(new SimpleResult((float) tmpDistance, d, i));
-                // and set our new distance border ...
-                maxDistance = this.docs.last().getDistance();
+        });
+        // only the final hits are loaded from the index.
+        return hits.toSearchHits(reader);
+    }
+
+    /**
+     * Sets the scan used for linear search, e.g. to limit the number of threads. The default is
+     * {@link ParallelLinearScan#getDefault()}.
+     *
+     * @param linearScan the scan to use.
+     */
+    public void setLinearScan(ParallelLinearScan linearScan) {
+        this.linearScan = linearScan;
+    }
+
+    /**
+     * Computes the distance on the byte[] data of the stored field, loading only this one field.
+     */
+    private class OpponentHistogramWorker extends ParallelLinearScan.Worker {
+        private final byte[] histogram;
+        private final StoredFeatureVisitor visitor = new StoredFeatureVisitor(DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM);
+
+        OpponentHistogramWorker(byte[] histogram) {
+            this.histogram = histogram;
+        }
+
+        public float getDistance(AtomicReaderContext leaf, int doc) throws IOException {
+            visitor.reset();
+            leaf.reader().document(doc, visitor);
+            byte[] value = visitor.getBinaryValue();
+            if (value == null || value.length == 0) {
+                logger.warning("No feature stored in this document!");
+                return -1f;
             }
+            return (float) cachedInstance.getDistance(histogram, 0, histogram.length, value, 0, value.length);
         }
-        return maxDistance;
     }
 
     /**
@@ -181,9 +179,7 @@ public class FastOpponentImageSearcher extends AbstractImageSearcher {
             lireFeature.setByteArrayRepresentation(doc.getField(DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM).binaryValue().bytes,
                     doc.getField(DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM).binaryValue().offset,
                     doc.getField(DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM).binaryValue().length);
-        double maxDistance = findSimilar(reader, lireFeature);
-
-        searchHits = new SimpleImageSearchHits(this.docs, (float) maxDistance);
+        searchHits = findSimilar(reader, lireFeature);
         return searchHits;
     }
 
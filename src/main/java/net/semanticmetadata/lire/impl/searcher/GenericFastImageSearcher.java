@@ -43,10 +43,8 @@ package net.semanticmetadata.lire.impl.searcher;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,15 +52,18 @@ import net.semanticmetadata.lire.AbstractImageSearcher;
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.ImageDuplicates;
 import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.ByteDistanceFeature;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageDuplicates;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
+import net.semanticmetadata.lire.indexing.FeatureStore;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 import net.semanticmetadata.lire.utils.ImageUtils;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.util.Bits;
@@ -78,15 +79,13 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
     protected Logger logger = Logger.getLogger(getClass().getName());
     Class<?> descriptorClass;
     String fieldName;
-    private LireFeature cachedInstance = null;
     private boolean isCaching = false;
 
-    private LinkedList<byte[]> featureCache;
+    private FeatureStore featureStore;
     private IndexReader reader;
 
     private int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
-    private float maxDistance;
+    private ParallelLinearScan linearScan = ParallelLinearScan.getDefault();
 
     /**
      * Creates a new ImageSearcher for the given feature.
@@ -98,16 +97,8 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
      */
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
-        try {
-            this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
-        } catch (InstantiationException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        }
         init();
     }
 
@@ -120,40 +111,26 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
      */
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
-        try {
-            this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
-        } catch (InstantiationException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        }
-        this.fieldName = cachedInstance.getFieldName();
+        this.fieldName = createFeature(null).getFieldName();
         init();
     }
 
     private void init() {
-        // put all respective features into an in-memory cache ...
-        if (isCaching && reader != null) {
-            int docs = reader.numDocs();
-            featureCache = new LinkedList<byte[]>();
+        // put all respective features into an off-heap cache ...
+        if (isCaching && reader != null && featureStore == null) {
             try {
-                Document d;
-                for (int i = 0; i < docs; i++) {
-                    d = reader.document(i);
-                    cachedInstance.setByteArrayRepresentation(d.getField(fieldName).binaryValue().bytes, d.getField(fieldName).binaryValue().offset, d.getField(fieldName).binaryValue().length);
-                    featureCache.add(cachedInstance.getByteArrayRepresentation());
-                }
+                featureStore = FeatureStore.create(reader, fieldName);
             } catch (IOException e) {
-                e.printStackTrace();
+                logger.log(Level.SEVERE, "Error creating the feature cache for field " + fieldName + ": " + e.getMessage());
+                isCaching = false;
             }
         }
     }
 
     /**
-     * Creates a n ImageSearcher for the given feature. If isCaching is set to true, the features will be hold in memory,
-     * which speeds up search significantly. However, this takes sometimes a lot of memory, so use it carefully.
+     * Creates a n ImageSearcher for the given feature. If isCaching is set to true, the features will be hold in an off-heap
+     * {@link FeatureStore}, which speeds up search significantly. However, this takes some direct memory, so use it carefully.
      * @param maxHits  the maximum number of hits
      * @param descriptorClass  the feature class. It has to implement {@link LireFeature}
      * @param fieldName a custom field name for the index.
@@ -163,23 +140,15 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName, boolean isCaching, IndexReader reader) {
         this.isCaching = isCaching;
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
-        try {
-            this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
-        } catch (InstantiationException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        }
         this.reader = reader;
         init();
     }
 
     /**
-     * Creates a n ImageSearcher for the given feature. If isCaching is set to true, the features will be hold in memory,
-     * which speeds up search significantly. However, this takes sometimes a lot of memory, so use it carefully.
+     * Creates a n ImageSearcher for the given feature. If isCaching is set to true, the features will be hold in an off-heap
+     * {@link FeatureStore}, which speeds up search significantly. However, this takes some direct memory, so use it carefully.
      * @param maxHits   the maximum number of hits
      * @param descriptorClass the feature class. It has to implement {@link LireFeature}
      * @param isCaching
@@ -188,20 +157,29 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
     public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, boolean isCaching, IndexReader reader) {
         this.isCaching = isCaching;
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
-        try {
-            this.cachedInstance = (LireFeature) this.descriptorClass.newInstance();
-        } catch (InstantiationException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage());
-        }
         this.reader = reader;
-        this.fieldName = cachedInstance.getFieldName();
+        this.fieldName = createFeature(null).getFieldName();
         init();
     }
 
+    /**
+     * Creates an ImageSearcher working on an existing feature cache, e.g. one memory mapped with
+     * {@link FeatureStore#open(java.io.File)}. This way the cache is built once and can be shared by multiple
+     * searchers. The store has to be created from the IndexReader later used for searching.
+     *
+     * @param maxHits         the maximum number of hits
+     * @param descriptorClass the feature class. It has to implement {@link LireFeature}
+     * @param featureStore    the cached features of the field, the field name is taken from the store.
+     */
+    public GenericFastImageSearcher(int maxHits, Class<?> descriptorClass, FeatureStore featureStore) {
+        this.isCaching = true;
+        this.maxHits = maxHits;
+        this.descriptorClass = descriptorClass;
+        this.featureStore = featureStore;
+        this.fieldName = featureStore.getFieldName();
+    }
+
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
     	return this.search(image, null, reader);
     }
@@ -223,8 +201,7 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
             lireFeature.extract(bimg);
             logger.fine("Extraction from image finished");
 
-            float maxDistance = findSimilar(reader, lireFeature);
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = findSimilar(reader, lireFeature);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -234,81 +211,131 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
     }
 
     /**
+     * Scans the index, or the feature cache, in parallel with the searcher's {@link ParallelLinearScan}.
+     * All state of the query is kept local, so one searcher can serve concurrent queries.
+     *
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the hits, normalized by the maximum distance found.
      * @throws java.io.IOException
      */
-    protected float findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
-        maxDistance = -1f;
-//        overallMaxDistance = -1f;
-
-        // clear result set ...
-        docs.clear();
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-        Document d;
-        float tmpDistance;
-        int docs = reader.numDocs();
+    protected SimpleImageSearchHits findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
+        // each worker gets its own copy of the query, so feature implementations don't need to be thread safe.
+        final byte[] queryData = lireFeature.getByteArrayRepresentation();
+        ParallelLinearScan.WorkerFactory factory;
         if (!isCaching) {
-            // we read each and every document from the index and then we compare it to the query.
-            for (int i = 0; i < docs; i++) {
-                if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
-
-                d = reader.document(i);
-                tmpDistance = getDistance(d, lireFeature);
-                assert (tmpDistance >= 0);
-                // if it is the first document:
-                if (maxDistance < 0) {
-                    maxDistance = tmpDistance;
-                }
-                // if the array is not full yet:
-                if (this.docs.size() < maxHits) {
-                    this.docs.add(new SimpleResult(tmpDistance, d, i));
-                    if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-                } else if (tmpDistance < maxDistance) {
-                    // if it is nearer to the sample than at least on of the current set:
-                    // remove the last one ...
-                    this.docs.remove(this.docs.last());
-                    // add the new one ...
-                    this.docs.add(new SimpleResult(tmpDistance, d, i));
-                    // and set our new distance border ...
-                    maxDistance = this.docs.last().getDistance();
+            // we read the feature of each and every document from the index and then we compare it to the query.
+            factory = new ParallelLinearScan.WorkerFactory() {
+                public ParallelLinearScan.Worker createWorker() {
+                    return new StoredFieldWorker(queryData);
                 }
-            }
+            };
         } else {
-            // we use the in-memory cache to find the matching docs from the index.
-            int count = 0;
-            for (Iterator<byte[]> iterator = featureCache.iterator(); iterator.hasNext(); ) {
-                cachedInstance.setByteArrayRepresentation(iterator.next());
-                if (reader.hasDeletions() && !liveDocs.get(count)) {
-                    count++;
-                    continue; // if it is deleted, just ignore it.
-                } else {
-                    tmpDistance = lireFeature.getDistance(cachedInstance);
-                    assert (tmpDistance >= 0);
-                    // if it is the first document:
-                    if (maxDistance < 0) {
-                        maxDistance = tmpDistance;
-                    }
-                    // if the array is not full yet:
-                    if (this.docs.size() < maxHits) {
-                        this.docs.add(new SimpleResult(tmpDistance, reader.document(count), count));
-                        if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-                    } else if (tmpDistance < maxDistance) {
-                        // if it is nearer to the sample than at least on of the current set:
-                        // remove the last one ...
-                        this.docs.remove(this.docs.last());
-                        // add the new one ...
-                        this.docs.add(new SimpleResult(tmpDistance, reader.document(count), count));
-                        // and set our new distance border ...
-                        maxDistance = this.docs.last().getDistance();
-                    }
-                    count++;
+            // we use the off-heap cache to find the matching docs from the index, reading it block by block.
+            factory = new ParallelLinearScan.WorkerFactory() {
+                public ParallelLinearScan.Worker createWorker() {
+                    return new FeatureStoreWorker(queryData);
                 }
+            };
+        }
+        TopKCollector hits = linearScan.search(reader, maxHits, factory);
+        // only the final hits are loaded from the index.
+        return hits.toSearchHits(reader);
+    }
+
+    /**
+     * Sets the scan used for linear search, e.g. to limit the number of threads. The default is
+     * {@link ParallelLinearScan#getDefault()}.
+     *
+     * @param linearScan the scan to use.
+     */
+    public void setLinearScan(ParallelLinearScan linearScan) {
+        this.linearScan = linearScan;
+    }
+
+    private LireFeature createFeature(byte[] featureData) {
+        try {
+            LireFeature feature = (LireFeature) descriptorClass.newInstance();
+            if (featureData != null) feature.setByteArrayRepresentation(featureData);
+            return feature;
+        } catch (InstantiationException e) {
+            throw new RuntimeException("Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage(), e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Error instantiating class for generic image searcher (" + descriptorClass.getName() + "): " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compares the query to a stored feature. If the feature implements {@link ByteDistanceFeature} the distance is
+     * computed on the bytes, otherwise they are decoded into a candidate instance owned by the worker.
+     */
+    private abstract class DistanceWorker extends ParallelLinearScan.Worker {
+        private final LireFeature query, candidate;
+        private final ByteDistanceFeature byteQuery;
+
+        DistanceWorker(byte[] queryData) {
+            query = createFeature(queryData);
+            if (query instanceof ByteDistanceFeature) {
+                byteQuery = (ByteDistanceFeature) query;
+                candidate = null;
+            } else {
+                byteQuery = null;
+                candidate = createFeature(null);
+            }
+        }
+
+        protected float getDistance(byte[] featureData, int offset, int length) {
+            if (byteQuery != null) return byteQuery.getDistance(featureData, offset, length);
+            candidate.setByteArrayRepresentation(featureData, offset, length);
+            return query.getDistance(candidate);
+        }
+    }
+
+    /**
+     * Reads the feature from the stored field of each document, loading only this one field.
+     */
+    private class StoredFieldWorker extends DistanceWorker {
+        private final StoredFeatureVisitor visitor = new StoredFeatureVisitor(fieldName);
+
+        StoredFieldWorker(byte[] queryData) {
+            super(queryData);
+        }
+
+        public float getDistance(AtomicReaderContext leaf, int doc) throws IOException {
+            visitor.reset();
+            leaf.reader().document(doc, visitor);
+            byte[] value = visitor.getBinaryValue();
+            if (value == null || value.length == 0) {
+                logger.warning("No feature stored in this document! (" + descriptorClass.getName() + ")");
+                return -1f;
+            }
+            return getDistance(value, 0, value.length);
+        }
+    }
+
+    /**
+     * Reads the feature from the {@link FeatureStore}, copying a block of consecutive slots at once.
+     */
+    private class FeatureStoreWorker extends DistanceWorker {
+        private final int width = featureStore.getWidth();
+        private final byte[] block = new byte[FeatureStore.BLOCK_SIZE * width];
+        private int blockStart = 0, blockSize = 0;
+
+        FeatureStoreWorker(byte[] queryData) {
+            super(queryData);
+        }
+
+        public float getDistance(AtomicReaderContext leaf, int doc) {
+            int docId = leaf.docBase + doc;
+            if (docId >= featureStore.getMaxDoc()) return -1f;
+            int length = featureStore.getLength(docId);
+            if (length == 0) return -1f; // no feature stored in this document.
+            if (docId < blockStart || docId >= blockStart + blockSize) {
+                blockStart = docId;
+                blockSize = featureStore.read(docId, FeatureStore.BLOCK_SIZE, block);
             }
+            return getDistance(block, (docId - blockStart) * width, length);
         }
-        return maxDistance;
     }
 
     /**
@@ -316,12 +343,13 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
      *
      * @param document
      * @param lireFeature
+     * @param candidate   a feature instance owned by the caller, used to decode the stored feature.
      * @return the distance between the given feature and the feature stored in the document.
      */
-    protected float getDistance(Document document, LireFeature lireFeature) {
+    protected float getDistance(Document document, LireFeature lireFeature, LireFeature candidate) {
         if (document.getField(fieldName).binaryValue() != null && document.getField(fieldName).binaryValue().length > 0) {
-            cachedInstance.setByteArrayRepresentation(document.getField(fieldName).binaryValue().bytes, document.getField(fieldName).binaryValue().offset, document.getField(fieldName).binaryValue().length);
-            return lireFeature.getDistance(cachedInstance);
+            candidate.setByteArrayRepresentation(document.getField(fieldName).binaryValue().bytes, document.getField(fieldName).binaryValue().offset, document.getField(fieldName).binaryValue().length);
+            return lireFeature.getDistance(candidate);
         } else {
             logger.warning("No feature stored in this document! (" + descriptorClass.getName() + ")");
         }
@@ -335,9 +363,7 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
 
             if (doc.getField(fieldName).binaryValue() != null && doc.getField(fieldName).binaryValue().length > 0)
                 lireFeature.setByteArrayRepresentation(doc.getField(fieldName).binaryValue().bytes, doc.getField(fieldName).binaryValue().offset, doc.getField(fieldName).binaryValue().length);
-            float maxDistance = findSimilar(reader, lireFeature);
-
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = findSimilar(reader, lireFeature);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -358,6 +384,8 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
             if (doc.getField(fieldName).binaryValue() != null && doc.getField(fieldName).binaryValue().length > 0)
                 lireFeature.setByteArrayRepresentation(doc.getField(fieldName).binaryValue().bytes, doc.getField(fieldName).binaryValue().offset, doc.getField(fieldName).binaryValue().length);
 
+            LireFeature candidate = (LireFeature) descriptorClass.newInstance();
+
             HashMap<Float, List<String>> duplicates = new HashMap<Float, List<String>>();
 
             // Needed for check whether the document is deleted.
@@ -369,7 +397,7 @@ public class GenericFastImageSearcher extends AbstractImageSearcher {
                 if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
 
                 Document d = reader.document(i);
-                float distance = getDistance(d, lireFeature);
+                float distance = getDistance(d, lireFeature, candidate);
 
                 if (!duplicates.containsKey(distance)) {
                     duplicates.put(distance, new LinkedList<String>());
@@ -45,7 +45,6 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,12 +55,14 @@ import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageDuplicates;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 import net.semanticmetadata.lire.utils.ImageUtils;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.util.Bits;
@@ -80,21 +81,12 @@ public class GenericImageSearcher extends AbstractImageSearcher {
     String fieldName;
 
     private int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
-    private LireFeature cachedInstance;
+    private ParallelLinearScan linearScan = ParallelLinearScan.getDefault();
 
     public GenericImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
-        try {
-            cachedInstance = (LireFeature) descriptorClass.newInstance();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        }
     }
 
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
@@ -115,8 +107,7 @@ public class GenericImageSearcher extends AbstractImageSearcher {
             lireFeature.extract(bimg);
             logger.fine("Extraction from image finished");
 
-            float maxDistance = findSimilar(reader, lireFeature);
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = findSimilar(reader, lireFeature);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -126,62 +117,72 @@ public class GenericImageSearcher extends AbstractImageSearcher {
     }
 
     /**
+     * Scans the index in parallel with the searcher's {@link ParallelLinearScan}.
+     *
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the hits, normalized by the maximum distance found.
      * @throws java.io.IOException
      */
-    protected float findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
-        float maxDistance = -1f, overallMaxDistance = -1f;
-        float tmpDistance = 0f;
-        // clear result set ...
-        docs.clear();
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
+    protected SimpleImageSearchHits findSimilar(IndexReader reader, LireFeature lireFeature) throws IOException {
+        // each worker gets its own copy of the query, so feature implementations don't need to be thread safe.
+        final String queryData = lireFeature.getStringRepresentation();
+        TopKCollector hits = linearScan.search(reader, maxHits, new ParallelLinearScan.WorkerFactory() {
+            public ParallelLinearScan.Worker createWorker() {
+                return new StringFieldWorker(queryData);
+            }
+        });
+        // only the final hits are loaded from the index.
+        return hits.toSearchHits(reader);
+    }
 
+    /**
+     * Sets the scan used for linear search, e.g. to limit the number of threads. The default is
+     * {@link ParallelLinearScan#getDefault()}.
+     *
+     * @param linearScan the scan to use.
+     */
+    public void setLinearScan(ParallelLinearScan linearScan) {
+        this.linearScan = linearScan;
+    }
 
-        int docs = reader.numDocs();
-        Document d = null;
-        for (int i = 0; i < docs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+    /**
+     * Reads the String representation of the feature from each document, loading only this one field.
+     */
+    private class StringFieldWorker extends ParallelLinearScan.Worker {
+        private LireFeature query, candidate;
 
-            d = reader.document(i);
-            tmpDistance = getDistance(d, lireFeature);
-//            if (distance < 0 || Float.isNaN(distance))
-//                System.out.println("X");
-            assert (tmpDistance >= 0);
-            // calculate the overall max distance to normalize score afterwards
-            if (overallMaxDistance < tmpDistance) {
-                overallMaxDistance = tmpDistance;
-            }
-            // if it is the first document:
-            if (maxDistance < 0) {
-                maxDistance = tmpDistance;
+        StringFieldWorker(String queryData) {
+            try {
+                query = (LireFeature) descriptorClass.newInstance();
+                query.setStringRepresentation(queryData);
+                candidate = (LireFeature) descriptorClass.newInstance();
+            } catch (InstantiationException e) {
+                throw new RuntimeException("Error instantiating class for generic image searcher: " + e.getMessage(), e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Error instantiating class for generic image searcher: " + e.getMessage(), e);
             }
-            // if the array is not full yet:
-            if (this.docs.size() < maxHits) {
-                this.docs.add(new SimpleResult(tmpDistance, d, i));
-                if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-            } else if (tmpDistance < maxDistance) {
-                // if it is nearer to the sample than at least on of the current set:
-                // remove the last one ...
-                this.docs.remove(this.docs.last());
-                // add the new one ...
-                this.docs.add(new SimpleResult(tmpDistance, d, i));
-                // and set our new distance border ...
-                maxDistance = this.docs.last().getDistance();
+        }
+
+        public float getDistance(AtomicReaderContext leaf, int doc) throws IOException {
+            DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fieldName);
+            leaf.reader().document(doc, visitor);
+            String[] cls = visitor.getDocument().getValues(fieldName);
+            if (cls == null || cls.length == 0) {
+                logger.warning("No feature stored in this document!");
+                return -1f;
             }
+            candidate.setStringRepresentation(cls[0]);
+            return query.getDistance(candidate);
         }
-        return maxDistance;
     }
 
-    protected float getDistance(Document d, LireFeature lireFeature) {
+    protected float getDistance(Document d, LireFeature lireFeature, LireFeature candidate) {
         float distance = 0f;
-//            cachedInstance = (LireFeature) descriptorClass.newInstance();
         String[] cls = d.getValues(fieldName);
         if (cls != null && cls.length > 0) {
-            cachedInstance.setStringRepresentation(cls[0]);
-            distance = lireFeature.getDistance(cachedInstance);
+            candidate.setStringRepresentation(cls[0]);
+            distance = lireFeature.getDistance(candidate);
         } else {
             logger.warning("No feature stored in this document!");
         }
@@ -197,9 +198,7 @@ public class GenericImageSearcher extends AbstractImageSearcher {
             String[] cls = doc.getValues(fieldName);
             if (cls != null && cls.length > 0)
                 lireFeature.setStringRepresentation(cls[0]);
-            float maxDistance = findSimilar(reader, lireFeature);
-
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = findSimilar(reader, lireFeature);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -220,6 +219,7 @@ public class GenericImageSearcher extends AbstractImageSearcher {
             String[] cls = doc.getValues(fieldName);
             if (cls != null && cls.length > 0)
                 lireFeature.setStringRepresentation(cls[0]);
+            LireFeature candidate = (LireFeature) descriptorClass.newInstance();
 
             HashMap<Float, List<String>> duplicates = new HashMap<Float, List<String>>();
 
@@ -231,7 +231,7 @@ public class GenericImageSearcher extends AbstractImageSearcher {
             for (int i = 0; i < docs; i++) {
                 if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
                 Document d = reader.document(i);
-                float distance = getDistance(d, lireFeature);
+                float distance = getDistance(d, lireFeature, candidate);
 
                 if (!duplicates.containsKey(distance)) {
                     duplicates.put(distance, new LinkedList<String>());
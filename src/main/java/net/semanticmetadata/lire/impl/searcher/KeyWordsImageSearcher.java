@@ -53,6 +53,7 @@ import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 import net.semanticmetadata.lire.indexing.parallel.WorkItem;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
@@ -70,17 +71,13 @@ public class KeyWordsImageSearcher extends AbstractImageSearcher {
 	
 	//最大检索结果数量
     private int numMaxHits;
-    //查询解析器
-    MultiFieldQueryParser qp;
+    //中文分词器，可被多线程共享；查询解析器不是线程安全的，每次检索单独创建
+    private Analyzer analyzer;
 
     public KeyWordsImageSearcher(int numMaxHits) {
     	this.numMaxHits = numMaxHits;
-    	//构建支持中文分词的查询解析器
-    	qp = new MultiFieldQueryParser(LuceneUtils.LUCENE_VERSION, 
-    						new String[]{DocumentBuilder.FIELD_NAME_TITLE, 
-    									DocumentBuilder.FIELD_NAME_TAGS,
-    									DocumentBuilder.FIELD_NAME_LOCATION}, 
-    									new IKAnalyzer());
+    	//构建支持中文分词的分词器
+    	analyzer = new IKAnalyzer();
     }
     
     public ImageSearchHits search(BufferedImage image, ImageInfo imageInfo, IndexReader reader) throws IOException {
@@ -94,6 +91,12 @@ public class KeyWordsImageSearcher extends AbstractImageSearcher {
         String queryString = imageInfo.getTitle();
         Query tq = null;
         try {
+        	//构建支持中文分词的查询解析器
+        	MultiFieldQueryParser qp = new MultiFieldQueryParser(LuceneUtils.LUCENE_VERSION, 
+        						new String[]{DocumentBuilder.FIELD_NAME_TITLE, 
+        									DocumentBuilder.FIELD_NAME_TAGS,
+        									DocumentBuilder.FIELD_NAME_LOCATION}, 
+        									analyzer);
         	//对语音关键词进行分词，返回查询对象
             tq = qp.parse(queryString);
             //进行文档查询
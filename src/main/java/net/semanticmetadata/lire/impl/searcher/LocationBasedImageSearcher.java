@@ -73,38 +73,34 @@ public class LocationBasedImageSearcher extends AbstractImageSearcher {
 
     //最大检索结果数量
     private int maxHits = 20;
-    //检索结果列表
-    protected List<SimpleResult> docs;
     //最大距离阀值
     private float threshold = 3;
 
     public LocationBasedImageSearcher(int maxHits) {
         this.maxHits = maxHits;
-        docs = new ArrayList<SimpleResult>();
     }
     
     public ImageSearchHits search(BufferedImage image, ImageInfo imageInfo, IndexReader reader) throws IOException {
         
     	if (StringUtils.isEmpty(imageInfo.getLng()) || StringUtils.isEmpty(imageInfo.getLat())) return null;
     	
-    	//查找距离最近的文档，并返回最近文档的距离值
-        float maxDistance = findSimilar(reader, imageInfo);
-        //构建检索结果并返回
-        SimpleImageSearchHits searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+    	//查找距离最近的文档，构建检索结果并返回
+        SimpleImageSearchHits searchHits = findSimilar(reader, imageInfo);
         return searchHits;
     }
 
     /**
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the hits, normalized by the maximum distance found.
      * @throws java.io.IOException
      */
-    protected float findSimilar(IndexReader reader, ImageInfo imageInfo) throws IOException {
+    protected SimpleImageSearchHits findSimilar(IndexReader reader, ImageInfo imageInfo) throws IOException {
         float maxDistance = -1f, allMaxDistance = -1f;
         float tmpDistance = 0f;
 
-        docs.clear();
+        //检索结果列表，每次检索单独创建，支持并发检索
+        List<SimpleResult> docs = new ArrayList<SimpleResult>();
         //找出当前可用的文档列表，有些文档可能已经被删除
         Bits liveDocs = MultiFields.getLiveDocs(reader);
 
@@ -127,22 +123,22 @@ public class LocationBasedImageSearcher extends AbstractImageSearcher {
                 maxDistance = tmpDistance;
             }
             //当结果数量没有达到指定数量时，向结果中添加当前文档
-            if (this.docs.size() < maxHits) {
-                this.docs.add(new SimpleResult(tmpDistance, d, i));                
+            if (docs.size() < maxHits) {
+                docs.add(new SimpleResult(tmpDistance, d, i));                
                 if (tmpDistance > maxDistance) maxDistance = tmpDistance;
             //当结果数量大于指定数量，并且当前距离比结果中最大距离更近时
             } else if (tmpDistance < maxDistance) {
             	//将结果中最距离最远的文档替换为当前文档
-                this.docs.remove(this.docs.size() - 1);
-                this.docs.add(new SimpleResult(tmpDistance, d, i));
+                docs.remove(docs.size() - 1);
+                docs.add(new SimpleResult(tmpDistance, d, i));
                 //更新最大距离
                 maxDistance = tmpDistance;
 
                 Collections.sort(docs);
             }
         }
-        //将最大距离返回
-        return maxDistance;
+        //构建检索结果并返回
+        return new SimpleImageSearchHits(docs, maxDistance);
     }
 
     //计算文档和待检索图像之间的地理位置距离
@@ -44,19 +44,20 @@ package net.semanticmetadata.lire.impl.searcher;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeSet;
 
 import net.semanticmetadata.lire.AbstractImageSearcher;
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.ImageDuplicates;
 import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
-import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
+import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashingModel;
+import net.semanticmetadata.lire.indexing.hashing.MultiProbe;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
@@ -66,12 +67,16 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.util.BytesRef;
 
 /**
  * This class allows for searching based on {@link net.semanticmetadata.lire.indexing.hashing.BitSampling}
  * HashingMode. First a number of candidates is retrieved from the index, then the candidates are re-ranked.
  * The number of candidates can be tuned with the numHashedResults parameter in the constructor. The higher
  * this parameter, the better the results, but the slower the search.
+ * <br/>
+ * With {@link #setNumProbes(int)} the query also asks for the bins next to the ones of the query hashes, see
+ * {@link MultiProbe}, which finds more of the near neighbours among the same number of candidates.
  * @author Mathias Lux, mathias@juggle.at, 2013-04-12
  */
 
@@ -81,6 +86,8 @@ public class LshImageSearcher extends AbstractImageSearcher {
     private String featureFieldName = DocumentBuilder.FIELD_NAME_OPPONENT_HISTOGRAM;
     private LireFeature feature;
     private String hashesFieldName = null;
+    private LocalitySensitiveHashingModel hashModel = null;
+    private int numProbes = 0;
 
     /**
      * Creates a new searcher for BitSampling based hashes.
@@ -94,12 +101,7 @@ public class LshImageSearcher extends AbstractImageSearcher {
         this.featureFieldName = featureFieldName;
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
-        try {
-            LocalitySensitiveHashing.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Error reading hash functions from default location.");
-            e.printStackTrace();
-        }
+        hashModel = getDefaultModel();
     }
 
     public LshImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, int numHashedResults) {
@@ -108,12 +110,7 @@ public class LshImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
-        try {
-            LocalitySensitiveHashing.readHashFunctions();
-        } catch (IOException e) {
-            System.err.println("Error reading hash functions from default location.");
-            e.printStackTrace();
-        }
+        hashModel = getDefaultModel();
     }
 
     public LshImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, InputStream hashes) {
@@ -122,7 +119,7 @@ public class LshImageSearcher extends AbstractImageSearcher {
         this.hashesFieldName = hashesFieldName;
         this.feature = feature;
         try {
-            LocalitySensitiveHashing.readHashFunctions();
+            hashModel = LocalitySensitiveHashingModel.read(hashes, LocalitySensitiveHashing.binLength);
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
@@ -137,7 +134,7 @@ public class LshImageSearcher extends AbstractImageSearcher {
         this.feature = feature;
         maxResultsHashBased = numHashedResults;
         try {
-            LocalitySensitiveHashing.readHashFunctions();
+            hashModel = LocalitySensitiveHashingModel.read(hashes, LocalitySensitiveHashing.binLength);
             hashes.close();
         } catch (IOException e) {
             System.err.println("Error reading has functions from given input stream.");
@@ -145,6 +142,47 @@ public class LshImageSearcher extends AbstractImageSearcher {
         }
     }
 
+    /**
+     * Creates a new searcher for LSH based hashes created with the given hash functions, e.g. the ones stored
+     * with the index, see {@link LocalitySensitiveHashingModel#getFile(java.io.File)}.
+     * @param maximumHits how many hits the searcher shall return.
+     * @param featureFieldName the field hashFunctionsFileName of the feature.
+     * @param hashesFieldName the field hashFunctionsFileName of the hashes.
+     * @param feature an instance of the feature.
+     * @param hashModel the hash functions used for indexing.
+     * @param numHashedResults the number of candidate results retrieved from the index before re-ranking.
+     */
+    public LshImageSearcher(int maximumHits, String featureFieldName, String hashesFieldName, LireFeature feature, LocalitySensitiveHashingModel hashModel, int numHashedResults) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.hashesFieldName = hashesFieldName;
+        this.feature = feature;
+        this.hashModel = hashModel;
+        maxResultsHashBased = numHashedResults;
+    }
+
+    /**
+     * Sets the probe budget, i.e. the number of bins besides the ones of the query hashes which are searched for
+     * candidates. The probes are taken in the order of their estimated success probability, see
+     * {@link MultiProbe#lsh(double[], int[], int)}. A probed bin counts less for the candidate selection the
+     * further it is from the one of the query. The default is 0, i.e. no probing.
+     *
+     * @param numProbes the number of additional bins searched per query.
+     */
+    public void setNumProbes(int numProbes) {
+        this.numProbes = Math.max(0, numProbes);
+    }
+
+    private static LocalitySensitiveHashingModel getDefaultModel() {
+        try {
+            return LocalitySensitiveHashingModel.getDefault();
+        } catch (IOException e) {
+            System.err.println("Error reading hash functions from default location.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
     	return this.search(image, null, reader);
     }
@@ -153,7 +191,7 @@ public class LshImageSearcher extends AbstractImageSearcher {
         try {
             LireFeature queryFeature = feature.getClass().newInstance();
             queryFeature.extract(image);
-            int[] ints = LocalitySensitiveHashing.generateHashes(queryFeature.getDoubleHistogram());
+            int[] ints = hashModel.generateHashes(queryFeature.getDoubleHistogram());
             String[] hashes = new String[ints.length];
             for (int i = 0; i < ints.length; i++) {
                 hashes[i] = Integer.toString(ints[i]);
@@ -178,7 +216,9 @@ public class LshImageSearcher extends AbstractImageSearcher {
         return null;
     }
 
-    private ImageSearchHits search(String[] hashes, LireFeature queryFeature, IndexReader reader) throws IOException {
+    private ImageSearchHits search(String[] hashes, LireFeature queryFeature, IndexReader reader) throws IOException, InstantiationException, IllegalAccessException {
+        // the instance given in the constructor is shared by all queries, so re-ranking decodes into one of its own.
+        LireFeature candidate = queryFeature.getClass().newInstance();
         // first search by text:
         IndexSearcher searcher = new IndexSearcher(reader);
         searcher.setSimilarity(new DefaultSimilarity(){
@@ -217,29 +257,31 @@ public class LshImageSearcher extends AbstractImageSearcher {
             // be aware that the hashFunctionsFileName of the field must match the one you put the hashes in before.
             query.add(new BooleanClause(new TermQuery(new Term(hashesFieldName, hashes[i] + "")), BooleanClause.Occur.SHOULD));
         }
+        if (numProbes > 0) {
+            int[] functions = new int[hashes.length];
+            for (int i = 0; i < functions.length; i++) functions[i] = i;
+            int budget = Math.min(numProbes, BooleanQuery.getMaxClauseCount() - hashes.length);
+            for (int[] probe : MultiProbe.lsh(hashModel.project(queryFeature.getDoubleHistogram()), functions, budget)) {
+                TermQuery termQuery = new TermQuery(new Term(hashesFieldName, Integer.toString(probe[1])));
+                termQuery.setBoost((float) Math.pow(0.5, probe[2]));
+                query.add(new BooleanClause(termQuery, BooleanClause.Occur.SHOULD));
+            }
+        }
         TopDocs docs = searcher.search(query, maxResultsHashBased);
-        // then re-rank
-        TreeSet<SimpleResult> resultScoreDocs = new TreeSet<SimpleResult>();
-        float maxDistance = 0f;
-        float tmpScore = 0f;
+        // then re-rank, keeping just docIDs and distances. Only the feature field is read for the candidates.
+        TopKCollector hits = new TopKCollector(maximumHits);
+        float tmpScore;
         for (int i = 0; i < docs.scoreDocs.length; i++) {
-            feature.setByteArrayRepresentation(reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).bytes,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).offset,
-                    reader.document(docs.scoreDocs[i].doc).getBinaryValue(featureFieldName).length);
-            tmpScore = queryFeature.getDistance(feature);
-            if (resultScoreDocs.size() < maximumHits) {
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-                maxDistance = Math.max(maxDistance, tmpScore);
-            } else if (tmpScore < maxDistance) {
-                resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
-            }
-            while (resultScoreDocs.size() > maximumHits) {
-                resultScoreDocs.remove(resultScoreDocs.last());
-                maxDistance = resultScoreDocs.last().getDistance();
-            }
-//            resultScoreDocs.add(new SimpleResult(tmpScore, reader.document(docs.scoreDocs[i].doc), docs.scoreDocs[i].doc));
+            DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(featureFieldName);
+            reader.document(docs.scoreDocs[i].doc, visitor);
+            BytesRef value = visitor.getDocument().getBinaryValue(featureFieldName);
+            candidate.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+            tmpScore = queryFeature.getDistance(candidate);
+            assert (tmpScore >= 0);
+            hits.offer(docs.scoreDocs[i].doc, tmpScore);
         }
-        return new SimpleImageSearchHits(resultScoreDocs, maxDistance);
+        // the documents are loaded for the final hits only.
+        return hits.toSearchHits(reader);
     }
 
     public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
@@ -33,13 +33,10 @@ public class MultipleVoterImageSearcher extends AbstractImageSearcher {
     private List<ImageSearcher> searchers;
 
     private int maxHits = 20;
-    protected Map<String, SimpleResult> docs;
 
     public MultipleVoterImageSearcher(int maxHits, List<ImageSearcher> searchers) {
         this.maxHits = maxHits;
         this.searchers = searchers;
-        
-        docs = new TreeMap<String, SimpleResult>();
     }
 
     public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
@@ -60,6 +57,8 @@ public class MultipleVoterImageSearcher extends AbstractImageSearcher {
         logger.finer("Starting extraction.");
         float maxWeight = 0;
         SimpleImageSearchHits searchHits = null;
+        //投票结果，每次检索单独创建，支持并发检索
+        Map<String, SimpleResult> docs = new TreeMap<String, SimpleResult>();
         
         //遍历自身包含的每个检索器
         for (ImageSearcher searcher : searchers) {
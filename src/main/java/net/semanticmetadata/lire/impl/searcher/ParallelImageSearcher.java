@@ -41,27 +41,31 @@ package net.semanticmetadata.lire.impl.searcher;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.semanticmetadata.lire.AbstractImageSearcher;
 import net.semanticmetadata.lire.ImageDuplicates;
 import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.ByteDistanceFeature;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
 import net.semanticmetadata.lire.utils.ImageUtils;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiFields;
-import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 /**
  * This file is part of the Caliph and Emir project: http://www.SemanticMetadata.net
+ * <br/>
+ * Searches for many queries at once. Each document of the index is loaded once per batch and compared to all
+ * queries, spread over multiple threads with a {@link ParallelLinearScan}. This is meant for jobs with lots of queries,
+ * e.g. finding duplicates or related images for a whole collection.
  * <br>Date: 01.02.2006
  * <br>Time: 00:17:02
  *
@@ -73,7 +77,7 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
     Class<?> descriptorClass;
     String fieldName;
     private int maxHits = 10;
-    private TreeSet<SimpleResult>[] parDocs;
+    private ParallelLinearScan linearScan = ParallelLinearScan.getDefault();
 
     public ParallelImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
@@ -82,21 +86,29 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
     }
     
     public ImageSearchHits search(BufferedImage image, ImageInfo imageInfo, IndexReader reader) throws IOException {
-    	return this.search(image, null, reader);
+        return this.search(new BufferedImage[]{image}, imageInfo, reader)[0];
     }
 
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
-        throw new UnsupportedOperationException("Not implemented in this searcher");
+        return this.search(image, null, reader);
     }
 
     public ImageSearchHits[] search(BufferedImage[] image, IndexReader reader) throws IOException {
     	return this.search(image, null, reader);
     }
     
+    /**
+     * Searches for all images with one pass over the index.
+     *
+     * @param image     the query images.
+     * @param imageInfo not used by this searcher.
+     * @param reader    the index.
+     * @return the hits, one result list per query image, in the order of the images.
+     * @throws IOException
+     */
     public ImageSearchHits[] search(BufferedImage[] image, ImageInfo imageInfo, IndexReader reader) throws IOException {
         logger.finer("Starting extraction.");
         LireFeature[] lireFeature = new LireFeature[image.length];
-        SimpleImageSearchHits[] searchHits = new SimpleImageSearchHits[image.length];
         for (int i = 0; i < image.length; i++) {
             BufferedImage img = image[i];
             try {
@@ -115,129 +127,151 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
                 logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
             }
         }
-        float[] distance = findSimilar(reader, lireFeature);
-        for (int i = 0; i < distance.length; i++) {
-            searchHits[i] = new SimpleImageSearchHits(parDocs[i], distance[i]);
-        }
-        return searchHits;
+        return findSimilar(reader, lireFeature);
 
     }
 
+    /**
+     * Searches for the features stored in the given documents with one pass over the index, e.g. to find the
+     * duplicates of all documents of an index.
+     *
+     * @param doc    the query documents, they have to contain the feature field.
+     * @param reader the index.
+     * @return the hits, one result list per document, in the order of the documents.
+     * @throws IOException
+     */
     public ImageSearchHits[] search(Document[] doc, IndexReader reader) throws IOException {
         LireFeature[] lireFeature = new LireFeature[doc.length];
-        SimpleImageSearchHits[] searchHits = new SimpleImageSearchHits[doc.length];
         for (int i = 0; i < doc.length; i++) {
-            Document doc_ = doc[i];
-            try {
-                lireFeature[i] = (LireFeature) descriptorClass.newInstance();
-                String[] cls = doc_.getValues(fieldName);
-                if (cls != null && cls.length > 0) {
-                    lireFeature[i].setStringRepresentation(cls[0]);
-                }
-            } catch (InstantiationException e) {
-                logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
+            lireFeature[i] = createFeature();
+            if (!setFeature(lireFeature[i], doc[i])) {
+                logger.warning("No feature stored in query document " + i + "!");
+                lireFeature[i] = null;
             }
         }
-        float[] distance = findSimilar(reader, lireFeature);
-        for (int i = 0; i < distance.length; i++) {
-            searchHits[i] = new SimpleImageSearchHits(parDocs[i], distance[i]);
-        }
-        return searchHits;
+        return findSimilar(reader, lireFeature);
 
     }
 
     /**
+     * Compares every document to all queries in tiles. Only docIDs and distances are collected during the scan,
+     * the documents are loaded for the final hits only. Queries without a feature get an empty result list.
+     * <br/>
+     * The query features are shared by all threads, this works as getDistance(...) does not modify the features.
+     *
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the hits for each query, normalized by the maximum distance found for the query.
      * @throws java.io.IOException
      */
-    @SuppressWarnings("unchecked")
-    private float[] findSimilar(IndexReader reader, LireFeature[] lireFeature) throws IOException {
-        float[] maxDistance = new float[lireFeature.length];
-        float[] overallMaxDistance = new float[lireFeature.length];
-
-        for (int i = 0; i < overallMaxDistance.length; i++) {
-            overallMaxDistance[i] = -1f;
-            maxDistance[i] = -1f;
+    private SimpleImageSearchHits[] findSimilar(IndexReader reader, final LireFeature[] lireFeature) throws IOException {
+        // result sets are local to the call, so concurrent searches don't interfere.
+        TopKCollector[] hits = linearScan.search(reader, maxHits, lireFeature.length, new ParallelLinearScan.BatchWorkerFactory() {
+            public ParallelLinearScan.BatchWorker createWorker() {
+                return new TileWorker(lireFeature);
+            }
+        });
+        SimpleImageSearchHits[] searchHits = new SimpleImageSearchHits[lireFeature.length];
+        for (int i = 0; i < searchHits.length; i++) {
+            searchHits[i] = hits[i].toSearchHits(reader);
         }
+        return searchHits;
+    }
 
-        parDocs = new TreeSet[lireFeature.length];
-        for (int i = 0; i < parDocs.length; i++) {
-            parDocs[i] = new TreeSet<SimpleResult>();
-        }
+    /**
+     * Sets the scan used for linear search, e.g. to limit the number of threads. The default is
+     * {@link ParallelLinearScan#getDefault()}.
+     *
+     * @param linearScan the scan to use.
+     */
+    public void setLinearScan(ParallelLinearScan linearScan) {
+        this.linearScan = linearScan;
+    }
 
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
+    private LireFeature createFeature() {
+        try {
+            return (LireFeature) descriptorClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException("Error instantiating class for generic image searcher: " + e.getMessage(), e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Error instantiating class for generic image searcher: " + e.getMessage(), e);
+        }
+    }
 
-        // clear result set ...
+    /**
+     * Reads the feature from a document, supporting both the byte[] and the String representation.
+     *
+     * @return false if there is no feature in the document.
+     */
+    private boolean setFeature(LireFeature feature, Document d) {
+        BytesRef bytes = d.getBinaryValue(fieldName);
+        if (bytes != null && bytes.length > 0) {
+            feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            return true;
+        }
+        String[] cls = d.getValues(fieldName);
+        if (cls != null && cls.length > 0) {
+            feature.setStringRepresentation(cls[0]);
+            return true;
+        }
+        return false;
+    }
 
-        int docs = reader.numDocs();
-        for (int i = 0; i < docs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+    /**
+     * Keeps the stored bytes or one decoded feature per slot of a tile. Only the feature field is read from the
+     * stored fields. If the feature implements {@link ByteDistanceFeature} the bytes are compared directly.
+     */
+    private class TileWorker extends ParallelLinearScan.BatchWorker {
+        private final LireFeature[] queries;
+        private final ByteDistanceFeature[] byteQueries;
+        private final LireFeature[] tile = new LireFeature[ParallelLinearScan.DOC_TILE];
+        private final byte[][] tileData = new byte[ParallelLinearScan.DOC_TILE][];
+        private final StoredFeatureVisitor visitor = new StoredFeatureVisitor(fieldName);
 
-            Document d = reader.document(i);
-            float[] distance = getDistance(d, lireFeature);
-            // calculate the overall max distance to normalize score afterwards
-            for (int j = 0; j < distance.length; j++) {
-                float f = distance[j];
-                if (overallMaxDistance[j] < f) {
-                    overallMaxDistance[j] = f;
+        TileWorker(LireFeature[] queries) {
+            this.queries = queries;
+            if (ByteDistanceFeature.class.isAssignableFrom(descriptorClass)) {
+                byteQueries = new ByteDistanceFeature[queries.length];
+                for (int i = 0; i < queries.length; i++) {
+                    byteQueries[i] = (ByteDistanceFeature) queries[i];
                 }
-                // if it is the first document:
-                if (maxDistance[j] < 0) {
-                    maxDistance[j] = f;
-                }
-                // if the array is not full yet:
-                if (this.parDocs[j].size() < maxHits) {
-                    this.parDocs[j].add(new SimpleResult(f, d, i));
-                    if (f > maxDistance[j]) {
-                        maxDistance[j] = f;
-                    }
-                } else if (f < maxDistance[j]) {
-                    // if it is nearer to the sample than at least on of the current set:
-                    // remove the last one ...
-                    this.parDocs[j].remove(this.parDocs[j].last());
-                    // add the new one ...
-                    this.parDocs[j].add(new SimpleResult(f, d, i));
-                    // and set our new distance border ...
-                    maxDistance[j] = this.parDocs[j].last().getDistance();
-                }
-
+            } else {
+                byteQueries = null;
+            }
+            for (int i = 0; i < tile.length; i++) {
+                tile[i] = createFeature();
             }
         }
-        return maxDistance;
-    }
 
-    private float[] getDistance(Document d, LireFeature[] lireFeature) {
-        float[] distance = new float[lireFeature.length];
-        LireFeature lf;
-        try {
-            lf = (LireFeature) descriptorClass.newInstance();
-            String[] cls = d.getValues(fieldName);
-            if (cls != null && cls.length > 0) {
-                lf.setStringRepresentation(cls[0]);
-                for (int i = 0; i < lireFeature.length; i++) {
-                    distance[i] = lireFeature[i].getDistance(lf);
-                }
-
-            } else {
-                logger.warning("No feature stored in this document!");
+        public boolean load(AtomicReaderContext leaf, int doc, int slot) throws IOException {
+            visitor.reset();
+            leaf.reader().document(doc, visitor);
+            byte[] value = visitor.getBinaryValue();
+            tileData[slot] = null;
+            if (value != null && value.length > 0) {
+                // the stored fields reader creates a new array for each value, so it can be kept for the tile.
+                if (byteQueries != null) tileData[slot] = value;
+                else tile[slot].setByteArrayRepresentation(value, 0, value.length);
+                return true;
             }
-        } catch (InstantiationException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
+            if (visitor.getStringValue() != null) {
+                tile[slot].setStringRepresentation(visitor.getStringValue());
+                return true;
+            }
+            logger.warning("No feature stored in this document!");
+            return false;
         }
 
-        return distance;
+        public float getDistance(int query, int slot) {
+            if (queries[query] == null) return -1f;
+            byte[] data = tileData[slot];
+            if (data != null) return byteQueries[query].getDistance(data, 0, data.length);
+            return queries[query].getDistance(tile[slot]);
+        }
     }
 
     public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
-        throw new UnsupportedOperationException("Not implemented in this searcher");
-
+        return this.search(new Document[]{doc}, reader)[0];
     }
 
     public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
@@ -246,6 +280,6 @@ public class ParallelImageSearcher extends AbstractImageSearcher {
     }
 
     public String toString() {
-        return "GenericSearcher using " + descriptorClass.getName();
+        return "ParallelImageSearcher using " + descriptorClass.getName();
     }
 }
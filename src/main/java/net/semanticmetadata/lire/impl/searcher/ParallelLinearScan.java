@@ -0,0 +1,338 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.impl.searcher;
+
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.utils.ConcurrencyUtils;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Multi-threaded brute force scan over all live documents of an IndexReader. The doc range is split per segment
+ * (leaf) and, for big segments, into chunks, which are then processed by a thread pool. Each chunk fills its own
+ * {@link TopKCollector}, the collectors are merged at the end. As there are more chunks than threads, threads
+ * finishing early just take the next chunk from the queue.
+ * <br/>
+ * The actual distance computation is done by a {@link Worker}. A new worker is created for each chunk, so it can
+ * keep feature instances and other scratch objects without any synchronization.
+ * <br/>
+ * For many queries at once there is a batch mode with a {@link BatchWorker}: each document is loaded once and
+ * compared to all queries in a tiled loop, {@link #DOC_TILE} documents against {@link #QUERY_TILE} queries at a
+ * time, so the features of both tiles stay in the CPU cache.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ParallelLinearScan {
+    /**
+     * Chunks are not made smaller than this number of documents.
+     */
+    private static final int MIN_CHUNK_SIZE = 2048;
+    /**
+     * Number of chunks per thread, so threads finishing early can help out with the remaining ones.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * Number of documents loaded before they are compared to the queries in batch mode.
+     */
+    public static final int DOC_TILE = 64;
+    /**
+     * Number of queries compared to a tile of documents in one go in batch mode.
+     */
+    public static final int QUERY_TILE = 16;
+    private static ParallelLinearScan defaultInstance = null;
+
+    private final ExecutorService executor;
+    private final int numThreads;
+
+    /**
+     * Computes the distance of documents to the query. Implementations are used by one thread at a time only.
+     */
+    public static abstract class Worker {
+        /**
+         * Computes the distance of a document to the query.
+         *
+         * @param leaf the segment the document is in.
+         * @param doc  the docID relative to the segment, add leaf.docBase for the docID in the top level reader.
+         * @return the distance, a negative value if the document should be skipped, e.g. as it has no feature.
+         * @throws IOException in case the document cannot be read.
+         */
+        public abstract float getDistance(AtomicReaderContext leaf, int doc) throws IOException;
+    }
+
+    /**
+     * Creates the workers, typically capturing the query feature.
+     */
+    public interface WorkerFactory {
+        public Worker createWorker();
+    }
+
+    /**
+     * Computes the distances of a batch of queries to tiles of documents. Implementations are used by one thread at
+     * a time only and keep one decoded feature per slot of a tile.
+     */
+    public static abstract class BatchWorker {
+        /**
+         * Loads the feature of a document into a slot of the current tile.
+         *
+         * @param leaf the segment the document is in.
+         * @param doc  the docID relative to the segment.
+         * @param slot the slot in the tile, from 0 to {@link #DOC_TILE} - 1.
+         * @return false if the document should be skipped, e.g. as it has no feature.
+         * @throws IOException in case the document cannot be read.
+         */
+        public abstract boolean load(AtomicReaderContext leaf, int doc, int slot) throws IOException;
+
+        /**
+         * Computes the distance of a query to a loaded document.
+         *
+         * @param query the index of the query in the batch.
+         * @param slot  the slot of the document in the current tile.
+         * @return the distance, a negative value if the document should be skipped for this query.
+         */
+        public abstract float getDistance(int query, int slot);
+    }
+
+    /**
+     * Creates the batch workers, typically capturing the query features.
+     */
+    public interface BatchWorkerFactory {
+        public BatchWorker createWorker();
+    }
+
+    /**
+     * Creates a scan with its own pool of daemon threads.
+     *
+     * @param numThreads the number of threads, 1 runs the scan in the calling thread.
+     */
+    public ParallelLinearScan(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.executor = this.numThreads > 1 ? ConcurrencyUtils.newDaemonThreadPool(this.numThreads, "lire-linear-scan") : null;
+    }
+
+    /**
+     * Creates a scan using an existing thread pool.
+     *
+     * @param executor   the pool to run the chunks in.
+     * @param numThreads the number of threads of the pool, used for splitting the index into chunks.
+     */
+    public ParallelLinearScan(ExecutorService executor, int numThreads) {
+        this.executor = executor;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @return a scan shared by all searchers, with one thread per available processor.
+     */
+    public static synchronized ParallelLinearScan getDefault() {
+        if (defaultInstance == null)
+            defaultInstance = new ParallelLinearScan(Runtime.getRuntime().availableProcessors());
+        return defaultInstance;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Scans all live documents of the reader.
+     *
+     * @param reader  the IndexReader to scan.
+     * @param maxHits the number of results.
+     * @param factory creates the workers computing the distances.
+     * @return the nearest documents, already sorted, with docIDs of the top level reader.
+     * @throws IOException in case a worker fails reading the index.
+     */
+    public TopKCollector search(IndexReader reader, int maxHits, WorkerFactory factory) throws IOException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (int[] range : split(reader)) {
+            chunks.add(new Chunk(reader.leaves().get(range[0]), range[1], range[2], maxHits, factory));
+        }
+        TopKCollector result = new TopKCollector(maxHits);
+        for (TopKCollector collector : run(chunks)) result.merge(collector);
+        result.sort();
+        return result;
+    }
+
+    /**
+     * Scans all live documents of the reader once for a batch of queries.
+     *
+     * @param reader     the IndexReader to scan.
+     * @param maxHits    the number of results per query.
+     * @param numQueries the number of queries in the batch.
+     * @param factory    creates the workers computing the distances.
+     * @return the nearest documents for each query, already sorted, with docIDs of the top level reader.
+     * @throws IOException in case a worker fails reading the index.
+     */
+    public TopKCollector[] search(IndexReader reader, int maxHits, int numQueries, BatchWorkerFactory factory) throws IOException {
+        List<BatchChunk> chunks = new ArrayList<BatchChunk>();
+        for (int[] range : split(reader)) {
+            chunks.add(new BatchChunk(reader.leaves().get(range[0]), range[1], range[2], maxHits, numQueries, factory));
+        }
+        TopKCollector[] result = new TopKCollector[numQueries];
+        for (int q = 0; q < numQueries; q++) result[q] = new TopKCollector(maxHits);
+        for (TopKCollector[] collectors : run(chunks)) {
+            for (int q = 0; q < numQueries; q++) result[q].merge(collectors[q]);
+        }
+        for (TopKCollector collector : result) collector.sort();
+        return result;
+    }
+
+    /**
+     * Splits the index into chunks of documents.
+     *
+     * @return the chunks as {leaf ordinal, start, end}, with docIDs relative to the leaf.
+     */
+    private List<int[]> split(IndexReader reader) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (reader.maxDoc() + numThreads * CHUNKS_PER_THREAD - 1) / (numThreads * CHUNKS_PER_THREAD));
+        List<AtomicReaderContext> leaves = reader.leaves();
+        for (int i = 0; i < leaves.size(); i++) {
+            int leafMaxDoc = leaves.get(i).reader().maxDoc();
+            for (int start = 0; start < leafMaxDoc; start += chunkSize) {
+                ranges.add(new int[]{i, start, Math.min(leafMaxDoc, start + chunkSize)});
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Runs tasks in the thread pool, or in the calling thread if there is no pool. Besides the chunks of the scan
+     * this is used for other per segment work, e.g. by
+     * {@link net.semanticmetadata.lire.indexing.MetricSpacesInvertedListIndexing}.
+     *
+     * @param chunks the tasks.
+     * @return the results of the tasks in the order of the tasks.
+     * @throws IOException in case a task fails.
+     */
+    public <T> List<T> run(List<? extends Callable<T>> chunks) throws IOException {
+        return ConcurrencyUtils.invokeAll(executor, chunks);
+    }
+
+    /**
+     * Part of a segment, scanned by one thread.
+     */
+    private static class Chunk implements Callable<TopKCollector> {
+        private final AtomicReaderContext leaf;
+        private final int start, end, maxHits;
+        private final WorkerFactory factory;
+
+        Chunk(AtomicReaderContext leaf, int start, int end, int maxHits, WorkerFactory factory) {
+            this.leaf = leaf;
+            this.start = start;
+            this.end = end;
+            this.maxHits = maxHits;
+            this.factory = factory;
+        }
+
+        public TopKCollector call() throws IOException {
+            TopKCollector collector = new TopKCollector(maxHits);
+            Worker worker = factory.createWorker();
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            float distance;
+            for (int doc = start; doc < end; doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) continue; // if it is deleted, just ignore it.
+                distance = worker.getDistance(leaf, doc);
+                if (distance < 0 || Float.isNaN(distance)) continue;
+                collector.offer(leaf.docBase + doc, distance);
+            }
+            return collector;
+        }
+    }
+
+    /**
+     * Part of a segment, scanned by one thread for all queries of a batch.
+     */
+    private static class BatchChunk implements Callable<TopKCollector[]> {
+        private final AtomicReaderContext leaf;
+        private final int start, end, maxHits, numQueries;
+        private final BatchWorkerFactory factory;
+
+        BatchChunk(AtomicReaderContext leaf, int start, int end, int maxHits, int numQueries, BatchWorkerFactory factory) {
+            this.leaf = leaf;
+            this.start = start;
+            this.end = end;
+            this.maxHits = maxHits;
+            this.numQueries = numQueries;
+            this.factory = factory;
+        }
+
+        public TopKCollector[] call() throws IOException {
+            TopKCollector[] collectors = new TopKCollector[numQueries];
+            for (int q = 0; q < numQueries; q++) collectors[q] = new TopKCollector(maxHits);
+            BatchWorker worker = factory.createWorker();
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            int[] tile = new int[DOC_TILE];
+            int tileSize = 0;
+            for (int doc = start; doc < end; doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) continue; // if it is deleted, just ignore it.
+                if (!worker.load(leaf, doc, tileSize)) continue;
+                tile[tileSize++] = doc;
+                if (tileSize == DOC_TILE) {
+                    compare(worker, tile, tileSize, collectors);
+                    tileSize = 0;
+                }
+            }
+            if (tileSize > 0) compare(worker, tile, tileSize, collectors);
+            return collectors;
+        }
+
+        private void compare(BatchWorker worker, int[] tile, int tileSize, TopKCollector[] collectors) {
+            float distance;
+            for (int queryStart = 0; queryStart < numQueries; queryStart += QUERY_TILE) {
+                int queryEnd = Math.min(numQueries, queryStart + QUERY_TILE);
+                for (int slot = 0; slot < tileSize; slot++) {
+                    for (int q = queryStart; q < queryEnd; q++) {
+                        distance = worker.getDistance(q, slot);
+                        if (distance < 0 || Float.isNaN(distance)) continue;
+                        collectors[q].offer(leaf.docBase + tile[slot], distance);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.impl.searcher;
+
+import net.semanticmetadata.lire.AbstractImageSearcher;
+import net.semanticmetadata.lire.ImageDuplicates;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.indexing.FeatureStore;
+import net.semanticmetadata.lire.indexing.hashing.ProductQuantizationIndex;
+import net.semanticmetadata.lire.indexing.hashing.ProductQuantizer;
+import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.BytesRef;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Searches the product quantization codes of a {@link ProductQuantizationIndex}: the numCandidates documents with the
+ * smallest approximate distance to the query are found with a scan over the codes using the distance table of the
+ * query, then they are re-ranked with the distance function of the feature. The features of the candidates are
+ * read from a {@link FeatureStore} if one is set, otherwise from the BinaryDocValues of the feature field or the
+ * stored fields.
+ * <br/>
+ * Note that the index has to be created from the IndexReader used for searching.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ProductQuantizationImageSearcher extends AbstractImageSearcher {
+    private final int maximumHits;
+    private final String featureFieldName;
+    private final LireFeature feature;
+    private final ProductQuantizationIndex index;
+    private final int numCandidates;
+    private FeatureStore featureStore = null;
+    private ParallelLinearScan parallelScan = null;
+
+    /**
+     * @param maximumHits      how many hits the searcher shall return.
+     * @param featureFieldName the field of the feature.
+     * @param feature          an instance of the feature.
+     * @param index            the codes of the index, see {@link ProductQuantizationIndex#create(IndexReader, String, ProductQuantizer)}.
+     * @param numCandidates    the number of candidates re-ranked with the distance function of the feature.
+     */
+    public ProductQuantizationImageSearcher(int maximumHits, String featureFieldName, LireFeature feature,
+                                            ProductQuantizationIndex index, int numCandidates) {
+        this.maximumHits = maximumHits;
+        this.featureFieldName = featureFieldName;
+        this.feature = feature;
+        this.index = index;
+        this.numCandidates = Math.max(numCandidates, maximumHits);
+    }
+
+    /**
+     * Sets the cached features used for re-ranking the candidates instead of the DocValues or stored fields. The
+     * store has to be created from the IndexReader used for searching and has to be set before searching.
+     *
+     * @param featureStore the cached features of the feature field, null to read them from the index.
+     */
+    public void setFeatureStore(FeatureStore featureStore) {
+        if (featureStore != null && !featureStore.getFieldName().equals(featureFieldName))
+            throw new IllegalArgumentException("Feature store of field " + featureStore.getFieldName() + " given for field " + featureFieldName);
+        this.featureStore = featureStore;
+    }
+
+    /**
+     * Sets the thread pool the codes are scanned with, by default they are scanned by the calling thread.
+     *
+     * @param parallelScan the pool to use, null for scanning in the calling thread.
+     */
+    public void setParallelScan(ParallelLinearScan parallelScan) {
+        this.parallelScan = parallelScan;
+    }
+
+    public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
+        return search(image, null, reader);
+    }
+
+    public ImageSearchHits search(BufferedImage image, ImageInfo imageInfo, IndexReader reader) throws IOException {
+        LireFeature queryFeature = newFeature();
+        queryFeature.extract(image);
+        return search(queryFeature, reader);
+    }
+
+    public ImageSearchHits search(Document doc, IndexReader reader) throws IOException {
+        BytesRef value = doc.getBinaryValue(featureFieldName);
+        if (value == null) throw new IllegalArgumentException("Query document has no field " + featureFieldName);
+        LireFeature queryFeature = newFeature();
+        queryFeature.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+        return search(queryFeature, reader);
+    }
+
+    private ImageSearchHits search(LireFeature queryFeature, IndexReader reader) throws IOException {
+        if (reader.maxDoc() != index.getMaxDoc())
+            throw new IllegalArgumentException("The product quantization index has not been created from this reader.");
+        float[] table = index.getQuantizer().getDistanceTable(queryFeature.getDoubleHistogram());
+        TopKCollector candidates = scan(table);
+        candidates.sort();
+        int[] docs = new int[candidates.size()];
+        for (int i = 0; i < docs.length; i++) docs[i] = candidates.doc(i);
+        return CandidateReranker.rerank(docs, queryFeature, reader, featureFieldName, featureStore, maximumHits);
+    }
+
+    private TopKCollector scan(final float[] table) throws IOException {
+        int maxDoc = index.getMaxDoc();
+        if (parallelScan == null || parallelScan.getNumThreads() < 2) return index.search(table, numCandidates, 0, maxDoc);
+        int step = (maxDoc + parallelScan.getNumThreads() - 1) / parallelScan.getNumThreads();
+        List<Callable<TopKCollector>> chunks = new ArrayList<Callable<TopKCollector>>();
+        for (int from = 0; from < maxDoc; from += step) {
+            final int first = from, last = Math.min(maxDoc, from + step);
+            chunks.add(new Callable<TopKCollector>() {
+                public TopKCollector call() {
+                    return index.search(table, numCandidates, first, last);
+                }
+            });
+        }
+        TopKCollector result = new TopKCollector(numCandidates);
+        for (TopKCollector chunk : parallelScan.run(chunks)) {
+            result.merge(chunk);
+        }
+        return result;
+    }
+
+    private LireFeature newFeature() {
+        try {
+            return feature.getClass().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot instantiate " + feature.getClass().getName(), e);
+        }
+    }
+
+    public ImageDuplicates findDuplicates(IndexReader reader) throws IOException {
+        throw new UnsupportedOperationException("not implemented.");
+    }
+}
@@ -41,18 +41,16 @@ package net.semanticmetadata.lire.impl.searcher;
 import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
-import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.impl.TopKCollector;
 import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
 import net.semanticmetadata.lire.utils.ImageUtils;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.util.Bits;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,11 +67,9 @@ public class TopDocsImageSearcher {
     String fieldName;
 
     private int maxHits = 10;
-    protected TreeSet<SimpleResult> docs;
 
     public TopDocsImageSearcher(int maxHits, Class<?> descriptorClass, String fieldName) {
         this.maxHits = maxHits;
-        docs = new TreeSet<SimpleResult>();
         this.descriptorClass = descriptorClass;
         this.fieldName = fieldName;
     }
@@ -92,8 +88,7 @@ public class TopDocsImageSearcher {
             lireFeature.extract(bimg);
             logger.fine("Extraction from image finished");
 
-            float maxDistance = findSimilar(results, reader, lireFeature);
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = findSimilar(results, reader, lireFeature);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
@@ -103,71 +98,48 @@ public class TopDocsImageSearcher {
     }
 
     /**
+     * Re-ranks the given results. Only docIDs and distances are collected, the documents are loaded for the
+     * final hits only.
+     *
      * @param results
      * @param reader
      * @param lireFeature
-     * @return the maximum distance found for normalizing.
+     * @return the hits, normalized by the maximum distance found.
      * @throws java.io.IOException
      */
-    protected float findSimilar(TopDocs results, IndexReader reader, LireFeature lireFeature) throws IOException {
-        float maxDistance = -1f, overallMaxDistance = -1f;
-        boolean hasDeletions = reader.hasDeletions();
-
-        // clear result set ...
-        docs.clear();
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-
-        int docs = results.totalHits;
-        for (int i = 0; i < docs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+    protected SimpleImageSearchHits findSimilar(TopDocs results, IndexReader reader, LireFeature lireFeature) throws IOException {
+        // the result set is local to the call, so concurrent searches don't interfere.
+        TopKCollector hits = new TopKCollector(maxHits);
+        LireFeature candidate;
+        try {
+            candidate = (LireFeature) descriptorClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new IOException("Error instantiating class for generic image searcher: " + e.getMessage());
+        } catch (IllegalAccessException e) {
+            throw new IOException("Error instantiating class for generic image searcher: " + e.getMessage());
+        }
 
-            Document d = reader.document(results.scoreDocs[i].doc);
-            float distance = getDistance(d, lireFeature);
+        // search results don't contain deleted documents, and just the feature is read from the stored fields.
+        for (int i = 0; i < results.scoreDocs.length; i++) {
+            int doc = results.scoreDocs[i].doc;
+            DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fieldName);
+            reader.document(doc, visitor);
+            float distance = getDistance(visitor.getDocument(), lireFeature, candidate);
             assert (distance >= 0);
-            // calculate the overall max distance to normalize score afterwards
-            if (overallMaxDistance < distance) {
-                overallMaxDistance = distance;
-            }
-            // if it is the first document:
-            if (maxDistance < 0) {
-                maxDistance = distance;
-            }
-            // if the array is not full yet:
-            if (this.docs.size() < maxHits) {
-                this.docs.add(new SimpleResult(distance, d, i));
-                if (distance > maxDistance) maxDistance = distance;
-            } else if (distance < maxDistance) {
-                // if it is nearer to the sample than at least on of the current set:
-                // remove the last one ...
-                this.docs.remove(this.docs.last());
-                // add the new one ...
-                this.docs.add(new SimpleResult(distance, d, i));
-                // and set our new distance border ...
-                maxDistance = this.docs.last().getDistance();
-            }
+            hits.offer(doc, distance);
         }
-        return maxDistance;
+        return hits.toSearchHits(reader);
     }
 
-    protected float getDistance(Document d, LireFeature lireFeature) {
+    protected float getDistance(Document d, LireFeature lireFeature, LireFeature candidate) {
         float distance = 0f;
-        LireFeature lf;
-        try {
-            lf = (LireFeature) descriptorClass.newInstance();
-            String[] cls = d.getValues(fieldName);
-            if (cls != null && cls.length > 0) {
-                lf.setStringRepresentation(cls[0]);
-                distance = lireFeature.getDistance(lf);
-            } else {
-                logger.warning("No feature stored in this document!");
-            }
-        } catch (InstantiationException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
-        } catch (IllegalAccessException e) {
-            logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
+        String[] cls = d.getValues(fieldName);
+        if (cls != null && cls.length > 0) {
+            candidate.setStringRepresentation(cls[0]);
+            distance = lireFeature.getDistance(candidate);
+        } else {
+            logger.warning("No feature stored in this document!");
         }
-
         return distance;
     }
 
@@ -179,9 +151,7 @@ public class TopDocsImageSearcher {
             String[] cls = doc.getValues(fieldName);
             if (cls != null && cls.length > 0)
                 lireFeature.setStringRepresentation(cls[0]);
-            float maxDistance = findSimilar(results, reader, lireFeature);
-
-            searchHits = new SimpleImageSearchHits(this.docs, maxDistance);
+            searchHits = findSimilar(results, reader, lireFeature);
         } catch (InstantiationException e) {
             logger.log(Level.SEVERE, "Error instantiating class for generic image searcher: " + e.getMessage());
         } catch (IllegalAccessException e) {
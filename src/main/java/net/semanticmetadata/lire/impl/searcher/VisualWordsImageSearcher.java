@@ -46,18 +46,14 @@ import java.util.LinkedList;
 import net.semanticmetadata.lire.AbstractImageSearcher;
 import net.semanticmetadata.lire.ImageDuplicates;
 import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.bovw.VisualWords;
 import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
 import net.semanticmetadata.lire.impl.SimpleResult;
 import net.semanticmetadata.lire.indexing.parallel.ImageInfo;
-import net.semanticmetadata.lire.utils.LuceneUtils;
 
-import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
@@ -77,22 +73,17 @@ public class VisualWordsImageSearcher extends AbstractImageSearcher {
     //        private Similarity similarity = new DefaultSimilarity();
 //        private Similarity similarity = new MySimilarity();
     private Similarity similarity = new BM25Similarity();
-    QueryParser qp;
 
 
     public VisualWordsImageSearcher(int numMaxHits, Similarity similarity, String fieldName) {
         this.similarity = similarity;
         this.numMaxHits = numMaxHits;
         this.fieldName = fieldName;
-        qp = new QueryParser(LuceneUtils.LUCENE_VERSION, fieldName, new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
-        BooleanQuery.setMaxClauseCount(10000);
     }
 
     public VisualWordsImageSearcher(int numMaxHits, String fieldName) {
         this.numMaxHits = numMaxHits;
         this.fieldName = fieldName;
-        qp = new QueryParser(LuceneUtils.LUCENE_VERSION, fieldName, new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
-        BooleanQuery.setMaxClauseCount(10000);
     }
 
     public ImageSearchHits search(BufferedImage image, IndexReader reader) throws IOException {
@@ -107,24 +98,18 @@ public class VisualWordsImageSearcher extends AbstractImageSearcher {
         SimpleImageSearchHits sh = null;
         IndexSearcher isearcher = new IndexSearcher(reader);
         isearcher.setSimilarity(similarity);
-        String queryString = doc.getValues(fieldName)[0];
-        Query tq = null;
-        try {
-            tq = qp.parse(queryString);
-            TopDocs docs = isearcher.search(tq, numMaxHits);
-            LinkedList<SimpleResult> res = new LinkedList<SimpleResult>();
-            float maxDistance = 0;
-            for (int i = 0; i < docs.scoreDocs.length; i++) {
-                float d = 1f / docs.scoreDocs[i].score;
-                maxDistance = Math.max(d, maxDistance);
-                SimpleResult sr = new SimpleResult(d, reader.document(docs.scoreDocs[i].doc), i);
-                res.add(sr);
-            }
-            sh = new SimpleImageSearchHits(res, maxDistance);
-        } catch (ParseException e) {
-            System.err.println(queryString);
-            e.printStackTrace();
+        // the stored visual words with their counts, the query is built directly without parsing.
+        Query tq = VisualWords.createQuery(fieldName, doc.getValues(fieldName)[0]);
+        TopDocs docs = isearcher.search(tq, numMaxHits);
+        LinkedList<SimpleResult> res = new LinkedList<SimpleResult>();
+        float maxDistance = 0;
+        for (int i = 0; i < docs.scoreDocs.length; i++) {
+            float d = 1f / docs.scoreDocs[i].score;
+            maxDistance = Math.max(d, maxDistance);
+            SimpleResult sr = new SimpleResult(d, reader.document(docs.scoreDocs[i].doc), i);
+            res.add(sr);
         }
+        sh = new SimpleImageSearchHits(res, maxDistance);
         return sh;
     }
 
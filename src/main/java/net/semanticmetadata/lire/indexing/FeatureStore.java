@@ -0,0 +1,313 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.indexing;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Columnar, off-heap store for the byte[] representation of one feature field. Each feature vector is held in a
+ * fixed width slot addressed by the Lucene docID, so a linear search can scan the vectors block by block without
+ * loading stored documents. The store either lives in direct memory (see {@link #create(IndexReader, String)}) or
+ * is memory mapped from a file written with {@link #write(File)} (see {@link #open(File)}).
+ * <br/>
+ * Layout of a file: magic, version, slot width, maxDoc, field name, one unsigned short length per document and
+ * then the slots of all documents. A length of 0 denotes a deleted document or a document without the field.
+ * <br/>
+ * Note that the docIDs are the ones of the IndexReader used for creating the store, so the store has to be rebuilt
+ * whenever the reader is reopened.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class FeatureStore {
+    /**
+     * Number of documents copied from the store with one call to {@link #read(int, int, byte[])} by linear searchers.
+     */
+    public static final int BLOCK_SIZE = 1024;
+    private static final int MAGIC = 0x4C465331; // "LFS1"
+    private static final int VERSION = 1;
+    private static final int MAX_PAGE_SIZE = 1 << 30;
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    private final String fieldName;
+    private final int maxDoc;
+    private final int width;
+    private final int docsPerPage;
+    private final ByteBuffer lengths;
+    private final ByteBuffer[] pages;
+
+    private FeatureStore(String fieldName, int maxDoc, int width, ByteBuffer lengths, ByteBuffer[] pages) {
+        this.fieldName = fieldName;
+        this.maxDoc = maxDoc;
+        this.width = width;
+        this.docsPerPage = docsPerPage(width);
+        this.lengths = lengths;
+        this.pages = pages;
+    }
+
+    /**
+     * Reads the given binary feature field of all live documents of the reader into direct memory. Stored fields
+     * are read exactly once, the heap is only used for the document currently loaded.
+     *
+     * @param reader    the IndexReader the docIDs refer to.
+     * @param fieldName the name of the field holding the byte[] representation of the feature.
+     * @return the new store
+     * @throws IOException in case the index cannot be read.
+     */
+    public static FeatureStore create(IndexReader reader, String fieldName) throws IOException {
+        int maxDoc = reader.maxDoc();
+        if (maxDoc > Integer.MAX_VALUE / 2)
+            throw new UnsupportedOperationException("Too many documents for a feature store: " + maxDoc);
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        ByteBuffer lengths = ByteBuffer.allocateDirect(maxDoc << 1);
+        int width = 1, maxLength = 1;
+        ByteBuffer[] pages = allocatePages(maxDoc, width);
+        for (int i = 0; i < maxDoc; i++) {
+            if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+            DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fieldName);
+            reader.document(i, visitor);
+            Document d = visitor.getDocument();
+            IndexableField field = d.getField(fieldName);
+            if (field == null || field.binaryValue() == null) continue;
+            BytesRef value = field.binaryValue();
+            if (value.length > MAX_LENGTH)
+                throw new UnsupportedOperationException("Feature too long for a feature store: " + value.length + " bytes.");
+            if (value.length > width) {
+                // a new longest vector, so all slots read so far are moved to wider ones. The width is at least
+                // doubled, so the pages are reallocated only a logarithmic number of times.
+                int newWidth = Math.min(MAX_LENGTH, Math.max(value.length, width << 1));
+                pages = resize(pages, maxDoc, width, newWidth, i);
+                width = newWidth;
+            }
+            maxLength = Math.max(maxLength, value.length);
+            lengths.putShort(i << 1, (short) value.length);
+            ByteBuffer page = pages[i / docsPerPage(width)].duplicate();
+            page.position((i % docsPerPage(width)) * width);
+            page.put(value.bytes, value.offset, value.length);
+        }
+        if (maxLength < width) {
+            // trims the slack of the last doubling.
+            pages = resize(pages, maxDoc, width, maxLength, maxDoc);
+            width = maxLength;
+        }
+        return new FeatureStore(fieldName, maxDoc, width, lengths, pages);
+    }
+
+    /**
+     * Memory maps a store previously written with {@link #write(File)}.
+     *
+     * @param file the file to read from.
+     * @return the store, backed by the file.
+     * @throws IOException in case the file cannot be read or is not a feature store.
+     */
+    public static FeatureStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.readInt() != MAGIC) throw new IOException("Not a feature store: " + file.getPath());
+            int version = raf.readInt();
+            if (version != VERSION) throw new IOException("Unsupported feature store version: " + version);
+            int width = raf.readInt();
+            int maxDoc = raf.readInt();
+            String fieldName = raf.readUTF();
+            FileChannel channel = raf.getChannel();
+            long position = raf.getFilePointer();
+            ByteBuffer lengths = channel.map(FileChannel.MapMode.READ_ONLY, position, maxDoc << 1);
+            position += maxDoc << 1;
+            int perPage = docsPerPage(width);
+            ByteBuffer[] pages = new ByteBuffer[numPages(maxDoc, perPage)];
+            for (int i = 0; i < pages.length; i++) {
+                int size = Math.min(perPage, maxDoc - i * perPage) * width;
+                pages[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                position += size;
+            }
+            return new FeatureStore(fieldName, maxDoc, width, lengths, pages);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the store to a file, so it can be memory mapped with {@link #open(File)} later on.
+     *
+     * @param file the file to write to, it is overwritten if it exists.
+     * @throws IOException in case the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(maxDoc);
+            out.writeUTF(fieldName);
+            out.flush();
+            FileChannel channel = fos.getChannel();
+            writeFully(channel, lengths);
+            for (ByteBuffer page : pages) writeFully(channel, page);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Copies the slots of consecutive documents into the given array. The vector of document docId + i starts at
+     * position i * {@link #getWidth()} of the array, its length is given by {@link #getLength(int)}.
+     *
+     * @param docId   the first document to copy.
+     * @param numDocs the number of documents to copy.
+     * @param block   the target array, it needs to hold at least numDocs * getWidth() bytes.
+     * @return the number of documents actually copied, which is less than numDocs at the end of the store.
+     */
+    public int read(int docId, int numDocs, byte[] block) {
+        numDocs = Math.min(numDocs, maxDoc - docId);
+        int copied = 0;
+        while (copied < numDocs) {
+            int doc = docId + copied;
+            int inPage = doc % docsPerPage;
+            int count = Math.min(numDocs - copied, docsPerPage - inPage);
+            ByteBuffer page = pages[doc / docsPerPage].duplicate();
+            page.position(inPage * width);
+            page.get(block, copied * width, count * width);
+            copied += count;
+        }
+        return Math.max(copied, 0);
+    }
+
+    /**
+     * Copies the feature vector of a single document into the given array.
+     *
+     * @param docId the document
+     * @param dest  the target array, it needs to hold at least {@link #getLength(int)} bytes.
+     * @return the number of bytes copied, 0 if there is no feature for this document.
+     */
+    public int getFeature(int docId, byte[] dest) {
+        int length = getLength(docId);
+        if (length > 0) {
+            ByteBuffer page = pages[docId / docsPerPage].duplicate();
+            page.position((docId % docsPerPage) * width);
+            page.get(dest, 0, length);
+        }
+        return length;
+    }
+
+    /**
+     * Returns the length of the feature vector of a document.
+     *
+     * @param docId the document
+     * @return the number of bytes used in the slot, 0 if the document is deleted or has no feature.
+     */
+    public int getLength(int docId) {
+        return lengths.getShort(docId << 1) & MAX_LENGTH;
+    }
+
+    /**
+     * @return the size of a slot, i.e. the length of the longest feature vector in the store.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the number of slots, i.e. maxDoc of the IndexReader the store has been created from.
+     */
+    public int getMaxDoc() {
+        return maxDoc;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    private static ByteBuffer[] allocatePages(int maxDoc, int width) {
+        int perPage = docsPerPage(width);
+        ByteBuffer[] pages = new ByteBuffer[numPages(maxDoc, perPage)];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = ByteBuffer.allocateDirect(Math.min(perPage, maxDoc - i * perPage) * width);
+        }
+        return pages;
+    }
+
+    /**
+     * Moves the slots of the documents [0, numDocs) to new pages with another slot width. A smaller width has to be
+     * at least the length of the longest vector stored.
+     */
+    private static ByteBuffer[] resize(ByteBuffer[] pages, int maxDoc, int width, int newWidth, int numDocs) {
+        ByteBuffer[] result = allocatePages(maxDoc, newWidth);
+        int perPage = docsPerPage(width), newPerPage = docsPerPage(newWidth);
+        byte[] slot = new byte[Math.min(width, newWidth)];
+        for (int i = 0; i < numDocs; i++) {
+            ByteBuffer source = pages[i / perPage].duplicate();
+            source.position((i % perPage) * width);
+            source.get(slot);
+            ByteBuffer target = result[i / newPerPage].duplicate();
+            target.position((i % newPerPage) * newWidth);
+            target.put(slot);
+        }
+        return result;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        b.clear();
+        while (b.hasRemaining()) channel.write(b);
+    }
+
+    private static int docsPerPage(int width) {
+        return Math.max(1, MAX_PAGE_SIZE / width);
+    }
+
+    private static int numPages(int maxDoc, int docsPerPage) {
+        return (int) (((long) maxDoc + docsPerPage - 1) / docsPerPage);
+    }
+}
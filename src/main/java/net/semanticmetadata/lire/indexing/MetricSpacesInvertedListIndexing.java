@@ -43,43 +43,61 @@ package net.semanticmetadata.lire.indexing;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.ImageSearcher;
 import net.semanticmetadata.lire.imageanalysis.CEDD;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
-import net.semanticmetadata.lire.impl.searcher.GenericImageSearcher;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.impl.searcher.GenericFastImageSearcher;
+import net.semanticmetadata.lire.impl.searcher.ParallelLinearScan;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.SimpleAnalyzer;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 
 /**
  * This class provides an indexing approach for approximate search based on the work of G. Amato
  * (giuseppe.amato@isti.cnr.it). See also his paper "Approximate Similarity Search in Metric Spaces
  * using Inverted Files"
+ * <br/>
+ * Each document gets the ids of its nearest reference objects, ordered by distance, as terms of the field
+ * "ro-order", so the position of a term is the rank of the reference object. A query is scored with the
+ * footrule distance of the rankings: the posting lists of the reference objects nearest to the query are
+ * traversed segment by segment in parallel and the rank differences are summed up per document in arrays.
  * Date: 14.05.2009
  * Time: 14:22:03
  *
@@ -88,6 +106,22 @@ import org.apache.lucene.util.Bits;
 public class MetricSpacesInvertedListIndexing {
     public static int numReferenceObjects = 500;
     public static int numReferenceObjectsUsed = 50;
+    /**
+     * Name of the field holding the ids of the nearest reference objects of a document, nearest first.
+     */
+    public static final String FIELD_NAME_RO_ORDER = "ro-order";
+    /**
+     * Name of the field holding the id of a reference object in the reference object index.
+     */
+    public static final String FIELD_NAME_RO_ID = "ro-id";
+    /**
+     * Number of documents per thread loaded and ranked in one go while indexing.
+     */
+    private static final int BATCH_SIZE = 256;
+    /**
+     * Number of documents sampled per reference object, the reference objects are selected from this sample.
+     */
+    private static final int CANDIDATES_PER_REFERENCE_OBJECT = 10;
 
     private static MetricSpacesInvertedListIndexing msili = new MetricSpacesInvertedListIndexing(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
 
@@ -96,6 +130,8 @@ public class MetricSpacesInvertedListIndexing {
     private int numHits = 100;
 
     private ProgressIndicator progress;
+    private ParallelLinearScan parallelScan = ParallelLinearScan.getDefault();
+    private PivotSelection pivotSelection = new PivotSelection();
 
     public enum State {
         RoSelection, RoIndexing, Indexing, Idle
@@ -121,7 +157,8 @@ public class MetricSpacesInvertedListIndexing {
      * Creates a set of reference objects and stores it in a new index (hashFunctionsFileName "<indexPath>-ro"). Then creates ordered
      * lists of reference object positions for each data item in the index with given feature.
      * Finally a new index (hashFunctionsFileName "<indexPath>-ms") is created where all the original documents as well as the new data
-     * are stored.
+     * are stored. The reference objects are selected from a sample of the live documents, see
+     * {@link #setPivotSelection(PivotSelection)}.
      *
      * @param indexPath the path to the original index
      * @throws IOException
@@ -138,23 +175,11 @@ public class MetricSpacesInvertedListIndexing {
         progress.setNumDocsAll(numDocs);
         progress.setCurrentState(State.RoSelection);
 
-        boolean hasDeletions = reader.hasDeletions();
-
         // init reference objects:
+        int[] referenceObjsIds = selectReferenceObjects(reader);
         IndexWriter iw = LuceneUtils.createIndexWriter(indexPath + "-ro", true);
-        HashSet<Integer> referenceObjsIds = new HashSet<Integer>(numReferenceObjects);
-
-        double numDocsDouble = (double) numDocs;
-        while (referenceObjsIds.size() < numReferenceObjects) {
-            referenceObjsIds.add((int) (numDocsDouble * Math.random()));
-        }
         int count = 0;
 
-        if (hasDeletions) {
-            System.err.println("WARNING: There are deleted docs in your index. You should " +
-                    "optimize your index before using this method.");
-        }
-
         // progress report
         progress.setCurrentState(State.RoIndexing);
 
@@ -162,7 +187,7 @@ public class MetricSpacesInvertedListIndexing {
         for (int i : referenceObjsIds) {
             count++;
             Document document = reader.document(i);
-            document.add(new Field("ro-id", count + "", StringField.TYPE_STORED));
+            document.add(new Field(FIELD_NAME_RO_ID, count + "", StringField.TYPE_STORED));
             iw.addDocument(document);
         }
         iw.commit();
@@ -172,93 +197,228 @@ public class MetricSpacesInvertedListIndexing {
         progress.setCurrentState(State.Indexing);
 
         // now find the reference objects for each entry ;)
-        IndexReader readerRo = DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro")));
-        ImageSearcher searcher = new GenericImageSearcher(numReferenceObjectsUsed, featureClass, featureFieldName);
-        Map<String, Analyzer> analyzerPerField = new HashMap<String, Analyzer>();
-        analyzerPerField.put("ro-order", new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
-        PerFieldAnalyzerWrapper aWrapper = new PerFieldAnalyzerWrapper(new SimpleAnalyzer(LuceneUtils.LUCENE_VERSION), analyzerPerField);
-
-        iw = new IndexWriter(FSDirectory.open(new File(indexPath)), new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, aWrapper).setOpenMode(IndexWriterConfig.OpenMode.CREATE));
-        StringBuilder sb = new StringBuilder(256);
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
-
-        for (int i = 0; i < numDocs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
-            Document document = reader.document(i);
-            ImageSearchHits hits = searcher.search(document, readerRo);
-            sb.delete(0, sb.length());
-            for (int j = 0; j < numReferenceObjectsUsed; j++) {
-                sb.append(hits.doc(j).getValues("ro-id")[0]);
-                sb.append(' ');
+        ReferenceObjects referenceObjects = getReferenceObjects(indexPath);
+        iw = new IndexWriter(FSDirectory.open(new File(indexPath)), createIndexWriterConfig(IndexWriterConfig.OpenMode.CREATE));
+        int processed = 0;
+        progress.setNumDocsProcessed(processed);
+        int batchSize = BATCH_SIZE * parallelScan.getNumThreads();
+        for (int start = 0; start < reader.maxDoc(); start += batchSize) {
+            Document[] documents = assignReferenceObjects(reader, referenceObjects, start, Math.min(reader.maxDoc(), start + batchSize), true);
+            for (Document document : documents) {
+                if (document == null) continue;
+                // the index is created from scratch, so there is nothing to update.
+                iw.addDocument(document);
+                processed++;
             }
-            // System.out.println(sb.toString());
-            document.add(new TextField("ro-order", sb.toString(), Field.Store.YES));
-            iw.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, document.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]), document);
-
             // progress report
-            progress.setNumDocsProcessed(progress.getNumDocsProcessed() + 1);
-
+            progress.setNumDocsProcessed(processed);
         }
         iw.commit();
         iw.close();
+        reader.close();
 
         // progress report
         progress.setCurrentState(State.Idle);
 
     }
 
+    /**
+     * Samples candidates from the live documents having the feature and selects the reference objects from them
+     * with the {@link PivotSelection}.
+     *
+     * @return the docIDs of the reference objects.
+     */
+    private int[] selectReferenceObjects(IndexReader reader) throws IOException {
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int[] liveDocIds = new int[reader.numDocs()];
+        for (int i = 0, j = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs == null || liveDocs.get(i)) liveDocIds[j++] = i;
+        }
+        int numCandidates = Math.min(liveDocIds.length, numReferenceObjects * CANDIDATES_PER_REFERENCE_OBJECT);
+        int[] sample = pivotSelection.sample(liveDocIds.length, numCandidates);
+        ArrayList<Integer> candidateIds = new ArrayList<Integer>(numCandidates);
+        ArrayList<LireFeature> candidates = new ArrayList<LireFeature>(numCandidates);
+        for (int i : sample) {
+            BytesRef value = reader.document(liveDocIds[i]).getBinaryValue(featureFieldName);
+            if (value == null) continue;
+            LireFeature feature;
+            try {
+                feature = featureClass.newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Cannot instantiate " + featureClass.getName(), e);
+            }
+            feature.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+            candidateIds.add(liveDocIds[i]);
+            candidates.add(feature);
+        }
+        if (candidates.size() < numReferenceObjects) {
+            throw new UnsupportedOperationException("Too few documents with feature " + featureFieldName + " in index.");
+        }
+        int[] selected = pivotSelection.select(candidates, numReferenceObjects);
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = candidateIds.get(selected[i]);
+        }
+        return selected;
+    }
+
+    /**
+     * Computes the lengths of the posting lists of the reference objects, i.e. how many documents have each of
+     * them among their nearest ones. Long lists make queries slow, so this shows how good the selection is.
+     *
+     * @param indexPath the path of the index.
+     * @return statistics on the lengths of the lists, one per reference object.
+     * @throws IOException
+     */
+    public PivotSelection.Balance getPostingListBalance(String indexPath) throws IOException {
+        IndexReader reader = getIndexReader(indexPath);
+        IndexReader readerRo = DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro")));
+        try {
+            Bits liveDocs = MultiFields.getLiveDocs(readerRo);
+            int[] lengths = new int[readerRo.numDocs()];
+            for (int i = 0, j = 0; i < readerRo.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue;
+                String id = readerRo.document(i).getValues(FIELD_NAME_RO_ID)[0];
+                // docFreq counts deleted documents until their segment is merged.
+                lengths[j++] = reader.docFreq(new Term(FIELD_NAME_RO_ORDER, id));
+            }
+            return new PivotSelection.Balance(lengths);
+        } finally {
+            readerRo.close();
+            reader.close();
+        }
+    }
+
     /**
      * We assume that the initial indexing has been done and a set of reference objects has been
      * found and indexed in the separate fileList. However further documents were added and they
      * now need to get a ranked list of reference objects. So we (i) get all these new documents
-     * missing the field "ro-order" and (ii) add this field.
+     * missing the field "ro-order" and (ii) add this field. The documents are replaced by appending them,
+     * existing segments are not rewritten, the old versions are just marked as deleted. Documents without the
+     * feature cannot get the field, they are left as they are.
+     * <br/>
+     * To avoid this step, add the field to new documents before indexing them, see
+     * {@link #getReferenceObjects(String)}.
      *
      * @param indexPath the index to update
+     * @return the number of documents updated.
      * @throws IOException
      */
-    public void updateIndex(String indexPath) throws IOException {
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(indexPath)));
-        int numDocs = reader.numDocs();
-        boolean hasDeletions = reader.hasDeletions();
+    public int updateIndex(String indexPath) throws IOException {
+        ReferenceObjects referenceObjects = getReferenceObjects(indexPath);
+        // no merges, so a document can be deleted by its docID in the reader of the writer until the end.
+        IndexWriter iw = new IndexWriter(FSDirectory.open(new File(indexPath)),
+                createIndexWriterConfig(IndexWriterConfig.OpenMode.APPEND).setMergePolicy(NoMergePolicy.COMPOUND_FILES));
+        DirectoryReader reader = DirectoryReader.open(iw, false);
         int countUpdated = 0;
 
-        IndexReader readerRo = DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro")));
-        ImageSearcher searcher = new GenericImageSearcher(numReferenceObjectsUsed, featureClass, featureFieldName);
-        Map<String, Analyzer> perField = new HashMap<String, Analyzer>(1);
-        perField.put("ro-order", new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
-        PerFieldAnalyzerWrapper aWrapper =
-                new PerFieldAnalyzerWrapper(new SimpleAnalyzer(LuceneUtils.LUCENE_VERSION), perField);
-
-        IndexWriter iw = new IndexWriter(FSDirectory.open(new File(indexPath)), new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, aWrapper).setOpenMode(IndexWriterConfig.OpenMode.CREATE));
-        StringBuilder sb = new StringBuilder(256);
-        // Needed for check whether the document is deleted.
-        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        // progress report
+        progress.setNumDocsAll(reader.maxDoc());
+        progress.setNumDocsProcessed(0);
+        progress.setCurrentState(State.Indexing);
 
-        for (int i = 0; i < numDocs; i++) {
-            if (reader.hasDeletions() && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
-            Document document = reader.document(i);
-            if (document.getField("ro-order") == null) {  // if the field is not here we create it.
-                ImageSearchHits hits = searcher.search(document, readerRo);
-                sb.delete(0, sb.length());
-                for (int j = 0; j < numReferenceObjectsUsed; j++) {
-                    sb.append(hits.doc(j).getValues("ro-id")[0]);
-                    sb.append(' ');
-                }
-                // System.out.println(sb.toString());
-                document.add(new TextField("ro-order", sb.toString(), Field.Store.YES));
-                iw.updateDocument(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, document.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0]), document);
+        int batchSize = BATCH_SIZE * parallelScan.getNumThreads();
+        for (int start = 0; start < reader.maxDoc(); start += batchSize) {
+            int end = Math.min(reader.maxDoc(), start + batchSize);
+            Document[] documents = assignReferenceObjects(reader, referenceObjects, start, end, false);
+            for (int i = 0; i < documents.length; i++) {
+                if (documents[i] == null) continue;
+                if (!iw.tryDeleteDocument(reader, start + i))
+                    throw new IOException("Document " + (start + i) + " could not be replaced.");
+                iw.addDocument(documents[i]);
                 countUpdated++;
             }
-
             // progress report
-            progress.setNumDocsProcessed(progress.getNumDocsProcessed() + 1);
-
-            // debug:
-            System.out.println("countUpdated = " + countUpdated);
+            progress.setNumDocsProcessed(end);
         }
+        reader.close();
         iw.commit();
         iw.close();
+
+        // progress report
+        progress.setCurrentState(State.Idle);
+        return countUpdated;
+    }
+
+    /**
+     * Loads the reference objects of an index into memory, e.g. for adding the field "ro-order" to new documents
+     * with {@link ReferenceObjects#addReferenceObjectOrder(Document, int)} while indexing them.
+     *
+     * @param indexPath the path of the index, the reference objects are read from "&lt;indexPath&gt;-ro".
+     * @return the reference objects.
+     * @throws IOException
+     */
+    public ReferenceObjects getReferenceObjects(String indexPath) throws IOException {
+        IndexReader readerRo = DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro")));
+        try {
+            return ReferenceObjects.load(readerRo, featureClass, featureFieldName);
+        } finally {
+            readerRo.close();
+        }
+    }
+
+    /**
+     * Loads the documents [start, end) of the reader and ranks the reference objects for each of them, spread over
+     * the threads of the pool. The BinaryDocValues of the documents, e.g. the signatures and feature columns of
+     * {@link net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder}, are not stored fields, so they are
+     * copied to the documents to be kept when the documents are added again.
+     *
+     * @param replace if true existing rankings are replaced and documents without the feature are kept as they are,
+     *                otherwise documents having a ranking or no feature are skipped.
+     * @return the documents with the new field, null for deleted and skipped ones.
+     */
+    private Document[] assignReferenceObjects(final IndexReader reader, final ReferenceObjects referenceObjects,
+                                              int start, int end, final boolean replace) throws IOException {
+        final Bits liveDocs = MultiFields.getLiveDocs(reader);
+        final List<String> docValuesFields = new ArrayList<String>();
+        for (FieldInfo fieldInfo : MultiFields.getMergedFieldInfos(reader)) {
+            if (fieldInfo.getDocValuesType() == FieldInfo.DocValuesType.BINARY) docValuesFields.add(fieldInfo.name);
+        }
+        final Document[] documents = new Document[end - start];
+        final int offset = start;
+        final int numUsed = numReferenceObjectsUsed;
+        int step = Math.max(1, (end - start + parallelScan.getNumThreads() - 1) / parallelScan.getNumThreads());
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int from = start; from < end; from += step) {
+            final int first = from, last = Math.min(end, from + step);
+            tasks.add(new Callable<Object>() {
+                public Object call() throws IOException {
+                    // DocValues instances must not be shared among threads.
+                    BinaryDocValues[] docValues = new BinaryDocValues[docValuesFields.size()];
+                    for (int f = 0; f < docValues.length; f++) {
+                        docValues[f] = MultiDocValues.getBinaryValues(reader, docValuesFields.get(f));
+                    }
+                    BytesRef value = new BytesRef();
+                    for (int i = first; i < last; i++) {
+                        if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+                        Document document = reader.document(i);
+                        if (document.getField(FIELD_NAME_RO_ORDER) != null) {
+                            if (!replace) continue;
+                            document.removeFields(FIELD_NAME_RO_ORDER);
+                        }
+                        // documents without feature are kept in a new index, they are just not found by searching.
+                        if (!referenceObjects.addReferenceObjectOrder(document, numUsed) && !replace) continue;
+                        for (int f = 0; f < docValues.length; f++) {
+                            if (docValues[f] == null) continue;
+                            docValues[f].get(i, value);
+                            // documents without a value read as empty.
+                            if (value.length > 0)
+                                document.add(new BinaryDocValuesField(docValuesFields.get(f), BytesRef.deepCopyOf(value)));
+                        }
+                        documents[i - offset] = document;
+                    }
+                    return null;
+                }
+            });
+        }
+        parallelScan.run(tasks);
+        return documents;
+    }
+
+    private IndexWriterConfig createIndexWriterConfig(IndexWriterConfig.OpenMode openMode) {
+        Map<String, Analyzer> analyzerPerField = new HashMap<String, Analyzer>();
+        analyzerPerField.put(FIELD_NAME_RO_ORDER, new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
+        PerFieldAnalyzerWrapper aWrapper = new PerFieldAnalyzerWrapper(new SimpleAnalyzer(LuceneUtils.LUCENE_VERSION), analyzerPerField);
+        return new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, aWrapper).setOpenMode(openMode);
     }
 
     /**
@@ -270,14 +430,15 @@ public class MetricSpacesInvertedListIndexing {
      * @throws IOException
      */
     public TopDocs search(BufferedImage img, String indexPath) throws IOException {
-        ImageSearcher searcher = new GenericImageSearcher(numReferenceObjectsUsed, featureClass, featureFieldName);
-        ImageSearchHits hits = searcher.search(img, DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro"))));
-        StringBuilder sb = new StringBuilder(numReferenceObjectsUsed * 4);
-        for (int j = 0; j < numReferenceObjectsUsed; j++) {
-            sb.append(hits.doc(j).getValues("ro-id")[0]);
-            sb.append(' ');
+        IndexReader reader = getIndexReader(indexPath);
+        IndexReader readerRo = DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro")));
+        try {
+            ImageSearcher searcher = new GenericFastImageSearcher(numReferenceObjectsUsed, featureClass, featureFieldName);
+            return scoreDocs(getReferenceObjectOrder(searcher.search(img, readerRo)), reader);
+        } finally {
+            readerRo.close();
+            reader.close();
         }
-        return scoreDocs(sb.toString(), DirectoryReader.open(FSDirectory.open(new File(indexPath))));
     }
 
     /**
@@ -289,69 +450,73 @@ public class MetricSpacesInvertedListIndexing {
      * @throws IOException
      */
     public TopDocs search(Document d, String indexPath) throws IOException {
-        if (d.getField("ro-order") != null) // if the document already contains the information on reference object neighbourhood
-            return scoreDocs(d.getValues("ro-order")[0], DirectoryReader.open(FSDirectory.open(new File(indexPath))));
-        else { // if not we just create it :)
-            ImageSearcher searcher = new GenericImageSearcher(numReferenceObjectsUsed, featureClass, featureFieldName);
-            ImageSearchHits hits = searcher.search(d, DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro"))));
-            StringBuilder sb = new StringBuilder(numReferenceObjectsUsed * 4);
-            for (int j = 0; j < numReferenceObjectsUsed; j++) {
-                sb.append(hits.doc(j).getValues("ro-id")[0]);
-                sb.append(' ');
+        IndexReader reader = getIndexReader(indexPath);
+        try {
+            if (d.getField(FIELD_NAME_RO_ORDER) != null) // if the document already contains the information on reference object neighbourhood
+                return scoreDocs(d.getValues(FIELD_NAME_RO_ORDER)[0], reader);
+            // if not we just create it :)
+            IndexReader readerRo = DirectoryReader.open(FSDirectory.open(new File(indexPath + "-ro")));
+            try {
+                return search(d, reader, readerRo);
+            } finally {
+                readerRo.close();
             }
-            return scoreDocs(sb.toString(), DirectoryReader.open(FSDirectory.open(new File(indexPath))));
+        } finally {
+            reader.close();
         }
     }
 
     /**
-     * Scoring function based on the footrule distance.
+     * Searches with readers kept open by the caller, so they can be shared by many queries.
      *
-     * @param queryString
-     * @param reader
-     * @return
+     * @param d        the query document, either with the field "ro-order" or with the feature.
+     * @param reader   the index created with {@link #createIndex(String)}.
+     * @param readerRo the index of the reference objects, "&lt;indexPath&gt;-ro".
+     * @return the {@link #getNumHits()} best documents, the higher the score the better.
      * @throws IOException
      */
-    protected TopDocs scoreDocs(String queryString, IndexReader reader) throws IOException {
-        /*
-        // TODO: optimize here ;) Perhaps focus on the most promising results
-        StringTokenizer st = new StringTokenizer(queryString);
-        int position = 0;
-        HashMap<Integer, Integer> doc2score = new HashMap<Integer, Integer>(1000);
-        HashMap<Integer, Integer> doc2count = new HashMap<Integer, Integer>(1000);
-        int currDoc = 0;
-        while (st.hasMoreTokens()) {
-            TermPositions tp = reader.termPositions(new Term("ro-order", st.nextToken()));
-            while (tp.next()) {
-                currDoc = tp.doc();
-                // System.out.println(tp.doc() + ": " + tp.nextPosition());
-                if (doc2score.get(currDoc) == null) {
-                    doc2score.put(currDoc, Math.abs(tp.nextPosition() - position));
-                    doc2count.put(currDoc, 1);
-                } else {
-                    doc2score.put(currDoc, doc2score.get(currDoc) + Math.abs(tp.nextPosition() - position));
-                    doc2count.put(currDoc, doc2count.get(currDoc) + 1);
-                }
+    public TopDocs search(Document d, IndexReader reader, IndexReader readerRo) throws IOException {
+        if (d.getField(FIELD_NAME_RO_ORDER) != null)
+            return scoreDocs(d.getValues(FIELD_NAME_RO_ORDER)[0], reader);
+        ImageSearcher searcher = new GenericFastImageSearcher(numReferenceObjectsUsed, featureClass, featureFieldName);
+        return scoreDocs(getReferenceObjectOrder(searcher.search(d, readerRo)), reader);
+    }
 
-            }
-            position++;
+    private String getReferenceObjectOrder(ImageSearchHits hits) {
+        StringBuilder sb = new StringBuilder(numReferenceObjectsUsed * 4);
+        for (int j = 0; j < numReferenceObjectsUsed; j++) {
+            sb.append(hits.doc(j).getValues(FIELD_NAME_RO_ID)[0]);
+            sb.append(' ');
         }
-        int currdocscore = 0;
-        int maxScore = 0, minScore = (position - 1) * position;
-        TreeSet<ScoreDoc> results = new TreeSet<ScoreDoc>(new ScoreDocComparator());
-        for (Iterator<Integer> iterator = doc2count.keySet().iterator(); iterator.hasNext(); ) {
-            currDoc = iterator.next();
-            currdocscore = (position - 1) * position -  // max score ... minus actual distance.
-                    (doc2score.get(currDoc) + (position - doc2count.get(currDoc)) * (position - 1));
-            maxScore = Math.max(maxScore, currdocscore);
-            minScore = Math.min(minScore, currdocscore);
-            if (results.size() < numHits || currdocscore >= minScore) {
-                results.add(new ScoreDoc(currDoc, currdocscore));
-            }
+        return sb.toString();
+    }
+
+    /**
+     * Scoring function based on the footrule distance. A reference object of the query missing in the list of a
+     * document counts as maximum rank difference, documents sharing none of the reference objects are not
+     * scored at all. The score is the maximum distance minus the actual one, so the higher the better.
+     *
+     * @param queryString the ids of the reference objects nearest to the query, nearest first.
+     * @param reader      the index created with {@link #createIndex(String)}.
+     * @return the {@link #getNumHits()} best documents.
+     * @throws IOException
+     */
+    protected TopDocs scoreDocs(String queryString, IndexReader reader) throws IOException {
+        String trimmed = queryString.trim();
+        String[] referenceObjects = trimmed.length() > 0 ? trimmed.split("\\s+") : new String[0];
+        List<SegmentScorer> segments = new ArrayList<SegmentScorer>(reader.leaves().size());
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            segments.add(new SegmentScorer(leaf, referenceObjects, numHits));
+        }
+        TopKCollector hits = new TopKCollector(numHits);
+        for (TopKCollector segmentHits : parallelScan.run(segments)) hits.merge(segmentHits);
+        hits.sort();
+        int maxDistance = (referenceObjects.length - 1) * referenceObjects.length;
+        ScoreDoc[] scoreDocs = new ScoreDoc[hits.size()];
+        for (int i = 0; i < scoreDocs.length; i++) {
+            scoreDocs[i] = new ScoreDoc(hits.doc(i), maxDistance - hits.distance(i));
         }
-        while (results.size() > numHits) results.pollLast();
-        return new TopDocs(Math.min(results.size(), numHits), (ScoreDoc[]) results.toArray(new ScoreDoc[results.size()]), maxScore);
-        */
-        throw new UnsupportedOperationException("Not supported currently in Lucene 4.0");
+        return new TopDocs(hits.getNumOffered(), scoreDocs, scoreDocs.length > 0 ? scoreDocs[0].score : Float.NaN);
     }
 
     public int getNumHits() {
@@ -373,6 +538,25 @@ public class MetricSpacesInvertedListIndexing {
         return DirectoryReader.open(FSDirectory.open(new File(indexPath)));
     }
 
+    /**
+     * Sets the thread pool the segments are searched with, the default is {@link ParallelLinearScan#getDefault()}.
+     *
+     * @param parallelScan the pool to use.
+     */
+    public void setParallelScan(ParallelLinearScan parallelScan) {
+        this.parallelScan = parallelScan;
+    }
+
+    /**
+     * Sets how the reference objects are selected, the default is {@link PivotSelection.Strategy#KMeansPlusPlus}
+     * with {@link PivotSelection#DEFAULT_SEED}.
+     *
+     * @param pivotSelection the selection used by {@link #createIndex(String)}.
+     */
+    public void setPivotSelection(PivotSelection pivotSelection) {
+        this.pivotSelection = pivotSelection;
+    }
+
     public ProgressIndicator getProgress() {
         return progress;
     }
@@ -386,9 +570,41 @@ public class MetricSpacesInvertedListIndexing {
     // ** Inner class ...
     // ******************************************************************************
 
-    private static class ScoreDocComparator implements Comparator<ScoreDoc> {
-        public int compare(ScoreDoc o1, ScoreDoc o2) {
-            return (int) Math.signum(o2.score - o1.score);
+    /**
+     * Sums up the rank differences of the documents of one segment. Distances and the number of shared reference
+     * objects are accumulated in arrays indexed by docID, deleted documents are skipped by the postings.
+     */
+    private static class SegmentScorer implements Callable<TopKCollector> {
+        private final AtomicReaderContext leaf;
+        private final String[] referenceObjects;
+        private final int numHits;
+
+        SegmentScorer(AtomicReaderContext leaf, String[] referenceObjects, int numHits) {
+            this.leaf = leaf;
+            this.referenceObjects = referenceObjects;
+            this.numHits = numHits;
+        }
+
+        public TopKCollector call() throws IOException {
+            AtomicReader reader = leaf.reader();
+            int[] distances = new int[reader.maxDoc()];
+            int[] counts = new int[reader.maxDoc()];
+            for (int position = 0; position < referenceObjects.length; position++) {
+                DocsAndPositionsEnum postings = reader.termPositionsEnum(new Term(FIELD_NAME_RO_ORDER, referenceObjects[position]));
+                if (postings == null) continue; // no document has this reference object.
+                int doc;
+                while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    distances[doc] += Math.abs(postings.nextPosition() - position);
+                    counts[doc]++;
+                }
+            }
+            int length = referenceObjects.length;
+            TopKCollector hits = new TopKCollector(numHits);
+            for (int doc = 0; doc < counts.length; doc++) {
+                if (counts[doc] == 0) continue;
+                hits.offer(leaf.docBase + doc, distances[doc] + (length - counts[doc]) * (length - 1));
+            }
+            return hits;
         }
     }
 }
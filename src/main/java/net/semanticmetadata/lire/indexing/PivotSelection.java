@@ -0,0 +1,313 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Selects pivots, i.e. reference objects or representatives, from a set of candidates for
+ * {@link MetricSpacesInvertedListIndexing}, {@link net.semanticmetadata.lire.indexing.tools.ProximityHashingIndexor}
+ * and {@link net.semanticmetadata.lire.indexing.fastmap.FastMap}. Pivots spread over the data give posting lists
+ * of similar length, while randomly chosen ones tend to cluster in dense regions. All random decisions are
+ * taken from the seed, so the same candidates always give the same pivots. Instances are immutable and can be
+ * shared by threads.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class PivotSelection {
+    /**
+     * The way pivots are chosen from the candidates.
+     */
+    public enum Strategy {
+        /**
+         * Uniformly at random, the behaviour of earlier versions.
+         */
+        Random,
+        /**
+         * Each pivot is the candidate farthest from all pivots selected so far, starting with a random one. This
+         * covers the whole space but favours outliers.
+         */
+        FarthestFirst,
+        /**
+         * Each pivot is drawn with a probability proportional to the squared distance to the nearest pivot
+         * selected so far, like the seeding of k-means++. Outliers are less likely picked than with
+         * {@link #FarthestFirst}, dense regions get more pivots than sparse ones.
+         */
+        KMeansPlusPlus
+    }
+
+    /**
+     * Distances between candidates, identified by their index.
+     */
+    public interface Metric {
+        /**
+         * @return the distance between the candidates a and b, from [0, infinite).
+         */
+        double getDistance(int a, int b);
+    }
+
+    /**
+     * The default seed, so indexes built from the same data get the same pivots.
+     */
+    public static final long DEFAULT_SEED = 42L;
+
+    private final Strategy strategy;
+    private final long seed;
+
+    /**
+     * Creates a selection with {@link Strategy#KMeansPlusPlus} and the default seed.
+     */
+    public PivotSelection() {
+        this(Strategy.KMeansPlusPlus, DEFAULT_SEED);
+    }
+
+    public PivotSelection(Strategy strategy, long seed) {
+        this.strategy = strategy;
+        this.seed = seed;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Draws a uniform sample without replacement, e.g. the candidates for the selection from a large index.
+     *
+     * @param n the number of elements to sample from.
+     * @param k the sample size.
+     * @return k distinct numbers from [0, n) in ascending order.
+     */
+    public int[] sample(int n, int k) {
+        if (k > n) throw new IllegalArgumentException("Cannot sample " + k + " out of " + n + " elements.");
+        Random random = new Random(seed);
+        // reservoir sampling, the order in the reservoir doesn't matter as it is sorted anyway.
+        int[] result = new int[k];
+        for (int i = 0; i < n; i++) {
+            if (i < k) result[i] = i;
+            else {
+                int j = random.nextInt(i + 1);
+                if (j < k) result[j] = i;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Selects pivots from features.
+     *
+     * @param candidates the candidates, they are not modified.
+     * @param numPivots  the number of pivots.
+     * @return the indexes of the pivots in the list of candidates, in the order of selection.
+     */
+    public int[] select(final List<? extends LireFeature> candidates, int numPivots) {
+        return select(candidates.size(), new Metric() {
+            public double getDistance(int a, int b) {
+                return candidates.get(a).getDistance(candidates.get(b));
+            }
+        }, numPivots);
+    }
+
+    /**
+     * Selects pivots from candidates with a given metric.
+     *
+     * @param numCandidates the number of candidates.
+     * @param metric        the distances between the candidates.
+     * @param numPivots     the number of pivots.
+     * @return the distinct indexes of the pivots, in the order of selection.
+     */
+    public int[] select(int numCandidates, Metric metric, int numPivots) {
+        if (numPivots > numCandidates)
+            throw new IllegalArgumentException("Cannot select " + numPivots + " pivots from " + numCandidates + " candidates.");
+        if (numPivots <= 0) return new int[0];
+        if (strategy == Strategy.Random) {
+            // a random sample in random order.
+            int[] result = sample(numCandidates, numPivots);
+            Random random = new Random(seed + 1);
+            for (int i = result.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1), tmp = result[i];
+                result[i] = result[j];
+                result[j] = tmp;
+            }
+            return result;
+        }
+        Random random = new Random(seed);
+        int[] result = new int[numPivots];
+        boolean[] selected = new boolean[numCandidates];
+        // distance of each candidate to its nearest pivot.
+        double[] nearest = new double[numCandidates];
+        Arrays.fill(nearest, Double.MAX_VALUE);
+        int pivot = random.nextInt(numCandidates);
+        for (int p = 0; p < numPivots; p++) {
+            result[p] = pivot;
+            selected[pivot] = true;
+            if (p == numPivots - 1) break;
+            double sum = 0d, max = -1d;
+            int farthest = -1;
+            for (int i = 0; i < numCandidates; i++) {
+                if (selected[i]) continue;
+                nearest[i] = Math.min(nearest[i], metric.getDistance(pivot, i));
+                sum += nearest[i] * nearest[i];
+                if (nearest[i] > max) {
+                    max = nearest[i];
+                    farthest = i;
+                }
+            }
+            if (max <= 0d) {
+                // all remaining candidates are duplicates of pivots, so any of them is as good as the other.
+                pivot = nextUnselected(selected, random.nextInt(numCandidates));
+            } else if (strategy == Strategy.FarthestFirst) {
+                pivot = farthest;
+            } else {
+                double threshold = random.nextDouble() * sum;
+                pivot = farthest; // in case rounding leaves the threshold above the last sum.
+                for (int i = 0; i < numCandidates; i++) {
+                    if (selected[i]) continue;
+                    threshold -= nearest[i] * nearest[i];
+                    if (threshold < 0d && nearest[i] > 0d) {
+                        pivot = i;
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int nextUnselected(boolean[] selected, int start) {
+        for (int i = 0; i < selected.length; i++) {
+            int candidate = (start + i) % selected.length;
+            if (!selected[candidate]) return candidate;
+        }
+        throw new IllegalStateException("All candidates have been selected.");
+    }
+
+    /**
+     * Statistics on the lengths of the posting lists of pivots, i.e. the number of objects assigned to each pivot.
+     * Long lists are the ones a query has to go through, so a good selection has a low maximum and a low
+     * coefficient of variation.
+     */
+    public static class Balance {
+        private final int numLists;
+        private final int min, max;
+        private final double mean, standardDeviation;
+        private final int numEmpty;
+
+        /**
+         * @param lengths the length of the posting list of each pivot.
+         */
+        public Balance(int[] lengths) {
+            numLists = lengths.length;
+            int min = Integer.MAX_VALUE, max = 0, numEmpty = 0;
+            double sum = 0d;
+            for (int length : lengths) {
+                min = Math.min(min, length);
+                max = Math.max(max, length);
+                if (length == 0) numEmpty++;
+                sum += length;
+            }
+            this.min = numLists > 0 ? min : 0;
+            this.max = max;
+            this.numEmpty = numEmpty;
+            mean = numLists > 0 ? sum / numLists : 0d;
+            double variance = 0d;
+            for (int length : lengths) {
+                variance += (length - mean) * (length - mean);
+            }
+            standardDeviation = numLists > 0 ? Math.sqrt(variance / numLists) : 0d;
+        }
+
+        public int getNumLists() {
+            return numLists;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStandardDeviation() {
+            return standardDeviation;
+        }
+
+        /**
+         * @return the number of pivots no object has been assigned to.
+         */
+        public int getNumEmpty() {
+            return numEmpty;
+        }
+
+        /**
+         * @return the standard deviation relative to the mean, 0 for perfectly balanced lists.
+         */
+        public double getCoefficientOfVariation() {
+            return mean > 0d ? standardDeviation / mean : 0d;
+        }
+
+        /**
+         * @return the length of the longest list relative to the mean, 1 for perfectly balanced lists.
+         */
+        public double getMaxToMean() {
+            return mean > 0d ? max / mean : 0d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d lists, length min=%d, max=%d, mean=%.2f, stddev=%.2f, %d empty",
+                    numLists, min, max, mean, standardDeviation, numEmpty);
+        }
+    }
+}
@@ -39,12 +39,17 @@
 
 package net.semanticmetadata.lire.indexing;
 
+/**
+ * Reports the progress of {@link MetricSpacesInvertedListIndexing}, it is updated from the indexing thread and
+ * can be polled from any other thread.
+ */
 public class ProgressIndicator {
 
-    int numDocsAll = 0;
-    int numDocsProcessed = 0;
+    volatile int numDocsAll = 0;
+    volatile int numDocsProcessed = 0;
+    volatile long stateStartTime = System.currentTimeMillis();
 
-    MetricSpacesInvertedListIndexing.State currentState = MetricSpacesInvertedListIndexing.State.Idle;
+    volatile MetricSpacesInvertedListIndexing.State currentState = MetricSpacesInvertedListIndexing.State.Idle;
 
     public int getNumDocsAll() {
         return numDocsAll;
@@ -67,6 +72,23 @@ public class ProgressIndicator {
     }
 
     public void setCurrentState(MetricSpacesInvertedListIndexing.State currentState) {
+        this.stateStartTime = System.currentTimeMillis();
         this.currentState = currentState;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the time in ms since the current state has been entered.
+     */
+    public long getElapsedTime() {
+        return System.currentTimeMillis() - stateStartTime;
+    }
+
+    /**
+     * @return the number of documents processed per second in the current state.
+     */
+    public double getDocsPerSecond() {
+        long elapsed = getElapsedTime();
+        if (elapsed <= 0) return 0d;
+        return numDocsProcessed * 1000d / elapsed;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import net.semanticmetadata.lire.imageanalysis.ByteDistanceFeature;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The reference objects of a {@link MetricSpacesInvertedListIndexing} index held in memory, so the ranking of the
+ * reference objects for a document is computed without searching the reference object index. Instances are
+ * immutable and can be shared by threads, e.g. by the indexing threads adding the field "ro-order" to new
+ * documents with {@link #addReferenceObjectOrder(Document, int)} before they are appended to the index.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ReferenceObjects {
+    private final Class<? extends LireFeature> featureClass;
+    private final String featureFieldName;
+    private final String[] ids;
+    private final byte[][] data;
+    private final LireFeature[] features;
+
+    private ReferenceObjects(Class<? extends LireFeature> featureClass, String featureFieldName, String[] ids, byte[][] data, LireFeature[] features) {
+        this.featureClass = featureClass;
+        this.featureFieldName = featureFieldName;
+        this.ids = ids;
+        this.data = data;
+        this.features = features;
+    }
+
+    /**
+     * Reads all reference objects from the reference object index, "&lt;indexPath&gt;-ro".
+     *
+     * @param reader           the reader of the reference object index.
+     * @param featureClass     the feature of the index.
+     * @param featureFieldName the field of the feature.
+     * @return the reference objects in the order of the reference object index.
+     * @throws IOException in case the index cannot be read.
+     */
+    public static ReferenceObjects load(IndexReader reader, Class<? extends LireFeature> featureClass, String featureFieldName) throws IOException {
+        ArrayList<String> ids = new ArrayList<String>(reader.numDocs());
+        ArrayList<byte[]> data = new ArrayList<byte[]>(reader.numDocs());
+        ArrayList<LireFeature> features = new ArrayList<LireFeature>(reader.numDocs());
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs != null && !liveDocs.get(i)) continue; // if it is deleted, just ignore it.
+            Document document = reader.document(i);
+            BytesRef value = document.getBinaryValue(featureFieldName);
+            if (value == null) continue;
+            byte[] bytes = Arrays.copyOfRange(value.bytes, value.offset, value.offset + value.length);
+            LireFeature feature = newFeature(featureClass);
+            feature.setByteArrayRepresentation(bytes, 0, bytes.length);
+            ids.add(document.getValues(MetricSpacesInvertedListIndexing.FIELD_NAME_RO_ID)[0]);
+            data.add(bytes);
+            features.add(feature);
+        }
+        return new ReferenceObjects(featureClass, featureFieldName, ids.toArray(new String[ids.size()]),
+                data.toArray(new byte[data.size()][]), features.toArray(new LireFeature[features.size()]));
+    }
+
+    /**
+     * Ranks the reference objects by their distance to a feature, ties are broken by the order of the reference
+     * object index. The result is the same as searching the reference object index with the feature.
+     *
+     * @param feature                 the feature of a document or query, it is not shared with other threads.
+     * @param numReferenceObjectsUsed the length of the ranking.
+     * @return the ids of the nearest reference objects, nearest first, separated by a space.
+     */
+    public String getOrder(LireFeature feature, int numReferenceObjectsUsed) {
+        int k = Math.min(numReferenceObjectsUsed, ids.length);
+        int[] nearest = new int[k];
+        float[] distances = new float[k];
+        int size = 0;
+        ByteDistanceFeature byteFeature = feature instanceof ByteDistanceFeature ? (ByteDistanceFeature) feature : null;
+        for (int i = 0; i < ids.length; i++) {
+            // the shared reference objects are never the instance a distance is computed on.
+            float distance = byteFeature != null ? byteFeature.getDistance(data[i], 0, data[i].length) : feature.getDistance(features[i]);
+            if (size == k && !(distance < distances[k - 1])) continue;
+            // insertion into the sorted list of the nearest ones, later ones lose ties.
+            int pos = size < k ? size++ : k - 1;
+            while (pos > 0 && distance < distances[pos - 1]) {
+                nearest[pos] = nearest[pos - 1];
+                distances[pos] = distances[pos - 1];
+                pos--;
+            }
+            nearest[pos] = i;
+            distances[pos] = distance;
+        }
+        StringBuilder sb = new StringBuilder(k * 4);
+        for (int i = 0; i < size; i++) {
+            sb.append(ids[nearest[i]]);
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adds the field "ro-order" to a document with the feature of the index. The ranking is indexed from its own
+     * whitespace tokenized stream, so the terms and their positions do not depend on the analyzer of the
+     * IndexWriter, and it is stored as a separate field for reading it back.
+     *
+     * @param document                the document, e.g. a new one before adding it to the index.
+     * @param numReferenceObjectsUsed the length of the ranking.
+     * @return false if the document has no feature, so the field has not been added.
+     */
+    public boolean addReferenceObjectOrder(Document document, int numReferenceObjectsUsed) {
+        BytesRef value = document.getBinaryValue(featureFieldName);
+        if (value == null) return false;
+        LireFeature feature = newFeature(featureClass);
+        feature.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+        String order = getOrder(feature, numReferenceObjectsUsed);
+        document.add(new Field(MetricSpacesInvertedListIndexing.FIELD_NAME_RO_ORDER,
+                new WhitespaceTokenizer(LuceneUtils.LUCENE_VERSION, new StringReader(order)), TextField.TYPE_NOT_STORED));
+        document.add(new StoredField(MetricSpacesInvertedListIndexing.FIELD_NAME_RO_ORDER, order));
+        return true;
+    }
+
+    /**
+     * @return the number of reference objects.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    private static LireFeature newFeature(Class<? extends LireFeature> featureClass) {
+        try {
+            return featureClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Cannot instantiate " + featureClass.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot instantiate " + featureClass.getName(), e);
+        }
+    }
+}
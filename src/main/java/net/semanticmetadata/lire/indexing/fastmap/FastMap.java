@@ -38,6 +38,7 @@
  */
 package net.semanticmetadata.lire.indexing.fastmap;
 
+import net.semanticmetadata.lire.indexing.PivotSelection;
 
 /**
  * Date: 13.01.2005
@@ -54,6 +55,7 @@ public class FastMap implements Runnable {
     private boolean predefinedPivots = false;
     private int col, currentDimension;
     private FastmapDistanceMatrix matrixFastmap;
+    private PivotSelection pivotSelection = new PivotSelection(PivotSelection.Strategy.FarthestFirst, PivotSelection.DEFAULT_SEED);
     int dimensions;
 
     /**
@@ -93,6 +95,16 @@ public class FastMap implements Runnable {
         currentDimension = 0;
     }
 
+    /**
+     * Sets the strategy and seed the search for the pivots starts with, the default is
+     * {@link PivotSelection.Strategy#FarthestFirst} with {@link PivotSelection#DEFAULT_SEED}.
+     *
+     * @param pivotSelection the selection of the initial pair of pivots.
+     */
+    public void setPivotSelection(PivotSelection pivotSelection) {
+        this.pivotSelection = pivotSelection;
+    }
+
     public double[][] getPoints() {
         return X;
     }
@@ -134,16 +146,23 @@ public class FastMap implements Runnable {
 
     /**
      * Finds the pivots where the other points are interpolated in between. This method is definitely issue
-     * to tuning. Currently a greedy approach is implemented.
+     * to tuning. Currently a greedy approach is implemented, starting with a pair of the {@link PivotSelection}.
      *
      * @param k
      */
     private void findPivots(int k) {
         // increase this number to get it more precise, decrease to get it faster.
         int numIterations = 4;
-        int randomRow = (int) (Math.random() * matrixFastmap.getDimension());
-        int pivot1 = 0;
-        int pivot2 = randomRow;
+        PivotSelection.Metric metric = new PivotSelection.Metric() {
+            public double getDistance(int a, int b) {
+                return matrixFastmap.getDistance(a, b, currentDimension, X[a], X[b]);
+            }
+        };
+        // every dimension starts with another pair, still reproducible with the seed.
+        int[] pair = new PivotSelection(pivotSelection.getStrategy(), pivotSelection.getSeed() + k)
+                .select(matrixFastmap.getDimension(), metric, Math.min(2, matrixFastmap.getDimension()));
+        int pivot1 = pair[0];
+        int pivot2 = pair[pair.length - 1];
         for (int i = 0; i < numIterations; i++) {
             pivot1 = matrixFastmap.getMaximumDistance(pivot2, currentDimension, X);
             pivot2 = matrixFastmap.getMaximumDistance(pivot1, currentDimension, X);
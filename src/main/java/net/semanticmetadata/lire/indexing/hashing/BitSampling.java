@@ -42,13 +42,15 @@
 package net.semanticmetadata.lire.indexing.hashing;
 
 import java.io.*;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * Provides a simple way to hashing. It's bit sampling and can be put into the
  * locality sensitive hashing family of hashing functions.
  * <p/>
+ * The static methods work on one set of hash functions for the whole JVM. Use a
+ * {@link BitSamplingModel} per index to hash with different hash functions at the same time.
+ * <p/>
  * Created: 24.02.12, 14:00
  *
  * @author Mathias Lux, mathias@juggle.at
@@ -69,14 +71,7 @@ public class BitSampling {
     public static int dimensions = 640;
 
     public static final String hashFunctionsFileName = "LshBitSampling.obj";
-    private static double[][][] hashes = null;
-    private static double[] lookUp = new double[32];
-
-    static {
-        for (int i = 0; i < lookUp.length; i++) {
-            lookUp[i] = Math.pow(2, i);
-        }
-    }
+    private static volatile BitSamplingModel model = null;
 
     /**
      * Generate new hash functions.
@@ -137,31 +132,15 @@ public class BitSampling {
     }
 
     /**
-     * Reads a file from disk, where the hash bundles are specified. Make sure to generate it first
-     * and make sure to re-use it for search. This method reads the in class specified file relative
-     * to the execution directory.
+     * Sets the hash functions shipped with LIRE as the ones used by {@link #generateHashes(double[])}. They are
+     * read from the class path only once, see {@link BitSamplingModel#getDefault()}.
      *
-     * @return
+     * @return a copy of the hash functions.
      * @throws IOException
      */
     public static double[][][] readHashFunctions() throws IOException {
-        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(BitSampling.class.getResourceAsStream(hashFunctionsFileName)));
-        int bits = ois.readInt();
-        int dimensions = ois.readInt();
-        int numFunctionBundles = ois.readInt();
-
-        double[][][] hashFunctions = new double[numFunctionBundles][bits][dimensions];
-        for (int i = 0; i < hashFunctions.length; i++) {
-            double[][] functionBundle = hashFunctions[i];
-            for (int j = 0; j < functionBundle.length; j++) {
-                double[] bitFunctions = functionBundle[j];
-                for (int k = 0; k < bitFunctions.length; k++) {
-                    bitFunctions[k] = (double) ois.readFloat();
-                }
-            }
-        }
-        BitSampling.hashes = hashFunctions;
-        return hashFunctions;
+        BitSampling.model = BitSamplingModel.getDefault();
+        return model.toArray();
     }
 
     /**
@@ -169,50 +148,57 @@ public class BitSampling {
      * and make sure to re-use it for search.
      *
      * @param inputStream to access the data, most likely a File on a hard disk
-     * @return
+     * @return a copy of the hash functions.
      * @throws IOException
      */
     public static double[][][] readHashFunctions(InputStream inputStream) throws IOException {
-        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(inputStream));
-        int bits = ois.readInt();
-        int dimensions = ois.readInt();
-        int numFunctionBundles = ois.readInt();
-
-        double[][][] hashFunctions = new double[numFunctionBundles][bits][dimensions];
-        for (int i = 0; i < hashFunctions.length; i++) {
-            double[][] functionBundle = hashFunctions[i];
-            for (int j = 0; j < functionBundle.length; j++) {
-                double[] bitFunctions = functionBundle[j];
-                for (int k = 0; k < bitFunctions.length; k++) {
-                    bitFunctions[k] = ois.readFloat();
-                }
-            }
-        }
-        BitSampling.hashes = hashFunctions;
-        return hashFunctions;
+        BitSampling.model = BitSamplingModel.read(inputStream);
+        return model.toArray();
     }
 
     /**
-     * Generates and returns the hashes for a given histogram input.
+     * Generates and returns the hashes for a given histogram input. If no hash functions have been read, the default
+     * ones are used.
      *
      * @param histogram
      * @return
+     * @see BitSamplingModel#generateHashes(double[])
      */
     public static int[] generateHashes(double[] histogram) {
-        double val;
-        int[] hashResults = new int[hashes.length];
-        for (int i = 0; i < hashes.length; i++) {
-            double[][] hashBundle = hashes[i];
-            for (int j = 0; j < hashBundle.length; j++) {
-                val = 0d;
-                double[] hashBit = hashBundle[j];
-                for (int k = 0; k < histogram.length; k++) {
-                    val += hashBit[k] * histogram[k];
-                }
-                hashResults[i] += lookUp[j] * (val < 0 ? 0 : 1);
+        return getModel().generateHashes(histogram);
+    }
+
+    /**
+     * Generates and returns the hashes for a batch of histograms, e.g. for bulk indexing.
+     *
+     * @param histograms
+     * @return the hashes of each of the histograms.
+     * @see BitSamplingModel#generateHashes(double[][])
+     */
+    public static int[][] generateHashes(double[][] histograms) {
+        return getModel().generateHashes(histograms);
+    }
+
+    /**
+     * Returns the hash functions currently used by {@link #generateHashes(double[])}.
+     *
+     * @return the current model, the default one if none has been read or set.
+     */
+    public static BitSamplingModel getModel() {
+        BitSamplingModel current = model;
+        if (current == null) {
+            try {
+                current = BitSamplingModel.getDefault();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read the default hash functions.", e);
             }
+            model = current;
         }
-        return hashResults;
+        return current;
+    }
+
+    public static void setModel(BitSamplingModel model) {
+        BitSampling.model = model;
     }
 
     public static void setW(double w) {
@@ -0,0 +1,423 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Immutable set of hash functions for {@link BitSampling}. The model consists of a number of function bundles, each
+ * bundle being one hash table with <code>bits</code> random hyperplanes of <code>dimensions</code> dimensions. The
+ * hyperplanes are held as one float matrix in bundle, bit, dimension order, either on the heap or memory mapped from a
+ * file written with {@link #write(File)}. Different indexes can therefore use different models with different
+ * features, dimensions and bit counts in the same JVM, and a model can be shared between document builders and
+ * searchers without reading it again.
+ * <br/>
+ * Layout of a file: magic, version, bits, dimensions, number of function bundles and then the float matrix. By
+ * convention the model of an index is stored in the index directory, see {@link #getFile(File)}.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class BitSamplingModel {
+    /**
+     * Name of the model file within an index directory.
+     */
+    public static final String FILE_NAME = "lire-bitsampling.model";
+    private static final int MAGIC = 0x4C425331; // "LBS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 5 * 4;
+    /**
+     * Number of feature vectors a block of hyperplanes is applied to before moving on to the next block.
+     */
+    private static final int BATCH_SIZE = 32;
+    private static BitSamplingModel defaultModel = null;
+
+    private final int bits;
+    private final int dimensions;
+    private final int numFunctionBundles;
+    private final FloatBuffer hyperplanes;
+    private final float[] matrix; // the hyperplanes if held on the heap, null if memory mapped.
+
+    private BitSamplingModel(int bits, int dimensions, int numFunctionBundles, FloatBuffer hyperplanes) {
+        if (bits < 1 || bits > 31) throw new IllegalArgumentException("Number of bits has to be in [1, 31]: " + bits);
+        if ((long) numFunctionBundles * bits * dimensions != hyperplanes.capacity())
+            throw new IllegalArgumentException("Hash functions do not match " + numFunctionBundles + " bundles of " + bits + " bits and " + dimensions + " dimensions.");
+        this.bits = bits;
+        this.dimensions = dimensions;
+        this.numFunctionBundles = numFunctionBundles;
+        this.hyperplanes = hyperplanes;
+        this.matrix = hyperplanes.hasArray() && hyperplanes.arrayOffset() == 0 ? hyperplanes.array() : null;
+    }
+
+    /**
+     * Creates a new model with random hyperplanes, each component drawn uniformly from [-w/2, w/2).
+     *
+     * @param bits               the number of bits per hash, i.e. hyperplanes per bundle.
+     * @param dimensions         the maximum dimension of the feature vectors to be hashed.
+     * @param numFunctionBundles the number of hashes per feature vector.
+     * @param w                  the range of the hyperplane components.
+     * @param random             the source of randomness.
+     * @return the new model.
+     */
+    public static BitSamplingModel generate(int bits, int dimensions, int numFunctionBundles, double w, Random random) {
+        float[] functions = new float[numFunctionBundles * bits * dimensions];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = (float) (random.nextDouble() * w - w / 2);
+        }
+        return new BitSamplingModel(bits, dimensions, numFunctionBundles, FloatBuffer.wrap(functions));
+    }
+
+    /**
+     * Reads the hash functions from the gzipped format written by {@link BitSampling#generateHashFunctions()}.
+     *
+     * @param inputStream the stream to read from, it is not closed.
+     * @return the model, held on the heap.
+     * @throws IOException in case the stream cannot be read.
+     */
+    public static BitSamplingModel read(InputStream inputStream) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(inputStream));
+        int bits = ois.readInt();
+        int dimensions = ois.readInt();
+        int numFunctionBundles = ois.readInt();
+        float[] functions = new float[numFunctionBundles * bits * dimensions];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = ois.readFloat();
+        }
+        return new BitSamplingModel(bits, dimensions, numFunctionBundles, FloatBuffer.wrap(functions));
+    }
+
+    /**
+     * Memory maps a model previously written with {@link #write(File)}.
+     *
+     * @param file the model file, see {@link #getFile(File)} for the one of an index.
+     * @return the model, backed by the file.
+     * @throws IOException in case the file cannot be read or is not a BitSampling model.
+     */
+    public static BitSamplingModel open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.readInt() != MAGIC) throw new IOException("Not a BitSampling model: " + file.getPath());
+            int version = raf.readInt();
+            if (version != VERSION) throw new IOException("Unsupported BitSampling model version: " + version);
+            int bits = raf.readInt();
+            int dimensions = raf.readInt();
+            int numFunctionBundles = raf.readInt();
+            long size = (long) numFunctionBundles * bits * dimensions * 4;
+            if (HEADER_LENGTH + size > raf.length()) throw new IOException("Truncated BitSampling model: " + file.getPath());
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, size);
+            return new BitSamplingModel(bits, dimensions, numFunctionBundles, buffer.asFloatBuffer());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the model shipped with LIRE, see {@link BitSampling#hashFunctionsFileName}. It is read from the
+     * class path once and shared afterwards.
+     *
+     * @return the default model.
+     * @throws IOException in case the hash functions cannot be read.
+     */
+    public static synchronized BitSamplingModel getDefault() throws IOException {
+        if (defaultModel == null) {
+            InputStream in = BitSampling.class.getResourceAsStream(BitSampling.hashFunctionsFileName);
+            if (in == null) throw new IOException("Could not find " + BitSampling.hashFunctionsFileName + " on the class path.");
+            try {
+                defaultModel = read(in);
+            } finally {
+                in.close();
+            }
+        }
+        return defaultModel;
+    }
+
+    /**
+     * @param indexDirectory the directory of a file system based index.
+     * @return the file the model of the index is stored in.
+     */
+    public static File getFile(File indexDirectory) {
+        return new File(indexDirectory, FILE_NAME);
+    }
+
+    /**
+     * Writes the model to a file, so it can be memory mapped with {@link #open(File)} later on.
+     *
+     * @param file the file to write to, it is overwritten if it exists.
+     * @throws IOException in case the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bits);
+            out.writeInt(dimensions);
+            out.writeInt(numFunctionBundles);
+            out.flush();
+            ByteBuffer buffer = ByteBuffer.allocate(hyperplanes.capacity() * 4);
+            buffer.asFloatBuffer().put(hyperplanes.duplicate());
+            FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Generates and returns the hashes for a given histogram input, one per function bundle. Bit j of a hash is
+     * set if the dot product of the histogram with the j-th hyperplane of the bundle is not negative.
+     *
+     * @param histogram the feature vector, it must not be longer than {@link #getDimensions()}.
+     * @return the hashes.
+     */
+    public int[] generateHashes(double[] histogram) {
+        return generateHashes(new double[][]{histogram})[0];
+    }
+
+    /**
+     * Generates the hashes for a batch of feature vectors, e.g. for bulk indexing. The hyperplanes are applied in
+     * blocks of four to up to {@value #BATCH_SIZE} vectors at a time, so each block is read from memory once per
+     * batch instead of once per vector. Only the non zero dimensions of a vector are visited, as the zero ones
+     * don't change the dot products, the hashes are the same as with {@link #generateHashes(double[])}.
+     *
+     * @param histograms the feature vectors, none of them may be longer than {@link #getDimensions()}.
+     * @return the hashes of each of the vectors, one per function bundle.
+     */
+    public int[][] generateHashes(double[][] histograms) {
+        int[][] hashResults = new int[histograms.length][numFunctionBundles];
+        int[][] indices = new int[histograms.length][];
+        double[][] values = new double[histograms.length][];
+        for (int v = 0; v < histograms.length; v++) {
+            sparse(histograms[v], indices, values, v);
+        }
+        int rows = numFunctionBundles * bits;
+        double[] dot = new double[4];
+        for (int first = 0; first < histograms.length; first += BATCH_SIZE) {
+            int last = Math.min(first + BATCH_SIZE, histograms.length);
+            for (int row = 0; row < rows; row += 4) {
+                int block = Math.min(4, rows - row);
+                for (int v = first; v < last; v++) {
+                    if (matrix != null) project(matrix, dimensions, row, block, indices[v], values[v], dot);
+                    else project(hyperplanes, dimensions, row, block, indices[v], values[v], dot);
+                    int[] hashes = hashResults[v];
+                    for (int r = 0; r < block; r++) {
+                        if (!(dot[r] < 0)) hashes[(row + r) / bits] |= 1 << ((row + r) % bits);
+                    }
+                }
+            }
+        }
+        return hashResults;
+    }
+
+    /**
+     * Returns the dot products of a feature vector with all hyperplanes, the one of the j-th hyperplane of bundle i
+     * at position i * {@link #getBits()} + j. Bit j of the i-th hash is set if this value is not negative, so its
+     * absolute value tells how far the vector is from flipping the bit, see {@link MultiProbe}. The values are
+     * computed exactly like the ones used by {@link #generateHashes(double[])}.
+     *
+     * @param histogram the feature vector, it must not be longer than {@link #getDimensions()}.
+     * @return the dot products, numFunctionBundles * bits values.
+     */
+    public double[] project(double[] histogram) {
+        int[][] indices = new int[1][];
+        double[][] values = new double[1][];
+        sparse(histogram, indices, values, 0);
+        int rows = numFunctionBundles * bits;
+        double[] result = new double[rows];
+        double[] dot = new double[4];
+        for (int row = 0; row < rows; row += 4) {
+            int block = Math.min(4, rows - row);
+            if (matrix != null) project(matrix, dimensions, row, block, indices[0], values[0], dot);
+            else project(hyperplanes, dimensions, row, block, indices[0], values[0], dot);
+            System.arraycopy(dot, 0, result, row, block);
+        }
+        return result;
+    }
+
+    /**
+     * Collects the non zero dimensions of a histogram and their values as entry v of the given arrays.
+     */
+    private void sparse(double[] histogram, int[][] indices, double[][] values, int v) {
+        if (histogram.length > dimensions)
+            throw new IllegalArgumentException("Feature vector too long for the hash functions: " + histogram.length + " > " + dimensions);
+        int count = 0;
+        for (double h : histogram) if (h != 0) count++;
+        indices[v] = new int[count];
+        values[v] = new double[count];
+        count = 0;
+        for (int k = 0; k < histogram.length; k++) {
+            if (histogram[k] != 0) {
+                indices[v][count] = k;
+                values[v][count++] = histogram[k];
+            }
+        }
+    }
+
+    /**
+     * Computes the dot products of a sparse vector with the hyperplanes [row, row + block) of the matrix held on
+     * the heap. Each one is summed up in the order of the dimensions.
+     */
+    private static void project(float[] matrix, int dimensions, int row, int block, int[] indices, double[] values, double[] dot) {
+        int o0 = row * dimensions;
+        if (block == 4) {
+            int o1 = o0 + dimensions, o2 = o1 + dimensions, o3 = o2 + dimensions;
+            double d0 = 0d, d1 = 0d, d2 = 0d, d3 = 0d;
+            for (int n = 0; n < indices.length; n++) {
+                int k = indices[n];
+                double x = values[n];
+                d0 += matrix[o0 + k] * x;
+                d1 += matrix[o1 + k] * x;
+                d2 += matrix[o2 + k] * x;
+                d3 += matrix[o3 + k] * x;
+            }
+            dot[0] = d0;
+            dot[1] = d1;
+            dot[2] = d2;
+            dot[3] = d3;
+        } else {
+            for (int r = 0; r < block; r++, o0 += dimensions) {
+                double d = 0d;
+                for (int n = 0; n < indices.length; n++) {
+                    d += matrix[o0 + indices[n]] * values[n];
+                }
+                dot[r] = d;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #project(float[], int, int, int, int[], double[], double[])} for a memory mapped matrix.
+     */
+    private static void project(FloatBuffer matrix, int dimensions, int row, int block, int[] indices, double[] values, double[] dot) {
+        int o0 = row * dimensions;
+        if (block == 4) {
+            int o1 = o0 + dimensions, o2 = o1 + dimensions, o3 = o2 + dimensions;
+            double d0 = 0d, d1 = 0d, d2 = 0d, d3 = 0d;
+            for (int n = 0; n < indices.length; n++) {
+                int k = indices[n];
+                double x = values[n];
+                d0 += matrix.get(o0 + k) * x;
+                d1 += matrix.get(o1 + k) * x;
+                d2 += matrix.get(o2 + k) * x;
+                d3 += matrix.get(o3 + k) * x;
+            }
+            dot[0] = d0;
+            dot[1] = d1;
+            dot[2] = d2;
+            dot[3] = d3;
+        } else {
+            for (int r = 0; r < block; r++, o0 += dimensions) {
+                double d = 0d;
+                for (int n = 0; n < indices.length; n++) {
+                    d += matrix.get(o0 + indices[n]) * values[n];
+                }
+                dot[r] = d;
+            }
+        }
+    }
+
+    /**
+     * Packs the hashes of a feature vector into one binary signature of {@link #getSignatureLength()} bits. Bit j of
+     * the i-th hash is bit i * {@link #getBits()} + j of the signature, bit p of the signature is bit p % 64 of
+     * word p / 64.
+     *
+     * @param hashes the hashes as returned by {@link #generateHashes(double[])}.
+     * @return the signature, e.g. for {@link MultiIndexHashing}.
+     */
+    public long[] toSignature(int[] hashes) {
+        long[] signature = new long[(numFunctionBundles * bits + 63) >>> 6];
+        for (int i = 0; i < numFunctionBundles; i++) {
+            int position = i * bits;
+            long hash = hashes[i] & ((1L << bits) - 1);
+            signature[position >>> 6] |= hash << (position & 63);
+            if ((position & 63) + bits > 64) signature[(position >>> 6) + 1] |= hash >>> (64 - (position & 63));
+        }
+        return signature;
+    }
+
+    /**
+     * @return the number of bits of a binary signature, i.e. function bundles times bits.
+     */
+    public int getSignatureLength() {
+        return numFunctionBundles * bits;
+    }
+
+    /**
+     * Copies the hash functions to the nested array layout used by {@link BitSampling#readHashFunctions()}.
+     *
+     * @return a new array [function bundle][bit][dimension].
+     */
+    public double[][][] toArray() {
+        double[][][] hashFunctions = new double[numFunctionBundles][bits][dimensions];
+        int offset = 0;
+        for (double[][] functionBundle : hashFunctions) {
+            for (double[] bitFunctions : functionBundle) {
+                for (int k = 0; k < dimensions; k++) {
+                    bitFunctions[k] = hyperplanes.get(offset++);
+                }
+            }
+        }
+        return hashFunctions;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getNumFunctionBundles() {
+        return numFunctionBundles;
+    }
+}
@@ -42,7 +42,6 @@
 package net.semanticmetadata.lire.indexing.hashing;
 
 import java.io.*;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -51,19 +50,20 @@ import java.util.zip.GZIPOutputStream;
  * If m of the k hashes match, then we assume that the feature vectors belong to similar images. Note that m*k has to be bigger than d!<br/>
  * If a^i is drawn from a normal (Gaussian) distribution LSH approximates L2. </p>
  * <p/>
- * Note that this is just to be used with bounded (normalized) descriptors.
+ * Note that this is just to be used with bounded (normalized) descriptors. The static methods work on one set of
+ * hash functions for the whole JVM, use a {@link LocalitySensitiveHashingModel} per index to hash with different
+ * hash functions at the same time.
  *
  * @author Mathias Lux, mathias@juggle.at
  *         Created: 04.06.12, 13:42
  */
 public class LocalitySensitiveHashing {
-    private static String name = "lshHashFunctions.obj";
+    public static final String hashFunctionsFileName = "lshHashFunctions.obj";
     private static int dimensions = 250;           // max d
     public static int numFunctionBundles = 50;     // k
     public static double binLength = 10;           // w
 
-    private static double[][] hashA = null;      // a
-    private static double[] hashB = null;        // b
+    private static volatile LocalitySensitiveHashingModel model = null; // a and b
     private static double dilation = 1d;         // defines how "stretched out" the hash values are.
 
     /**
@@ -72,7 +72,7 @@ public class LocalitySensitiveHashing {
      * @throws java.io.IOException
      */
     public static void generateHashFunctions() throws IOException {
-        File hashFile = new File(name);
+        File hashFile = new File(hashFunctionsFileName);
         if (!hashFile.exists()) {
             ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(hashFile)));
             oos.writeInt(dimensions);
@@ -87,7 +87,7 @@ public class LocalitySensitiveHashing {
             }
             oos.close();
         } else {
-            System.err.println("Hashes could not be written: " + name + " already exists");
+            System.err.println("Hashes could not be written: " + hashFunctionsFileName + " already exists");
         }
     }
 
@@ -119,48 +119,55 @@ public class LocalitySensitiveHashing {
      * @see LocalitySensitiveHashing#generateHashFunctions()
      */
     public static double[][] readHashFunctions() throws IOException {
-        return readHashFunctions(new FileInputStream(name));
+        FileInputStream in = new FileInputStream(hashFunctionsFileName);
+        try {
+            return readHashFunctions(in);
+        } finally {
+            in.close();
+        }
     }
 
     public static double[][] readHashFunctions(InputStream in) throws IOException {
-        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(in));
-        dimensions = ois.readInt();
-        numFunctionBundles = ois.readInt();
-        double[] tmpB = new double[numFunctionBundles];
-        for (int k = 0; k < numFunctionBundles; k++) {
-            tmpB[k] = ois.readFloat();
-        }
-        LocalitySensitiveHashing.hashB = tmpB;
-        double[][] hashFunctions = new double[numFunctionBundles][dimensions];
-        for (int i = 0; i < hashFunctions.length; i++) {
-            double[] functionBundle = hashFunctions[i];
-            for (int j = 0; j < functionBundle.length; j++) {
-                functionBundle[j] = ois.readFloat();
-            }
-        }
-        LocalitySensitiveHashing.hashA = hashFunctions;
-        return hashFunctions;
+        LocalitySensitiveHashingModel m = LocalitySensitiveHashingModel.read(in, binLength);
+        dimensions = m.getDimensions();
+        numFunctionBundles = m.getNumFunctionBundles();
+        LocalitySensitiveHashing.model = m;
+        return m.toArray();
     }
 
     /**
-     * Generates the hashes from the given hash bundles.
+     * Generates the hashes from the given hash bundles with the current {@link #binLength}. If no hash functions
+     * have been read, the default ones are used.
      *
      * @param histogram
      * @return
+     * @see LocalitySensitiveHashingModel#generateHashes(double[], double)
      */
     public static int[] generateHashes(double[] histogram) {
-        double product;
-        int[] result = new int[numFunctionBundles];
-        for (int k = 0; k < numFunctionBundles; k++) {
-            product = 0;
-            for (int i = 0; i < histogram.length; i++) {
-                product += histogram[i] * hashA[k][i];
+        return getModel().generateHashes(histogram, binLength);
+    }
+
+    /**
+     * Returns the hash functions currently used by {@link #generateHashes(double[])}.
+     *
+     * @return the current model, the default one if none has been read or set.
+     */
+    public static LocalitySensitiveHashingModel getModel() {
+        LocalitySensitiveHashingModel current = model;
+        if (current == null) {
+            try {
+                current = LocalitySensitiveHashingModel.getDefault();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read the default hash functions.", e);
             }
-            result[k] = (int) Math.floor((product + hashB[k]) / binLength);
+            model = current;
         }
-        return result;
+        return current;
     }
 
+    public static void setModel(LocalitySensitiveHashingModel model) {
+        LocalitySensitiveHashing.model = model;
+    }
 
     /**
      * Returns a random number distributed with standard normal distribution based on the Box-Muller method.
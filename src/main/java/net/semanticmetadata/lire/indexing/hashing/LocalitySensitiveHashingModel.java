@@ -0,0 +1,294 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Immutable set of hash functions for {@link LocalitySensitiveHashing}. Each of the function bundles is one hash
+ * table h(v) = floor((a*v + b) / w) with its own projection vector a and offset b. The projections are held as one
+ * float matrix in bundle, dimension order, either on the heap or memory mapped from a file written with
+ * {@link #write(File)}, so several indexes can use their own models in one JVM.
+ * <br/>
+ * Layout of a file: magic, version, dimensions, number of function bundles, bin length, the offsets b and then the
+ * projection matrix. By convention the model of an index is stored in the index directory, see {@link #getFile(File)}.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class LocalitySensitiveHashingModel {
+    /**
+     * Name of the model file within an index directory.
+     */
+    public static final String FILE_NAME = "lire-lsh.model";
+    private static final int MAGIC = 0x4C4C5331; // "LLS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 4 * 4 + 8;
+    private static LocalitySensitiveHashingModel defaultModel = null;
+
+    private final int dimensions;
+    private final int numFunctionBundles;
+    private final double binLength;
+    private final FloatBuffer offsets;
+    private final FloatBuffer projections;
+
+    private LocalitySensitiveHashingModel(int dimensions, int numFunctionBundles, double binLength, FloatBuffer offsets, FloatBuffer projections) {
+        if (offsets.capacity() != numFunctionBundles || (long) numFunctionBundles * dimensions != projections.capacity())
+            throw new IllegalArgumentException("Hash functions do not match " + numFunctionBundles + " bundles of " + dimensions + " dimensions.");
+        this.dimensions = dimensions;
+        this.numFunctionBundles = numFunctionBundles;
+        this.binLength = binLength;
+        this.offsets = offsets;
+        this.projections = projections;
+    }
+
+    /**
+     * Reads the hash functions from the gzipped format written by
+     * {@link LocalitySensitiveHashing#generateHashFunctions()}. That format does not contain the bin length, so it has
+     * to be given.
+     *
+     * @param inputStream the stream to read from, it is not closed.
+     * @param binLength   the bin length w of the hash functions.
+     * @return the model, held on the heap.
+     * @throws IOException in case the stream cannot be read.
+     */
+    public static LocalitySensitiveHashingModel read(InputStream inputStream, double binLength) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(inputStream));
+        int dimensions = ois.readInt();
+        int numFunctionBundles = ois.readInt();
+        float[] b = new float[numFunctionBundles];
+        for (int k = 0; k < b.length; k++) {
+            b[k] = ois.readFloat();
+        }
+        float[] a = new float[numFunctionBundles * dimensions];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = ois.readFloat();
+        }
+        return new LocalitySensitiveHashingModel(dimensions, numFunctionBundles, binLength, FloatBuffer.wrap(b), FloatBuffer.wrap(a));
+    }
+
+    /**
+     * Memory maps a model previously written with {@link #write(File)}.
+     *
+     * @param file the model file, see {@link #getFile(File)} for the one of an index.
+     * @return the model, backed by the file.
+     * @throws IOException in case the file cannot be read or is not a LSH model.
+     */
+    public static LocalitySensitiveHashingModel open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.readInt() != MAGIC) throw new IOException("Not a LSH model: " + file.getPath());
+            int version = raf.readInt();
+            if (version != VERSION) throw new IOException("Unsupported LSH model version: " + version);
+            int dimensions = raf.readInt();
+            int numFunctionBundles = raf.readInt();
+            double binLength = raf.readDouble();
+            long size = ((long) numFunctionBundles * dimensions + numFunctionBundles) * 4;
+            if (HEADER_LENGTH + size > raf.length()) throw new IOException("Truncated LSH model: " + file.getPath());
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, size);
+            buffer.limit(numFunctionBundles * 4);
+            FloatBuffer offsets = buffer.slice().asFloatBuffer();
+            buffer.limit(buffer.capacity()).position(numFunctionBundles * 4);
+            FloatBuffer projections = buffer.slice().asFloatBuffer();
+            return new LocalitySensitiveHashingModel(dimensions, numFunctionBundles, binLength, offsets, projections);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the model read from {@link LocalitySensitiveHashing#generateHashFunctions()}'s file in the execution
+     * directory with the current {@link LocalitySensitiveHashing#binLength}. The hash functions are read once and
+     * shared afterwards.
+     *
+     * @return the default model.
+     * @throws IOException in case the hash functions cannot be read.
+     */
+    public static synchronized LocalitySensitiveHashingModel getDefault() throws IOException {
+        if (defaultModel == null) {
+            FileInputStream in = new FileInputStream(LocalitySensitiveHashing.hashFunctionsFileName);
+            try {
+                defaultModel = read(in, LocalitySensitiveHashing.binLength);
+            } finally {
+                in.close();
+            }
+        } else if (defaultModel.binLength != LocalitySensitiveHashing.binLength) {
+            defaultModel = defaultModel.withBinLength(LocalitySensitiveHashing.binLength);
+        }
+        return defaultModel;
+    }
+
+    /**
+     * @param indexDirectory the directory of a file system based index.
+     * @return the file the model of the index is stored in.
+     */
+    public static File getFile(File indexDirectory) {
+        return new File(indexDirectory, FILE_NAME);
+    }
+
+    /**
+     * Writes the model to a file, so it can be memory mapped with {@link #open(File)} later on.
+     *
+     * @param file the file to write to, it is overwritten if it exists.
+     * @throws IOException in case the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimensions);
+            out.writeInt(numFunctionBundles);
+            out.writeDouble(binLength);
+            out.flush();
+            ByteBuffer buffer = ByteBuffer.allocate((offsets.capacity() + projections.capacity()) * 4);
+            FloatBuffer floats = buffer.asFloatBuffer();
+            floats.put(offsets.duplicate());
+            floats.put(projections.duplicate());
+            FileChannel channel = fos.getChannel();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Generates the hashes for the given histogram with the bin length of the model.
+     *
+     * @param histogram the feature vector, it must not be longer than {@link #getDimensions()}.
+     * @return one hash per function bundle.
+     */
+    public int[] generateHashes(double[] histogram) {
+        return generateHashes(histogram, binLength);
+    }
+
+    /**
+     * Generates the hashes for the given histogram with a different bin length, e.g. for tuning it.
+     *
+     * @param histogram the feature vector, it must not be longer than {@link #getDimensions()}.
+     * @param binLength the bin length w.
+     * @return one hash per function bundle.
+     */
+    public int[] generateHashes(double[] histogram, double binLength) {
+        double[] positions = project(histogram, binLength);
+        int[] result = new int[numFunctionBundles];
+        for (int k = 0; k < numFunctionBundles; k++) {
+            result[k] = (int) Math.floor(positions[k]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of a feature vector on the line of each hash function in units of the bin length, i.e.
+     * (a * v + b) / w. The hash is the integer part, the fractional part tells how close the vector is to the
+     * neighbouring buckets, see {@link MultiProbe}.
+     *
+     * @param histogram the feature vector, it must not be longer than {@link #getDimensions()}.
+     * @return one position per function bundle.
+     */
+    public double[] project(double[] histogram) {
+        return project(histogram, binLength);
+    }
+
+    private double[] project(double[] histogram, double binLength) {
+        if (histogram.length > dimensions)
+            throw new IllegalArgumentException("Feature vector too long for the hash functions: " + histogram.length + " > " + dimensions);
+        double[] result = new double[numFunctionBundles];
+        for (int k = 0; k < numFunctionBundles; k++) {
+            double product = 0;
+            int offset = k * dimensions;
+            for (int i = 0; i < histogram.length; i++) {
+                product += histogram[i] * projections.get(offset + i);
+            }
+            result[k] = (product + offsets.get(k)) / binLength;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a model sharing the hash functions of this one, but with a different bin length.
+     *
+     * @param binLength the bin length w.
+     * @return the new model.
+     */
+    public LocalitySensitiveHashingModel withBinLength(double binLength) {
+        return new LocalitySensitiveHashingModel(dimensions, numFunctionBundles, binLength, offsets, projections);
+    }
+
+    /**
+     * Copies the projection vectors a to the nested array layout used by
+     * {@link LocalitySensitiveHashing#readHashFunctions()}.
+     *
+     * @return a new array [function bundle][dimension].
+     */
+    public double[][] toArray() {
+        double[][] hashFunctions = new double[numFunctionBundles][dimensions];
+        for (int k = 0; k < numFunctionBundles; k++) {
+            for (int i = 0; i < dimensions; i++) {
+                hashFunctions[k][i] = projections.get(k * dimensions + i);
+            }
+        }
+        return hashFunctions;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getNumFunctionBundles() {
+        return numFunctionBundles;
+    }
+
+    public double getBinLength() {
+        return binLength;
+    }
+}
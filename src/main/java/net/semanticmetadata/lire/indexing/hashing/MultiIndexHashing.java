@@ -0,0 +1,316 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * In-memory multi-index hashing for binary hash signatures stored in BinaryDocValues, see
+ * {@link net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder.HashStorage#DocValues}. The signatures
+ * are split into m substrings and each substring is indexed in its own hash table. If two signatures differ in less
+ * than m * (r + 1) bits, at least one of their substrings differs in r bits at most, so probing all buckets within
+ * Hamming radius r of the query substrings finds them. The radius is increased until enough candidates are
+ * guaranteed to be found, their distance is verified with popcount on the packed signatures.
+ * <br/>
+ * See Norouzi, Punjani, Fleet: Fast Search in Hamming Space with Multi-Index Hashing, CVPR 2012.
+ * <br/>
+ * Note that the docIDs are the ones of the IndexReader used for creating the index, so it has to be rebuilt
+ * whenever the reader is reopened. The index is immutable and can be shared among threads.
+ * <br/>
+ * The index is held on the heap, it takes 8 bytes per 64 signature bits and 4 * m bytes for the substring tables
+ * per document, plus 4 * m * 2^substringLength bytes for the bucket offsets. With m substrings the number of
+ * documents with a signature is limited to Integer.MAX_VALUE / m.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class MultiIndexHashing {
+    private static final int MAX_SUBSTRING_LENGTH = 20;
+
+    private final int maxDoc;
+    private final int signatureLength;
+    private final int words;
+    private final int substringLength;
+    private final int numSubstrings;
+    private final int numBuckets;
+    private final long[] signatures;  // words per document, all zero for documents without signature.
+    private final int numIndexed;
+    private final int[] offsets;      // per substring the start of each bucket in docs.
+    private final int[] docs;         // per substring numIndexed docIDs ordered by bucket.
+
+    private MultiIndexHashing(int maxDoc, int signatureLength, int substringLength, long[] signatures, Bits indexed, int numIndexed) {
+        this.maxDoc = maxDoc;
+        this.signatureLength = signatureLength;
+        this.words = (signatureLength + 63) >>> 6;
+        this.substringLength = substringLength;
+        this.numSubstrings = (signatureLength + substringLength - 1) / substringLength;
+        this.numBuckets = 1 << substringLength;
+        this.signatures = signatures;
+        this.numIndexed = numIndexed;
+        if ((long) numSubstrings * (numBuckets + 1) > Integer.MAX_VALUE || (long) numSubstrings * numIndexed > Integer.MAX_VALUE)
+            throw new UnsupportedOperationException("Too many documents for multi-index hashing with " + numSubstrings + " substrings: " + numIndexed);
+        offsets = new int[numSubstrings * (numBuckets + 1)];
+        docs = new int[numSubstrings * numIndexed];
+        // counting sort of the documents by the value of each substring.
+        for (int t = 0; t < numSubstrings; t++) {
+            int base = t * (numBuckets + 1);
+            for (int d = 0; d < maxDoc; d++) {
+                if (indexed.get(d)) offsets[base + substring(signatures, d * words, t) + 1]++;
+            }
+            offsets[base] = t * numIndexed;
+            for (int b = 1; b <= numBuckets; b++) offsets[base + b] += offsets[base + b - 1];
+            int[] position = Arrays.copyOfRange(offsets, base, base + numBuckets);
+            for (int d = 0; d < maxDoc; d++) {
+                if (indexed.get(d)) docs[position[substring(signatures, d * words, t)]++] = d;
+            }
+        }
+    }
+
+    /**
+     * Reads the binary signatures of all live documents and indexes them.
+     *
+     * @param reader          the IndexReader the docIDs refer to.
+     * @param fieldName       the BinaryDocValues field holding the signatures.
+     * @param signatureLength the number of bits of a signature, see {@link BitSamplingModel#getSignatureLength()}.
+     * @param substringLength the number of bits per substring, in [1, 20]. Each substring takes 2^substringLength
+     *                        buckets, the longer the substrings the less candidates are probed.
+     * @return the new index.
+     * @throws IOException in case the index cannot be read.
+     */
+    public static MultiIndexHashing create(IndexReader reader, String fieldName, int signatureLength, int substringLength) throws IOException {
+        if (substringLength < 1 || substringLength > Math.min(MAX_SUBSTRING_LENGTH, signatureLength))
+            throw new IllegalArgumentException("Substring length has to be in [1, " + Math.min(MAX_SUBSTRING_LENGTH, signatureLength) + "]: " + substringLength);
+        int maxDoc = reader.maxDoc();
+        int words = (signatureLength + 63) >>> 6;
+        if ((long) maxDoc * words > Integer.MAX_VALUE)
+            throw new UnsupportedOperationException("Too many documents for multi-index hashing: " + maxDoc);
+        long[] signatures = new long[maxDoc * words];
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        BinaryDocValues values = MultiDocValues.getBinaryValues(reader, fieldName);
+        FixedBitSet indexed = new FixedBitSet(maxDoc);
+        int numIndexed = 0;
+        if (values != null) {
+            BytesRef value = new BytesRef();
+            for (int d = 0; d < maxDoc; d++) {
+                if (liveDocs != null && !liveDocs.get(d)) continue; // if it is deleted, just ignore it.
+                values.get(d, value);
+                if (value.length < words * 8) continue; // no signature for this document.
+                for (int w = 0; w < words; w++) {
+                    signatures[d * words + w] = SerializationUtils.toLong(value.bytes, value.offset + w * 8);
+                }
+                indexed.set(d);
+                numIndexed++;
+            }
+        }
+        return new MultiIndexHashing(maxDoc, signatureLength, substringLength, signatures, indexed, numIndexed);
+    }
+
+    /**
+     * Indexes the signatures created with the given hash functions, one substring per hash if it has 20 bits at most.
+     *
+     * @param reader    the IndexReader the docIDs refer to.
+     * @param fieldName the BinaryDocValues field holding the signatures.
+     * @param model     the hash functions the signatures have been created with.
+     * @return the new index.
+     * @throws IOException in case the index cannot be read.
+     */
+    public static MultiIndexHashing create(IndexReader reader, String fieldName, BitSamplingModel model) throws IOException {
+        return create(reader, fieldName, model.getSignatureLength(), Math.min(model.getBits(), MAX_SUBSTRING_LENGTH));
+    }
+
+    /**
+     * Finds the k documents with the smallest Hamming distance to the query signature. Ties at the k-th distance are
+     * broken arbitrarily.
+     *
+     * @param query     the signature of the query.
+     * @param k         the number of documents to find.
+     * @param maxRadius the maximum Hamming radius probed per substring, limits the effort for queries without close
+     *                  neighbours. With a radius of at least the substring length the result is exact.
+     * @return the docIDs ordered by increasing Hamming distance, less than k if the radius has been exhausted.
+     */
+    public int[] search(long[] query, int k, int maxRadius) {
+        Candidates candidates = new Candidates();
+        for (int r = 0; r <= Math.min(maxRadius, substringLength); r++) {
+            probe(query, r, candidates);
+            // all documents closer than numSubstrings * (r + 1) have been found now.
+            if (candidates.countBelow(numSubstrings * (r + 1)) >= k) break;
+        }
+        return candidates.nearest(k);
+    }
+
+    /**
+     * Finds all documents within the given Hamming distance of the query signature.
+     *
+     * @param query  the signature of the query.
+     * @param radius the maximum Hamming distance.
+     * @return the docIDs ordered by increasing Hamming distance.
+     */
+    public int[] searchRadius(long[] query, int radius) {
+        Candidates candidates = new Candidates();
+        for (int r = 0; r <= Math.min(radius / numSubstrings, substringLength); r++) {
+            probe(query, r, candidates);
+        }
+        return candidates.nearest(candidates.countBelow(radius + 1));
+    }
+
+    /**
+     * Computes the Hamming distance between a query signature and the one of a document.
+     *
+     * @param query the signature of the query.
+     * @param docId the document.
+     * @return the number of differing bits.
+     */
+    public int distance(long[] query, int docId) {
+        int distance = 0;
+        for (int w = 0, base = docId * words; w < words; w++) {
+            distance += Long.bitCount(query[w] ^ signatures[base + w]);
+        }
+        return distance;
+    }
+
+    /**
+     * Visits all buckets differing in exactly r bits from the query substrings.
+     */
+    private void probe(long[] query, int r, Candidates candidates) {
+        for (int t = 0; t < numSubstrings; t++) {
+            int length = Math.min(substringLength, signatureLength - t * substringLength);
+            if (r > length) continue;
+            int value = substring(query, 0, t);
+            int base = t * (numBuckets + 1);
+            long mask = (1L << r) - 1;
+            while (mask < (1L << length)) {
+                int bucket = value ^ (int) mask;
+                for (int i = offsets[base + bucket]; i < offsets[base + bucket + 1]; i++) {
+                    int d = docs[i];
+                    if (candidates.visit(d)) candidates.add(d, distance(query, d));
+                }
+                if (mask == 0) break;
+                // next bigger number with the same number of bits set.
+                long lowest = mask & -mask;
+                long ripple = mask + lowest;
+                mask = (((ripple ^ mask) >>> 2) / lowest) | ripple;
+            }
+        }
+    }
+
+    private int substring(long[] signature, int base, int t) {
+        int start = t * substringLength;
+        int length = Math.min(substringLength, signatureLength - start);
+        int word = start >>> 6, bit = start & 63;
+        long value = signature[base + word] >>> bit;
+        if (bit + length > 64) value |= signature[base + word + 1] << (64 - bit);
+        return (int) (value & ((1L << length) - 1));
+    }
+
+    /**
+     * @return the number of documents with a signature.
+     */
+    public int getNumIndexed() {
+        return numIndexed;
+    }
+
+    public int getMaxDoc() {
+        return maxDoc;
+    }
+
+    public int getSignatureLength() {
+        return signatureLength;
+    }
+
+    public int getNumSubstrings() {
+        return numSubstrings;
+    }
+
+    /**
+     * Per query state: the documents visited so far and their distances.
+     */
+    private class Candidates {
+        private final FixedBitSet visited = new FixedBitSet(maxDoc);
+        private final int[] counts = new int[signatureLength + 1];
+        private int[] docIds = new int[64];
+        private int[] distances = new int[64];
+        private int size = 0;
+
+        boolean visit(int docId) {
+            return !visited.getAndSet(docId);
+        }
+
+        void add(int docId, int distance) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            docIds[size] = docId;
+            distances[size++] = distance;
+            counts[distance]++;
+        }
+
+        int countBelow(int distance) {
+            int count = 0;
+            for (int d = 0; d < Math.min(distance, counts.length); d++) count += counts[d];
+            return count;
+        }
+
+        /**
+         * Returns the k nearest candidates, ordered by distance with a counting sort.
+         */
+        int[] nearest(int k) {
+            k = Math.min(k, size);
+            int[] start = new int[counts.length + 1];
+            for (int d = 0; d < counts.length; d++) start[d + 1] = start[d] + counts[d];
+            int[] result = new int[k];
+            for (int i = 0; i < size; i++) {
+                int position = start[distances[i]]++;
+                if (position < k) result[position] = docIds[i];
+            }
+            return result;
+        }
+    }
+}
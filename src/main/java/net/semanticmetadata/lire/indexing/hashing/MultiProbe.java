@@ -0,0 +1,214 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Multi-probe querying for hash based search, see Lv et al., "Multi-Probe LSH: Efficient Indexing for
+ * High-Dimensional Similarity Search", VLDB 2007. Besides the bucket of the query each hash function may be
+ * probed in nearby buckets, i.e. the ones the query would have fallen into with a small change. The probes are
+ * generated in the order of their estimated success probability: a perturbation is scored by the sum of the
+ * squared distances of the query to the bucket boundaries it crosses, the lower the score, the more likely a near
+ * neighbour is found in the perturbed bucket.
+ * <br/>
+ * For {@link BitSamplingModel} the distance of a bit is the absolute value of the dot product with its hyperplane,
+ * a probe flips one or more bits of one hash. For {@link LocalitySensitiveHashingModel} the distance is measured in
+ * bin lengths from the position of the query to the border of the neighbouring bins, a probe shifts the bucket of
+ * one hash function by one or more bins. The probe sequence depends on the query only, so it is deterministic.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class MultiProbe {
+    private MultiProbe() {
+    }
+
+    /**
+     * Creates the probe sequence for BitSampling hashes.
+     *
+     * @param projections the dot products of the query with the hyperplanes, see {@link BitSamplingModel#project(double[])}.
+     * @param bits        the number of bits per hash.
+     * @param bundles     the function bundles to be probed, e.g. all of them.
+     * @param numProbes   the probe budget, i.e. the maximum number of probes returned.
+     * @return the probes, best first, as triples of function bundle, perturbed hash and number of flipped bits.
+     */
+    public static int[][] bitSampling(double[] projections, int bits, int[] bundles, int numProbes) {
+        // for each bundle the bits are ranked by their squared margin, perturbation sets are masks over the ranks.
+        int numBundles = projections.length / bits;
+        int[] hashes = new int[numBundles];
+        int[][] rankedBits = new int[numBundles][];
+        double[][] rankedScores = new double[numBundles][];
+        PriorityQueue<Probe> queue = new PriorityQueue<Probe>();
+        for (int bundle : bundles) {
+            Integer[] order = new Integer[bits];
+            final double[] scores = new double[bits];
+            for (int j = 0; j < bits; j++) {
+                double p = projections[bundle * bits + j];
+                if (!(p < 0)) hashes[bundle] |= 1 << j;
+                scores[j] = p * p;
+                order[j] = j;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(scores[a], scores[b]);
+                }
+            });
+            rankedBits[bundle] = new int[bits];
+            rankedScores[bundle] = new double[bits];
+            for (int r = 0; r < bits; r++) {
+                rankedBits[bundle][r] = order[r];
+                rankedScores[bundle][r] = scores[order[r]];
+            }
+            queue.add(new Probe(rankedScores[bundle][0], bundle, 1, 0));
+        }
+        int[][] result = new int[(int) Math.min(numProbes, bundles.length * ((1L << bits) - 1))][];
+        int count = 0;
+        while (count < result.length && !queue.isEmpty()) {
+            Probe probe = queue.poll();
+            int hash = hashes[probe.function];
+            for (int r = 0; r <= probe.last; r++) {
+                if ((probe.set & (1 << r)) != 0) hash ^= 1 << rankedBits[probe.function][r];
+            }
+            result[count++] = new int[]{probe.function, hash, Integer.bitCount(probe.set)};
+            // shift: replace the last bit of the set by the next one, expand: add the next one.
+            int next = probe.last + 1;
+            if (next < bits) {
+                double[] s = rankedScores[probe.function];
+                queue.add(new Probe(probe.score - s[probe.last] + s[next], probe.function, probe.set ^ (1 << probe.last) | (1 << next), next));
+                queue.add(new Probe(probe.score + s[next], probe.function, probe.set | (1 << next), next));
+            }
+        }
+        return count < result.length ? Arrays.copyOf(result, count) : result;
+    }
+
+    /**
+     * Creates the probe sequence for LSH hashes.
+     *
+     * @param positions the positions of the query in bin lengths, see {@link LocalitySensitiveHashingModel#project(double[])}.
+     * @param functions the hash functions to be probed, e.g. all of them.
+     * @param numProbes the probe budget, i.e. the number of probes returned.
+     * @return the probes, best first, as triples of hash function, perturbed hash and number of bins shifted.
+     */
+    public static int[][] lsh(double[] positions, int[] functions, int numProbes) {
+        PriorityQueue<Probe> queue = new PriorityQueue<Probe>();
+        for (int function : functions) {
+            queue.add(new Probe(score(positions[function], -1), function, -1, 0));
+            queue.add(new Probe(score(positions[function], 1), function, 1, 0));
+        }
+        int[][] result = new int[functions.length > 0 ? numProbes : 0][];
+        for (int count = 0; count < result.length; count++) {
+            Probe probe = queue.poll();
+            result[count] = new int[]{probe.function, (int) Math.floor(positions[probe.function]) + probe.set, Math.abs(probe.set)};
+            // the next bin in the same direction.
+            int shift = probe.set < 0 ? probe.set - 1 : probe.set + 1;
+            queue.add(new Probe(score(positions[probe.function], shift), probe.function, shift, 0));
+        }
+        return result;
+    }
+
+    /**
+     * Selects the function bundles whose hashes are least likely to change for a near neighbour, i.e. the ones with
+     * the largest smallest margin of their bits.
+     *
+     * @param projections the dot products of the query with the hyperplanes, see {@link BitSamplingModel#project(double[])}.
+     * @param bits        the number of bits per hash.
+     * @param count       the number of bundles to select.
+     * @return the selected bundles in ascending order.
+     */
+    public static int[] stableBundles(double[] projections, int bits, int count) {
+        int numBundles = projections.length / bits;
+        Integer[] bundles = new Integer[numBundles];
+        final double[] margins = new double[numBundles];
+        for (int i = 0; i < numBundles; i++) {
+            double margin = Double.MAX_VALUE;
+            for (int j = 0; j < bits; j++) margin = Math.min(margin, Math.abs(projections[i * bits + j]));
+            margins[i] = margin;
+            bundles[i] = i;
+        }
+        // largest margin first, the sort is stable, so ties keep the order of the bundles.
+        Arrays.sort(bundles, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(margins[b], margins[a]);
+            }
+        });
+        int[] result = new int[Math.min(count, numBundles)];
+        for (int i = 0; i < result.length; i++) result[i] = bundles[i];
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Score of shifting the bucket by the given number of bins: the squared distance to the nearest border of the
+     * target bin.
+     */
+    private static double score(double position, int shift) {
+        double fraction = position - Math.floor(position);
+        double distance = shift < 0 ? fraction - shift - 1 : shift - fraction;
+        return distance * distance;
+    }
+
+    /**
+     * A perturbation of one hash: a set of ranked bits to flip for BitSampling, a shift for LSH. Ties in score are
+     * broken by function and set, so the probe sequence is fully determined by the query.
+     */
+    private static class Probe implements Comparable<Probe> {
+        final double score;
+        final int function;
+        final int set;
+        final int last;
+
+        Probe(double score, int function, int set, int last) {
+            this.score = score;
+            this.function = function;
+            this.set = set;
+            this.last = last;
+        }
+
+        public int compareTo(Probe o) {
+            int c = Double.compare(score, o.score);
+            if (c == 0) c = function < o.function ? -1 : (function == o.function ? 0 : 1);
+            if (c == 0) c = set < o.set ? -1 : (set == o.set ? 0 : 1);
+            return c;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+
+/**
+ * In-memory index of the product quantization codes of all documents, see {@link ProductQuantizer}. The codes are
+ * held in one byte array, so a linear scan reads {@link ProductQuantizer#getNumSubspaces()} bytes per document
+ * instead of the whole feature. The codes are either read from BinaryDocValues written at indexing time, see
+ * {@link net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder#setProductQuantizer(ProductQuantizer)},
+ * or computed from the features of an existing index.
+ * <br/>
+ * Note that the docIDs are the ones of the IndexReader used for creating the index, so it has to be rebuilt
+ * whenever the reader is reopened. The index is immutable and can be shared among threads.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ProductQuantizationIndex {
+    private final ProductQuantizer quantizer;
+    private final int maxDoc;
+    private final int codeLength;
+    private final byte[] codes;       // codeLength bytes per document.
+    private final FixedBitSet indexed;
+    private final int numIndexed;
+
+    private ProductQuantizationIndex(ProductQuantizer quantizer, int maxDoc, byte[] codes, FixedBitSet indexed, int numIndexed) {
+        this.quantizer = quantizer;
+        this.maxDoc = maxDoc;
+        this.codeLength = quantizer.getNumSubspaces();
+        this.codes = codes;
+        this.indexed = indexed;
+        this.numIndexed = numIndexed;
+    }
+
+    /**
+     * Reads the codes of all live documents from BinaryDocValues.
+     *
+     * @param reader         the IndexReader the docIDs refer to.
+     * @param codesFieldName the BinaryDocValues field holding the codes.
+     * @param quantizer      the quantizer the codes have been created with.
+     * @return the new index.
+     * @throws IOException in case the index cannot be read.
+     */
+    public static ProductQuantizationIndex create(IndexReader reader, String codesFieldName, ProductQuantizer quantizer) throws IOException {
+        int maxDoc = reader.maxDoc();
+        int codeLength = quantizer.getNumSubspaces();
+        byte[] codes = allocate(maxDoc, codeLength);
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        BinaryDocValues values = MultiDocValues.getBinaryValues(reader, codesFieldName);
+        FixedBitSet indexed = new FixedBitSet(maxDoc);
+        int numIndexed = 0;
+        if (values != null) {
+            BytesRef value = new BytesRef();
+            for (int d = 0; d < maxDoc; d++) {
+                if (liveDocs != null && !liveDocs.get(d)) continue; // if it is deleted, just ignore it.
+                values.get(d, value);
+                if (value.length != codeLength) continue; // no code for this document.
+                System.arraycopy(value.bytes, value.offset, codes, d * codeLength, codeLength);
+                indexed.set(d);
+                numIndexed++;
+            }
+        }
+        return new ProductQuantizationIndex(quantizer, maxDoc, codes, indexed, numIndexed);
+    }
+
+    /**
+     * Encodes the features of all live documents, e.g. for an index without codes.
+     *
+     * @param reader           the IndexReader the docIDs refer to.
+     * @param featureClass     the feature of the field.
+     * @param featureFieldName the stored field holding the feature.
+     * @param quantizer        the quantizer to encode with.
+     * @return the new index.
+     * @throws IOException in case the index cannot be read.
+     */
+    public static ProductQuantizationIndex encode(IndexReader reader, Class<? extends LireFeature> featureClass, String featureFieldName,
+                                                  ProductQuantizer quantizer) throws IOException {
+        int maxDoc = reader.maxDoc();
+        int codeLength = quantizer.getNumSubspaces();
+        byte[] codes = allocate(maxDoc, codeLength);
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        FixedBitSet indexed = new FixedBitSet(maxDoc);
+        int numIndexed = 0;
+        LireFeature feature = newFeature(featureClass);
+        for (int d = 0; d < maxDoc; d++) {
+            if (liveDocs != null && !liveDocs.get(d)) continue; // if it is deleted, just ignore it.
+            DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(featureFieldName);
+            reader.document(d, visitor);
+            BytesRef value = visitor.getDocument().getBinaryValue(featureFieldName);
+            if (value == null) continue;
+            feature.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+            System.arraycopy(quantizer.encode(feature.getDoubleHistogram()), 0, codes, d * codeLength, codeLength);
+            indexed.set(d);
+            numIndexed++;
+        }
+        return new ProductQuantizationIndex(quantizer, maxDoc, codes, indexed, numIndexed);
+    }
+
+    private static byte[] allocate(int maxDoc, int codeLength) {
+        if ((long) maxDoc * codeLength > Integer.MAX_VALUE)
+            throw new UnsupportedOperationException("Too many documents for a product quantization index: " + maxDoc);
+        return new byte[maxDoc * codeLength];
+    }
+
+    static LireFeature newFeature(Class<? extends LireFeature> featureClass) {
+        try {
+            return featureClass.newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot instantiate " + featureClass.getName(), e);
+        }
+    }
+
+    /**
+     * Finds the k documents with the smallest approximate distance to the query.
+     *
+     * @param table the distance table of the query, see {@link ProductQuantizer#getDistanceTable(double[])}.
+     * @param k     the number of documents to find.
+     * @return the docIDs ordered by increasing approximate distance.
+     */
+    public int[] search(float[] table, int k) {
+        TopKCollector collector = search(table, k, 0, maxDoc);
+        collector.sort();
+        int[] result = new int[collector.size()];
+        for (int i = 0; i < result.length; i++) result[i] = collector.doc(i);
+        return result;
+    }
+
+    /**
+     * Scans the documents [fromDoc, toDoc), e.g. one part of the index per thread. The sum of the table entries of
+     * a document is abandoned as soon as it exceeds the distance of the current k-th nearest document.
+     *
+     * @param table   the distance table of the query, see {@link ProductQuantizer#getDistanceTable(double[])}.
+     * @param k       the number of documents to find.
+     * @param fromDoc the first docID to scan.
+     * @param toDoc   the docID after the last one to scan.
+     * @return the k nearest documents of the range.
+     */
+    public TopKCollector search(float[] table, int k, int fromDoc, int toDoc) {
+        if (table.length != codeLength * quantizer.getNumCentroids())
+            throw new IllegalArgumentException("Distance table does not match the quantizer.");
+        int numCentroids = quantizer.getNumCentroids();
+        TopKCollector collector = new TopKCollector(k);
+        float worst = Float.MAX_VALUE;
+        for (int d = fromDoc; d < toDoc; d++) {
+            if (!indexed.get(d)) continue;
+            float distance = 0f;
+            for (int s = 0, t = 0, o = d * codeLength; s < codeLength && distance <= worst; s++, t += numCentroids, o++) {
+                distance += table[t + (codes[o] & 0xff)];
+            }
+            if (distance > worst) continue;
+            if (collector.offer(d, distance) && collector.isFull()) worst = collector.getWorstDistance();
+        }
+        return collector;
+    }
+
+    /**
+     * @param docId the document.
+     * @return a copy of the code of the document, null if it has none.
+     */
+    public byte[] getCode(int docId) {
+        if (!indexed.get(docId)) return null;
+        byte[] code = new byte[codeLength];
+        System.arraycopy(codes, docId * codeLength, code, 0, codeLength);
+        return code;
+    }
+
+    /**
+     * @return the approximate number of bytes held in memory by the codes.
+     */
+    public long ramBytesUsed() {
+        return codes.length + (long) indexed.getBits().length * 8;
+    }
+
+    public ProductQuantizer getQuantizer() {
+        return quantizer;
+    }
+
+    /**
+     * @return the number of documents with a code.
+     */
+    public int getNumIndexed() {
+        return numIndexed;
+    }
+
+    public int getMaxDoc() {
+        return maxDoc;
+    }
+}
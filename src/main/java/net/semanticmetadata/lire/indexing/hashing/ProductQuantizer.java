@@ -0,0 +1,371 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing.hashing;
+
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.PivotSelection;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Immutable product quantizer for the feature vectors of {@link LireFeature#getDoubleHistogram()}. A vector is split
+ * into numSubspaces consecutive sub-vectors and each of them is replaced by the number of its nearest centroid in
+ * the subspace, so it is encoded in one byte per subspace instead of 8 bytes per dimension. The centroids are
+ * trained with k-means on a sample of the vectors of an index.
+ * <br/>
+ * The squared Euclidean distance of a query to an encoded vector is approximated with the distances of the query
+ * sub-vectors to the centroids, which are computed once per query, see {@link #getDistanceTable(double[])} and
+ * {@link ProductQuantizationIndex}. The approximation just needs to find good candidates, they are re-ranked with
+ * the distance function of the feature.
+ * <br/>
+ * See Jegou, Douze, Schmid: Product Quantization for Nearest Neighbor Search, IEEE TPAMI 2011.
+ * <br/>
+ * Layout of a file: magic, version, dimensions, number of subspaces, number of centroids and then the centroids as
+ * floats, subspace by subspace. By convention the quantizer of an index is stored in the index directory, see
+ * {@link #getFile(File)}.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ProductQuantizer {
+    /**
+     * Name of the quantizer file within an index directory.
+     */
+    public static final String FILE_NAME = "lire-pq.model";
+    /**
+     * Maximum number of centroids per subspace, so a code fits in one byte.
+     */
+    public static final int MAX_CENTROIDS = 256;
+    private static final int MAGIC = 0x4C505131; // "LPQ1"
+    private static final int VERSION = 1;
+
+    private final int dimensions;
+    private final int numSubspaces;
+    private final int numCentroids;
+    private final int[] offsets;     // first dimension of each subspace, dimensions at the end.
+    private final float[] centroids; // subspace s starts at numCentroids * offsets[s].
+
+    private ProductQuantizer(int dimensions, int numSubspaces, int numCentroids, float[] centroids) {
+        if (numSubspaces < 1 || numSubspaces > dimensions)
+            throw new IllegalArgumentException("Number of subspaces has to be in [1, " + dimensions + "]: " + numSubspaces);
+        if (numCentroids < 1 || numCentroids > MAX_CENTROIDS)
+            throw new IllegalArgumentException("Number of centroids has to be in [1, " + MAX_CENTROIDS + "]: " + numCentroids);
+        if (centroids.length != numCentroids * dimensions)
+            throw new IllegalArgumentException("Centroids do not match " + numCentroids + " centroids of " + dimensions + " dimensions.");
+        this.dimensions = dimensions;
+        this.numSubspaces = numSubspaces;
+        this.numCentroids = numCentroids;
+        this.centroids = centroids;
+        offsets = new int[numSubspaces + 1];
+        for (int s = 0; s <= numSubspaces; s++) {
+            offsets[s] = (int) ((long) s * dimensions / numSubspaces);
+        }
+    }
+
+    /**
+     * Trains a quantizer with k-means in each subspace, seeded with k-means++.
+     *
+     * @param sample       the training vectors, shorter ones are padded with zeros.
+     * @param numSubspaces the number of subspaces, i.e. bytes per code.
+     * @param numCentroids the number of centroids per subspace, at most {@value #MAX_CENTROIDS}.
+     * @param iterations   the number of k-means iterations per subspace.
+     * @param random       the source of randomness.
+     * @return the new quantizer.
+     */
+    public static ProductQuantizer train(double[][] sample, int numSubspaces, int numCentroids, int iterations, Random random) {
+        if (sample.length < numCentroids)
+            throw new IllegalArgumentException("Cannot train " + numCentroids + " centroids with " + sample.length + " vectors.");
+        int dimensions = 0;
+        for (double[] vector : sample) dimensions = Math.max(dimensions, vector.length);
+        ProductQuantizer quantizer = new ProductQuantizer(dimensions, numSubspaces, numCentroids, new float[numCentroids * dimensions]);
+        for (int s = 0; s < numSubspaces; s++) {
+            quantizer.trainSubspace(sample, s, iterations, random);
+        }
+        return quantizer;
+    }
+
+    /**
+     * Trains a quantizer on a uniform sample of the features of the live documents of an index.
+     *
+     * @param reader           the index.
+     * @param featureClass     the feature of the field.
+     * @param featureFieldName the field holding the feature.
+     * @param sampleSize       the maximum number of training vectors.
+     * @param numSubspaces     the number of subspaces, i.e. bytes per code.
+     * @param numCentroids     the number of centroids per subspace, at most {@value #MAX_CENTROIDS}.
+     * @param seed             the seed for sampling and k-means.
+     * @return the new quantizer.
+     * @throws IOException in case the index cannot be read.
+     */
+    public static ProductQuantizer train(IndexReader reader, Class<? extends LireFeature> featureClass, String featureFieldName,
+                                         int sampleSize, int numSubspaces, int numCentroids, long seed) throws IOException {
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int[] liveDocIds = new int[reader.numDocs()];
+        for (int i = 0, j = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs == null || liveDocs.get(i)) liveDocIds[j++] = i;
+        }
+        PivotSelection selection = new PivotSelection(PivotSelection.Strategy.Random, seed);
+        ArrayList<double[]> sample = new ArrayList<double[]>();
+        LireFeature feature = ProductQuantizationIndex.newFeature(featureClass);
+        for (int i : selection.sample(liveDocIds.length, Math.min(sampleSize, liveDocIds.length))) {
+            BytesRef value = reader.document(liveDocIds[i]).getBinaryValue(featureFieldName);
+            if (value == null) continue;
+            feature.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+            sample.add(feature.getDoubleHistogram().clone());
+        }
+        return train(sample.toArray(new double[sample.size()][]), numSubspaces, numCentroids, 25, new Random(seed));
+    }
+
+    private void trainSubspace(final double[][] sample, int s, int iterations, Random random) {
+        final int start = offsets[s];
+        final int length = offsets[s + 1] - start;
+        int base = numCentroids * start;
+        // k-means++ seeding on the sub-vectors.
+        int[] seeds = new PivotSelection(PivotSelection.Strategy.KMeansPlusPlus, random.nextLong()).select(sample.length, new PivotSelection.Metric() {
+            public double getDistance(int a, int b) {
+                double sum = 0d;
+                for (int i = start; i < start + length; i++) {
+                    double d = get(sample[a], i) - get(sample[b], i);
+                    sum += d * d;
+                }
+                return Math.sqrt(sum);
+            }
+        }, numCentroids);
+        for (int c = 0; c < numCentroids; c++) {
+            for (int i = 0; i < length; i++) {
+                centroids[base + c * length + i] = (float) get(sample[seeds[c]], start + i);
+            }
+        }
+        // Lloyd iterations, a centroid without vectors stays where it is.
+        double[] sums = new double[numCentroids * length];
+        int[] counts = new int[numCentroids];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            Arrays.fill(sums, 0d);
+            Arrays.fill(counts, 0);
+            boolean changed = false;
+            for (double[] vector : sample) {
+                int c = nearest(vector, s);
+                counts[c]++;
+                for (int i = 0; i < length; i++) sums[c * length + i] += get(vector, start + i);
+            }
+            for (int c = 0; c < numCentroids; c++) {
+                if (counts[c] == 0) continue;
+                for (int i = 0; i < length; i++) {
+                    float mean = (float) (sums[c * length + i] / counts[c]);
+                    if (mean != centroids[base + c * length + i]) changed = true;
+                    centroids[base + c * length + i] = mean;
+                }
+            }
+            if (!changed) break;
+        }
+    }
+
+    private static double get(double[] vector, int i) {
+        return i < vector.length ? vector[i] : 0d;
+    }
+
+    /**
+     * Finds the centroid nearest to a sub-vector.
+     */
+    private int nearest(double[] vector, int s) {
+        int start = offsets[s], length = offsets[s + 1] - start;
+        int base = numCentroids * start;
+        int best = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int c = 0; c < numCentroids; c++) {
+            double distance = 0d;
+            for (int i = 0, o = base + c * length; i < length && distance < bestDistance; i++, o++) {
+                double d = get(vector, start + i) - centroids[o];
+                distance += d * d;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Encodes a feature vector.
+     *
+     * @param vector the feature vector, it must not be longer than {@link #getDimensions()}.
+     * @return the code, one byte per subspace holding the number of the nearest centroid.
+     */
+    public byte[] encode(double[] vector) {
+        checkLength(vector);
+        byte[] code = new byte[numSubspaces];
+        for (int s = 0; s < numSubspaces; s++) {
+            code[s] = (byte) nearest(vector, s);
+        }
+        return code;
+    }
+
+    /**
+     * Computes the squared distances of the query sub-vectors to all centroids, the table for the asymmetric
+     * distance computation of {@link #getDistance(float[], byte[], int)}.
+     *
+     * @param query the feature vector of the query, it must not be longer than {@link #getDimensions()}.
+     * @return the distance of the query to centroid c of subspace s at s * {@link #getNumCentroids()} + c.
+     */
+    public float[] getDistanceTable(double[] query) {
+        checkLength(query);
+        float[] table = new float[numSubspaces * numCentroids];
+        for (int s = 0; s < numSubspaces; s++) {
+            int start = offsets[s], length = offsets[s + 1] - start;
+            int base = numCentroids * start;
+            for (int c = 0; c < numCentroids; c++) {
+                double distance = 0d;
+                for (int i = 0, o = base + c * length; i < length; i++, o++) {
+                    double d = get(query, start + i) - centroids[o];
+                    distance += d * d;
+                }
+                table[s * numCentroids + c] = (float) distance;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Approximates the squared Euclidean distance between a query and an encoded vector.
+     *
+     * @param table  the distance table of the query, see {@link #getDistanceTable(double[])}.
+     * @param codes  the array holding the code.
+     * @param offset the start of the code in the array.
+     * @return the sum of the distances of the query sub-vectors to the centroids of the code.
+     */
+    public float getDistance(float[] table, byte[] codes, int offset) {
+        float distance = 0f;
+        for (int s = 0, t = 0; s < numSubspaces; s++, t += numCentroids) {
+            distance += table[t + (codes[offset + s] & 0xff)];
+        }
+        return distance;
+    }
+
+    private void checkLength(double[] vector) {
+        if (vector.length > dimensions)
+            throw new IllegalArgumentException("Feature vector too long for the quantizer: " + vector.length + " > " + dimensions);
+    }
+
+    /**
+     * Reads a quantizer previously written with {@link #write(File)}.
+     *
+     * @param file the quantizer file, see {@link #getFile(File)} for the one of an index.
+     * @return the quantizer.
+     * @throws IOException in case the file cannot be read or is not a quantizer.
+     */
+    public static ProductQuantizer read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a product quantizer: " + file.getPath());
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported product quantizer version: " + version);
+            int dimensions = in.readInt();
+            int numSubspaces = in.readInt();
+            int numCentroids = in.readInt();
+            if (dimensions < 1 || numCentroids < 1 || numCentroids > MAX_CENTROIDS)
+                throw new IOException("Corrupt product quantizer: " + file.getPath());
+            float[] centroids = new float[numCentroids * dimensions];
+            for (int i = 0; i < centroids.length; i++) {
+                centroids[i] = in.readFloat();
+            }
+            return new ProductQuantizer(dimensions, numSubspaces, numCentroids, centroids);
+        } catch (EOFException e) {
+            throw new IOException("Truncated product quantizer: " + file.getPath());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param indexDirectory the directory of a file system based index.
+     * @return the file the quantizer of the index is stored in.
+     */
+    public static File getFile(File indexDirectory) {
+        return new File(indexDirectory, FILE_NAME);
+    }
+
+    /**
+     * Writes the quantizer to a file, so it can be read with {@link #read(File)} later on.
+     *
+     * @param file the file to write to, it is overwritten if it exists.
+     * @throws IOException in case the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimensions);
+            out.writeInt(numSubspaces);
+            out.writeInt(numCentroids);
+            for (float centroid : centroids) {
+                out.writeFloat(centroid);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the maximum dimension of the feature vectors.
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the number of subspaces, i.e. the length of a code in bytes.
+     */
+    public int getNumSubspaces() {
+        return numSubspaces;
+    }
+
+    public int getNumCentroids() {
+        return numCentroids;
+    }
+}
@@ -43,22 +43,25 @@ package net.semanticmetadata.lire.indexing.parallel;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Stack;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.DocumentBuilderFactory;
-import net.semanticmetadata.lire.impl.docbuilder.ChainedDocumentBuilder;
 import net.semanticmetadata.lire.impl.docbuilder.TextDocumentBuilder;
 import net.semanticmetadata.lire.indexing.LireCustomCodec;
-import net.semanticmetadata.lire.utils.DocumentUtils;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 
 import org.apache.lucene.document.Document;
@@ -71,9 +74,11 @@ import org.apache.lucene.store.FSDirectory;
 import org.wltea.analyzer.lucene.IKAnalyzer;
 
 /**
- * This class allows for creating indexes in a parallel manner. The class
- * at hand reads files from the disk and acts as producer, while several consumer
- * threads extract the features from the given files.
+ * This class allows for creating indexes in a parallel manner. Indexing runs as a pipeline of four
+ * stages, each with its own threads: reading the files from disk, decoding the images, extracting the
+ * features and writing the documents to the index. The stages are connected by bounded queues, so a
+ * fast stage blocks as soon as the next one falls behind instead of filling up the memory. Items are
+ * handed on in the order they are read. If the writer stage dies, all other stages stop as well.
  *
  * @author Mathias Lux, mathias@juggle.at, 15.04.13
  */
@@ -82,18 +87,41 @@ public class ParallelIndexer implements Runnable {
     private int numberOfThreads = 10;
     private String indexPath;
     private String imageDirectory;
-    Stack<WorkItem> images = new Stack<WorkItem>();
     IndexWriter writer;
-    boolean ended = false;
-    boolean threadFinished = false;
+    volatile boolean ended = false;
+    volatile boolean threadFinished = false;
     Iterator<ImageInfo> imageInfos;
-    int overallCount = 0;
     private IndexWriterConfig.OpenMode openMode = IndexWriterConfig.OpenMode.CREATE_OR_APPEND;
     // all xx seconds a status message will be displayed
     private int monitoringInterval = 30;
-    
+
     private String imageDataPath;
-    
+
+    // threads per stage and capacity of the queues between the stages.
+    private int readerThreads = 1;
+    private int decoderThreads;
+    private int extractorThreads;
+    private int writerThreads = 1;
+    private int queueCapacity = 100;
+    private boolean decodeImages = false;
+    // set if a stage died and the others have to stop instead of waiting for it.
+    private volatile boolean aborted = false;
+
+    // queues between the stages, the end of a stage is signalled with one marker per downstream thread.
+    private static final WorkItem END_OF_FILES = new WorkItem();
+    private static final DecodedImage END_OF_IMAGES = new DecodedImage(null, null);
+    private static final Document END_OF_DOCUMENTS = new Document();
+    BlockingQueue<WorkItem> files;
+    BlockingQueue<DecodedImage> images;
+    BlockingQueue<Document> documents;
+
+    // throughput counters per stage.
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong decodedCount = new AtomicLong();
+    private final AtomicLong extractedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
     /**
      * 提取创建文档索引的核心代码，用于在论文中解释
      * @param imageInfos
@@ -129,15 +157,18 @@ public class ParallelIndexer implements Runnable {
     }
 
     /**
-     * @param numberOfThreads
+     * @param numberOfThreads number of threads for decoding and feature extraction, see {@link #setExtractorThreads(int)} and {@link #setDecoderThreads(int)}.
+     * @param imageDataPath   the directory the file names of the ImageInfo instances are relative to.
      * @param indexPath
-     * @param imageDirectory  a directory containing all the images somewhere in the child hierarchy.
+     * @param imageInfos      the images to index.
      */
     public ParallelIndexer(int numberOfThreads, String imageDataPath, String indexPath, Iterator<ImageInfo> imageInfos) {
         this.numberOfThreads = numberOfThreads;
         this.imageDataPath =imageDataPath;
         this.indexPath = indexPath;
         this.imageInfos = imageInfos;
+        this.extractorThreads = Math.max(1, numberOfThreads);
+        this.decoderThreads = Math.max(1, numberOfThreads / 2);
     }
 
     /**
@@ -167,23 +198,33 @@ public class ParallelIndexer implements Runnable {
         try {
             if (imageDirectory != null) System.out.println("Getting all images in " + imageDirectory + ".");
             writer = new IndexWriter(FSDirectory.open(new File(indexPath)), config);
-            
-            Thread p = new Thread(new Producer());
-            p.start();
-            LinkedList<Thread> threads = new LinkedList<Thread>();
+            files = new ArrayBlockingQueue<WorkItem>(queueCapacity);
+            images = new ArrayBlockingQueue<DecodedImage>(queueCapacity);
+            documents = new ArrayBlockingQueue<Document>(queueCapacity);
+
+            aborted = false;
+
             long l = System.currentTimeMillis();
-            for (int i = 0; i < numberOfThreads; i++) {
-                Thread c = new Thread(new Consumer());
-                c.start();
-                threads.add(c);
-            }
-            Thread m = new Thread(new Monitoring());
+            LinkedList<Thread> threads = new LinkedList<Thread>();
+            AtomicInteger readers = new AtomicInteger(readerThreads);
+            AtomicInteger decoders = new AtomicInteger(decoderThreads);
+            AtomicInteger extractors = new AtomicInteger(extractorThreads);
+            for (int i = 0; i < readerThreads; i++) threads.add(new Thread(new Reader(readers), "ParallelIndexer-reader-" + i));
+            for (int i = 0; i < decoderThreads; i++) threads.add(new Thread(new Decoder(decoders), "ParallelIndexer-decoder-" + i));
+            for (int i = 0; i < extractorThreads; i++) threads.add(new Thread(new Extractor(extractors), "ParallelIndexer-extractor-" + i));
+            for (int i = 0; i < writerThreads; i++) threads.add(new Thread(new Writer(), "ParallelIndexer-writer-" + i));
+            for (Thread t : threads) t.start();
+            Thread m = new Thread(new Monitoring(), "ParallelIndexer-monitoring");
+            m.setDaemon(true);
             m.start();
             for (Iterator<Thread> iterator = threads.iterator(); iterator.hasNext(); ) {
                 iterator.next().join();
             }
+            m.interrupt();
+            if (aborted) System.err.println("[ParallelIndexer] Indexing was aborted as the index could not be written.");
             long l1 = System.currentTimeMillis() - l;
-            System.out.println("Analyzed " + overallCount + " images in " + l1 / 1000 + " seconds, ~" + ((overallCount>0)?(l1 / overallCount):"n.a.") + " ms each.");
+            long overallCount = writtenCount.get();
+            System.out.println("Analyzed " + overallCount + " images in " + l1 / 1000 + " seconds, ~" + ((overallCount>0)?(l1 / overallCount):"n.a.") + " ms each" + ((failedCount.get() > 0) ? (", " + failedCount.get() + " failed.") : "."));
             writer.commit();
             writer.close();
             threadFinished = true;
@@ -203,125 +244,308 @@ public class ParallelIndexer implements Runnable {
         return threadFinished;
     }
 
+    /**
+     * Sets the number of threads reading files from disk, default is 1.
+     */
+    public void setReaderThreads(int readerThreads) {
+        this.readerThreads = Math.max(1, readerThreads);
+    }
+
+    /**
+     * Sets the number of threads decoding the image files, default is half of numberOfThreads.
+     */
+    public void setDecoderThreads(int decoderThreads) {
+        this.decoderThreads = Math.max(1, decoderThreads);
+    }
+
+    /**
+     * Sets the number of threads extracting features, each one has its own set of builders, default
+     * is numberOfThreads.
+     */
+    public void setExtractorThreads(int extractorThreads) {
+        this.extractorThreads = Math.max(1, extractorThreads);
+    }
+
+    /**
+     * Sets the number of threads adding documents to the IndexWriter, default is 1.
+     */
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = Math.max(1, writerThreads);
+    }
+
+    /**
+     * Sets the capacity of each of the queues between the stages, default is 100. This limits the number
+     * of file buffers and decoded images held in memory at the same time.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Sets whether the image files are read and decoded before they are handed to the builders, default is false.
+     * The {@link TextDocumentBuilder} of the extractors only uses the {@link ImageInfo}, so reading and decoding
+     * is off unless the builders actually use the image.
+     */
+    public void setDecodeImages(boolean decodeImages) {
+        this.decodeImages = decodeImages;
+    }
+
+    /**
+     * @return the number of files read from disk so far.
+     */
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * @return the number of images decoded so far.
+     */
+    public long getDecodedCount() {
+        return decodedCount.get();
+    }
+
+    /**
+     * @return the number of documents created so far.
+     */
+    public long getExtractedCount() {
+        return extractedCount.get();
+    }
+
+    /**
+     * @return the number of documents added to the index so far.
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * @return the number of images which failed in any of the stages.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Called by each thread of a stage when it is done. The last one puts an end marker for each
+     * thread of the next stage into the queue.
+     *
+     * @return true if the calling thread was the last one of its stage.
+     */
+    private <T> boolean endOfStage(AtomicInteger running, BlockingQueue<T> next, T marker, int nextThreads) {
+        if (running.decrementAndGet() > 0) return false;
+        for (int i = 0; i < nextThreads; i++) {
+            try {
+                if (!put(next, marker)) break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for space in the queue like {@link BlockingQueue#put(Object)}, but gives up if indexing is aborted.
+     *
+     * @return false if indexing has been aborted and the item was dropped.
+     */
+    private <T> boolean put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (aborted) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the next item like {@link BlockingQueue#take()}, but gives up if indexing is aborted.
+     *
+     * @return the next item or null if indexing has been aborted.
+     */
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        T item;
+        while ((item = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+            if (aborted) return null;
+        }
+        return item;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[(int) file.length()];
+            in.readFully(buffer);
+            return buffer;
+        } finally {
+            in.close();
+        }
+    }
+
+    static class DecodedImage {
+        final WorkItem item;
+        final BufferedImage image;
+
+        DecodedImage(WorkItem item, BufferedImage image) {
+            this.item = item;
+            this.image = image;
+        }
+    }
+
     class Monitoring implements Runnable {
         public void run() {
             long ms = System.currentTimeMillis();
             try {
-                Thread.sleep(1000 * monitoringInterval); // wait xx seconds
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            while (!ended) {
-                try {
+                while (true) {
+                    Thread.sleep(1000 * monitoringInterval); // wait xx seconds
                     // print the current status:
                     long time = System.currentTimeMillis() - ms;
-                    System.out.println("Analyzed " + overallCount + " images in " + time / 1000 + " seconds, " + ((overallCount>0)?(time / overallCount):"n.a.") + " ms each ("+images.size()+" images currently in queue).");
-                    Thread.sleep(1000 * monitoringInterval); // wait xx seconds
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    long overallCount = writtenCount.get();
+                    System.out.println("Analyzed " + overallCount + " images in " + time / 1000 + " seconds, " + ((overallCount>0)?(time / overallCount):"n.a.") + " ms each (read " + readCount.get() + ", decoded " + decodedCount.get() + ", extracted " + extractedCount.get() + ", failed " + failedCount.get() + "; queued " + files.size() + " files, " + images.size() + " images, " + documents.size() + " documents).");
                 }
+            } catch (InterruptedException e) {
+                // indexing has finished.
             }
         }
     }
 
-    class Producer implements Runnable {
+    /**
+     * Readers take the next ImageInfo and read the whole file into a buffer. If the images are not decoded, the
+     * file is only checked to exist and the item is handed on without a buffer.
+     */
+    class Reader implements Runnable {
+        private final AtomicInteger running;
+
+        Reader(AtomicInteger running) {
+            this.running = running;
+        }
+
         public void run() {
-        	
-            int tmpSize = 0;
-            while (imageInfos.hasNext()) {
-            	ImageInfo item = imageInfos.next();
-            	
-            	String filePath = imageDataPath + File.separator + item.getFileName();
-                File imageFile = new File(filePath);
-                try {
-                    int fileSize = (int) imageFile.length();
-                    byte[] buffer = new byte[fileSize];
-                    FileInputStream fis = new FileInputStream(filePath);
-                    fis.read(buffer);
-                    fis.close();
-                    
-                    WorkItem newItem = new WorkItem(item);
-                    newItem.setBuffer(buffer);
-                    synchronized (images) {
-                        // this helps a lot for slow computers ....
-                        if (images.size()>500) images.wait(5000);
-                        images.add(newItem);
-                        tmpSize = images.size();
-                        images.notifyAll();
+            try {
+                while (true) {
+                    ImageInfo item;
+                    synchronized (imageInfos) {
+                        if (!imageInfos.hasNext()) break;
+                        item = imageInfos.next();
                     }
+                    WorkItem newItem = new WorkItem(item);
+                    File file = new File(imageDataPath + File.separator + item.getFileName());
                     try {
-                        // it's actually hard to manage the amount of memory used to cache images.
-                        // On faster computers it turns out to be good to have a big cache, on
-                        // slower ones the cache poses a serious problem and leads to memory and GC exceptions.
-                        // iy you encounter still memory errors, then try to use more threads.
-                        if (tmpSize > 500) Thread.sleep(50);
-                        else if (tmpSize > 1000) Thread.sleep(5000);
-                        else if (tmpSize > 2000) Thread.sleep(50000);
-                        else if (tmpSize > 3000) Thread.sleep(500000);
-                        else Thread.sleep(5);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                        if (decodeImages) newItem.setBuffer(readFile(file));
+                        else {
+                            newItem.setBuffer(null);
+                            if (!file.isFile()) throw new IOException(file.getPath() + " (No such file)");
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Could not open " + item.getFileName() + ". " + e.getMessage());
+                        failedCount.incrementAndGet();
+                        continue;
                     }
-                } catch (Exception e) {
-                    System.err.println("Could not open " + item.getFileName() + ". " + e.getMessage());
-//                    e.printStackTrace();
+                    readCount.incrementAndGet();
+                    if (!put(files, newItem)) break;
                 }
-            }
-            synchronized (images) {
-                ended = true;
-                images.notifyAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (endOfStage(running, files, END_OF_FILES, decoderThreads)) ended = true;
             }
         }
     }
 
     /**
-     * Consumers take the images prepared from the Producer and extract all the image features.
+     * Decoders turn the file buffers into images. If an image cannot be decoded or decoding is switched off,
+     * null is handed on to the builders, which still add the text fields of the ImageInfo.
      */
-    class Consumer implements Runnable {
-        WorkItem tmp = null;
-        TextDocumentBuilder builder = new TextDocumentBuilder();
-        int count = 0;
-        boolean locallyEnded = false;
+    class Decoder implements Runnable {
+        private final AtomicInteger running;
 
-        Consumer() {
-            addBuilders(builder);
+        Decoder(AtomicInteger running) {
+            this.running = running;
         }
 
         public void run() {
-            while (!locallyEnded) {
-                synchronized (images) {
-                    // we wait for the stack to be either filled or empty & not being filled any more.
-                    while (images.empty() && !ended) {
+            try {
+                WorkItem item;
+                while ((item = take(files)) != null && item != END_OF_FILES) {
+                    BufferedImage img = null;
+                    if (decodeImages) {
                         try {
-                            images.wait(10);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+                            img = ImageIO.read(new ByteArrayInputStream(item.getBuffer()));
+                        } catch (Exception e) {
+                            System.err.println("[ParallelIndexer] Could not decode file " + item.getFileName() + ": " + e.getMessage());
                         }
+                        if (img != null) decodedCount.incrementAndGet();
                     }
-                    // make sure the thread locally knows that the end has come (outer loop)
-                    if (images.empty() && ended)
-                        locallyEnded = true;
-                    // well the last thing we want is an exception in the very last round.
-                    if (!images.empty() && !locallyEnded) {
-                        tmp = images.pop();
-                        count++;
-                        overallCount++;
+                    // the buffer is not needed anymore, so it does not have to wait in the queue.
+                    item.setBuffer(null);
+                    if (!put(images, new DecodedImage(item, img))) break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                endOfStage(running, images, END_OF_IMAGES, extractorThreads);
+            }
+        }
+    }
+
+    /**
+     * Extractors create the documents with their own builders.
+     */
+    class Extractor implements Runnable {
+        private final AtomicInteger running;
+        TextDocumentBuilder builder = new TextDocumentBuilder();
+
+        Extractor(AtomicInteger running) {
+            this.running = running;
+            addBuilders(builder);
+        }
+
+        public void run() {
+            try {
+                DecodedImage tmp;
+                while ((tmp = take(images)) != null && tmp != END_OF_IMAGES) {
+                    Document d;
+                    try {
+                        d = builder.createDocument(tmp.image, tmp.item);
+                    } catch (Exception e) {
+                        System.err.println("[ParallelIndexer] Could not handle file " + tmp.item.getFileName() + ": "  + e.getMessage());
+                        e.printStackTrace();
+                        failedCount.incrementAndGet();
+                        continue;
                     }
+                    extractedCount.incrementAndGet();
+                    if (!put(documents, d)) break;
                 }
-                try {
-                    if (!locallyEnded) {
-                    	//TODO
-//                        ByteArrayInputStream b = new ByteArrayInputStream(tmp.getBuffer());
-//                        BufferedImage img = ImageIO.read(b);
-                        Document d = builder.createDocument((BufferedImage)null, tmp);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                endOfStage(running, documents, END_OF_DOCUMENTS, writerThreads);
+            }
+        }
+    }
+
+    /**
+     * Writers add the documents to the index. A document which cannot be added is counted as failed. If a
+     * writer dies nonetheless, indexing is aborted so the other stages do not wait for it forever.
+     */
+    class Writer implements Runnable {
+        public void run() {
+            boolean finished = false;
+            try {
+                Document d;
+                while ((d = take(documents)) != null && d != END_OF_DOCUMENTS) {
+                    try {
                         writer.addDocument(d);
+                        writtenCount.incrementAndGet();
+                    } catch (Exception e) {
+                        System.err.println("[ParallelIndexer] Could not write document: " + e.getMessage());
+                        failedCount.incrementAndGet();
                     }
-                } catch (Exception e) {
-                    System.err.println("[ParallelIndexer] Could not handle file " + tmp.getFileName() + ": "  + e.getMessage());
-                    e.printStackTrace();
                 }
+                finished = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (!finished) aborted = true;
             }
-//            System.out.println("Images analyzed: " + count);
         }
     }
 
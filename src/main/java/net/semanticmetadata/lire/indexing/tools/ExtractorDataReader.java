@@ -0,0 +1,208 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing.tools;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the records of a data file written by the {@link Extractor} one after another, see there for the format.
+ * The file may be GZIP compressed or not, which is detected from its first bytes. All lengths are validated
+ * before reading, so a truncated or corrupt file ends with an IOException instead of garbage records. The
+ * buffers of a record are reused for the next one.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ExtractorDataReader implements Closeable {
+    /**
+     * Maximum length of a file name in bytes.
+     */
+    public static final int MAX_FILE_NAME_LENGTH = 64 * 1024;
+    /**
+     * Maximum length of a feature value in bytes.
+     */
+    public static final int MAX_FEATURE_LENGTH = 16 * 1024 * 1024;
+    private static final int END_OF_RECORD = 255;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private long numRecords = 0;
+    private String fileName;
+    private int numFeatures;
+    private final int[] featureIndexes = new int[Extractor.features.length];
+    private final int[] lengths = new int[Extractor.features.length];
+    private final byte[][] values = new byte[Extractor.features.length][];
+    private byte[] nameBuffer = new byte[1024];
+    private int nameLength;
+
+    public ExtractorDataReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * @param inputStream the data, it is buffered and closed with {@link #close()}.
+     * @throws IOException
+     */
+    public ExtractorDataReader(InputStream inputStream) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(inputStream, BUFFER_SIZE);
+        buffered.mark(2);
+        int magic = buffered.read() | (buffered.read() << 8);
+        buffered.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC)
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(buffered, BUFFER_SIZE), BUFFER_SIZE));
+        else
+            in = new DataInputStream(buffered);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return false if the end of the file has been reached.
+     * @throws IOException if the file cannot be read or the record is truncated or corrupt.
+     */
+    public boolean next() throws IOException {
+        int first = in.read();
+        if (first < 0) return false;
+        nameLength = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+        if (nameLength < 0 || nameLength > MAX_FILE_NAME_LENGTH)
+            throw corrupt("invalid file name length " + nameLength);
+        if (nameBuffer.length < nameLength) nameBuffer = new byte[nameLength];
+        readFully(nameBuffer, nameLength);
+        fileName = new String(nameBuffer, 0, nameLength);
+        numFeatures = 0;
+        int featureIndex;
+        while ((featureIndex = in.readUnsignedByte()) != END_OF_RECORD) {
+            if (featureIndex >= Extractor.features.length)
+                throw corrupt("unknown feature index " + featureIndex);
+            if (numFeatures == featureIndexes.length)
+                throw corrupt("more than " + featureIndexes.length + " features");
+            int length = in.readInt();
+            if (length < 0 || length > MAX_FEATURE_LENGTH)
+                throw corrupt("invalid feature length " + length);
+            if (values[numFeatures] == null || values[numFeatures].length < length)
+                values[numFeatures] = new byte[Math.max(length, 64)];
+            readFully(values[numFeatures], length);
+            featureIndexes[numFeatures] = featureIndex;
+            lengths[numFeatures] = length;
+            numFeatures++;
+        }
+        numRecords++;
+        return true;
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        try {
+            in.readFully(buffer, 0, length);
+        } catch (EOFException e) {
+            throw corrupt("unexpected end of file");
+        }
+    }
+
+    private IOException corrupt(String message) {
+        return new IOException("Corrupt data in record " + (numRecords + 1) + ": " + message + ".");
+    }
+
+    /**
+     * @return the file name of the current record as written by the extractor.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the number of features of the current record.
+     */
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @param i the number of the feature in the current record.
+     * @return the index of the feature in {@link Extractor#features}.
+     */
+    public int getFeatureIndex(int i) {
+        return featureIndexes[i];
+    }
+
+    /**
+     * @param i the number of the feature in the current record.
+     * @return the buffer holding the value of the feature from offset 0, it is overwritten by {@link #next()}.
+     */
+    public byte[] getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * @param i the number of the feature in the current record.
+     * @return the length of the value of the feature.
+     */
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * @return the number of records read so far.
+     */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Writes the current record in the format of the {@link Extractor}.
+     *
+     * @param out the stream to write to.
+     * @throws IOException
+     */
+    public void writeRecord(DataOutputStream out) throws IOException {
+        out.writeInt(nameLength);
+        out.write(nameBuffer, 0, nameLength);
+        for (int i = 0; i < numFeatures; i++) {
+            out.write(featureIndexes[i]);
+            out.writeInt(lengths[i]);
+            out.write(values[i], 0, lengths[i]);
+        }
+        out.write(END_OF_RECORD);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -43,12 +43,16 @@ package net.semanticmetadata.lire.indexing.tools;
 
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.imageanalysis.PHOG;
+import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
 import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
 import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -57,7 +61,9 @@ import java.io.IOException;
 
 /**
  * This class extends Indexor and does hashing (bit sampling) on a given feature.
- * The hashes are stored in a Lucene field named "Hashes".
+ * The hashes are stored in a Lucene field named "Hashes". The hash functions are stored
+ * with the index, see {@link BitSamplingModel#getFile(java.io.File)}, and re-used when
+ * the index is appended.
  * <p/>
  * Created: 21.03.13 10:03
  *
@@ -65,10 +71,11 @@ import java.io.IOException;
  */
 public class HashingIndexor extends Indexor {
     protected Class featureClass = PHOG.class;
+    protected BitSamplingModel hashModel = null;
+    protected GenericDocumentBuilder.HashStorage hashStorage = GenericDocumentBuilder.HashStorage.Terms;
 
     public static void main(String[] args) throws IOException, IllegalAccessException, InstantiationException {
         HashingIndexor indexor = new HashingIndexor();
-        BitSampling.readHashFunctions();
 //        BitSampling.readHashFunctions(new FileInputStream(BitSampling.hashFunctionsFileName));
 //        LocalitySensitiveHashing.readHashFunctions();
         for (int i = 0; i < args.length; i++) {
@@ -126,6 +133,42 @@ public class HashingIndexor extends Indexor {
         this.featureClass = featureClass;
     }
 
+    /**
+     * Sets the hash functions for a new index. If the index already contains hash functions, these are used instead.
+     *
+     * @param hashModel the hash functions, by default the ones of {@link BitSampling#getModel()}.
+     */
+    public void setHashModel(BitSamplingModel hashModel) {
+        this.hashModel = hashModel;
+    }
+
+    /**
+     * Sets how the hashes are stored, as terms (default) or as binary signatures in DocValues.
+     *
+     * @param hashStorage the storage of the hashes.
+     */
+    public void setHashStorage(GenericDocumentBuilder.HashStorage hashStorage) {
+        this.hashStorage = hashStorage;
+    }
+
+    @Override
+    public void run() {
+        File modelFile = BitSamplingModel.getFile(new File(indexPath));
+        try {
+            if (modelFile.exists()) hashModel = BitSamplingModel.open(modelFile);
+            else if (hashModel == null) hashModel = BitSampling.getModel();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        super.run();
+        try {
+            if (!modelFile.exists()) hashModel.write(modelFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     protected void addToDocument(LireFeature feature, Document document, String featureFieldName) {
         // This is for debugging the image features.
 //        try {
@@ -147,10 +190,18 @@ public class HashingIndexor extends Indexor {
         if (feature.getClass().getCanonicalName().equals(featureClass.getCanonicalName())) {
             // generate hashes here:
 //            int[] hashes = LocalitySensitiveHashing.generateHashes(feature.getDoubleHistogram());
-            int[] hashes = BitSampling.generateHashes(feature.getDoubleHistogram());
+            int[] hashes = hashModel.generateHashes(feature.getDoubleHistogram());
 //            System.out.println(Arrays.toString(hashes));
-            // store hashes in index as terms
-            document.add(new TextField(featureFieldName + "_hash", SerializationUtils.arrayToString(hashes), Field.Store.YES));
+            if (hashStorage == GenericDocumentBuilder.HashStorage.DocValues) {
+                // store hashes as one binary signature
+                byte[] signature = SerializationUtils.toByteArray(hashModel.toSignature(hashes));
+                document.add(new BinaryDocValuesField(featureFieldName + GenericDocumentBuilder.SIGNATURE_FIELD_SUFFIX, new BytesRef(signature)));
+                // and the feature as column for re-ranking
+                document.add(new BinaryDocValuesField(featureFieldName, new BytesRef(feature.getByteArrayRepresentation())));
+            } else {
+                // store hashes in index as terms
+                document.add(new TextField(featureFieldName + "_hash", SerializationUtils.arrayToString(hashes), Field.Store.YES));
+            }
             // add the specific feature
             document.add(new StoredField(featureFieldName, feature.getByteArrayRepresentation()));
         }
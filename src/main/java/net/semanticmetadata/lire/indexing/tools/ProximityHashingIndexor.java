@@ -45,6 +45,7 @@ import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.imageanalysis.ColorLayout;
 import net.semanticmetadata.lire.imageanalysis.LireFeature;
 import net.semanticmetadata.lire.impl.SimpleResult;
+import net.semanticmetadata.lire.indexing.PivotSelection;
 import net.semanticmetadata.lire.utils.LuceneUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 import org.apache.lucene.document.*;
@@ -52,7 +53,6 @@ import org.apache.lucene.index.IndexWriter;
 
 import java.io.*;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
 
 /**
  * The Indexor (yes, I know the hashFunctionsFileName sounds weird, but it should match the Extractor class, and not
@@ -68,12 +68,20 @@ public class ProximityHashingIndexor {
     protected String indexPath = null;
     private boolean overwriteIndex = true;
     protected static boolean verbose = true;
-    int run = 0;
     int docCount = 0;
-    HashSet<Integer> representativesID;
     ArrayList<LireFeature> representatives;
+    private final List<Class<? extends LireFeature>> featureClasses =
+            new ArrayList<Class<? extends LireFeature>>(Collections.<Class<? extends LireFeature>>nCopies(Extractor.features.length, null));
+    int numRepresentatives;
+    int[] postingListLengths;
+    private PivotSelection pivotSelection = new PivotSelection();
 
     protected Class featureClass = ColorLayout.class;
+    /**
+     * Number of documents sampled per representative, the representatives are selected from this sample.
+     */
+    private static final int CANDIDATES_PER_REPRESENTATIVE = 10;
+    private static final int MAX_REPRESENTATIVES = 1000;
 
     public static void main(String[] args) throws IOException, IllegalAccessException, InstantiationException {
         ProximityHashingIndexor indexor = new ProximityHashingIndexor();
@@ -161,6 +169,26 @@ public class ProximityHashingIndexor {
         this.featureClass = featureClass;
     }
 
+    /**
+     * Sets how the representatives are selected, the default is {@link PivotSelection.Strategy#KMeansPlusPlus}
+     * with {@link PivotSelection#DEFAULT_SEED}.
+     *
+     * @param pivotSelection the selection to use.
+     */
+    public void setPivotSelection(PivotSelection pivotSelection) {
+        this.pivotSelection = pivotSelection;
+    }
+
+    /**
+     * Statistics on how many documents got each representative as a hash in the last input file.
+     *
+     * @return the balance of the posting lists of the representatives, null before the first file is indexed.
+     */
+    public PivotSelection.Balance getPostingListBalance() {
+        if (postingListLengths == null) return null;
+        return new PivotSelection.Balance(postingListLengths);
+    }
+
     public void run() {
         // do it ...
         try {
@@ -168,27 +196,26 @@ public class ProximityHashingIndexor {
             for (Iterator<File> iterator = inputFiles.iterator(); iterator.hasNext(); ) {
                 File inputFile = iterator.next();
                 if (verbose) System.out.println("Processing " + inputFile.getPath() + ".");
-                if (verbose) System.out.println("Counting images.");
-                run = 0;
-                readFile(indexWriter, inputFile);
-                if (verbose) System.out.printf("%d images found in the data file.\n", docCount);
-                int numReps = 1000;  // TODO: clever selection.
-                if (numReps > docCount / 10) numReps = docCount / 10;
-                if (verbose) System.out.printf("Selecting %d representative images for hashing.\n", numReps);
-                representativesID = new HashSet<Integer>(numReps);
-                while (representativesID.size() < numReps) {
-                    representativesID.add((int) Math.floor(Math.random() * (docCount - 1)));
+                // the data file is decompressed only once, the records are spilled to a temporary file for indexing.
+                File spillFile = File.createTempFile("lire-proximity-hashing", ".dat");
+                spillFile.deleteOnExit();
+                try {
+                    if (verbose) System.out.println("Reading images and sampling candidates for representatives.");
+                    ArrayList<byte[]> reservoir = readFile(inputFile, spillFile);
+                    if (verbose) System.out.printf("%d images found in the data file.\n", docCount);
+                    numRepresentatives = MAX_REPRESENTATIVES;
+                    if (numRepresentatives > docCount / 10) numRepresentatives = docCount / 10;
+                    if (verbose) System.out.printf("Selecting %d representative images for hashing.\n", numRepresentatives);
+                    selectRepresentatives(reservoir);
+                    postingListLengths = new int[representatives.size()];
+                    if (verbose) System.out.println("Finally we start the indexing process, please wait ...");
+                    String path = inputFile.getCanonicalPath().substring(0, inputFile.getCanonicalPath().lastIndexOf(inputFile.getName()));
+                    indexFile(indexWriter, spillFile, path);
+                    if (verbose) System.out.println("Indexing finished.");
+                    if (verbose) System.out.println("Representatives: " + getPostingListBalance());
+                } finally {
+                    spillFile.delete();
                 }
-                representatives = new ArrayList<LireFeature>(numReps);
-                docCount = 0;
-                run = 1;
-                if (verbose) System.out.println("Now getting representatives from the data file.");
-                readFile(indexWriter, inputFile);
-                docCount = 0;
-                run = 2;
-                if (verbose) System.out.println("Finally we start the indexing process, please wait ...");
-                readFile(indexWriter, inputFile);
-                if (verbose) System.out.println("Indexing finished.");
             }
             indexWriter.commit();
             indexWriter.close();
@@ -198,71 +225,128 @@ public class ProximityHashingIndexor {
     }
 
     /**
-     * Reads data from a file and writes it to an index.
+     * Reads the data file once, copies the records to the spill file and keeps a uniform sample of the features to
+     * be hashed with reservoir sampling.
+     *
+     * @param inputFile the input data for the process.
+     * @param spillFile the file the records are copied to uncompressed.
+     * @return the sampled feature values, the candidates for the representatives.
+     * @throws IOException
+     */
+    private ArrayList<byte[]> readFile(File inputFile, File spillFile) throws IOException {
+        int reservoirSize = MAX_REPRESENTATIVES * CANDIDATES_PER_REPRESENTATIVE;
+        ArrayList<byte[]> reservoir = new ArrayList<byte[]>(reservoirSize);
+        Random random = new Random(pivotSelection.getSeed());
+        int featureIndex = getFeatureIndex();
+        int numSeen = 0;
+        docCount = 0;
+        ExtractorDataReader in = new ExtractorDataReader(inputFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), 64 * 1024));
+        try {
+            while (in.next()) {
+                in.writeRecord(out);
+                docCount++;
+                for (int i = 0; i < in.getNumFeatures(); i++) {
+                    if (in.getFeatureIndex(i) != featureIndex) continue;
+                    int slot = numSeen < reservoirSize ? numSeen : random.nextInt(numSeen + 1);
+                    numSeen++;
+                    if (slot >= reservoirSize) continue;
+                    byte[] value = Arrays.copyOf(in.getValue(i), in.getLength(i));
+                    if (slot == reservoir.size()) reservoir.add(value);
+                    else reservoir.set(slot, value);
+                }
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+        return reservoir;
+    }
+
+    /**
+     * Selects the representatives from a sample of the reservoir with the {@link PivotSelection}.
+     */
+    private void selectRepresentatives(ArrayList<byte[]> reservoir) {
+        int numCandidates = Math.min(reservoir.size(), numRepresentatives * CANDIDATES_PER_REPRESENTATIVE);
+        ArrayList<LireFeature> candidates = new ArrayList<LireFeature>(numCandidates);
+        for (int i : pivotSelection.sample(reservoir.size(), numCandidates)) {
+            LireFeature feature = newFeature(getFeatureIndex());
+            feature.setByteArrayRepresentation(reservoir.get(i), 0, reservoir.get(i).length);
+            candidates.add(feature);
+        }
+        int[] selected = pivotSelection.select(candidates, Math.min(numRepresentatives, candidates.size()));
+        representatives = new ArrayList<LireFeature>(selected.length);
+        for (int i : selected) {
+            representatives.add(candidates.get(i));
+        }
+    }
+
+    /**
+     * Reads the records from the spill file and writes them to the index.
      *
      * @param indexWriter the index to write to.
-     * @param inputFile   the input data for the process.
+     * @param spillFile   the records of the data file.
+     * @param path        the path of the data file, file names are relative to it.
      * @throws IOException
-     * @throws InstantiationException
-     * @throws IllegalAccessException
-     * @throws ClassNotFoundException
      */
-    private void readFile(IndexWriter indexWriter, File inputFile) throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException {
-        BufferedInputStream in = new BufferedInputStream(new GZIPInputStream(new FileInputStream(inputFile)));
-        byte[] tempInt = new byte[4];
-        int tmp, tmpFeature, count = 0;
-        byte[] temp = new byte[100 * 1024];
-        // read file hashFunctionsFileName length:
-        while (in.read(tempInt, 0, 4) > 0) {
-            Document d = new Document();
-            tmp = SerializationUtils.toInt(tempInt);
-            // read file hashFunctionsFileName:
-            in.read(temp, 0, tmp);
-            String filename = new String(temp, 0, tmp);
-            // normalize Filename to full path.
-            filename = inputFile.getCanonicalPath().substring(0, inputFile.getCanonicalPath().lastIndexOf(inputFile.getName())) + filename;
-            d.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, filename, Field.Store.YES));
-//            System.out.print(filename);
-            while ((tmpFeature = in.read()) < 255) {
-//                System.out.print(", " + tmpFeature);
-                LireFeature f = (LireFeature) Class.forName(Extractor.features[tmpFeature]).newInstance();
-                // byte[] length ...
-                in.read(tempInt, 0, 4);
-                tmp = SerializationUtils.toInt(tempInt);
-                // read feature byte[]
-                in.read(temp, 0, tmp);
-                f.setByteArrayRepresentation(temp, 0, tmp);
-                addToDocument(f, d, Extractor.featureFieldNames[tmpFeature]);
-//                d.add(new StoredField(Extractor.featureFieldNames[tmpFeature], f.getByteArrayRepresentation()));
+    private void indexFile(IndexWriter indexWriter, File spillFile, String path) throws IOException {
+        // one instance per feature, they are just used for decoding and re-encoding.
+        LireFeature[] features = new LireFeature[Extractor.features.length];
+        ExtractorDataReader in = new ExtractorDataReader(spillFile);
+        try {
+            while (in.next()) {
+                Document d = new Document();
+                // normalize Filename to full path.
+                d.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, path + in.getFileName(), Field.Store.YES));
+                for (int i = 0; i < in.getNumFeatures(); i++) {
+                    int featureIndex = in.getFeatureIndex(i);
+                    if (features[featureIndex] == null) features[featureIndex] = newFeature(featureIndex);
+                    features[featureIndex].setByteArrayRepresentation(in.getValue(i), 0, in.getLength(i));
+                    addToDocument(features[featureIndex], d, Extractor.featureFieldNames[featureIndex]);
+                }
+                indexWriter.addDocument(d);
             }
-            if (run == 2) indexWriter.addDocument(d);
-            docCount++;
-//            if (count%1000==0) System.out.print('.');
-//            if (count%10000==0) System.out.println(" " + count);
+        } finally {
+            in.close();
         }
-        in.close();
     }
 
     /**
-     * Overwrite this method if you want to filter the input, apply hashing, etc.
+     * Overwrite this method if you want to filter the input, apply hashing, etc. Note that the feature instance
+     * is reused for the next document.
      *
      * @param feature          the current feature.
      * @param document         the current document.
      * @param featureFieldName the field hashFunctionsFileName of the feature.
      */
     protected void addToDocument(LireFeature feature, Document document, String featureFieldName) {
-        if (run == 0) {
-        } // just count documents
-        else if (run == 1) { // Select the representatives ...
-            if (representativesID.contains(docCount) && feature.getClass().getCanonicalName().equals(featureClass.getCanonicalName())) { // it's a representative.
-                // put it into a temporary data structure ...
-                representatives.add(feature);
-            }
-        } else if (run == 2) {
-            if (feature.getClass().getCanonicalName().equals(featureClass.getCanonicalName())) { // it's a feature to be hashed
-                document.add(new TextField(featureFieldName + "_hash", SerializationUtils.arrayToString(getHashes(feature)), Field.Store.YES));
+        if (feature.getClass().getCanonicalName().equals(featureClass.getCanonicalName())) { // it's a feature to be hashed
+            document.add(new TextField(featureFieldName + "_hash", SerializationUtils.arrayToString(getHashes(feature)), Field.Store.YES));
+        }
+        document.add(new StoredField(featureFieldName, feature.getByteArrayRepresentation()));
+    }
+
+    /**
+     * @return the index of the feature to be hashed in {@link Extractor#features}.
+     */
+    private int getFeatureIndex() {
+        int index = Arrays.asList(Extractor.features).indexOf(featureClass.getName());
+        if (index < 0) throw new IllegalArgumentException("Feature " + featureClass.getName() + " is not supported by the Extractor.");
+        return index;
+    }
+
+    private LireFeature newFeature(int featureIndex) {
+        if (featureClasses.get(featureIndex) == null) {
+            try {
+                featureClasses.set(featureIndex, Class.forName(Extractor.features[featureIndex]).asSubclass(LireFeature.class));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Feature " + Extractor.features[featureIndex] + " not found.", e);
             }
-            document.add(new StoredField(featureFieldName, feature.getByteArrayRepresentation()));
+        }
+        try {
+            return featureClasses.get(featureIndex).newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot instantiate " + Extractor.features[featureIndex], e);
         }
     }
 
@@ -292,6 +376,7 @@ public class ProximityHashingIndexor {
         for (Iterator<SimpleResult> iterator = resultScoreDocs.iterator(); iterator.hasNext(); ) {
             SimpleResult next = iterator.next();
             result[rep] = next.getIndexNumber();
+            postingListLengths[next.getIndexNumber()]++;
             rep++;
         }
         return result;
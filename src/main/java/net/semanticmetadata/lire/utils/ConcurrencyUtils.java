@@ -0,0 +1,118 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utilities for running tasks in thread pools, shared by the linear scan of the searchers and by batch jobs like
+ * clustering, which use pools of their own so they do not hold up queries.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ConcurrencyUtils {
+    /**
+     * Creates a fixed size pool of daemon threads, so a pool which is not shut down does not keep the JVM running.
+     *
+     * @param numThreads the number of threads.
+     * @param name       the prefix of the thread names.
+     * @return the new pool.
+     */
+    public static ExecutorService newDaemonThreadPool(int numThreads, final String name) {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Runs tasks in a thread pool, or in the calling thread if there is no pool or just one task, and waits for
+     * all of them.
+     *
+     * @param executor the pool, may be null.
+     * @param tasks    the tasks.
+     * @return the results of the tasks in the order of the tasks.
+     * @throws IOException in case a task fails with an IOException or a checked exception.
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (executor == null || tasks.size() < 2) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (IOException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Error while running a task.", e);
+                }
+            }
+        } else {
+            try {
+                List<Future<T>> futures = executor.invokeAll(tasks);
+                for (Future<T> future : futures) results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while running tasks.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IOException("Error while running a task.", e.getCause());
+            }
+        }
+        return results;
+    }
+}
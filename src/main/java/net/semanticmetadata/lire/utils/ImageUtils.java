@@ -281,12 +281,16 @@ public class ImageUtils {
 
     /**
      * Check if the image is fail safe for color based features that are actually using 8 bits per pixel RGB.
+     * Images which are already fail safe, e.g. of TYPE_INT_RGB, are returned as they are, so the result may be
+     * the very same instance as the input. Callers drawing into the result have to copy it first if the
+     * input must not change.
      *
      * @param bufferedImage
-     * @return
+     * @return an 8 bit RGB image, either the input itself or a converted copy.
      */
     public static BufferedImage get8BitRGBImage(BufferedImage bufferedImage) {
-        // check if it's (i) RGB and (ii) 8 bits per pixel.
+        // check if it's (i) RGB and (ii) 8 bits per pixel, TYPE_INT_RGB already is, so it is not copied.
+        if (bufferedImage.getType() == BufferedImage.TYPE_INT_RGB) return bufferedImage;
         if (bufferedImage.getType() != ColorSpace.TYPE_RGB || bufferedImage.getSampleModel().getSampleSize(0) != 8) {
             BufferedImage img = new BufferedImage(bufferedImage.getWidth(), bufferedImage.getHeight(), BufferedImage.TYPE_INT_RGB);
             img.getGraphics().drawImage(bufferedImage, 0, 0, null);
@@ -138,6 +138,35 @@ public class SerializationUtils {
         );
     }
 
+    /**
+     * Reads an int at the given position of a byte[] array, like {@link #toInt(byte[])} but without copying
+     * the 4 bytes to a new array first.
+     *
+     * @param in     the byte[] array to read from.
+     * @param offset the position of the first of the 4 bytes.
+     * @return the resulting int.
+     * @see #toBytes(int)
+     */
+    public static int toInt(byte[] in, int offset) {
+        return (0xff & in[offset]) << 24 |
+                (0xff & in[offset + 1]) << 16 |
+                (0xff & in[offset + 2]) << 8 |
+                (0xff & in[offset + 3]);
+    }
+
+    /**
+     * Reads a long at the given position of a byte[] array, like {@link #toLong(byte[])} but without copying
+     * the 8 bytes to a new array first.
+     *
+     * @param in     the byte[] array to read from.
+     * @param offset the position of the first of the 8 bytes.
+     * @return the resulting long.
+     * @see #toBytes(long)
+     */
+    public static long toLong(byte[] in, int offset) {
+        return (long) toInt(in, offset) << 32 | (toInt(in, offset + 4) & 0xffffffffL);
+    }
+
     /**
      * Convenience method to transform an int[] array to a byte array for serialization.
      *
@@ -153,6 +182,24 @@ public class SerializationUtils {
         return result;
     }
 
+    /**
+     * Convenience method to transform a long[] array to a byte array for serialization, e.g. of binary hash
+     * signatures.
+     *
+     * @param data the long[] to convert
+     * @return the resulting byte[] 8 times in size (8 bytes per long)
+     * @see #toLong(byte[], int)
+     */
+    public static byte[] toByteArray(long[] data) {
+        byte[] result = new byte[data.length * 8];
+        for (int i = 0; i < data.length; i++) {
+            for (int j = 0; j < 8; j++) {
+                result[i * 8 + j] = (byte) (data[i] >>> (56 - 8 * j));
+            }
+        }
+        return result;
+    }
+
     /**
      * Convenience method to create an int[] array from a byte[] array.
      *
@@ -282,6 +329,18 @@ public class SerializationUtils {
         return Double.longBitsToDouble(toLong(data));
     }
 
+    /**
+     * Reads a double at the given position of a byte[] array without creating intermediate arrays.
+     *
+     * @param in     the byte[] array to read from.
+     * @param offset the position of the first of the 8 bytes.
+     * @return the resulting double.
+     * @see #toBytes(double)
+     */
+    public static double toDouble(byte[] in, int offset) {
+        return Double.longBitsToDouble(toLong(in, offset));
+    }
+
     /**
      * Convenience method for creating a byte array from a double array.
      *
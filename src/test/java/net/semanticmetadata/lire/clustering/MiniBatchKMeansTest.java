@@ -0,0 +1,179 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.clustering;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.imageanalysis.SurfFeature;
+import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks mini-batch k-means on descriptors drawn around known centers.
+ */
+public class MiniBatchKMeansTest extends TestCase {
+    private static final int NUM_CENTERS = 8, DIMENSIONS = 16, PER_CENTER = 500;
+
+    private double[][] centers;
+    private List<double[]> descriptors;
+
+    @Override
+    protected void setUp() throws Exception {
+        Random random = new Random(1);
+        centers = new double[NUM_CENTERS][DIMENSIONS];
+        for (int c = 0; c < NUM_CENTERS; c++) {
+            for (int j = 0; j < DIMENSIONS; j++) centers[c][j] = random.nextDouble() * 100d;
+        }
+        descriptors = new ArrayList<double[]>();
+        for (int i = 0; i < PER_CENTER; i++) {
+            for (int c = 0; c < NUM_CENTERS; c++) {
+                double[] d = new double[DIMENSIONS];
+                for (int j = 0; j < DIMENSIONS; j++) d[j] = centers[c][j] + random.nextGaussian();
+                descriptors.add(d);
+            }
+        }
+    }
+
+    public void testCenters() throws IOException {
+        MiniBatchKMeans kMeans = new MiniBatchKMeans(NUM_CENTERS);
+        kMeans.setBatchSize(256);
+        Cluster[] clusters = kMeans.train(descriptors);
+        assertEquals(NUM_CENTERS, clusters.length);
+        assertTrue(kMeans.getIterations() <= MiniBatchKMeans.DEFAULT_MAX_ITERATIONS);
+        // each center is found by exactly one cluster, all descriptors are seen once per pass.
+        boolean[] found = new boolean[NUM_CENTERS];
+        long count = 0;
+        for (int i = 0; i < clusters.length; i++) {
+            int nearest = nearestCenter(clusters[i].mean);
+            assertFalse(found[nearest]);
+            found[nearest] = true;
+            assertTrue(clusters[i].getDistance(centers[nearest]) < DIMENSIONS * 0.5);
+            count += kMeans.getCounts()[i];
+        }
+        assertEquals((long) descriptors.size() * kMeans.getIterations(), count);
+        // the average L1 distance of a gaussian with sigma 1 is sqrt(2 / pi) per dimension.
+        assertEquals(Math.sqrt(2 / Math.PI) * DIMENSIONS, kMeans.getStress(), 1d);
+    }
+
+    public void testDeterministic() throws IOException {
+        MiniBatchKMeans single = new MiniBatchKMeans(NUM_CENTERS);
+        single.setNumThreads(1);
+        single.train(descriptors);
+        MiniBatchKMeans parallel = new MiniBatchKMeans(NUM_CENTERS);
+        parallel.setNumThreads(4);
+        parallel.train(descriptors);
+        assertTrue(Arrays.equals(single.getMeans(), parallel.getMeans()));
+    }
+
+    public void testInvalid() throws IOException {
+        List<double[]> withNaN = new ArrayList<double[]>(descriptors);
+        double[] nan = new double[DIMENSIONS];
+        nan[3] = Double.NaN;
+        withNaN.add(nan);
+        MiniBatchKMeans kMeans = new MiniBatchKMeans(NUM_CENTERS);
+        kMeans.train(withNaN);
+        for (float v : kMeans.getMeans()) assertFalse(Float.isNaN(v));
+        try {
+            new MiniBatchKMeans(NUM_CENTERS).train(descriptors.subList(0, NUM_CENTERS - 1));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected, less descriptors than clusters.
+        }
+        try {
+            List<double[]> mixed = new ArrayList<double[]>(descriptors);
+            mixed.add(new double[DIMENSIONS + 1]);
+            new MiniBatchKMeans(NUM_CENTERS).train(mixed);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected, different dimensions.
+        }
+    }
+
+    public void testIndex() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_44, new WhitespaceAnalyzer(Version.LUCENE_44)));
+        // 100 documents with 40 descriptors each.
+        for (int i = 0; i < descriptors.size(); i += 40) {
+            Document d = new Document();
+            for (int k = i; k < i + 40; k++) {
+                d.add(new StoredField("surf", SerializationUtils.toByteArray(descriptors.get(k))));
+            }
+            iw.addDocument(d);
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        int[] docs = new int[reader.maxDoc()];
+        for (int i = 0; i < docs.length; i++) docs[i] = i;
+        MiniBatchKMeans kMeans = new MiniBatchKMeans(NUM_CENTERS);
+        Cluster[] clusters = kMeans.train(reader, docs, "surf", new SurfFeature());
+        boolean[] found = new boolean[NUM_CENTERS];
+        for (Cluster cluster : clusters) {
+            found[nearestCenter(cluster.mean)] = true;
+        }
+        for (boolean f : found) assertTrue(f);
+        reader.close();
+    }
+
+    private int nearestCenter(double[] mean) {
+        int result = 0;
+        double best = Double.MAX_VALUE;
+        for (int c = 0; c < NUM_CENTERS; c++) {
+            double d = new Cluster(centers[c]).getDistance(mean);
+            if (d < best) {
+                best = d;
+                result = c;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.clustering;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Compares the visual word quantizers to a full scan with {@link Cluster#getDistance(double[])}.
+ */
+public class QuantizerTest extends TestCase {
+    private static final int NUM_CLUSTERS = 512, DIMENSIONS = 32;
+
+    private Cluster[] clusters;
+    private Random random = new Random(5);
+
+    @Override
+    protected void setUp() throws Exception {
+        clusters = new Cluster[NUM_CLUSTERS];
+        for (int c = 0; c < NUM_CLUSTERS; c++) {
+            clusters[c] = new Cluster(randomVector());
+        }
+    }
+
+    public void testExact() {
+        ExactQuantizer quantizer = new ExactQuantizer(clusters);
+        assertEquals(NUM_CLUSTERS, quantizer.getNumVisualWords());
+        for (int i = 0; i < 1000; i++) {
+            double[] query = randomVector();
+            assertEquals(fullScan(query), quantizer.getVisualWord(query));
+        }
+        // duplicate means, the first one wins.
+        Cluster[] duplicates = new Cluster[]{clusters[0], clusters[1], new Cluster(clusters[1].mean.clone())};
+        assertEquals(1, new ExactQuantizer(duplicates).getVisualWord(clusters[1].mean));
+        assertEquals(1, new KdForestQuantizer(duplicates, 2, 3, 1L).getVisualWord(clusters[1].mean));
+    }
+
+    public void testShorterDescriptors() {
+        // the default clusters have 128 dimensions, e.g. for 64 dimensional SURF features.
+        Cluster[] padded = new Cluster[64];
+        for (int c = 0; c < padded.length; c++) {
+            padded[c] = new Cluster();
+            System.arraycopy(randomVector(), 0, padded[c].mean, 0, DIMENSIONS);
+        }
+        ExactQuantizer exact = new ExactQuantizer(padded);
+        KdForestQuantizer forest = new KdForestQuantizer(padded, 4, padded.length, 1L);
+        for (int i = 0; i < 100; i++) {
+            double[] query = randomVector();
+            int expected = 0;
+            for (int c = 1; c < padded.length; c++) {
+                if (padded[c].getDistance(query) < padded[expected].getDistance(query)) expected = c;
+            }
+            assertEquals(expected, exact.getVisualWord(query));
+            assertEquals(expected, forest.getVisualWord(query));
+        }
+    }
+
+    public void testKdForestExact() {
+        // comparing to all means gives the exact result.
+        KdForestQuantizer quantizer = new KdForestQuantizer(clusters, 4, NUM_CLUSTERS, 3L);
+        for (int i = 0; i < 1000; i++) {
+            double[] query = randomVector();
+            assertEquals(fullScan(query), quantizer.getVisualWord(query));
+        }
+    }
+
+    public void testKdForestApproximate() {
+        KdForestQuantizer quantizer = new KdForestQuantizer(clusters);
+        int correct = 0, numQueries = 1000;
+        for (int i = 0; i < numQueries; i++) {
+            // local features are typically near a cluster mean.
+            double[] query = clusters[random.nextInt(NUM_CLUSTERS)].mean.clone();
+            for (int j = 0; j < DIMENSIONS; j++) query[j] += random.nextGaussian() * 2d;
+            int word = quantizer.getVisualWord(query);
+            assertTrue(word >= 0 && word < NUM_CLUSTERS);
+            if (word == fullScan(query)) correct++;
+        }
+        assertTrue("precision " + correct / (double) numQueries, correct > numQueries * 0.8);
+    }
+
+    private int fullScan(double[] query) {
+        int result = 0;
+        for (int c = 1; c < clusters.length; c++) {
+            if (clusters[c].getDistance(query) < clusters[result].getDistance(query)) result = c;
+        }
+        return result;
+    }
+
+    private double[] randomVector() {
+        double[] result = new double[DIMENSIONS];
+        for (int j = 0; j < DIMENSIONS; j++) result[j] = random.nextDouble() * 100d;
+        return result;
+    }
+}
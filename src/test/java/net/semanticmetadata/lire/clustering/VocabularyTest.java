@@ -0,0 +1,171 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.clustering;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.utils.SerializationUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Round trips of vocabularies in all formats.
+ */
+public class VocabularyTest extends TestCase {
+    private Cluster[] clusters;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        Random random = new Random(3);
+        // 64 dimensions like SURF.
+        clusters = new Cluster[20];
+        for (int c = 0; c < clusters.length; c++) {
+            double[] mean = new double[64];
+            for (int j = 0; j < mean.length; j++) mean[j] = random.nextDouble() * 10d - 5d;
+            clusters[c] = new Cluster(mean);
+        }
+        file = File.createTempFile("lire-vocabulary", ".dat");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testFloat32() throws IOException {
+        Cluster.writeClusters(clusters, file.getPath());
+        Cluster[] read = Cluster.readClusters(file.getPath());
+        assertEquals(clusters.length, read.length);
+        for (int c = 0; c < clusters.length; c++) {
+            assertEquals(64, read[c].mean.length);
+            for (int j = 0; j < 64; j++) assertEquals((float) clusters[c].mean[j], (float) read[c].mean[j]);
+        }
+        Vocabulary vocabulary = Vocabulary.load(file);
+        assertEquals(Vocabulary.DataType.Float32, vocabulary.getDataType());
+        assertEquals(64, vocabulary.getDimensions());
+        assertEquals(6 * 4 + 20 * 64 * 4, file.length());
+    }
+
+    public void testFloat16() throws IOException {
+        Vocabulary.create(clusters).write(file, Vocabulary.DataType.Float16);
+        Vocabulary vocabulary = Vocabulary.open(file);
+        assertEquals(Vocabulary.DataType.Float16, vocabulary.getDataType());
+        assertEquals(6 * 4 + 20 * 64 * 2, file.length());
+        for (int c = 0; c < clusters.length; c++) {
+            double[] mean = vocabulary.getMean(c);
+            for (int j = 0; j < 64; j++) assertEquals(clusters[c].mean[j], mean[j], 5d / 1024);
+        }
+    }
+
+    public void testHalf() {
+        float[] exact = new float[]{0f, -0f, 1f, -2f, 0.5f, 65504f, 6.1035156E-5f, 5.9604645E-8f, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (float v : exact) assertEquals(v, Vocabulary.toFloat(Vocabulary.toHalf(v)));
+        assertTrue(Float.isNaN(Vocabulary.toFloat(Vocabulary.toHalf(Float.NaN))));
+        assertEquals(Float.POSITIVE_INFINITY, Vocabulary.toFloat(Vocabulary.toHalf(1e6f)));
+        assertEquals(0f, Vocabulary.toFloat(Vocabulary.toHalf(1e-10f)));
+        // 1 + 2^-11 is halfway between 1 and the next half, rounded to even.
+        assertEquals(1f, Vocabulary.toFloat(Vocabulary.toHalf(1f + 1f / 2048)));
+        assertEquals(1f + 2f / 1024, Vocabulary.toFloat(Vocabulary.toHalf(1f + 3f / 2048)));
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            float v = (float) (random.nextGaussian() * 100);
+            assertEquals(v, Vocabulary.toFloat(Vocabulary.toHalf(v)), Math.abs(v) / 2048 + 1e-7);
+        }
+    }
+
+    public void testLegacy() throws IOException {
+        // the format of earlier versions: number of clusters and the means as doubles.
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(SerializationUtils.toBytes(clusters.length));
+        for (Cluster cluster : clusters) out.write(cluster.getByteRepresentation());
+        out.close();
+        Cluster[] read = Cluster.readClusters(file.getPath());
+        assertEquals(clusters.length, read.length);
+        for (int c = 0; c < clusters.length; c++) {
+            assertEquals(64, read[c].mean.length);
+            assertEquals(clusters[c].mean[7], read[c].mean[7], 1e-5);
+        }
+    }
+
+    public void testCorrupt() throws IOException {
+        Cluster.writeClusters(clusters, file.getPath());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(100);
+        int b = raf.read();
+        raf.seek(100);
+        raf.write(b ^ 1);
+        raf.close();
+        try {
+            Vocabulary.open(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Checksum mismatch"));
+        }
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+        try {
+            Vocabulary.open(file);
+            fail();
+        } catch (IOException e) {
+            // expected, truncated.
+        }
+    }
+
+    public void testShared() throws IOException {
+        Cluster.writeClusters(clusters, file.getPath());
+        Vocabulary vocabulary = Vocabulary.load(file);
+        assertSame(vocabulary, Vocabulary.load(file));
+        assertSame(vocabulary.getQuantizer(false), vocabulary.getQuantizer(false));
+        assertTrue(vocabulary.getQuantizer(true) instanceof KdForestQuantizer);
+        // writing again gives a new vocabulary, the mapped one stays valid.
+        Cluster[] other = new Cluster[]{clusters[1], clusters[0]};
+        Cluster.writeClusters(other, file.getPath());
+        Vocabulary reloaded = Vocabulary.load(file);
+        assertNotSame(vocabulary, reloaded);
+        assertEquals(2, reloaded.getNumClusters());
+        assertEquals((float) clusters[0].mean[3], (float) vocabulary.getMean(0)[3]);
+        assertEquals(1, reloaded.getQuantizer(false).getVisualWord(clusters[0].mean));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.imageanalysis;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.imageanalysis.joint.JointHistogram;
+import net.semanticmetadata.lire.utils.ImageUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checks that the distances computed on the byte[] representation are exactly the ones of the decoded features.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class ByteDistanceFeatureTest extends TestCase {
+    private String testFilesPath = "src/test/resources/images/";
+    private String[] testFiles = new String[]{"img01.JPG", "img02.JPG", "img04.JPG", "test_image.png"};
+    private Class[] features = new Class[]{CEDD.class, FCTH.class, JCD.class, ColorLayout.class, EdgeHistogram.class,
+            PHOG.class, JointHistogram.class, ScalableColor.class, Tamura.class, Gabor.class, OpponentHistogram.class};
+
+    public void testDistances() throws Exception {
+        BufferedImage[] images = new BufferedImage[testFiles.length];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = ImageUtils.scaleImage(ImageIO.read(new File(testFilesPath + testFiles[i])), 1024);
+        }
+        for (Class c : features) {
+            LireFeature[] extracted = new LireFeature[images.length];
+            byte[][] data = new byte[images.length][];
+            for (int i = 0; i < images.length; i++) {
+                extracted[i] = (LireFeature) c.newInstance();
+                extracted[i].extract(images[i]);
+                data[i] = extracted[i].getByteArrayRepresentation();
+            }
+            for (int i = 0; i < images.length; i++) {
+                // the query as extracted and as read from the index.
+                LireFeature decodedQuery = (LireFeature) c.newInstance();
+                decodedQuery.setByteArrayRepresentation(data[i]);
+                for (LireFeature query : new LireFeature[]{extracted[i], decodedQuery}) {
+                    for (int j = 0; j < images.length; j++) {
+                        LireFeature candidate = (LireFeature) c.newInstance();
+                        candidate.setByteArrayRepresentation(data[j]);
+                        float expected = query.getDistance(candidate);
+                        // the feature is put in the middle of a larger array to check the offsets.
+                        byte[] padded = new byte[data[j].length + 7];
+                        System.arraycopy(data[j], 0, padded, 3, data[j].length);
+                        float actual = ((ByteDistanceFeature) query).getDistance(padded, 3, data[j].length);
+                        assertEquals(c.getSimpleName() + " " + testFiles[i] + " " + testFiles[j],
+                                Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The trailing zeros of the packed histograms are cut off, missing values have to count as zeros.
+     */
+    public void testTrailingZeros() throws IOException {
+        CEDD query = new CEDD();
+        query.extract(ImageIO.read(new File(testFilesPath + "img01.JPG")));
+        CEDD candidate = new CEDD();
+        byte[] data = new byte[]{(byte) (0x75 - 128), (byte) (0x30 - 128)};
+        candidate.setByteArrayRepresentation(data);
+        assertEquals(query.getDistance(candidate), query.getDistance(data, 0, data.length));
+        assertEquals(0f, candidate.getDistance(data, 0, data.length));
+    }
+}
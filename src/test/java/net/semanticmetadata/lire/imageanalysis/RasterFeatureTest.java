@@ -0,0 +1,126 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.imageanalysis;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.utils.ImageUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Checks that the raster based extraction yields exactly the same descriptors as the BufferedImage based one.
+ *
+ * @author Mathias Lux, mathias@juggle.at
+ */
+public class RasterFeatureTest extends TestCase {
+    private String testFilesPath = "src/test/resources/images/";
+    private String[] testFiles = new String[]{"img01.JPG", "img04.JPG", "test_image.png"};
+    private Class[] features = new Class[]{CEDD.class, FCTH.class, JCD.class, SimpleColorHistogram.class,
+            AutoColorCorrelogram.class, ColorLayout.class, EdgeHistogram.class};
+    private int[] imageTypes = new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_BGR};
+
+    /**
+     * Hashes of the descriptors of img01.JPG as extracted before the raster based extraction was added.
+     */
+    public void testDescriptorsUnchanged() throws Exception {
+        int[] expected = new int[]{1526885792, -12581681, -131081685, -407673082, -293912025, -882417676, 1284586194};
+        BufferedImage image = ImageUtils.scaleImage(ImageIO.read(new File(testFilesPath + "img01.JPG")), 1024);
+        PreprocessedImage preprocessed = new PreprocessedImage(image);
+        for (int i = 0; i < features.length; i++) {
+            RasterFeature feature = (RasterFeature) features[i].newInstance();
+            feature.extract(image);
+            assertEquals(features[i].getSimpleName(), expected[i], Arrays.hashCode(feature.getByteArrayRepresentation()));
+            feature = (RasterFeature) features[i].newInstance();
+            feature.extract(preprocessed.getRGB(), preprocessed.getWidth(), preprocessed.getHeight());
+            assertEquals(features[i].getSimpleName(), expected[i], Arrays.hashCode(feature.getByteArrayRepresentation()));
+        }
+    }
+
+    public void testPackedRGB() throws IOException {
+        for (String file : testFiles) {
+            for (int type : imageTypes) {
+                BufferedImage image = convert(ImageIO.read(new File(testFilesPath + file)), type);
+                int[] rgb = PreprocessedImage.getRGB(image);
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        assertEquals(image.getRGB(x, y), rgb[y * image.getWidth() + x]);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testRasterExtraction() throws Exception {
+        for (String file : testFiles) {
+            for (int type : imageTypes) {
+                BufferedImage image = convert(ImageIO.read(new File(testFilesPath + file)), type);
+                PreprocessedImage preprocessed = new PreprocessedImage(image, 1024);
+                for (Class c : features) {
+                    RasterFeature reference = (RasterFeature) c.newInstance();
+                    reference.extract(preprocessed.getImage());
+                    RasterFeature feature = (RasterFeature) c.newInstance();
+                    feature.extract(preprocessed);
+                    assertTrue(c.getSimpleName() + " " + file + " " + type,
+                            Arrays.equals(reference.getByteArrayRepresentation(), feature.getByteArrayRepresentation()));
+                    if (c != AutoColorCorrelogram.class || type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_3BYTE_BGR) {
+                        // the correlogram reads the raster of the image itself, so it only matches for RGB rasters.
+                        feature = (RasterFeature) c.newInstance();
+                        feature.extract(preprocessed.getRGB(), preprocessed.getWidth(), preprocessed.getHeight());
+                        assertTrue(c.getSimpleName() + " " + file + " " + type,
+                                Arrays.equals(reference.getByteArrayRepresentation(), feature.getByteArrayRepresentation()));
+                    }
+                }
+            }
+        }
+    }
+
+    private static BufferedImage convert(BufferedImage image, int type) {
+        if (image.getType() == type) return image;
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        result.getGraphics().drawImage(image, 0, 0, null);
+        return result;
+    }
+}
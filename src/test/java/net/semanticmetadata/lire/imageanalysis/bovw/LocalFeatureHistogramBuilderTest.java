@@ -0,0 +1,171 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.imageanalysis.bovw;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Creates visual word histograms for synthetic SURF features, in place and in a separate index.
+ */
+public class LocalFeatureHistogramBuilderTest extends TestCase {
+    private static final int NUM_DOCS = 100, NUM_CLUSTERS = 16;
+
+    private RAMDirectory directory;
+    private File clusterFile;
+    private Random random = new Random(9);
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        for (int i = 0; i < NUM_DOCS; i++) iw.addDocument(createDocument("img" + i));
+        // some deleted documents, they must not show up again.
+        for (int i = 0; i < 5; i++) iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, "img" + (i * 10)));
+        iw.close();
+        clusterFile = File.createTempFile("lire-clusters", ".dat");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clusterFile.delete();
+    }
+
+    public void testInPlace() throws IOException {
+        IndexReader reader = DirectoryReader.open(directory);
+        LocalFeatureHistogramBuilder builder = createBuilder(reader);
+        builder.index();
+        reader.close();
+
+        reader = DirectoryReader.open(directory);
+        assertEquals(NUM_DOCS - 5, reader.numDocs());
+        HashSet<String> identifiers = new HashSet<String>();
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs != null && !liveDocs.get(i)) continue;
+            Document d = reader.document(i);
+            assertTrue(identifiers.add(d.get(DocumentBuilder.FIELD_NAME_IDENTIFIER)));
+            assertNotNull(d.get(DocumentBuilder.FIELD_NAME_SURF_VISUAL_WORDS));
+            assertNotNull(d.get(DocumentBuilder.FIELD_NAME_SURF_LOCAL_FEATURE_HISTOGRAM));
+            assertEquals(0, d.getFields(DocumentBuilder.FIELD_NAME_SURF).length);
+        }
+        assertFalse(identifiers.contains("img0"));
+        reader.close();
+    }
+
+    public void testSeparateIndex() throws IOException {
+        RAMDirectory visualWords = new RAMDirectory();
+        IndexReader reader = DirectoryReader.open(directory);
+        LocalFeatureHistogramBuilder builder = createBuilder(reader);
+        builder.setVisualWordsDirectory(visualWords);
+        builder.index();
+        reader.close();
+
+        // the original index is not touched.
+        reader = DirectoryReader.open(directory);
+        assertEquals(NUM_DOCS - 5, reader.numDocs());
+        assertTrue(reader.document(1).getFields(DocumentBuilder.FIELD_NAME_SURF).length > 0);
+        assertNull(reader.document(1).get(DocumentBuilder.FIELD_NAME_SURF_VISUAL_WORDS));
+        // the separate index has the same histograms as the visual words created for a query.
+        IndexReader visualWordsReader = DirectoryReader.open(visualWords);
+        assertEquals(NUM_DOCS - 5, visualWordsReader.numDocs());
+        for (int i = 0; i < visualWordsReader.maxDoc(); i++) {
+            Document h = visualWordsReader.document(i);
+            String identifier = h.get(DocumentBuilder.FIELD_NAME_IDENTIFIER);
+            Document d = reader.document(Integer.parseInt(identifier.substring(3)));
+            assertEquals(identifier, d.get(DocumentBuilder.FIELD_NAME_IDENTIFIER));
+            builder.getVisualWords(d);
+            assertEquals(d.get(DocumentBuilder.FIELD_NAME_SURF_LOCAL_FEATURE_HISTOGRAM), h.get(DocumentBuilder.FIELD_NAME_SURF_LOCAL_FEATURE_HISTOGRAM));
+            assertEquals(d.get(DocumentBuilder.FIELD_NAME_SURF_VISUAL_WORDS), h.get(DocumentBuilder.FIELD_NAME_SURF_VISUAL_WORDS));
+        }
+        visualWordsReader.close();
+        reader.close();
+
+        // a new document gets its histogram with indexMissing(), the others are kept.
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, false, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        iw.addDocument(createDocument("new"));
+        iw.close();
+        reader = DirectoryReader.open(directory);
+        builder = createBuilder(reader);
+        builder.setVisualWordsDirectory(visualWords);
+        builder.indexMissing();
+        reader.close();
+        visualWordsReader = DirectoryReader.open(visualWords);
+        assertEquals(NUM_DOCS - 4, visualWordsReader.numDocs());
+        visualWordsReader.close();
+    }
+
+    private LocalFeatureHistogramBuilder createBuilder(IndexReader reader) {
+        LocalFeatureHistogramBuilder builder = new SurfFeatureHistogramBuilder(reader, 50, NUM_CLUSTERS);
+        builder.clusterFile = clusterFile.getPath();
+        builder.setUseMiniBatchClustering(true);
+        builder.setNumThreads(3);
+        return builder;
+    }
+
+    private Document createDocument(String identifier) {
+        Document d = new Document();
+        d.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, identifier, Field.Store.YES));
+        for (int k = 0; k < 20; k++) {
+            double[] descriptor = new double[64];
+            for (int j = 0; j < descriptor.length; j++) descriptor[j] = random.nextDouble();
+            d.add(new StoredField(DocumentBuilder.FIELD_NAME_SURF, SerializationUtils.toByteArray(descriptor)));
+        }
+        return d;
+    }
+}
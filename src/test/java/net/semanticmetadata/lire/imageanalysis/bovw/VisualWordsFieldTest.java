@@ -0,0 +1,139 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+package net.semanticmetadata.lire.imageanalysis.bovw;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.impl.searcher.VisualWordsImageSearcher;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the sparse visual words encoding and the queries built from it.
+ */
+public class VisualWordsFieldTest extends TestCase {
+    private static final String FIELD = DocumentBuilder.FIELD_NAME_SURF_VISUAL_WORDS;
+
+    public void testFormat() {
+        int[] histogram = new int[]{0, 3, 0, 0, 15, 1};
+        assertEquals("v1:3 v4:15 v5:1", VisualWords.toString(histogram));
+        Map<String, Integer> words = VisualWords.parse("v1:3 v4:15 v5:1");
+        assertEquals(3, words.size());
+        assertEquals(15, (int) words.get("v4"));
+        // the format of earlier versions.
+        words = VisualWords.parse("v1 v1 v1 v4 v5 ");
+        assertEquals(3, (int) words.get("v1"));
+        assertEquals(1, (int) words.get("v5"));
+        assertEquals("", VisualWords.toString(new int[4]));
+        assertTrue(VisualWords.parse("").isEmpty());
+    }
+
+    public void testQuery() {
+        BooleanQuery query = (BooleanQuery) VisualWords.createQuery(FIELD, "v1:3 v4:15 v5:1");
+        assertEquals(3, query.clauses().size());
+        BooleanClause clause = query.clauses().get(1);
+        assertEquals(15f, clause.getQuery().getBoost());
+        assertEquals(BooleanClause.Occur.SHOULD, clause.getOccur());
+        // too many words, the ones with the lowest counts are dropped.
+        int maxClauseCount = BooleanQuery.getMaxClauseCount();
+        int[] histogram = new int[maxClauseCount + 10];
+        for (int i = 0; i < histogram.length; i++) histogram[i] = i < 20 ? 1 : 2;
+        query = (BooleanQuery) VisualWords.createQuery(FIELD, VisualWords.toString(histogram));
+        assertEquals(maxClauseCount, query.clauses().size());
+        for (BooleanClause c : query.clauses()) assertTrue(c.getQuery().getBoost() >= 1f);
+        assertEquals(2f, query.clauses().get(maxClauseCount - 1).getQuery().getBoost());
+    }
+
+    public void testIndex() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        Random random = new Random(2);
+        int[][] histograms = new int[50][64];
+        for (int i = 0; i < histograms.length; i++) {
+            for (int j = 0; j < 64; j++) histograms[i][j] = random.nextInt(4) == 0 ? random.nextInt(16) : 0;
+            Document d = new Document();
+            d.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, "img" + i, Field.Store.YES));
+            VisualWords.addFields(d, FIELD, histograms[i]);
+            iw.addDocument(d);
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        assertEquals(FieldInfo.IndexOptions.DOCS_AND_FREQS, MultiFields.getMergedFieldInfos(reader).fieldInfo(FIELD).getIndexOptions());
+        // the term frequency is the count of the visual word.
+        Terms terms = MultiFields.getTerms(reader, FIELD);
+        TermsEnum termsEnum = terms.iterator(null);
+        assertTrue(termsEnum.seekExact(new BytesRef("v7"), false));
+        DocsEnum docs = termsEnum.docs(null, null);
+        int numDocs = 0;
+        while (docs.nextDoc() != DocsEnum.NO_MORE_DOCS) {
+            assertEquals(histograms[docs.docID()][7], docs.freq());
+            numDocs++;
+        }
+        assertTrue(numDocs > 0);
+        // stored is the sparse format, just one value.
+        Document d = reader.document(3);
+        assertEquals(1, d.getValues(FIELD).length);
+        assertEquals(VisualWords.toString(histograms[3]), d.get(FIELD));
+        // a document is the best match for its own visual words.
+        VisualWordsImageSearcher searcher = new VisualWordsImageSearcher(5, FIELD);
+        ImageSearchHits hits = searcher.search(d, reader);
+        assertEquals("img3", hits.doc(0).get(DocumentBuilder.FIELD_NAME_IDENTIFIER));
+        reader.close();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.impl.searcher;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the parallel linear scan to a plain sequential search on a multi segment index with deletions.
+ */
+public class ParallelLinearScanTest extends TestCase {
+    private int numDocs = 10000;
+    private int maxHits = 25;
+
+    private IndexReader createIndex() throws IOException {
+        Random random = new Random(42);
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        byte[] data = new byte[72];
+        for (int i = 0; i < numDocs; i++) {
+            random.nextBytes(data);
+            Document doc = new Document();
+            doc.add(new StoredField(DocumentBuilder.FIELD_NAME_CEDD, data.clone()));
+            doc.add(new StringField(DocumentBuilder.FIELD_NAME_DBID, Integer.toString(i), Field.Store.YES));
+            iw.addDocument(doc);
+            if (i % 1500 == 0) iw.commit(); // several segments ...
+            if (i % 7 == 3) iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_DBID, Integer.toString(i / 2)));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        assertTrue(reader.leaves().size() > 1);
+        assertTrue(reader.hasDeletions());
+        return reader;
+    }
+
+    public void testTopKCollector() {
+        Random random = new Random(7);
+        float[] distances = new float[1000];
+        TopKCollector collector = new TopKCollector(10);
+        TopKCollector[] parts = new TopKCollector[]{new TopKCollector(10), new TopKCollector(10)};
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = random.nextInt(200); // lots of ties ...
+            collector.offer(i, distances[i]);
+            parts[i % 2].offer(i, distances[i]);
+        }
+        parts[0].merge(parts[1]);
+        collector.sort();
+        parts[0].sort();
+        float[] sorted = distances.clone();
+        Arrays.sort(sorted);
+        int lastDoc = -1;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(sorted[i], collector.distance(i));
+            assertEquals(distances[collector.doc(i)], collector.distance(i));
+            assertEquals(collector.doc(i), parts[0].doc(i));
+            // ties are sorted by docID
+            if (i > 0 && collector.distance(i) == collector.distance(i - 1)) assertTrue(collector.doc(i) > lastDoc);
+            lastDoc = collector.doc(i);
+        }
+        assertEquals(sorted[9], collector.getWorstDistance());
+    }
+
+    public void testParallelScan() throws IOException {
+        IndexReader reader = createIndex();
+        Document query = reader.document(reader.maxDoc() - 1);
+        CEDD queryFeature = new CEDD();
+        queryFeature.setByteArrayRepresentation(query.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).bytes);
+
+        // brute force reference
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        TopKCollector expected = new TopKCollector(maxHits);
+        CEDD tmp = new CEDD();
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (!liveDocs.get(i)) continue;
+            tmp.setByteArrayRepresentation(reader.document(i).getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).bytes);
+            expected.offer(i, queryFeature.getDistance(tmp));
+        }
+        expected.sort();
+
+        GenericFastImageSearcher sequential = new GenericFastImageSearcher(maxHits, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        sequential.setLinearScan(new ParallelLinearScan(1));
+        GenericFastImageSearcher parallel = new GenericFastImageSearcher(maxHits, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        parallel.setLinearScan(new ParallelLinearScan(4));
+        GenericFastImageSearcher cached = new GenericFastImageSearcher(maxHits, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader);
+        cached.setLinearScan(new ParallelLinearScan(4));
+        for (GenericFastImageSearcher searcher : new GenericFastImageSearcher[]{sequential, parallel, cached}) {
+            ImageSearchHits hits = searcher.search(query, reader);
+            assertEquals(maxHits, hits.length());
+            for (int i = 0; i < hits.length(); i++) {
+                assertEquals(reader.document(expected.doc(i)).get(DocumentBuilder.FIELD_NAME_DBID), hits.doc(i).get(DocumentBuilder.FIELD_NAME_DBID));
+                assertEquals(expected.distance(i) / expected.getWorstDistance(), hits.score(i), 0.00001f);
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Documents with the same feature have the same distance, none of them may get lost in the result list.
+     */
+    public void testEqualDistances() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        byte[] data = new byte[72];
+        new Random(3).nextBytes(data);
+        for (int i = 0; i < 20; i++) {
+            Document doc = new Document();
+            // five groups of four identical features ...
+            data[0] = (byte) (i % 5);
+            doc.add(new StoredField(DocumentBuilder.FIELD_NAME_CEDD, data.clone()));
+            doc.add(new StringField(DocumentBuilder.FIELD_NAME_DBID, Integer.toString(i), Field.Store.YES));
+            iw.addDocument(doc);
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        GenericFastImageSearcher searcher = new GenericFastImageSearcher(10, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        ImageSearchHits hits = searcher.search(reader.document(0), reader);
+        assertEquals(10, hits.length());
+        for (int i = 0; i < 4; i++) {
+            // the exact matches first, in index order.
+            assertEquals(Integer.toString(i * 5), hits.doc(i).get(DocumentBuilder.FIELD_NAME_DBID));
+            assertEquals(0f, hits.score(i));
+        }
+        for (int i = 1; i < hits.length(); i++) {
+            assertTrue(hits.score(i - 1) <= hits.score(i));
+        }
+        reader.close();
+    }
+
+    /**
+     * One searcher with one cache has to give the same results to concurrent queries as to sequential ones.
+     */
+    public void testConcurrentQueries() throws Exception {
+        final IndexReader reader = createIndex();
+        final GenericFastImageSearcher searcher = new GenericFastImageSearcher(maxHits, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader);
+        searcher.setLinearScan(new ParallelLinearScan(2));
+        final Bits liveDocs = MultiFields.getLiveDocs(reader);
+        final int numQueries = 16;
+        final String[][] expected = new String[numQueries][];
+        for (int q = 0; q < numQueries; q++) {
+            expected[q] = getIds(searcher.search(getQuery(reader, liveDocs, q), reader));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<String[]>> results = new ArrayList<Future<String[]>>();
+        for (int round = 0; round < 4; round++) {
+            for (int q = 0; q < numQueries; q++) {
+                final int query = q;
+                results.add(pool.submit(new Callable<String[]>() {
+                    public String[] call() throws Exception {
+                        return getIds(searcher.search(getQuery(reader, liveDocs, query), reader));
+                    }
+                }));
+            }
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertTrue(Arrays.equals(expected[i % numQueries], results.get(i).get()));
+        }
+        pool.shutdown();
+        reader.close();
+    }
+
+    /**
+     * A batch of queries has to give the same results as searching one query after the other.
+     */
+    public void testBatchSearch() throws IOException {
+        IndexReader reader = createIndex();
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Document[] queries = new Document[50];
+        for (int q = 0; q < queries.length; q++) {
+            queries[q] = getQuery(reader, liveDocs, q);
+        }
+        GenericFastImageSearcher single = new GenericFastImageSearcher(maxHits, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        for (int numThreads : new int[]{1, 4}) {
+            ParallelImageSearcher batch = new ParallelImageSearcher(maxHits, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+            batch.setLinearScan(new ParallelLinearScan(numThreads));
+            ImageSearchHits[] hits = batch.search(queries, reader);
+            assertEquals(queries.length, hits.length);
+            for (int q = 0; q < queries.length; q++) {
+                ImageSearchHits expected = single.search(queries[q], reader);
+                assertTrue(Arrays.equals(getIds(expected), getIds(hits[q])));
+                for (int i = 0; i < expected.length(); i++) {
+                    assertEquals(expected.score(i), hits[q].score(i), 0.00001f);
+                }
+            }
+        }
+        reader.close();
+    }
+
+    private Document getQuery(IndexReader reader, Bits liveDocs, int q) throws IOException {
+        int doc = (q * 613) % reader.maxDoc();
+        while (!liveDocs.get(doc)) doc++;
+        return reader.document(doc);
+    }
+
+    private String[] getIds(ImageSearchHits hits) {
+        String[] ids = new String[hits.length()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.doc(i).get(DocumentBuilder.FIELD_NAME_DBID);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.DocumentBuilderFactory;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.searcher.GenericFastImageSearcher;
+import net.semanticmetadata.lire.indexing.parallel.WorkItem;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checks the off-heap feature cache against the stored fields of a small index.
+ */
+public class FeatureStoreTest extends TestCase {
+    private String[] testFiles = new String[]{"img01.jpg", "img02.jpg", "img03.jpg", "img04.jpg", "img05.jpg", "img06.jpg", "img07.jpg", "img08.jpg", "img09.jpg", "img10.jpg"};
+    private String testFilesPath = "src/test/resources/small/";
+
+    private IndexReader createIndex() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        DocumentBuilder builder = DocumentBuilderFactory.getCEDDDocumentBuilder();
+        for (String testFile : testFiles) {
+            WorkItem item = new WorkItem(testFile, testFile, null, null, null);
+            item.setId(testFile);
+            iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFile)), item));
+        }
+        // deleted documents must not show up in the store.
+        iw.deleteDocuments(new Term(DocumentBuilder.FIELD_NAME_IDENTIFIER, testFiles[3]));
+        iw.close();
+        return DirectoryReader.open(directory);
+    }
+
+    public void testCreate() throws IOException {
+        IndexReader reader = createIndex();
+        FeatureStore store = FeatureStore.create(reader, DocumentBuilder.FIELD_NAME_CEDD);
+        assertStoreMatchesIndex(reader, store);
+        reader.close();
+    }
+
+    public void testWriteAndOpen() throws IOException {
+        IndexReader reader = createIndex();
+        File file = File.createTempFile("lire-features", ".lfs");
+        file.deleteOnExit();
+        FeatureStore.create(reader, DocumentBuilder.FIELD_NAME_CEDD).write(file);
+        FeatureStore store = FeatureStore.open(file);
+        assertEquals(DocumentBuilder.FIELD_NAME_CEDD, store.getFieldName());
+        assertStoreMatchesIndex(reader, store);
+        reader.close();
+    }
+
+    public void testCachedSearch() throws IOException {
+        IndexReader reader = createIndex();
+        GenericFastImageSearcher plain = new GenericFastImageSearcher(5, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        GenericFastImageSearcher cached = new GenericFastImageSearcher(5, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, true, reader);
+        Document query = reader.document(0);
+        ImageSearchHits expected = plain.search(query, reader);
+        ImageSearchHits actual = cached.search(query, reader);
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.score(i), actual.score(i));
+            assertEquals(expected.doc(i).get(DocumentBuilder.FIELD_NAME_IDENTIFIER), actual.doc(i).get(DocumentBuilder.FIELD_NAME_IDENTIFIER));
+        }
+        reader.close();
+    }
+
+    private void assertStoreMatchesIndex(IndexReader reader, FeatureStore store) throws IOException {
+        assertEquals(reader.maxDoc(), store.getMaxDoc());
+        byte[] block = new byte[store.getMaxDoc() * store.getWidth()];
+        assertEquals(store.getMaxDoc(), store.read(0, store.getMaxDoc(), block));
+        byte[] single = new byte[store.getWidth()];
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int deleted = 0;
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs != null && !liveDocs.get(i)) {
+                assertEquals(0, store.getLength(i));
+                deleted++;
+                continue;
+            }
+            BytesRef value = reader.document(i).getField(DocumentBuilder.FIELD_NAME_CEDD).binaryValue();
+            assertEquals(value.length, store.getLength(i));
+            assertEquals(value.length, store.getFeature(i, single));
+            for (int j = 0; j < value.length; j++) {
+                assertEquals(value.bytes[value.offset + j], single[j]);
+                assertEquals(value.bytes[value.offset + j], block[i * store.getWidth() + j]);
+            }
+        }
+        assertEquals(1, deleted);
+    }
+}
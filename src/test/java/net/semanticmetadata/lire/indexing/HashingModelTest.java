@@ -0,0 +1,190 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.indexing.hashing.BitSampling;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
+import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
+import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashingModel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the per index hash models against the hashes of the former static hash functions.
+ */
+public class HashingModelTest extends TestCase {
+    private Random random = new Random(42);
+
+    public void testBitSamplingLegacyFile() throws IOException {
+        File file = File.createTempFile("bitsampling", ".obj");
+        file.delete();
+        try {
+            BitSampling.generateHashFunctions(file.getPath());
+            FileInputStream in = new FileInputStream(file);
+            double[][][] hashFunctions = BitSampling.readHashFunctions(in);
+            in.close();
+            in = new FileInputStream(file);
+            BitSamplingModel model = BitSamplingModel.read(in);
+            in.close();
+            assertEquals(BitSampling.getBits(), model.getBits());
+            assertEquals(BitSampling.dimensions, model.getDimensions());
+            for (int i = 0; i < 100; i++) {
+                double[] histogram = randomHistogram(168);
+                int[] expected = legacyHashes(hashFunctions, histogram);
+                assertTrue(Arrays.equals(expected, model.generateHashes(histogram)));
+                assertTrue(Arrays.equals(expected, BitSampling.generateHashes(histogram)));
+            }
+        } finally {
+            BitSampling.setModel(null);
+            file.delete();
+        }
+    }
+
+    public void testBitSamplingMappedModels() throws IOException {
+        BitSamplingModel small = BitSamplingModel.generate(8, 60, 20, 4d, random);
+        BitSamplingModel large = BitSamplingModel.generate(16, 200, 50, 4d, random);
+        File smallFile = File.createTempFile("small", ".model");
+        File largeFile = File.createTempFile("large", ".model");
+        try {
+            small.write(smallFile);
+            large.write(largeFile);
+            BitSamplingModel mappedSmall = BitSamplingModel.open(smallFile);
+            BitSamplingModel mappedLarge = BitSamplingModel.open(largeFile);
+            assertEquals(8, mappedSmall.getBits());
+            assertEquals(50, mappedLarge.getNumFunctionBundles());
+            assertTrue(Arrays.deepEquals(small.toArray(), mappedSmall.toArray()));
+            double[][] histograms = new double[100][];
+            for (int i = 0; i < histograms.length; i++) {
+                double[] histogram = randomHistogram(60);
+                assertTrue(Arrays.equals(legacyHashes(small.toArray(), histogram), mappedSmall.generateHashes(histogram)));
+                histograms[i] = randomHistogram(200);
+                assertTrue(Arrays.equals(legacyHashes(large.toArray(), histograms[i]), mappedLarge.generateHashes(histograms[i])));
+            }
+            // batches span several blocks of vectors and of hyperplanes.
+            int[][] batch = large.generateHashes(histograms);
+            int[][] mappedBatch = mappedLarge.generateHashes(histograms);
+            for (int i = 0; i < histograms.length; i++) {
+                assertTrue(Arrays.equals(large.generateHashes(histograms[i]), batch[i]));
+                assertTrue(Arrays.equals(batch[i], mappedBatch[i]));
+            }
+        } finally {
+            smallFile.delete();
+            largeFile.delete();
+        }
+    }
+
+    public void testOddNumberOfHyperplanes() {
+        // 3 bundles of 7 bits leave a last block of only one hyperplane.
+        BitSamplingModel model = BitSamplingModel.generate(7, 30, 3, 4d, random);
+        double[][] histograms = new double[40][];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = randomHistogram(i % 30 + 1);
+            histograms[i][0] = -histograms[i][0];
+        }
+        int[][] batch = model.generateHashes(histograms);
+        for (int i = 0; i < histograms.length; i++) {
+            assertTrue(Arrays.equals(legacyHashes(model.toArray(), histograms[i]), batch[i]));
+        }
+    }
+
+    public void testLocalitySensitiveHashingModel() throws IOException {
+        File file = File.createTempFile("lsh", ".obj");
+        file.delete();
+        File modelFile = File.createTempFile("lsh", ".model");
+        try {
+            LocalitySensitiveHashing.generateHashFunctions(file.getPath());
+            FileInputStream in = new FileInputStream(file);
+            LocalitySensitiveHashing.readHashFunctions(in);
+            in.close();
+            in = new FileInputStream(file);
+            LocalitySensitiveHashingModel model = LocalitySensitiveHashingModel.read(in, 2d);
+            in.close();
+            model.write(modelFile);
+            LocalitySensitiveHashingModel mapped = LocalitySensitiveHashingModel.open(modelFile);
+            assertEquals(2d, mapped.getBinLength());
+            assertTrue(Arrays.deepEquals(model.toArray(), mapped.toArray()));
+            for (int i = 0; i < 100; i++) {
+                double[] histogram = randomHistogram(144);
+                int[] expected = model.generateHashes(histogram);
+                assertTrue(Arrays.equals(expected, mapped.generateHashes(histogram)));
+                assertTrue(Arrays.equals(LocalitySensitiveHashing.generateHashes(histogram),
+                        model.withBinLength(LocalitySensitiveHashing.binLength).generateHashes(histogram)));
+            }
+        } finally {
+            LocalitySensitiveHashing.setModel(null);
+            file.delete();
+            modelFile.delete();
+        }
+    }
+
+    private double[] randomHistogram(int length) {
+        double[] histogram = new double[length];
+        for (int i = 0; i < length; i++) {
+            histogram[i] = random.nextInt(8);
+        }
+        return histogram;
+    }
+
+    /**
+     * The hashing as it has been done with the static hash functions of BitSampling.
+     */
+    private static int[] legacyHashes(double[][][] hashes, double[] histogram) {
+        double val;
+        int[] hashResults = new int[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            double[][] hashBundle = hashes[i];
+            for (int j = 0; j < hashBundle.length; j++) {
+                val = 0d;
+                double[] hashBit = hashBundle[j];
+                for (int k = 0; k < histogram.length; k++) {
+                    val += hashBit[k] * histogram[k];
+                }
+                hashResults[i] += Math.pow(2, j) * (val < 0 ? 0 : 1);
+            }
+        }
+        return hashResults;
+    }
+}
@@ -43,16 +43,33 @@ package net.semanticmetadata.lire.indexing;
 
 import junit.framework.TestCase;
 import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.ImageSearcher;
 import net.semanticmetadata.lire.ImageSearcherFactory;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.searcher.GenericFastImageSearcher;
+import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
+import net.semanticmetadata.lire.indexing.parallel.WorkItem;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import javax.imageio.ImageIO;
 import java.io.*;
+import java.util.Random;
 
 /**
  * User: mlux
@@ -61,6 +78,8 @@ import java.io.*;
  */
 public class MetricSpacesTest extends TestCase {
     String indexPath = "./test-index-cedd-flickr";
+    private String[] testFiles = new String[]{"img01.jpg", "img02.jpg", "img03.jpg", "img04.jpg", "img05.jpg", "img06.jpg", "img07.jpg", "img08.jpg", "img09.jpg", "img10.jpg"};
+    private String testFilesPath = "src/test/resources/small/";
     // String imagePath = "";
 
     public void testIndexing() throws IOException {
@@ -187,4 +206,177 @@ public class MetricSpacesTest extends TestCase {
 
         }
     }
+
+    /**
+     * Checks the scores read from the postings against the footrule distance computed from the stored fields.
+     */
+    public void testFootruleScores() throws IOException {
+        File index = File.createTempFile("metricspaces", "");
+        index.delete();
+        File indexRo = new File(index.getPath() + "-ro");
+        int numReferenceObjects = MetricSpacesInvertedListIndexing.numReferenceObjects;
+        int numReferenceObjectsUsed = MetricSpacesInvertedListIndexing.numReferenceObjectsUsed;
+        try {
+            IndexWriter iw = LuceneUtils.createIndexWriter(index.getPath(), true);
+            GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+            for (String testFile : testFiles) {
+                WorkItem item = new WorkItem(testFile, testFile, null, null, null);
+                item.setId(testFile);
+                iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFile)), item));
+            }
+            iw.close();
+            MetricSpacesInvertedListIndexing.numReferenceObjects = 5;
+            MetricSpacesInvertedListIndexing.numReferenceObjectsUsed = 3;
+            MetricSpacesInvertedListIndexing ms = new MetricSpacesInvertedListIndexing(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+            ms.setNumHits(4);
+            ms.createIndex(index.getPath());
+            IndexReader reader = ms.getIndexReader(index.getPath());
+            assertEquals(testFiles.length, reader.numDocs());
+            for (int q = 0; q < reader.maxDoc(); q++) {
+                Document query = reader.document(q);
+                String[] queryOrder = query.getValues("ro-order")[0].trim().split(" ");
+                int length = queryOrder.length;
+                float[] expected = new float[reader.maxDoc()];
+                int matching = 0;
+                for (int d = 0; d < reader.maxDoc(); d++) {
+                    String[] order = reader.document(d).getValues("ro-order")[0].trim().split(" ");
+                    int distance = 0, count = 0;
+                    for (int i = 0; i < length; i++) {
+                        for (int j = 0; j < order.length; j++) {
+                            if (order[j].equals(queryOrder[i])) {
+                                distance += Math.abs(i - j);
+                                count++;
+                            }
+                        }
+                    }
+                    expected[d] = count > 0 ? (length - 1) * length - (distance + (length - count) * (length - 1)) : Float.NaN;
+                    if (count > 0) matching++;
+                }
+                TopDocs docs = ms.search(query, reader, null);
+                assertEquals(matching, docs.totalHits);
+                assertEquals(Math.min(4, matching), docs.scoreDocs.length);
+                assertEquals((float) (length - 1) * length, docs.scoreDocs[0].score);
+                for (int i = 0; i < docs.scoreDocs.length; i++) {
+                    assertEquals(expected[docs.scoreDocs[i].doc], docs.scoreDocs[i].score);
+                    if (i > 0) assertTrue(docs.scoreDocs[i].score <= docs.scoreDocs[i - 1].score);
+                }
+            }
+            reader.close();
+        } finally {
+            MetricSpacesInvertedListIndexing.numReferenceObjects = numReferenceObjects;
+            MetricSpacesInvertedListIndexing.numReferenceObjectsUsed = numReferenceObjectsUsed;
+            delete(index);
+            delete(indexRo);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) for (File f : files) delete(f);
+        file.delete();
+    }
+
+    /**
+     * Appends documents to an index with reference objects and checks they get the same ranking as computed by the
+     * in-memory reference objects, while the other documents are kept with their DocValues. Documents without the
+     * feature are not touched by updates.
+     */
+    public void testIncrementalUpdate() throws IOException {
+        File index = File.createTempFile("metricspaces", "");
+        index.delete();
+        File indexRo = new File(index.getPath() + "-ro");
+        int numReferenceObjects = MetricSpacesInvertedListIndexing.numReferenceObjects;
+        int numReferenceObjectsUsed = MetricSpacesInvertedListIndexing.numReferenceObjectsUsed;
+        try {
+            GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD,
+                    BitSamplingModel.generate(12, 640, 100, 4d, new Random(5)), GenericDocumentBuilder.HashStorage.DocValues);
+            IndexWriter iw = LuceneUtils.createIndexWriter(index.getPath(), true);
+            for (int i = 0; i < testFiles.length - 2; i++) {
+                WorkItem item = new WorkItem(testFiles[i], testFiles[i], null, null, null);
+                item.setId(testFiles[i]);
+                iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFiles[i])), item));
+            }
+            iw.close();
+            MetricSpacesInvertedListIndexing.numReferenceObjects = 5;
+            MetricSpacesInvertedListIndexing.numReferenceObjectsUsed = 3;
+            MetricSpacesInvertedListIndexing ms = new MetricSpacesInvertedListIndexing(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+            ms.createIndex(index.getPath());
+            assertEquals(testFiles.length - 2, ms.getProgress().getNumDocsProcessed());
+            PivotSelection.Balance balance = ms.getPostingListBalance(index.getPath());
+            assertEquals(5, balance.getNumLists());
+            assertEquals(3d * (testFiles.length - 2) / 5d, balance.getMean(), 0.0001);
+
+            // the order computed in memory is the one of a linear search in the reference objects.
+            ReferenceObjects referenceObjects = ms.getReferenceObjects(index.getPath());
+            assertEquals(5, referenceObjects.size());
+            IndexReader reader = ms.getIndexReader(index.getPath());
+            IndexReader readerRo = DirectoryReader.open(FSDirectory.open(indexRo));
+            ImageSearcher searcher = new GenericFastImageSearcher(3, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                ImageSearchHits hits = searcher.search(reader.document(i), readerRo);
+                StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < hits.length(); j++)
+                    sb.append(hits.doc(j).getValues(MetricSpacesInvertedListIndexing.FIELD_NAME_RO_ID)[0]).append(' ');
+                assertEquals(sb.toString(), reader.document(i).getValues(MetricSpacesInvertedListIndexing.FIELD_NAME_RO_ORDER)[0]);
+            }
+            readerRo.close();
+            reader.close();
+
+            // append new documents, one of them gets the ranking while indexing.
+            iw = LuceneUtils.createIndexWriter(index.getPath(), false);
+            for (int i = testFiles.length - 2; i < testFiles.length; i++) {
+                WorkItem item = new WorkItem(testFiles[i], testFiles[i], null, null, null);
+                item.setId(testFiles[i]);
+                Document document = builder.createDocument(ImageIO.read(new File(testFilesPath + testFiles[i])), item);
+                if (i == testFiles.length - 1)
+                    assertTrue(referenceObjects.addReferenceObjectOrder(document, 3));
+                iw.addDocument(document);
+            }
+            Document withoutFeature = new Document();
+            withoutFeature.add(new StringField(DocumentBuilder.FIELD_NAME_IDENTIFIER, "no feature", Field.Store.YES));
+            iw.addDocument(withoutFeature);
+            iw.close();
+            assertEquals(1, ms.updateIndex(index.getPath()));
+            assertEquals(0, ms.updateIndex(index.getPath()));
+
+            reader = ms.getIndexReader(index.getPath());
+            assertEquals(testFiles.length + 1, reader.numDocs());
+            CEDD feature = new CEDD();
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            BinaryDocValues signatures = MultiDocValues.getBinaryValues(reader, DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.SIGNATURE_FIELD_SUFFIX);
+            BytesRef signature = new BytesRef();
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) continue;
+                Document document = reader.document(i);
+                if (document.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD) == null) {
+                    assertNull(document.getField(MetricSpacesInvertedListIndexing.FIELD_NAME_RO_ORDER));
+                    continue;
+                }
+                signatures.get(i, signature);
+                assertTrue(signature.length > 0);
+                feature.setByteArrayRepresentation(document.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).bytes,
+                        document.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).offset,
+                        document.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).length);
+                assertEquals(referenceObjects.getOrder(feature, 3), document.getValues(MetricSpacesInvertedListIndexing.FIELD_NAME_RO_ORDER)[0]);
+                // the ranking is indexed whatever the analyzer of the writer, so each document is found with its own
+                // ranking as one of the best hits.
+                ScoreDoc[] hits = ms.search(document, index.getPath()).scoreDocs;
+                boolean found = false;
+                for (ScoreDoc hit : hits) {
+                    if (hit.doc == i) {
+                        found = true;
+                        assertEquals(hits[0].score, hit.score);
+                    }
+                }
+                assertTrue("document " + document.get(DocumentBuilder.FIELD_NAME_IDENTIFIER) + " not found", found);
+            }
+            reader.close();
+        } finally {
+            MetricSpacesInvertedListIndexing.numReferenceObjects = numReferenceObjects;
+            MetricSpacesInvertedListIndexing.numReferenceObjectsUsed = numReferenceObjectsUsed;
+            delete(index);
+            delete(indexRo);
+        }
+    }
+
 }
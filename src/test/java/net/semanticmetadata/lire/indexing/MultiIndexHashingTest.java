@@ -0,0 +1,252 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
+import net.semanticmetadata.lire.impl.TopKCollector;
+import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.searcher.BitSamplingImageSearcher;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
+import net.semanticmetadata.lire.indexing.hashing.MultiIndexHashing;
+import net.semanticmetadata.lire.indexing.parallel.WorkItem;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Checks multi-index hashing on binary signatures in DocValues against a linear scan.
+ */
+public class MultiIndexHashingTest extends TestCase {
+    private static final String FIELD = "signature";
+    private static final int SIGNATURE_LENGTH = 240;
+    private String[] testFiles = new String[]{"img01.jpg", "img02.jpg", "img03.jpg", "img04.jpg", "img05.jpg", "img06.jpg", "img07.jpg", "img08.jpg", "img09.jpg", "img10.jpg"};
+    private String testFilesPath = "src/test/resources/small/";
+    private Random random = new Random(7);
+    private long[][] signatures;
+
+    /**
+     * Creates clusters of similar signatures, some documents are deleted or have no signature at all.
+     */
+    private IndexReader createIndex(int numDocs) throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        signatures = new long[numDocs][];
+        long[][] centers = new long[20][];
+        for (int i = 0; i < centers.length; i++) centers[i] = randomSignature();
+        for (int i = 0; i < numDocs; i++) {
+            Document document = new Document();
+            document.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+            if (i % 50 != 49) {
+                signatures[i] = centers[random.nextInt(centers.length)].clone();
+                for (int flips = random.nextInt(60); flips > 0; flips--) {
+                    int bit = random.nextInt(SIGNATURE_LENGTH);
+                    signatures[i][bit >>> 6] ^= 1L << bit;
+                }
+                document.add(new BinaryDocValuesField(FIELD, new BytesRef(SerializationUtils.toByteArray(signatures[i]))));
+            }
+            iw.addDocument(document);
+        }
+        for (int i = 0; i < numDocs; i += 97) {
+            iw.deleteDocuments(new Term("id", Integer.toString(i)));
+            signatures[i] = null;
+        }
+        iw.close();
+        return DirectoryReader.open(directory);
+    }
+
+    private long[] randomSignature() {
+        long[] signature = new long[(SIGNATURE_LENGTH + 63) / 64];
+        for (int i = 0; i < signature.length; i++) signature[i] = random.nextLong();
+        signature[signature.length - 1] &= (1L << (SIGNATURE_LENGTH % 64)) - 1;
+        return signature;
+    }
+
+    private static int hamming(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) distance += Long.bitCount(a[i] ^ b[i]);
+        return distance;
+    }
+
+    public void testSearchMatchesLinearScan() throws IOException {
+        IndexReader reader = createIndex(2000);
+        MultiIndexHashing index = MultiIndexHashing.create(reader, FIELD, SIGNATURE_LENGTH, 12);
+        assertEquals(20, index.getNumSubstrings());
+        int indexed = 0;
+        for (long[] signature : signatures) if (signature != null) indexed++;
+        assertEquals(indexed, index.getNumIndexed());
+        for (int q = 0; q < 20; q++) {
+            long[] query = q % 2 == 0 ? signatures[q + 1] : randomSignature();
+            ArrayList<Integer> distances = new ArrayList<Integer>();
+            for (long[] signature : signatures) if (signature != null) distances.add(hamming(query, signature));
+            Integer[] sorted = distances.toArray(new Integer[distances.size()]);
+            Arrays.sort(sorted);
+
+            int[] nearest = index.search(query, 25, Integer.MAX_VALUE);
+            assertEquals(25, nearest.length);
+            for (int i = 0; i < nearest.length; i++) {
+                assertNotNull(signatures[nearest[i]]);
+                assertEquals(hamming(query, signatures[nearest[i]]), index.distance(query, nearest[i]));
+                assertEquals(sorted[i].intValue(), index.distance(query, nearest[i]));
+            }
+
+            int radius = 40;
+            HashSet<Integer> expected = new HashSet<Integer>();
+            for (int d = 0; d < signatures.length; d++) {
+                if (signatures[d] != null && hamming(query, signatures[d]) <= radius) expected.add(d);
+            }
+            HashSet<Integer> actual = new HashSet<Integer>();
+            for (int d : index.searchRadius(query, radius)) actual.add(d);
+            assertEquals(expected, actual);
+        }
+        reader.close();
+    }
+
+    public void testSignatures() {
+        BitSamplingModel model = BitSamplingModel.generate(12, 30, 11, 4d, random);
+        int[] hashes = new int[11];
+        for (int i = 0; i < hashes.length; i++) hashes[i] = random.nextInt(1 << 12);
+        long[] signature = model.toSignature(hashes);
+        assertEquals(3, signature.length);
+        for (int i = 0; i < hashes.length; i++) {
+            for (int j = 0; j < 12; j++) {
+                int position = i * 12 + j;
+                assertEquals((hashes[i] >>> j) & 1, (int) (signature[position >>> 6] >>> position) & 1);
+            }
+        }
+        byte[] bytes = SerializationUtils.toByteArray(signature);
+        for (int i = 0; i < signature.length; i++) assertEquals(signature[i], SerializationUtils.toLong(bytes, i * 8));
+    }
+
+    public void testHammingSearcher() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        BitSamplingModel model = BitSamplingModel.generate(12, 640, 100, 4d, new Random(11));
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, model, GenericDocumentBuilder.HashStorage.DocValues);
+        for (String testFile : testFiles) {
+            WorkItem item = new WorkItem(testFile, testFile, null, null, null);
+            item.setId(testFile);
+            iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFile)), item));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        MultiIndexHashing index = MultiIndexHashing.create(reader, DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.SIGNATURE_FIELD_SUFFIX, model);
+        assertEquals(testFiles.length, index.getNumIndexed());
+        BitSamplingImageSearcher searcher = new BitSamplingImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), model, index, 8);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            Document query = reader.document(i);
+            ImageSearchHits hits = searcher.search(query, reader);
+            assertEquals(5, hits.length());
+            assertEquals(0f, hits.score(0));
+            assertEquals(query.get(DocumentBuilder.FIELD_NAME_IDENTIFIER), hits.doc(0).get(DocumentBuilder.FIELD_NAME_IDENTIFIER));
+        }
+        reader.close();
+    }
+
+    public void testColumnRerank() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        BitSamplingModel model = BitSamplingModel.generate(12, 640, 100, 4d, new Random(11));
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, model, GenericDocumentBuilder.HashStorage.DocValues);
+        for (String testFile : testFiles) {
+            WorkItem item = new WorkItem(testFile, testFile, null, null, null);
+            item.setId(testFile);
+            iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFile)), item));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        MultiIndexHashing index = MultiIndexHashing.create(reader, DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.SIGNATURE_FIELD_SUFFIX, model);
+        assertNotNull(MultiDocValues.getBinaryValues(reader, DocumentBuilder.FIELD_NAME_CEDD));
+        // all documents are candidates, so the result has to be the one of a linear scan over the stored features.
+        BitSamplingImageSearcher docValuesSearcher = new BitSamplingImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), model, index, testFiles.length);
+        BitSamplingImageSearcher storeSearcher = new BitSamplingImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), model, index, testFiles.length);
+        docValuesSearcher.setMaxHammingRadius(Integer.MAX_VALUE);
+        storeSearcher.setMaxHammingRadius(Integer.MAX_VALUE);
+        storeSearcher.setFeatureStore(FeatureStore.create(reader, DocumentBuilder.FIELD_NAME_CEDD));
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            Document query = reader.document(i);
+            CEDD queryFeature = new CEDD();
+            BytesRef value = query.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD);
+            queryFeature.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+            TopKCollector expected = new TopKCollector(5);
+            for (int j = 0; j < reader.maxDoc(); j++) {
+                CEDD f = new CEDD();
+                value = reader.document(j).getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD);
+                f.setByteArrayRepresentation(value.bytes, value.offset, value.length);
+                expected.offer(j, queryFeature.getDistance(f));
+            }
+            SimpleImageSearchHits expectedHits = expected.toSearchHits(reader);
+            SimpleImageSearchHits[] results = new SimpleImageSearchHits[]{
+                    (SimpleImageSearchHits) docValuesSearcher.search(query, reader),
+                    (SimpleImageSearchHits) storeSearcher.search(query, reader)};
+            for (SimpleImageSearchHits hits : results) {
+                assertEquals(testFiles.length, hits.getNumCandidates());
+                assertEquals(expectedHits.length(), hits.length());
+                for (int j = 0; j < hits.length(); j++) {
+                    assertEquals(expectedHits.readerID(j), hits.readerID(j));
+                    assertEquals(expectedHits.score(j), hits.score(j));
+                }
+            }
+        }
+        reader.close();
+    }
+}
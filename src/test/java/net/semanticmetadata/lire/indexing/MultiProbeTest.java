@@ -0,0 +1,192 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.SimpleImageSearchHits;
+import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.searcher.BitSamplingImageSearcher;
+import net.semanticmetadata.lire.indexing.hashing.BitSamplingModel;
+import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashing;
+import net.semanticmetadata.lire.indexing.hashing.LocalitySensitiveHashingModel;
+import net.semanticmetadata.lire.indexing.hashing.MultiProbe;
+import net.semanticmetadata.lire.indexing.parallel.WorkItem;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Checks the order and completeness of the multi-probe sequences and their use in BitSamplingImageSearcher.
+ */
+public class MultiProbeTest extends TestCase {
+    private String[] testFiles = new String[]{"img01.jpg", "img02.jpg", "img03.jpg", "img04.jpg", "img05.jpg", "img06.jpg", "img07.jpg", "img08.jpg", "img09.jpg", "img10.jpg"};
+    private String testFilesPath = "src/test/resources/small/";
+    private Random random = new Random(11);
+
+    public void testBitSamplingProbes() {
+        int bits = 5;
+        int[] bundles = new int[]{0, 2, 3};
+        double[] projections = new double[4 * bits];
+        for (int i = 0; i < projections.length; i++) projections[i] = random.nextGaussian();
+        int[][] probes = MultiProbe.bitSampling(projections, bits, bundles, 1000);
+        // every other bucket of every bundle is probed exactly once.
+        assertEquals(bundles.length * ((1 << bits) - 1), probes.length);
+        HashSet<String> seen = new HashSet<String>();
+        double lastScore = 0;
+        for (int[] probe : probes) {
+            assertTrue(probe[0] != 1);
+            int exact = 0;
+            for (int j = 0; j < bits; j++) if (projections[probe[0] * bits + j] >= 0) exact |= 1 << j;
+            int flipped = exact ^ probe[1];
+            assertTrue(flipped != 0);
+            assertEquals(Integer.bitCount(flipped), probe[2]);
+            assertTrue(seen.add(probe[0] + ":" + probe[1]));
+            double score = 0;
+            for (int j = 0; j < bits; j++) {
+                double p = projections[probe[0] * bits + j];
+                if ((flipped & (1 << j)) != 0) score += p * p;
+            }
+            assertTrue(score >= lastScore - 1e-12);
+            lastScore = score;
+        }
+        // the budget cuts the same sequence.
+        int[][] budget = MultiProbe.bitSampling(projections, bits, bundles, 10);
+        assertEquals(10, budget.length);
+        for (int i = 0; i < budget.length; i++) {
+            assertEquals(probes[i][0], budget[i][0]);
+            assertEquals(probes[i][1], budget[i][1]);
+        }
+    }
+
+    public void testLshProbes() {
+        double[] positions = new double[8];
+        for (int i = 0; i < positions.length; i++) positions[i] = random.nextGaussian() * 10;
+        int[][] probes = MultiProbe.lsh(positions, new int[]{0, 1, 2, 3, 4, 5, 6, 7}, 40);
+        assertEquals(40, probes.length);
+        HashSet<String> seen = new HashSet<String>();
+        double lastScore = 0;
+        for (int[] probe : probes) {
+            int exact = (int) Math.floor(positions[probe[0]]);
+            int shift = probe[1] - exact;
+            assertTrue(shift != 0);
+            assertEquals(Math.abs(shift), probe[2]);
+            assertTrue(seen.add(probe[0] + ":" + probe[1]));
+            // squared distance to the border of the target bin.
+            double distance = shift < 0 ? positions[probe[0]] - (exact + shift + 1) : (exact + shift) - positions[probe[0]];
+            assertTrue(distance * distance >= lastScore - 1e-9);
+            lastScore = distance * distance;
+        }
+    }
+
+    public void testProjections() throws IOException {
+        BitSamplingModel bitSampling = BitSamplingModel.generate(12, 640, 100, 4d, new Random(13));
+        File file = File.createTempFile("lsh", ".obj");
+        file.delete();
+        LocalitySensitiveHashingModel lsh;
+        try {
+            LocalitySensitiveHashing.generateHashFunctions(file.getPath());
+            FileInputStream in = new FileInputStream(file);
+            lsh = LocalitySensitiveHashingModel.read(in, 2d);
+            in.close();
+        } finally {
+            file.delete();
+        }
+        for (int i = 0; i < 20; i++) {
+            double[] histogram = new double[144];
+            for (int k = 0; k < histogram.length; k++) histogram[k] = random.nextInt(3) == 0 ? random.nextInt(8) : 0;
+            int[] hashes = bitSampling.generateHashes(histogram);
+            double[] projections = bitSampling.project(histogram);
+            for (int b = 0; b < hashes.length; b++) {
+                for (int j = 0; j < bitSampling.getBits(); j++) {
+                    assertEquals((hashes[b] & (1 << j)) != 0, !(projections[b * bitSampling.getBits() + j] < 0));
+                }
+            }
+            hashes = lsh.generateHashes(histogram);
+            double[] positions = lsh.project(histogram);
+            for (int b = 0; b < hashes.length; b++) assertEquals(hashes[b], (int) Math.floor(positions[b]));
+        }
+    }
+
+    public void testSearcher() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        BitSamplingModel model = BitSamplingModel.generate(12, 640, 100, 4d, new Random(13));
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, model, GenericDocumentBuilder.HashStorage.Terms);
+        for (String testFile : testFiles) {
+            WorkItem item = new WorkItem(testFile, testFile, null, null, null);
+            item.setId(testFile);
+            iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFile)), item));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        String hashesField = DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.HASH_FIELD_SUFFIX;
+        BitSamplingImageSearcher exact = new BitSamplingImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, hashesField, new CEDD(), model, 100);
+        BitSamplingImageSearcher probing = new BitSamplingImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, hashesField, new CEDD(), model, 100);
+        probing.setNumProbes(200);
+        BitSamplingImageSearcher fast = new BitSamplingImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, hashesField, new CEDD(), model, 1000);
+        fast.setUseFastSearch(true);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            Document query = reader.document(i);
+            SimpleImageSearchHits exactHits = (SimpleImageSearchHits) exact.search(query, reader);
+            SimpleImageSearchHits probingHits = (SimpleImageSearchHits) probing.search(query, reader);
+            assertTrue(probingHits.getNumCandidates() >= exactHits.getNumCandidates());
+            assertEquals(0f, probingHits.score(0));
+            // the same query gives the same result.
+            SimpleImageSearchHits fastHits = (SimpleImageSearchHits) fast.search(query, reader);
+            SimpleImageSearchHits again = (SimpleImageSearchHits) fast.search(query, reader);
+            assertEquals(fastHits.length(), again.length());
+            for (int j = 0; j < fastHits.length(); j++) assertEquals(fastHits.readerID(j), again.readerID(j));
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks the pivot selection strategies on points on a line, where the distance is the difference.
+ */
+public class PivotSelectionTest extends TestCase {
+    // two dense clusters and an outlier.
+    private final double[] points = new double[]{0, 1, 2, 3, 4, 100, 101, 102, 103, 104, 1000};
+
+    private PivotSelection.Metric metric = new PivotSelection.Metric() {
+        public double getDistance(int a, int b) {
+            return Math.abs(points[a] - points[b]);
+        }
+    };
+
+    public void testSample() {
+        PivotSelection selection = new PivotSelection(PivotSelection.Strategy.Random, 7L);
+        int[] sample = selection.sample(1000, 50);
+        assertEquals(50, sample.length);
+        for (int i = 1; i < sample.length; i++) {
+            assertTrue(sample[i] > sample[i - 1]);
+        }
+        assertTrue(sample[0] >= 0 && sample[49] < 1000);
+        assertTrue(Arrays.equals(sample, selection.sample(1000, 50)));
+        assertFalse(Arrays.equals(sample, new PivotSelection(PivotSelection.Strategy.Random, 8L).sample(1000, 50)));
+        assertEquals(10, selection.sample(10, 10).length);
+        try {
+            selection.sample(10, 11);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+
+    public void testFarthestFirst() {
+        PivotSelection selection = new PivotSelection(PivotSelection.Strategy.FarthestFirst, 3L);
+        int[] pivots = selection.select(points.length, metric, 3);
+        // whatever the first pivot is, the outlier and both clusters are covered.
+        assertTrue(contains(pivots, 10));
+        assertTrue(covers(pivots, 0, 4));
+        assertTrue(covers(pivots, 5, 9));
+    }
+
+    public void testKMeansPlusPlus() {
+        for (long seed = 0; seed < 20; seed++) {
+            PivotSelection selection = new PivotSelection(PivotSelection.Strategy.KMeansPlusPlus, seed);
+            int[] pivots = selection.select(points.length, metric, points.length);
+            // all candidates are selected exactly once.
+            int[] sorted = pivots.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < sorted.length; i++) {
+                assertEquals(i, sorted[i]);
+            }
+            assertTrue(Arrays.equals(pivots, selection.select(points.length, metric, points.length)));
+        }
+    }
+
+    public void testDuplicates() {
+        PivotSelection.Metric zero = new PivotSelection.Metric() {
+            public double getDistance(int a, int b) {
+                return 0d;
+            }
+        };
+        for (PivotSelection.Strategy strategy : PivotSelection.Strategy.values()) {
+            int[] pivots = new PivotSelection(strategy, 1L).select(5, zero, 5);
+            Arrays.sort(pivots);
+            assertTrue(Arrays.equals(new int[]{0, 1, 2, 3, 4}, pivots));
+        }
+    }
+
+    public void testBalance() {
+        PivotSelection.Balance balance = new PivotSelection.Balance(new int[]{2, 4, 0, 6});
+        assertEquals(4, balance.getNumLists());
+        assertEquals(0, balance.getMin());
+        assertEquals(6, balance.getMax());
+        assertEquals(3d, balance.getMean(), 0.0001);
+        assertEquals(Math.sqrt(5d), balance.getStandardDeviation(), 0.0001);
+        assertEquals(1, balance.getNumEmpty());
+        assertEquals(2d, balance.getMaxToMean(), 0.0001);
+        assertEquals(0d, new PivotSelection.Balance(new int[]{3, 3, 3}).getCoefficientOfVariation(), 0.0001);
+    }
+
+    private static boolean contains(int[] pivots, int pivot) {
+        for (int p : pivots) {
+            if (p == pivot) return true;
+        }
+        return false;
+    }
+
+    private static boolean covers(int[] pivots, int from, int to) {
+        for (int p : pivots) {
+            if (p >= from && p <= to) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.ImageSearchHits;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.impl.docbuilder.GenericDocumentBuilder;
+import net.semanticmetadata.lire.impl.searcher.GenericFastImageSearcher;
+import net.semanticmetadata.lire.impl.searcher.ParallelLinearScan;
+import net.semanticmetadata.lire.impl.searcher.ProductQuantizationImageSearcher;
+import net.semanticmetadata.lire.indexing.hashing.ProductQuantizationIndex;
+import net.semanticmetadata.lire.indexing.hashing.ProductQuantizer;
+import net.semanticmetadata.lire.indexing.parallel.WorkItem;
+import net.semanticmetadata.lire.utils.LuceneUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks product quantization on random vectors and the search on a small index against a linear search.
+ */
+public class ProductQuantizationTest extends TestCase {
+    private String[] testFiles = new String[]{"img01.jpg", "img02.jpg", "img03.jpg", "img04.jpg", "img05.jpg", "img06.jpg", "img07.jpg", "img08.jpg", "img09.jpg", "img10.jpg"};
+    private String testFilesPath = "src/test/resources/small/";
+
+    private static double[][] randomVectors(int count, int dimensions, Random random) {
+        double[][] vectors = new double[count][dimensions];
+        for (double[] vector : vectors) {
+            for (int i = 0; i < dimensions; i++) vector[i] = random.nextDouble() * 10;
+        }
+        return vectors;
+    }
+
+    public void testQuantizer() throws IOException {
+        Random random = new Random(1);
+        double[][] sample = randomVectors(1000, 14, random);
+        ProductQuantizer quantizer = ProductQuantizer.train(sample, 4, 32, 10, new Random(2));
+        assertEquals(14, quantizer.getDimensions());
+        assertEquals(4, quantizer.getNumSubspaces());
+        // training is reproducible.
+        ProductQuantizer other = ProductQuantizer.train(sample, 4, 32, 10, new Random(2));
+        double error = 0d, variance = 0d;
+        for (double[] vector : randomVectors(100, 14, random)) {
+            byte[] code = quantizer.encode(vector);
+            assertTrue(Arrays.equals(code, other.encode(vector)));
+            float[] table = quantizer.getDistanceTable(vector);
+            // the code is the nearest centroid, so no other code is closer.
+            float distance = quantizer.getDistance(table, code, 0);
+            for (int s = 0; s < 4; s++) {
+                for (int c = 0; c < 32; c++) {
+                    assertTrue(table[s * 32 + c] >= table[s * 32 + (code[s] & 0xff)]);
+                }
+            }
+            error += distance;
+            for (double v : vector) variance += (v - 5) * (v - 5);
+        }
+        // the quantization error is well below the variance of the data.
+        assertTrue(error < variance / 2);
+
+        File file = File.createTempFile("lire-pq", ".model");
+        try {
+            quantizer.write(file);
+            ProductQuantizer read = ProductQuantizer.read(file);
+            double[] query = sample[0];
+            assertTrue(Arrays.equals(quantizer.getDistanceTable(query), read.getDistanceTable(query)));
+            assertTrue(Arrays.equals(quantizer.encode(query), read.encode(query)));
+        } finally {
+            file.delete();
+        }
+        try {
+            quantizer.encode(new double[15]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+
+    public void testSearch() throws IOException {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter iw = LuceneUtils.createIndexWriter(directory, true, LuceneUtils.AnalyzerType.WhitespaceAnalyzer);
+        GenericDocumentBuilder plain = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        Document[] documents = new Document[testFiles.length];
+        double[][] sample = new double[testFiles.length][];
+        for (int i = 0; i < testFiles.length; i++) {
+            WorkItem item = new WorkItem(testFiles[i], testFiles[i], null, null, null);
+            item.setId(testFiles[i]);
+            documents[i] = plain.createDocument(ImageIO.read(new File(testFilesPath + testFiles[i])), item);
+            CEDD feature = new CEDD();
+            feature.setByteArrayRepresentation(documents[i].getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).bytes,
+                    documents[i].getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).offset,
+                    documents[i].getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD).length);
+            sample[i] = feature.getDoubleHistogram();
+        }
+        ProductQuantizer quantizer = ProductQuantizer.train(sample, 12, 8, 10, new Random(3));
+        GenericDocumentBuilder builder = new GenericDocumentBuilder(CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        builder.setProductQuantizer(quantizer);
+        for (int i = 0; i < testFiles.length; i++) {
+            WorkItem item = new WorkItem(testFiles[i], testFiles[i], null, null, null);
+            item.setId(testFiles[i]);
+            iw.addDocument(builder.createDocument(ImageIO.read(new File(testFilesPath + testFiles[i])), item));
+        }
+        iw.close();
+        IndexReader reader = DirectoryReader.open(directory);
+        ProductQuantizationIndex index = ProductQuantizationIndex.create(reader,
+                DocumentBuilder.FIELD_NAME_CEDD + GenericDocumentBuilder.PQ_FIELD_SUFFIX, quantizer);
+        assertEquals(testFiles.length, index.getNumIndexed());
+        // the codes written while indexing are the ones computed from the stored features.
+        ProductQuantizationIndex encoded = ProductQuantizationIndex.encode(reader, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD, quantizer);
+        for (int d = 0; d < reader.maxDoc(); d++) {
+            assertTrue(Arrays.equals(index.getCode(d), encoded.getCode(d)));
+        }
+        GenericFastImageSearcher linear = new GenericFastImageSearcher(5, CEDD.class, DocumentBuilder.FIELD_NAME_CEDD);
+        ProductQuantizationImageSearcher searcher = new ProductQuantizationImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), index, 10);
+        ProductQuantizationImageSearcher parallel = new ProductQuantizationImageSearcher(5, DocumentBuilder.FIELD_NAME_CEDD, new CEDD(), index, 10);
+        parallel.setParallelScan(new ParallelLinearScan(3));
+        for (int q = 0; q < reader.maxDoc(); q++) {
+            // with all documents as candidates the result is exact.
+            ImageSearchHits expected = linear.search(reader.document(q), reader);
+            for (ImageSearchHits hits : new ImageSearchHits[]{searcher.search(reader.document(q), reader), parallel.search(reader.document(q), reader)}) {
+                assertEquals(expected.length(), hits.length());
+                for (int i = 0; i < hits.length(); i++) {
+                    assertEquals(expected.score(i), hits.score(i), 0.0001f);
+                }
+            }
+            // the query itself is the nearest document by its code as well.
+            int[] nearest = index.search(quantizer.getDistanceTable(sample[q]), 1);
+            assertEquals(0f, quantizer.getDistance(quantizer.getDistanceTable(sample[q]), index.getCode(q), 0) -
+                    quantizer.getDistance(quantizer.getDistanceTable(sample[q]), index.getCode(nearest[0]), 0), 0.0001f);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * This file is part of the LIRE project: http://www.semanticmetadata.net/lire
+ * LIRE is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * LIRE is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LIRE; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * We kindly ask you to refer the any or one of the following publications in
+ * any publication mentioning or employing Lire:
+ *
+ * Lux Mathias, Savvas A. Chatzichristofis. Lire: Lucene Image Retrieval –
+ * An Extensible Java CBIR Library. In proceedings of the 16th ACM International
+ * Conference on Multimedia, pp. 1085-1088, Vancouver, Canada, 2008
+ * URL: http://doi.acm.org/10.1145/1459359.1459577
+ *
+ * Lux Mathias. Content Based Image Retrieval with LIRE. In proceedings of the
+ * 19th ACM International Conference on Multimedia, pp. 735-738, Scottsdale,
+ * Arizona, USA, 2011
+ * URL: http://dl.acm.org/citation.cfm?id=2072432
+ *
+ * Mathias Lux, Oge Marques. Visual Information Retrieval using Java and LIRE
+ * Morgan & Claypool, 2013
+ * URL: http://www.morganclaypool.com/doi/abs/10.2200/S00468ED1V01Y201301ICR025
+ *
+ * Copyright statement:
+ * ====================
+ * (c) 2002-2013 by Mathias Lux (mathias@juggle.at)
+ *  http://www.semanticmetadata.net/lire, http://www.lire-project.net
+ *
+ */
+
+package net.semanticmetadata.lire.indexing;
+
+import junit.framework.TestCase;
+import net.semanticmetadata.lire.DocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.imageanalysis.JCD;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+import net.semanticmetadata.lire.indexing.tools.ExtractorDataReader;
+import net.semanticmetadata.lire.indexing.tools.ProximityHashingIndexor;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads data files in the format of the Extractor and indexes them with the ProximityHashingIndexor.
+ */
+public class ProximityHashingIndexorTest extends TestCase {
+    private String[] testFiles = new String[]{"img01.jpg", "img02.jpg", "img03.jpg", "img04.jpg", "img05.jpg", "img06.jpg", "img07.jpg", "img08.jpg", "img09.jpg", "img10.jpg"};
+    private String testFilesPath = "src/test/resources/small/";
+    private static final int COPIES = 3;
+
+    /**
+     * Writes each test image COPIES times with CEDD (index 0) and JCD (index 8) in the format of the Extractor.
+     */
+    private byte[][] writeData(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        byte[][] cedd = new byte[testFiles.length][];
+        for (int i = 0; i < testFiles.length; i++) {
+            BufferedImage image = ImageIO.read(new File(testFilesPath + testFiles[i]));
+            LireFeature f1 = new CEDD(), f2 = new JCD();
+            f1.extract(image);
+            f2.extract(image);
+            cedd[i] = f1.getByteArrayRepresentation();
+            for (int copy = 0; copy < COPIES; copy++) {
+                byte[] name = (testFiles[i] + "-" + copy).getBytes();
+                dos.writeInt(name.length);
+                dos.write(name);
+                dos.write(0);
+                dos.writeInt(cedd[i].length);
+                dos.write(cedd[i]);
+                dos.write(8);
+                dos.writeInt(f2.getByteArrayRepresentation().length);
+                dos.write(f2.getByteArrayRepresentation());
+                dos.write(-1);
+            }
+        }
+        dos.close();
+        return cedd;
+    }
+
+    public void testReader() throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        byte[][] cedd = writeData(plain);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        writeData(new GZIPOutputStream(gzipped));
+        for (byte[] data : new byte[][]{plain.toByteArray(), gzipped.toByteArray()}) {
+            ExtractorDataReader reader = new ExtractorDataReader(new ByteArrayInputStream(data));
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(copy);
+            for (int i = 0; i < testFiles.length * COPIES; i++) {
+                assertTrue(reader.next());
+                assertEquals(testFiles[i / COPIES] + "-" + (i % COPIES), reader.getFileName());
+                assertEquals(2, reader.getNumFeatures());
+                assertEquals(0, reader.getFeatureIndex(0));
+                assertEquals(8, reader.getFeatureIndex(1));
+                assertTrue(Arrays.equals(cedd[i / COPIES], Arrays.copyOf(reader.getValue(0), reader.getLength(0))));
+                reader.writeRecord(out);
+            }
+            assertFalse(reader.next());
+            assertEquals(testFiles.length * COPIES, reader.getNumRecords());
+            reader.close();
+            // written records are the same as the plain input.
+            out.close();
+            assertTrue(Arrays.equals(plain.toByteArray(), copy.toByteArray()));
+        }
+        // a truncated record is reported.
+        ExtractorDataReader reader = new ExtractorDataReader(new ByteArrayInputStream(Arrays.copyOf(plain.toByteArray(), plain.size() - 10)));
+        try {
+            while (reader.next()) ;
+            fail();
+        } catch (IOException e) {
+            // expected.
+        }
+        // so is an invalid length.
+        reader = new ExtractorDataReader(new ByteArrayInputStream(new byte[]{0x7f, 0, 0, 0}));
+        try {
+            reader.next();
+            fail();
+        } catch (IOException e) {
+            // expected.
+        }
+    }
+
+    public void testIndexing() throws IOException {
+        File data = File.createTempFile("proximity", ".data");
+        File index = File.createTempFile("proximity", "");
+        index.delete();
+        try {
+            byte[][] cedd = writeData(new GZIPOutputStream(new FileOutputStream(data)));
+            ProximityHashingIndexor indexor = new ProximityHashingIndexor();
+            indexor.setFeatureClass(CEDD.class);
+            indexor.addInputFile(data);
+            indexor.setIndexPath(index.getPath());
+            indexor.run();
+
+            PivotSelection.Balance balance = indexor.getPostingListBalance();
+            assertEquals(COPIES, balance.getNumLists());
+            // every document gets all representatives as hashes.
+            assertEquals(testFiles.length * COPIES, balance.getMin());
+            assertEquals(testFiles.length * COPIES, balance.getMax());
+
+            IndexReader reader = DirectoryReader.open(FSDirectory.open(index));
+            assertEquals(testFiles.length * COPIES, reader.numDocs());
+            String path = data.getCanonicalPath().substring(0, data.getCanonicalPath().lastIndexOf(data.getName()));
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                Document document = reader.document(i);
+                assertEquals(path + testFiles[i / COPIES] + "-" + (i % COPIES), document.get(DocumentBuilder.FIELD_NAME_IDENTIFIER));
+                BytesRef value = document.getBinaryValue(DocumentBuilder.FIELD_NAME_CEDD);
+                assertTrue(Arrays.equals(cedd[i / COPIES], Arrays.copyOfRange(value.bytes, value.offset, value.offset + value.length)));
+                assertNotNull(document.getBinaryValue(DocumentBuilder.FIELD_NAME_JCD));
+                assertNotNull(document.get(DocumentBuilder.FIELD_NAME_CEDD + "_hash"));
+            }
+            reader.close();
+        } finally {
+            data.delete();
+            if (index.exists()) {
+                for (File file : index.listFiles()) file.delete();
+                index.delete();
+            }
+        }
+    }
+}